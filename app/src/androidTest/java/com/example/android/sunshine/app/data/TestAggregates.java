@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.AggregateEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the weekly and monthly history follows every write to the weather table, read
+    through the aggregate URIs, and keeps counting the days that leave it.
+ */
+public class TestAggregates extends AndroidTestCase {
+
+    private static final double DELTA = 1e-9;
+
+    private long mNow;
+    private Time mTime;
+    private int mToday;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mNow = System.currentTimeMillis();
+        mTime = new Time();
+        mTime.set(mNow);
+        mToday = Time.getJulianDay(mNow, mTime.gmtoff) - Time.EPOCH_JULIAN_DAY;
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+    }
+
+    // Inserting, replacing and deleting days moves the totals along, down to nothing.
+    public void testWritesKeepTotals() {
+        int monday = (int) WeatherRetention.weekStart(mToday);
+        int[] weatherIds = {500, 501, 800, 801, 200, 600, 741};
+        ContentValues[] week = new ContentValues[7];
+        for (int i = 0; i < 7; i++) {
+            week[i] = createDay(monday + i, weatherIds[i], i, 10 + i);
+        }
+        assertEquals(7, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, week));
+        Cursor cursor = queryWeek(monday);
+        try {
+            assertEquals(7, getInt(cursor, HistoryEntry.COLUMN_DAYS));
+            assertEquals(0.0, getDouble(cursor, HistoryEntry.COLUMN_MIN_TEMP));
+            assertEquals(16.0, getDouble(cursor, HistoryEntry.COLUMN_MAX_TEMP));
+            assertEquals(13.0, getDouble(cursor, HistoryEntry.COLUMN_MEAN_MAX), DELTA);
+            assertEquals(2, getInt(cursor, HistoryEntry.COLUMN_RAIN_DAYS));
+            assertEquals(4, getInt(cursor, HistoryEntry.COLUMN_WET_DAYS));
+            assertEquals(1, getInt(cursor, HistoryEntry.COLUMN_CLEAR_DAYS));
+            assertEquals(1, getInt(cursor, HistoryEntry.COLUMN_CLOUDY_DAYS));
+            assertEquals(1, getInt(cursor, HistoryEntry.COLUMN_FOG_DAYS));
+        } finally {
+            cursor.close();
+        }
+
+        // Sunday was the warmest, and turns into a cold rainy day.
+        week[6] = createDay(monday + 6, 500, 6, 5);
+        assertEquals(1, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, week));
+        cursor = queryWeek(monday);
+        try {
+            assertEquals(7, getInt(cursor, HistoryEntry.COLUMN_DAYS));
+            assertEquals(15.0, getDouble(cursor, HistoryEntry.COLUMN_MAX_TEMP));
+            assertEquals(80.0 / 7, getDouble(cursor, HistoryEntry.COLUMN_MEAN_MAX), DELTA);
+            assertEquals(3, getInt(cursor, HistoryEntry.COLUMN_RAIN_DAYS));
+            assertEquals(0, getInt(cursor, HistoryEntry.COLUMN_FOG_DAYS));
+        } finally {
+            cursor.close();
+        }
+
+        // Monday had the lowest low.
+        assertEquals(1, mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{week[0].getAsString(WeatherEntry.COLUMN_DATE)}));
+        cursor = queryWeek(monday);
+        try {
+            assertEquals(6, getInt(cursor, HistoryEntry.COLUMN_DAYS));
+            assertEquals(1.0, getDouble(cursor, HistoryEntry.COLUMN_MIN_TEMP));
+            assertEquals(2, getInt(cursor, HistoryEntry.COLUMN_RAIN_DAYS));
+        } finally {
+            cursor.close();
+        }
+        // The week may straddle two months, but they hold the same days.
+        assertEquals(6, sumDays(HistoryEntry.PERIOD_MONTH));
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        assertEquals(0, sumDays(HistoryEntry.PERIOD_WEEK));
+        assertEquals(0, sumDays(HistoryEntry.PERIOD_MONTH));
+    }
+
+    // Days that left the weather table are still counted, and still count when the warmest of
+    // the days left is replaced.
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void testRolledUpDaysStayCounted() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        int monday = (int) WeatherRetention.weekStart(mToday) - 14;
+        double[] highs = {25, 20, 20, 30, 22, 21, 20};
+        for (int i = 0; i < 7; i++) {
+            insertDay(monday + i, 800, i, highs[i]);
+        }
+        // Monday to Wednesday go to the history, Thursday on stays.
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherContract.EXTRA_KEEP_DAYS, mToday - monday - 3);
+        extras.putLong(WeatherContract.EXTRA_NOW, mNow);
+        Bundle step = mContext.getContentResolver().call(HistoryEntry.CONTENT_URI,
+                WeatherContract.METHOD_COMPACT, null, extras);
+        assertEquals(3, step.getInt(WeatherContract.EXTRA_COMPACTED_ROWS));
+        assertEquals(7, sumDays(HistoryEntry.PERIOD_WEEK));
+
+        insertDay(monday + 3, 800, 3, 10);
+        Cursor cursor = queryWeek(monday);
+        try {
+            assertEquals(7, getInt(cursor, HistoryEntry.COLUMN_DAYS));
+            // Monday's, from the history.
+            assertEquals(25.0, getDouble(cursor, HistoryEntry.COLUMN_MAX_TEMP));
+            assertEquals(0.0, getDouble(cursor, HistoryEntry.COLUMN_MIN_TEMP));
+            assertEquals(138.0 / 7, getDouble(cursor, HistoryEntry.COLUMN_MEAN_MAX), DELTA);
+            assertEquals(7, getInt(cursor, HistoryEntry.COLUMN_CLEAR_DAYS));
+            assertEquals(800, getInt(cursor, HistoryEntry.COLUMN_WEATHER_ID));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private ContentValues createDay(int day, int weatherId, double min, double max) {
+        return TestUtilities.createDayValues(mLocationRowId, mTime, day, weatherId, min, max);
+    }
+
+    private void insertDay(int day, int weatherId, double min, double max) {
+        TestUtilities.insertDay(mContext, mLocationRowId, mTime, day, weatherId, min, max);
+    }
+
+    /**
+     * @return the week's row, through the one-row URI the app would use
+     */
+    private Cursor queryWeek(int monday) {
+        Cursor cursor = mContext.getContentResolver().query(
+                AggregateEntry.buildAggregateLocationWithPeriodAndDate(TestUtilities.TEST_LOCATION,
+                        HistoryEntry.PERIOD_WEEK,
+                        mTime.setJulianDay(monday + 3 + Time.EPOCH_JULIAN_DAY)),
+                null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(monday * TestUtilities.DAY_MILLIS,
+                cursor.getLong(cursor.getColumnIndex(HistoryEntry.COLUMN_START)));
+        return cursor;
+    }
+
+    private int sumDays(int period) {
+        return TestUtilities.sumDays(mContext,
+                AggregateEntry.buildAggregateLocationWithPeriod(TestUtilities.TEST_LOCATION,
+                        period),
+                HistoryEntry.COLUMN_DAYS);
+    }
+
+    private static int getInt(Cursor cursor, String column) {
+        return cursor.getInt(cursor.getColumnIndexOrThrow(column));
+    }
+
+    private static double getDouble(Cursor cursor, String column) {
+        return cursor.getDouble(cursor.getColumnIndexOrThrow(column));
+    }
+}
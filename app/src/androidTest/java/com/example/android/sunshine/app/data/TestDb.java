@@ -15,12 +15,20 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
 import android.test.AndroidTestCase;
 
 import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class TestDb extends AndroidTestCase {
 
@@ -176,6 +184,64 @@ public class TestDb extends AndroidTestCase {
         dbHelper.close();
     }
 
+    // With write-ahead logging a reader sees the last committed state while a write is still in
+    // its transaction, instead of waiting for it to finish.
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void testReadersDoNotWaitForWriter() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return;
+        }
+        final WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertTrue("Error: weather.db isn't using write-ahead logging",
+                db.isWriteAheadLoggingEnabled());
+
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch finishWrite = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> writer = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    db.beginTransaction();
+                    try {
+                        db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                                TestUtilities.createNorthPoleLocationValues());
+                        writing.countDown();
+                        finishWrite.await();
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                    return null;
+                }
+            });
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+            Future<Integer> reader = executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                            null, null, null, null, null, null);
+                    try {
+                        return cursor.getCount();
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            });
+            // Throws a TimeoutException if the reader is stuck behind the writer.
+            assertEquals("Error: The reader saw an uncommitted row",
+                    Integer.valueOf(0), reader.get(2, TimeUnit.SECONDS));
+
+            finishWrite.countDown();
+            writer.get(5, TimeUnit.SECONDS);
+        } finally {
+            finishWrite.countDown();
+            executor.shutdown();
+            dbHelper.close();
+        }
+    }
 
     /*
         Students: This is a helper method for the testWeatherTable quiz. You can move your
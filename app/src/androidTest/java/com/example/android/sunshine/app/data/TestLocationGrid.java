@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that every location keeps its grid cell, and that the nearest-location URI finds the
+    locations within the radius, nearest first, with their distance.
+ */
+public class TestLocationGrid extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testCellFollowsCoordinates() {
+        long id = insertLocation("Mountain View", 37.3861, -122.0839);
+        assertEquals(LocationGrid.cellOf(37.3861, -122.0839), readCell(id));
+
+        ContentValues moved = new ContentValues();
+        moved.put(LocationEntry.COLUMN_COORD_LAT, -33.8688);
+        moved.put(LocationEntry.COLUMN_COORD_LONG, 151.2093);
+        assertEquals(1, mContext.getContentResolver().update(LocationEntry.CONTENT_URI, moved,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(id)}));
+        assertEquals(LocationGrid.cellOf(-33.8688, 151.2093), readCell(id));
+    }
+
+    public void testNearestWithinRadius() {
+        // About 2km, 3.3km and 4.6km from the point asked about, and one 7.5km away.
+        insertLocation("Mountain View", 37.3861, -122.0839);
+        insertLocation("Los Altos", 37.3852, -122.1141);
+        insertLocation("Cupertino", 37.3230, -122.0322);
+        insertLocation("Sunnyvale", 37.3688, -122.0363);
+        double latitude = 37.3900;
+        double longitude = -122.0620;
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildNearestLocationUri(latitude, longitude, 5),
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING, LocationEntry.COLUMN_DISTANCE},
+                null, null, null);
+        try {
+            assertEquals(3, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Mountain View", cursor.getString(0));
+            assertEquals(greatCircleKm(latitude, longitude, 37.3861, -122.0839),
+                    cursor.getDouble(1), 0.05);
+            cursor.moveToNext();
+            assertEquals("Sunnyvale", cursor.getString(0));
+            assertEquals(greatCircleKm(latitude, longitude, 37.3688, -122.0363),
+                    cursor.getDouble(1), 0.05);
+            cursor.moveToNext();
+            assertEquals("Los Altos", cursor.getString(0));
+            assertTrue(cursor.getDouble(1) <= 5);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // A radius larger than the circles of longitude near the pole takes whole rows of cells.
+    public void testNearThePole() {
+        insertLocation("Alert", 82.5018, -62.3481);
+        insertLocation("Longyearbyen", 78.2232, 15.6267);
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildNearestLocationUri(89.9, 0, 900), null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Alert", cursor.getString(
+                    cursor.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testBadPointIsRejected() {
+        try {
+            mContext.getContentResolver().query(
+                    LocationEntry.buildNearestLocationUri(91, 0, 5), null, null, null, null);
+            fail("Error: A latitude past the pole was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private long insertLocation(String locationSetting, double latitude, double longitude) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, locationSetting);
+        values.put(LocationEntry.COLUMN_COORD_LAT, latitude);
+        values.put(LocationEntry.COLUMN_COORD_LONG, longitude);
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    private long readCell(long id) {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_GRID_CELL}, LocationEntry._ID + " = ?",
+                new String[]{Long.toString(id)}, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static double greatCircleKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 6371 * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+}
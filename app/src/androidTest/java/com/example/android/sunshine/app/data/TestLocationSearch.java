@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the search index follows the location table, and that the suggestion URI finds
+    locations by the start of their words, best first.  testSuggestionsAtScale also times the
+    lookup on thousands of locations, written to logcat under this class' tag.
+ */
+public class TestLocationSearch extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestLocationSearch.class.getSimpleName();
+
+    private static final String DATABASE = "search_benchmark.db";
+
+    private static final int LOCATIONS = 5000;
+    private static final int ITERATIONS = 200;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mContext.deleteDatabase(DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(DATABASE);
+        super.tearDown();
+    }
+
+    public void testIndexFollowsLocations() {
+        long id = insertLocation("94043", "Mountain View");
+        assertEquals(1, countSuggestions("mount"));
+        assertEquals(1, countSuggestions("940"));
+
+        ContentValues renamed = new ContentValues();
+        renamed.put(LocationEntry.COLUMN_CITY_NAME, "Sunnyvale");
+        assertEquals(1, mContext.getContentResolver().update(LocationEntry.CONTENT_URI, renamed,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(id)}));
+        assertEquals(0, countSuggestions("mount"));
+        assertEquals(1, countSuggestions("sunny"));
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(id)});
+        assertEquals(0, countSuggestions("sunny"));
+    }
+
+    public void testSuggestionsAreRanked() {
+        insertLocation("Sanford, US", "Sanford");
+        insertLocation("San Jose, US", "San Jose");
+        insertLocation("Santa Clara, US", "Santa Clara");
+        insertLocation("95050", "Santa Clara");
+        insertLocation("Lake San Marcos, US", "Lake San Marcos");
+        insertLocation("Sunnyvale, US", "Sunnyvale");
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildSuggestionUri("San", 10),
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING}, null, null, null);
+        try {
+            // Names that start with it, shortest first, then a name with a word that does.
+            assertEquals(5, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Sanford, US", cursor.getString(0));
+            cursor.moveToNext();
+            assertEquals("San Jose, US", cursor.getString(0));
+            cursor.moveToNext();
+            cursor.moveToNext();
+            assertTrue(cursor.getString(0).equals("95050")
+                    || cursor.getString(0).equals("Santa Clara, US"));
+            cursor.moveToNext();
+            assertEquals("Lake San Marcos, US", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+
+        // Every word typed has to start a word of the location.
+        assertEquals(2, countSuggestions("santa cl"));
+        assertEquals(2, countSuggestions("clara sant"));
+        assertEquals(0, countSuggestions("santa j"));
+        // The limit applies after ranking.
+        cursor = mContext.getContentResolver().query(LocationEntry.buildSuggestionUri("san", 1),
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING}, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Sanford, US", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // What is typed never reaches MATCH as syntax.
+    public void testTypedTextIsNormalized() {
+        insertLocation("London, UK", "London");
+        assertEquals("london uk", LocationSearch.normalize("  London,UK  "));
+        assertEquals("london* uk*", LocationSearch.matchExpression("london uk"));
+        assertEquals(1, countSuggestions("LONDON, u"));
+        assertEquals(1, countSuggestions("\"lon"));
+        assertEquals(0, countSuggestions("lon OR paris"));
+        assertEquals(0, countSuggestions("-*\"()"));
+        assertEquals(0, countSuggestions(""));
+    }
+
+    public void testSuggestionsAtScale() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, DATABASE, false);
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            fill(db);
+            // From the first letter typed, with the most matches, to a whole name.
+            String[] keystrokes = {"s", "sp", "spr", "spri", "sprin", "spring", "springf",
+                    "springfield"};
+            for (String typed : keystrokes) {
+                int count = 0;
+                long start = SystemClock.elapsedRealtime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    Cursor cursor = LocationSearch.querySuggestions(db, null, typed,
+                            LocationSearch.DEFAULT_LIMIT);
+                    count = cursor.getCount();
+                    cursor.close();
+                }
+                Log.i(LOG_TAG, String.format("%-12s %2d suggestions %6d us", typed, count,
+                        (SystemClock.elapsedRealtime() - start) * 1000 / ITERATIONS));
+                assertTrue(count > 0);
+            }
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    private long insertLocation(String locationSetting, String cityName) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(LocationEntry.COLUMN_CITY_NAME, cityName);
+        values.put(LocationEntry.COLUMN_COORD_LAT, 37.0);
+        values.put(LocationEntry.COLUMN_COORD_LONG, -122.0);
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    private int countSuggestions(String typed) {
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildSuggestionUri(typed, 10), null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Names that share their first letters, as a country's towns do.
+    private static void fill(SQLiteDatabase db) {
+        String[] prefixes = {"Spring", "Sprat", "Spruce", "Stan", "Sand", "Mill", "North",
+                "Lake", "West", "Port"};
+        String[] suffixes = {"field", "ton", "ville", "wood", "ford", "bury", "dale", "port"};
+        db.beginTransaction();
+        SQLiteStatement insertLocation = db.compileStatement(WeatherStatements.INSERT_LOCATION_SQL);
+        try {
+            for (int location = 0; location < LOCATIONS; location++) {
+                String cityName = prefixes[location % prefixes.length]
+                        + suffixes[location / prefixes.length % suffixes.length];
+                insertLocation.bindString(WeatherStatements.LOCATION_SETTING,
+                        cityName + ", " + location);
+                insertLocation.bindString(WeatherStatements.LOCATION_CITY_NAME, cityName);
+                insertLocation.bindDouble(WeatherStatements.LOCATION_COORD_LAT,
+                        location % 180 - 90);
+                insertLocation.bindDouble(WeatherStatements.LOCATION_COORD_LONG,
+                        location % 360 - 180);
+                insertLocation.bindNull(WeatherStatements.LOCATION_ETAG);
+                insertLocation.bindNull(WeatherStatements.LOCATION_LAST_MODIFIED);
+                insertLocation.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insertLocation.close();
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Builds weather.db as each older version of the app left it, with a forecast in it, and checks
+    that opening it now upgrades it to the current schema without losing the forecast.
+ */
+public class TestMigrations extends AndroidTestCase {
+
+    private static final String DATABASE = "migration_test.db";
+    private static final String FRESH_DATABASE = "migration_fresh.db";
+
+    // The schema of each released version, exactly as that version created it.
+    private static final String LOCATION_V2 = "CREATE TABLE location (_id INTEGER PRIMARY KEY,"
+            + "location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, "
+            + "coord_lat REAL NOT NULL, coord_long REAL NOT NULL  );";
+    private static final String WEATHER_V2 = "CREATE TABLE weather ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, "
+            + "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,"
+            + "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, "
+            + "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, "
+            + " FOREIGN KEY (location_id) REFERENCES location (_id), "
+            + " UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+    private static final String LOCATION_V3 = "CREATE TABLE location (_id INTEGER PRIMARY KEY,"
+            + "location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, "
+            + "coord_lat REAL NOT NULL, coord_long REAL NOT NULL, etag TEXT, "
+            + "last_modified TEXT  );";
+    private static final String WEATHER_V4 = "CREATE TABLE weather ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT,location_id INTEGER NOT NULL, "
+            + "date INTEGER NOT NULL, short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL,"
+            + "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, "
+            + "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, "
+            + "content_hash INTEGER,  FOREIGN KEY (location_id) REFERENCES location (_id), "
+            + " UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    private static final String WEATHER_INDEX_V5 = "CREATE INDEX weather_location_date_idx "
+            + "ON weather (location_id, date, weather_id, short_desc, max, min);";
+    private static final String HOURLY_V6 = "CREATE TABLE hourly (_id INTEGER PRIMARY KEY, "
+            + "weather_id INTEGER NOT NULL, temp INTEGER NOT NULL, humidity INTEGER NOT NULL, "
+            + "pressure INTEGER NOT NULL, wind INTEGER NOT NULL, degrees INTEGER NOT NULL);";
+    private static final String HISTORY_V7 = "CREATE TABLE history (_id INTEGER PRIMARY KEY, "
+            + "location_id INTEGER NOT NULL, period INTEGER NOT NULL, start INTEGER NOT NULL, "
+            + "days INTEGER NOT NULL, min REAL NOT NULL, max REAL NOT NULL, "
+            + "temp_sum REAL NOT NULL, weather_id INTEGER NOT NULL,  "
+            + "FOREIGN KEY (location_id) REFERENCES location (_id),  "
+            + "UNIQUE (location_id, period, start));";
+    private static final String HISTORY_CONDITION_V7 = "CREATE TABLE history_condition ("
+            + "history_id INTEGER NOT NULL, weather_id INTEGER NOT NULL, "
+            + "days INTEGER NOT NULL,  PRIMARY KEY (history_id, weather_id));";
+
+    private static final String AGGREGATE_V8 = "CREATE TABLE aggregate ("
+            + "_id INTEGER PRIMARY KEY, location_id INTEGER NOT NULL, "
+            + "period INTEGER NOT NULL, start INTEGER NOT NULL, days INTEGER NOT NULL, "
+            + "min REAL NOT NULL, max REAL NOT NULL, min_sum REAL NOT NULL, "
+            + "max_sum REAL NOT NULL, storm_days INTEGER NOT NULL, "
+            + "drizzle_days INTEGER NOT NULL, rain_days INTEGER NOT NULL, "
+            + "snow_days INTEGER NOT NULL, fog_days INTEGER NOT NULL, "
+            + "clear_days INTEGER NOT NULL, cloudy_days INTEGER NOT NULL, "
+            + "other_days INTEGER NOT NULL,  FOREIGN KEY (location_id) REFERENCES location (_id), "
+            + " UNIQUE (location_id, period, start));";
+
+    private static final String LOCATION_V9 = "CREATE TABLE location (_id INTEGER PRIMARY KEY,"
+            + "location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, "
+            + "coord_lat REAL NOT NULL, coord_long REAL NOT NULL, etag TEXT, "
+            + "last_modified TEXT, grid_cell INTEGER  );";
+    private static final String LOCATION_INDEX_V9 = "CREATE INDEX location_grid_cell_idx "
+            + "ON location (grid_cell);";
+    private static final String LOCATION_INSERT_TRIGGER_V9 = "CREATE TRIGGER "
+            + "location_grid_cell_insert AFTER INSERT ON location BEGIN UPDATE location SET "
+            + "grid_cell = CAST((NEW.coord_lat + 90) / 0.25 AS INTEGER) * 1440 + "
+            + "min(CAST((NEW.coord_long + 180) / 0.25 AS INTEGER), 1439) "
+            + "WHERE _id = NEW._id; END;";
+    private static final String LOCATION_UPDATE_TRIGGER_V9 = "CREATE TRIGGER "
+            + "location_grid_cell_update AFTER UPDATE OF coord_lat, coord_long ON location "
+            + "BEGIN UPDATE location SET "
+            + "grid_cell = CAST((NEW.coord_lat + 90) / 0.25 AS INTEGER) * 1440 + "
+            + "min(CAST((NEW.coord_long + 180) / 0.25 AS INTEGER), 1439) "
+            + "WHERE _id = NEW._id; END;";
+
+    private static final String LOCATION_SEARCH_V10 = "CREATE VIRTUAL TABLE location_search "
+            + "USING fts3(city_name, location_setting);";
+    private static final String LOCATION_SEARCH_INSERT_TRIGGER_V10 = "CREATE TRIGGER "
+            + "location_search_insert AFTER INSERT ON location BEGIN INSERT INTO location_search "
+            + "(docid, city_name, location_setting) VALUES (NEW._id, NEW.city_name, "
+            + "NEW.location_setting); END;";
+    private static final String LOCATION_SEARCH_UPDATE_TRIGGER_V10 = "CREATE TRIGGER "
+            + "location_search_update AFTER UPDATE OF city_name, location_setting ON location "
+            + "BEGIN UPDATE location_search SET city_name = NEW.city_name, "
+            + "location_setting = NEW.location_setting WHERE docid = OLD._id; END;";
+    private static final String LOCATION_SEARCH_DELETE_TRIGGER_V10 = "CREATE TRIGGER "
+            + "location_search_delete AFTER DELETE ON location BEGIN DELETE FROM location_search "
+            + "WHERE docid = OLD._id; END;";
+
+    private static final String[][] SCHEMAS = {
+            /* 2 */ {LOCATION_V2, WEATHER_V2},
+            /* 3 */ {LOCATION_V3, WEATHER_V2},
+            /* 4 */ {LOCATION_V3, WEATHER_V4},
+            /* 5 */ {LOCATION_V3, WEATHER_V4, WEATHER_INDEX_V5},
+            /* 6 */ {LOCATION_V3, WEATHER_V4, WEATHER_INDEX_V5, HOURLY_V6},
+            /* 7 */ {LOCATION_V3, WEATHER_V4, WEATHER_INDEX_V5, HOURLY_V6, HISTORY_V7,
+                    HISTORY_CONDITION_V7},
+            /* 8 */ {LOCATION_V3, WEATHER_V4, WEATHER_INDEX_V5, HOURLY_V6, HISTORY_V7,
+                    HISTORY_CONDITION_V7, AGGREGATE_V8},
+            /* 9 */ {LOCATION_V9, LOCATION_INDEX_V9, LOCATION_INSERT_TRIGGER_V9,
+                    LOCATION_UPDATE_TRIGGER_V9, WEATHER_V4, WEATHER_INDEX_V5, HOURLY_V6,
+                    HISTORY_V7, HISTORY_CONDITION_V7, AGGREGATE_V8},
+            /* 10 */ {LOCATION_V9, LOCATION_INDEX_V9, LOCATION_INSERT_TRIGGER_V9,
+                    LOCATION_UPDATE_TRIGGER_V9, LOCATION_SEARCH_V10,
+                    LOCATION_SEARCH_INSERT_TRIGGER_V10, LOCATION_SEARCH_UPDATE_TRIGGER_V10,
+                    LOCATION_SEARCH_DELETE_TRIGGER_V10, WEATHER_V4, WEATHER_INDEX_V5, HOURLY_V6,
+                    HISTORY_V7, HISTORY_CONDITION_V7, AGGREGATE_V8},
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DATABASE);
+        mContext.deleteDatabase(FRESH_DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(DATABASE);
+        mContext.deleteDatabase(FRESH_DATABASE);
+        super.tearDown();
+    }
+
+    // Adding a version without its step would leave the newest databases behind.
+    public void testEveryVersionHasAStep() {
+        assertEquals(WeatherDbHelper.DATABASE_VERSION,
+                WeatherMigrations.OLDEST_VERSION + WeatherMigrations.STEPS.length);
+        for (int i = 0; i < WeatherMigrations.STEPS.length; i++) {
+            assertEquals(WeatherMigrations.OLDEST_VERSION + i + 1,
+                    WeatherMigrations.STEPS[i].toVersion);
+        }
+        assertEquals(WeatherDbHelper.DATABASE_VERSION - 1,
+                WeatherMigrations.OLDEST_VERSION + SCHEMAS.length - 1);
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        List<String> freshSchema = describeSchema(FRESH_DATABASE);
+        for (int version = WeatherMigrations.OLDEST_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(DATABASE);
+            createDatabase(version);
+
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, DATABASE, false);
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            try {
+                assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+                Cursor cursor = db.rawQuery("SELECT " + LocationEntry.COLUMN_LOCATION_SETTING
+                        + ", " + WeatherEntry.COLUMN_MIN_TEMP + " FROM " + WeatherEntry.TABLE_NAME
+                        + " INNER JOIN " + LocationEntry.TABLE_NAME + " ON "
+                        + WeatherEntry.COLUMN_LOC_KEY + " = " + LocationEntry.TABLE_NAME + "."
+                        + LocationEntry._ID, null);
+                try {
+                    assertTrue("Error: The forecast was lost upgrading from version " + version,
+                            cursor.moveToFirst());
+                    assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(0));
+                    assertEquals(65.0, cursor.getDouble(1));
+                } finally {
+                    cursor.close();
+                }
+            } finally {
+                dbHelper.close();
+            }
+            assertEquals("Error: Upgrading from version " + version
+                    + " didn't produce the current schema", freshSchema, describeSchema(DATABASE));
+        }
+    }
+
+    // The days stored before the history counted every day are counted in it by the upgrade,
+    // in the periods the provider would have put them in.
+    public void testUpgradeFillsHistory() {
+        createDatabase(7);
+        long date = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        SQLiteDatabase old = openWithoutHelper();
+        old.execSQL("UPDATE weather SET date = " + date);
+        old.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, DATABASE, false);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        try {
+            Cursor cursor = queryHistory(db);
+            try {
+                assertEquals(2, cursor.getCount());
+                while (cursor.moveToNext()) {
+                    int period = cursor.getInt(0);
+                    assertEquals(WeatherAggregates.periodStart(period, date), cursor.getLong(1));
+                    assertEquals(1, cursor.getInt(2));
+                    assertEquals(65.0, cursor.getDouble(3));
+                    assertEquals(75.0, cursor.getDouble(4));
+                    assertEquals(75.0, cursor.getDouble(5));
+                    assertEquals(1, cursor.getInt(6));
+                    assertEquals(321, cursor.getInt(7));
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    // Days rolled up before the history counted every day are merged with the ones still
+    // stored, and their extremes are kept for when those change.
+    public void testUpgradeMergesRolledUpDays() {
+        createDatabase(10);
+        long date = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        long weekStart = WeatherAggregates.periodStart(HistoryEntry.PERIOD_WEEK, date);
+        SQLiteDatabase old = openWithoutHelper();
+        old.execSQL("UPDATE weather SET date = " + date);
+        // Two rainy days of the same week, with means of 60 and 70.
+        old.execSQL("INSERT INTO history (_id, location_id, period, start, days, min, max, "
+                + "temp_sum, weather_id) SELECT 7, _id, 1, " + weekStart
+                + ", 2, 50, 80, 130, 500 FROM location");
+        old.execSQL("INSERT INTO history_condition (history_id, weather_id, days) "
+                + "VALUES (7, 500, 2)");
+        old.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, DATABASE, false);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        try {
+            Cursor cursor = queryHistory(db);
+            try {
+                assertEquals(2, cursor.getCount());
+                cursor.moveToFirst();
+                assertEquals(HistoryEntry.PERIOD_WEEK, cursor.getInt(0));
+                assertEquals(weekStart, cursor.getLong(1));
+                assertEquals(3, cursor.getInt(2));
+                assertEquals(195.0, cursor.getDouble(3));
+                assertEquals(80.0, cursor.getDouble(4));
+                assertEquals(205.0, cursor.getDouble(5));
+                assertEquals(1, cursor.getInt(6));
+                assertEquals(500, cursor.getInt(7));
+                assertEquals(2, cursor.getInt(8));
+                assertEquals((195.0 + 205.0) / 6, cursor.getDouble(9), 1e-9);
+
+                cursor.moveToNext();
+                assertEquals(HistoryEntry.PERIOD_MONTH, cursor.getInt(0));
+                assertEquals(1, cursor.getInt(2));
+                assertEquals(321, cursor.getInt(7));
+            } finally {
+                cursor.close();
+            }
+
+            cursor = db.query(HistoryEntry.TABLE_NAME, new String[]{
+                    WeatherAggregates.COLUMN_PAST_MIN, WeatherAggregates.COLUMN_PAST_MAX},
+                    null, null, null, null, HistoryEntry.COLUMN_PERIOD);
+            try {
+                cursor.moveToFirst();
+                assertEquals(50.0, cursor.getDouble(0));
+                assertEquals(80.0, cursor.getDouble(1));
+                cursor.moveToNext();
+                assertTrue(cursor.isNull(0));
+                assertTrue(cursor.isNull(1));
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    // Locations stored before there was a grid get their cell from the upgrade, and the ones
+    // stored after it from the triggers it adds.
+    public void testUpgradeFillsGridCells() {
+        createDatabase(8);
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, DATABASE, false);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        try {
+            ContentValues location = new ContentValues();
+            location.put(LocationEntry.COLUMN_LOCATION_SETTING, "London, UK");
+            location.put(LocationEntry.COLUMN_CITY_NAME, "London");
+            location.put(LocationEntry.COLUMN_COORD_LAT, 51.5085);
+            location.put(LocationEntry.COLUMN_COORD_LONG, -0.1257);
+            db.insertOrThrow(LocationEntry.TABLE_NAME, null, location);
+
+            Cursor cursor = db.query(LocationEntry.TABLE_NAME, new String[]{
+                    LocationEntry.COLUMN_COORD_LAT, LocationEntry.COLUMN_COORD_LONG,
+                    LocationEntry.COLUMN_GRID_CELL}, null, null, null, null, null);
+            try {
+                assertEquals(2, cursor.getCount());
+                while (cursor.moveToNext()) {
+                    assertEquals(LocationGrid.cellOf(cursor.getDouble(0), cursor.getDouble(1)),
+                            cursor.getLong(2));
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    // Locations stored before there was a search index can be found by the upgrade, and later
+    // changes to them reach the index through the triggers it adds.
+    public void testUpgradeFillsLocationSearch() {
+        createDatabase(9);
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, DATABASE, false);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        try {
+            Cursor cursor = LocationSearch.querySuggestions(db, null, "north", 10);
+            try {
+                assertEquals(1, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+
+            ContentValues renamed = new ContentValues();
+            renamed.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Workshop");
+            db.update(LocationEntry.TABLE_NAME, renamed, null, null);
+            cursor = LocationSearch.querySuggestions(db, null, "santa", 10);
+            try {
+                assertEquals(1, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    // Anything older than the first migration is recreated, as before.
+    public void testUpgradeFromUnknownVersionStartsOver() {
+        SQLiteDatabase old = openWithoutHelper();
+        old.execSQL("CREATE TABLE weather (_id INTEGER PRIMARY KEY, date TEXT)");
+        old.setVersion(WeatherMigrations.OLDEST_VERSION - 1);
+        old.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, DATABASE, false);
+        dbHelper.getWritableDatabase();
+        dbHelper.close();
+        assertEquals(describeSchema(FRESH_DATABASE), describeSchema(DATABASE));
+    }
+
+    /**
+     * @return period, start, days, min_sum, max, max_sum, drizzle_days, weather_id, rain_days
+     * and mean of each history row, through the columns the provider serves
+     */
+    private static Cursor queryHistory(SQLiteDatabase db) {
+        return WeatherProvider.sHistoryQueryBuilder.query(db, new String[]{
+                HistoryEntry.COLUMN_PERIOD, HistoryEntry.COLUMN_START,
+                HistoryEntry.COLUMN_DAYS, HistoryEntry.COLUMN_MIN_SUM,
+                HistoryEntry.COLUMN_MAX_TEMP, HistoryEntry.COLUMN_MAX_SUM,
+                HistoryEntry.COLUMN_DRIZZLE_DAYS, HistoryEntry.COLUMN_WEATHER_ID,
+                HistoryEntry.COLUMN_RAIN_DAYS, HistoryEntry.COLUMN_MEAN_TEMP},
+                null, null, null, null, HistoryEntry.COLUMN_PERIOD);
+    }
+
+    /**
+     * Creates weather.db as the given version made it, holding one location with one day.
+     */
+    private void createDatabase(int version) {
+        SQLiteDatabase db = openWithoutHelper();
+        try {
+            for (String sql : SCHEMAS[version - WeatherMigrations.OLDEST_VERSION]) {
+                db.execSQL(sql);
+            }
+            ContentValues location = new ContentValues();
+            location.put("location_setting", TestUtilities.TEST_LOCATION);
+            location.put("city_name", "North Pole");
+            location.put("coord_lat", 64.7488);
+            location.put("coord_long", -147.353);
+            long locationId = db.insertOrThrow("location", null, location);
+
+            ContentValues weather = new ContentValues();
+            weather.put("location_id", locationId);
+            weather.put("date", TestUtilities.TEST_DATE);
+            weather.put("short_desc", "Asteroids");
+            weather.put("weather_id", 321);
+            weather.put("min", 65);
+            weather.put("max", 75);
+            weather.put("humidity", 1.2);
+            weather.put("pressure", 1.3);
+            weather.put("wind", 5.5);
+            weather.put("degrees", 1.1);
+            db.insertOrThrow("weather", null, weather);
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    private SQLiteDatabase openWithoutHelper() {
+        mContext.getDatabasePath(DATABASE).getParentFile().mkdirs();
+        return SQLiteDatabase.openOrCreateDatabase(mContext.getDatabasePath(DATABASE), null);
+    }
+
+    /**
+     * @return every column, index and trigger of the tables, in a form that can be compared
+     * between databases
+     */
+    private List<String> describeSchema(String name) {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, name, false);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        List<String> schema = new ArrayList<String>();
+        try {
+            for (String table : new String[]{LocationEntry.TABLE_NAME, WeatherEntry.TABLE_NAME,
+                    HourlyEntry.TABLE_NAME, HistoryEntry.TABLE_NAME,
+                    WeatherAggregates.TABLE_CONDITION, LocationSearch.TABLE_NAME,
+                    // Gone since version 11, and not to be left behind.
+                    "aggregate"}) {
+                Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+                try {
+                    while (columns.moveToNext()) {
+                        schema.add(table + "." + columns.getString(columns.getColumnIndex("name"))
+                                + " " + columns.getString(columns.getColumnIndex("type"))
+                                + " notnull=" + columns.getInt(columns.getColumnIndex("notnull"))
+                                + " pk=" + columns.getInt(columns.getColumnIndex("pk")));
+                    }
+                } finally {
+                    columns.close();
+                }
+                Cursor indexes = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+                try {
+                    while (indexes.moveToNext()) {
+                        String index = indexes.getString(indexes.getColumnIndex("name"));
+                        schema.add(table + " index " + index + " unique="
+                                + indexes.getInt(indexes.getColumnIndex("unique"))
+                                + " " + indexColumns(db, index));
+                    }
+                } finally {
+                    indexes.close();
+                }
+            }
+            Cursor triggers = db.rawQuery("SELECT tbl_name, name FROM sqlite_master "
+                    + "WHERE type = 'trigger'", null);
+            try {
+                while (triggers.moveToNext()) {
+                    schema.add(triggers.getString(0) + " trigger " + triggers.getString(1));
+                }
+            } finally {
+                triggers.close();
+            }
+        } finally {
+            dbHelper.close();
+        }
+        Collections.sort(schema);
+        return schema;
+    }
+
+    private static List<String> indexColumns(SQLiteDatabase db, String index) {
+        List<String> columns = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+        try {
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(cursor.getColumnIndex("name")));
+            }
+        } finally {
+            cursor.close();
+        }
+        return columns;
+    }
+}
@@ -15,21 +15,30 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -61,6 +70,16 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                HourlyEntry.CONTENT_URI,
+                null,
+                null
+        );
+        mContext.getContentResolver().delete(
+                WeatherContract.HistoryEntry.CONTENT_URI,
+                null,
+                null
+        );
 
         Cursor cursor = mContext.getContentResolver().query(
                 WeatherEntry.CONTENT_URI,
@@ -512,4 +531,302 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // The sync adapter commits every location it fetched as one batch, with the weather rows of
+    // new locations pointing back at the location insert.
+    public void testApplyBatch() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(-1);
+        for (ContentValues values : weatherValues) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(operations.size(), results.length);
+        long locationRowId = ContentUris.parseId(results[0].uri);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationRowId)},
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals("Error: Weather rows didn't follow the location back reference",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    // A batch is one transaction: if any operation fails, nothing it did before is kept.
+    public void testApplyBatchIsAtomic() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        // Missing every NOT NULL column, so this insert fails.
+        ContentValues brokenWeather = new ContentValues();
+        brokenWeather.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE);
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(brokenWeather)
+                .build());
+
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: The broken weather insert should have failed the batch");
+        } catch (SQLException expected) {
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: The location insert survived a failed batch", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    // Re-sending a forecast that hasn't changed shouldn't rewrite anything.
+    public void testBulkInsertSkipsUnchangedDays() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, mContext.getContentResolver()
+                .bulkInsert(WeatherEntry.CONTENT_URI, createBulkInsertWeatherValues(locationRowId)));
+        long[] idsBefore = queryWeatherIds(locationRowId);
+
+        assertEquals("Error: An identical forecast was written again", 0,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                        createBulkInsertWeatherValues(locationRowId)));
+        assertTrue("Error: Unchanged rows were replaced",
+                Arrays.equals(idsBefore, queryWeatherIds(locationRowId)));
+
+        // Change two days; only they are written.
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        values[3].put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        values[7].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        assertEquals(2, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values));
+        long[] idsAfter = queryWeatherIds(locationRowId);
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            if (i == 3 || i == 7) {
+                assertFalse("Error: Changed day " + i + " wasn't rewritten",
+                        idsBefore[i] == idsAfter[i]);
+            } else {
+                assertEquals("Error: Unchanged day " + i + " was rewritten",
+                        idsBefore[i], idsAfter[i]);
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void testBulkUpsertReturnsChangedDates() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver()
+                .bulkInsert(WeatherEntry.CONTENT_URI, createBulkInsertWeatherValues(locationRowId));
+
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        values[5].put(WeatherEntry.COLUMN_MIN_TEMP, -40);
+        Bundle extras = new Bundle();
+        extras.putParcelableArray(WeatherContract.EXTRA_VALUES, values);
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_BULK_UPSERT, null, extras);
+
+        long[] changedDates = result.getLongArray(WeatherContract.EXTRA_CHANGED_DATES);
+        assertEquals(1, changedDates.length);
+        assertEquals(WeatherContract.normalizeDate(
+                values[5].getAsLong(WeatherEntry.COLUMN_DATE)), changedDates[0]);
+    }
+
+    // In a batch, weather inserts that matched the stored day report a count of 0 and no uri.
+    public void testApplyBatchReportsUnchangedInserts() throws Exception {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver()
+                .bulkInsert(WeatherEntry.CONTENT_URI, createBulkInsertWeatherValues(locationRowId));
+
+        ContentValues[] values = createBulkInsertWeatherValues(locationRowId);
+        values[0].put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues weatherValues : values) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(weatherValues)
+                    .build());
+        }
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        assertNotNull("Error: The changed day has no uri", results[0].uri);
+        for (int i = 1; i < results.length; i++) {
+            assertNull("Error: Unchanged day " + i + " reported a uri", results[i].uri);
+            assertEquals(Integer.valueOf(0), results[i].count);
+        }
+    }
+
+    // The row batch inserts a new location with its weather, then reports only the rows that
+    // differ on a second write.  The applyBatch() fallback has to report the same rows.
+    public void testUpsertBatch() throws Exception {
+        WeatherRowBatch batch = createRowBatch(WeatherRowBatch.NEW_LOCATION);
+        int[] changedRows = upsertBatch(batch);
+        assertEquals(batch.getRowCount(), changedRows.length);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION}, null);
+        assertTrue("Error: The batch did not insert its location", cursor.moveToFirst());
+        long locationRowId = cursor.getLong(0);
+        cursor.close();
+        assertEquals(batch.getRowCount(), queryWeatherIds(locationRowId).length);
+
+        batch = createRowBatch(locationRowId);
+        batch.minTemp[3] = -40;
+        changedRows = upsertBatch(batch);
+        assertTrue(Arrays.equals(new int[]{3}, changedRows));
+
+        batch.minTemp[3] = -41;
+        int[] fallbackRows = batch.changedRows(mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, batch.toOperations()));
+        assertTrue(Arrays.equals(new int[]{3}, fallbackRows));
+    }
+
+    // Each sync's three-hourly forecast replaces the location's steps from its first one on, and
+    // the steps before it stay for the history maintenance.  Ranges come back in time order.
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void testHourlyWindow() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // Only the provider's batch method writes them.
+            return;
+        }
+        final long firstStep = 1419033600000L;
+        final long step = HourlyEntry.STEP_MILLIS;
+        callUpsertBatch(createHourlyBatch(WeatherRowBatch.NEW_LOCATION, firstStep));
+        long locationRowId = queryLocationId();
+        Uri window = HourlyEntry.buildHourlyLocation(TestUtilities.TEST_LOCATION);
+        assertHourly(window, locationRowId, firstStep, HOURLY_STEPS, 0);
+
+        // A day later the forecast has moved on by eight steps.
+        long nextStep = firstStep + 8 * step;
+        callUpsertBatch(createHourlyBatch(locationRowId, nextStep));
+        assertHourly(window, locationRowId, firstStep, 8 + HOURLY_STEPS, 8);
+
+        Uri range = HourlyEntry.buildHourlyLocationWithRange(TestUtilities.TEST_LOCATION,
+                nextStep, nextStep + 4 * step);
+        assertHourly(range, locationRowId, nextStep, 4, 0);
+
+        assertEquals(HOURLY_STEPS + 8, mContext.getContentResolver().delete(window, null, null));
+        assertHourly(window, locationRowId, 0, 0, 0);
+    }
+
+    private static final int HOURLY_STEPS = 40;
+
+    private static WeatherRowBatch createHourlyBatch(long locationRowId, long firstStep) {
+        WeatherRowBatch batch = new WeatherRowBatch();
+        int location = batch.addLocation(locationRowId, TestUtilities.TEST_LOCATION, "North Pole",
+                64.7488, -147.353, null, null);
+        for (int i = 0; i < HOURLY_STEPS; i++) {
+            batch.addHourlyRow(location, firstStep + i * HourlyEntry.STEP_MILLIS, 500,
+                    hourlyTemperature(i), 85, 1011.6, 3.9, 174);
+        }
+        return batch;
+    }
+
+    private static double hourlyTemperature(int step) {
+        return -20 + step * 0.7;
+    }
+
+    /**
+     * Checks that {@code uri} has {@code count} consecutive steps from {@code firstStep} on.
+     *
+     * @param kept how many of the leading steps are left over from the previous batch
+     */
+    private void assertHourly(Uri uri, long locationRowId, long firstStep, int count,
+                              int kept) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        try {
+            assertEquals(count, cursor.getCount());
+            int time = cursor.getColumnIndexOrThrow(HourlyEntry.COLUMN_TIME);
+            int location = cursor.getColumnIndexOrThrow(HourlyEntry.COLUMN_LOC_KEY);
+            int temperature = cursor.getColumnIndexOrThrow(HourlyEntry.COLUMN_TEMP);
+            int pressure = cursor.getColumnIndexOrThrow(HourlyEntry.COLUMN_PRESSURE);
+            for (int i = 0; cursor.moveToNext(); i++) {
+                assertEquals(firstStep + i * HourlyEntry.STEP_MILLIS, cursor.getLong(time));
+                assertEquals(locationRowId, cursor.getLong(location));
+                assertEquals(1011.6, cursor.getDouble(pressure), 0.001);
+                // The left over steps were the previous batch's first ones.
+                int batchStep = i < kept ? i : i - kept;
+                assertEquals(hourlyTemperature(batchStep), cursor.getDouble(temperature), 0.05);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long queryLocationId() {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID}, LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION}, null);
+        try {
+            assertTrue("Error: The batch did not insert its location", cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int[] upsertBatch(WeatherRowBatch batch) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            try {
+                return batch.changedRows(mContext.getContentResolver()
+                        .applyBatch(WeatherContract.CONTENT_AUTHORITY, batch.toOperations()));
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        }
+        return callUpsertBatch(batch);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private int[] callUpsertBatch(WeatherRowBatch batch) {
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.EXTRA_BATCH, batch);
+        return mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_UPSERT_BATCH, null, extras)
+                .getIntArray(WeatherContract.EXTRA_CHANGED_ROWS);
+    }
+
+    static WeatherRowBatch createRowBatch(long locationRowId) {
+        WeatherRowBatch batch = new WeatherRowBatch();
+        int location = batch.addLocation(locationRowId, TestUtilities.TEST_LOCATION, "North Pole",
+                64.7488, -147.353, "\"v1\"", null);
+        long millisecondsInADay = 1000*60*60*24;
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            batch.addRow(location, TestUtilities.TEST_DATE + millisecondsInADay * i, 321,
+                    "Asteroids", 65 + 5 * i, 75 + 5 * i, 1.2, 1.3 + 0.01 * (float) i, 5.5, 1.1);
+        }
+        return batch;
+    }
+
+    private long[] queryWeatherIds(long locationRowId) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationRowId)},
+                WeatherEntry.COLUMN_DATE + " ASC");
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
 }
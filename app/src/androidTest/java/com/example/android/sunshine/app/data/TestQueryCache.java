@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the provider serves repeated per-location queries from its cache, and that a
+    write drops exactly the locations it touched.
+ */
+public class TestQueryCache extends AndroidTestCase {
+
+    private static final String OTHER_LOCATION = "10001";
+
+    private ContentProviderClient mClient;
+    private QueryCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        mCache = ((WeatherProvider) mClient.getLocalContentProvider()).getQueryCache();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mClient.release();
+        super.tearDown();
+    }
+
+    public void testRepeatedQueryIsCached() {
+        // Pre-Honeycomb providers don't cache.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        insertWeather(locationRowId, 65);
+
+        Uri uri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        long misses = mCache.getMisses();
+        long hits = mCache.getHits();
+        assertEquals(65.0, queryMinTemp(uri));
+        assertEquals(65.0, queryMinTemp(uri));
+        assertEquals(65.0, queryMinTemp(uri));
+        assertEquals(misses + 1, mCache.getMisses());
+        assertEquals(hits + 2, mCache.getHits());
+    }
+
+    public void testWriteDropsItsLocation() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        insertWeather(locationRowId, 65);
+
+        Uri uri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        assertEquals(65.0, queryMinTemp(uri));
+        insertWeather(locationRowId, 40);
+        long misses = mCache.getMisses();
+        assertEquals("Error: The cache served weather from before the write",
+                40.0, queryMinTemp(uri));
+        assertEquals(misses + 1, mCache.getMisses());
+    }
+
+    public void testWriteKeepsOtherLocations() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) return;
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        insertWeather(locationRowId, 65);
+
+        Uri uri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        assertEquals(65.0, queryMinTemp(uri));
+        insertWeather(insertLocation(OTHER_LOCATION), 40);
+        long hits = mCache.getHits();
+        assertEquals(65.0, queryMinTemp(uri));
+        assertEquals(hits + 1, mCache.getHits());
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        return ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+    }
+
+    private void insertWeather(long locationRowId, double minTemp) {
+        ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+        values.put(WeatherEntry.COLUMN_MIN_TEMP, minTemp);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, values);
+    }
+
+    private double queryMinTemp(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri,
+                new String[]{WeatherEntry.COLUMN_MIN_TEMP}, null, null, null);
+        try {
+            assertTrue("Error: No weather for " + uri, cursor.moveToFirst());
+            return cursor.getDouble(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the SQL behind each weather URI and fails if SQLite would read a
+    whole table, or sort the rows itself instead of reading them in date order from an index.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    // What the forecast list, the widgets and Muzei ask for.
+    static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private WeatherDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    // "weather/*"
+    public void testWeatherWithLocation() {
+        assertNoFullScan(weatherWithLocationSql(), TestUtilities.TEST_LOCATION);
+    }
+
+    // "weather/*?date=", the forecast list from today on
+    public void testWeatherWithLocationAndStartDate() {
+        assertNoFullScan(weatherWithLocationAndStartDateSql(),
+                TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    // "weather/*/#", a single day
+    public void testWeatherWithLocationAndDate() {
+        assertNoFullScan(weatherWithLocationAndDateSql(),
+                TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    // "hourly/*?start=&end=", and deleting a location's window
+    public void testHourlyLocationRange() {
+        String sql = SQLiteQueryBuilder.buildQueryString(false,
+                WeatherProvider.sHourlyQueryBuilder.getTables(), null,
+                WeatherProvider.sHourlyLocationRangeSelection, null, null,
+                WeatherContract.HourlyEntry._ID + " ASC", null);
+        String[] args = WeatherProvider.hourlyLocationRangeArgs(
+                WeatherContract.HourlyEntry.buildHourlyLocationWithRange(
+                        TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE,
+                        TestUtilities.TEST_DATE + 24 * 60 * 60 * 1000));
+        assertNoFullScan(sql, args);
+    }
+
+    // Sync replaces a location's window by its key.
+    public void testDeleteHourlyRange() {
+        assertNoFullScan(WeatherStatements.DELETE_HOURLY_RANGE_SQL, "0", "1");
+    }
+
+    static String weatherWithLocationSql() {
+        return joinSql(FORECAST_COLUMNS, WeatherProvider.sLocationSettingSelection, SORT_BY_DATE);
+    }
+
+    static String weatherWithLocationAndStartDateSql() {
+        return joinSql(FORECAST_COLUMNS, WeatherProvider.sLocationSettingWithStartDateSelection,
+                SORT_BY_DATE);
+    }
+
+    static String weatherWithLocationAndDateSql() {
+        // The detail view wants every column of its day.
+        return joinSql(null, WeatherProvider.sLocationSettingAndDaySelection, null);
+    }
+
+    private static String joinSql(String[] projection, String selection, String sortOrder) {
+        return SQLiteQueryBuilder.buildQueryString(false,
+                WeatherProvider.sWeatherByLocationSettingQueryBuilder.getTables(),
+                projection, selection, null, null, sortOrder, null);
+    }
+
+    private void assertNoFullScan(String sql, String... args) {
+        List<String> plan = explainQueryPlan(mDbHelper.getReadableDatabase(), sql, args);
+        Log.d(LOG_TAG, sql + "\n  " + plan);
+        assertFalse("Error: No query plan for " + sql, plan.isEmpty());
+        for (String step : plan) {
+            assertFalse("Error: Full scan in " + plan + " for " + sql, step.startsWith("SCAN"));
+            assertFalse("Error: Sorting in " + plan + " for " + sql, step.contains("TEMP B-TREE"));
+        }
+    }
+
+    /**
+     * @return the detail column of each step of the plan, e.g.
+     * "SEARCH TABLE weather USING COVERING INDEX weather_location_date_idx (location_id=?)"
+     */
+    static List<String> explainQueryPlan(SQLiteDatabase db, String sql, String... args) {
+        List<String> plan = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detail));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+}
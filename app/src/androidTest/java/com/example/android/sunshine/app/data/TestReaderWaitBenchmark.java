@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Measures how long readers wait while syncs write, once with the default rollback journal and
+    once with write-ahead logging.  A writer thread stores sync-sized transactions back to back
+    while a few reader threads run the forecast list query, the way the loaders, widgets and
+    wear service do right after a sync.  Results are written to logcat under this class' tag, e.g.
+
+        adb logcat -s TestReaderWaitBenchmark
+ */
+public class TestReaderWaitBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestReaderWaitBenchmark.class.getSimpleName();
+
+    private static final String ROLLBACK_DATABASE = "reader_wait_rollback.db";
+    private static final String WAL_DATABASE = "reader_wait_wal.db";
+
+    private static final int LOCATIONS = 10;
+    private static final int DAYS = 14;
+    private static final int WRITES = 30;
+    private static final int READERS = 3;
+
+    private static final long DAY_MILLIS = 1000 * 60 * 60 * 24;
+
+    private static final String FORECAST_QUERY =
+            "SELECT * FROM " + WeatherEntry.TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME
+                    + " ON " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = "
+                    + LocationEntry.TABLE_NAME + "." + LocationEntry._ID
+                    + " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND "
+                    + WeatherEntry.COLUMN_DATE + " >= ? ORDER BY " + WeatherEntry.COLUMN_DATE;
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(ROLLBACK_DATABASE);
+        mContext.deleteDatabase(WAL_DATABASE);
+        super.tearDown();
+    }
+
+    public void testReaderWait() throws Exception {
+        ReaderStats rollback = measure(ROLLBACK_DATABASE, false);
+        Log.i(LOG_TAG, String.format("%d writes of %d rows, %d readers",
+                WRITES, LOCATIONS * DAYS, READERS));
+        Log.i(LOG_TAG, "rollback journal: " + rollback);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            ReaderStats wal = measure(WAL_DATABASE, true);
+            Log.i(LOG_TAG, "write-ahead log:  " + wal);
+        }
+    }
+
+    private ReaderStats measure(String name, boolean writeAheadLogging) throws Exception {
+        mContext.deleteDatabase(name);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, name, writeAheadLogging);
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        final long[] locationIds = new long[LOCATIONS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            ContentValues values = TestUtilities.createNorthPoleLocationValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, "benchmark" + i);
+            locationIds[i] = db.insert(LocationEntry.TABLE_NAME, null, values);
+        }
+        write(db, locationIds, 0);
+
+        final ReaderStats stats = new ReaderStats();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(READERS + 1);
+        try {
+            List<Future<?>> readers = new ArrayList<Future<?>>();
+            for (int i = 0; i < READERS; i++) {
+                final String[] args = {"benchmark" + i, Long.toString(TestUtilities.TEST_DATE)};
+                readers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        while (writing.get()) {
+                            long start = System.nanoTime();
+                            Cursor cursor = db.rawQuery(FORECAST_QUERY, args);
+                            cursor.getCount();
+                            stats.onQuery(System.nanoTime() - start);
+                            cursor.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    try {
+                        for (int round = 1; round <= WRITES; round++) {
+                            write(db, locationIds, round);
+                        }
+                    } finally {
+                        writing.set(false);
+                    }
+                    return null;
+                }
+            }).get();
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            writing.set(false);
+            executor.shutdown();
+            dbHelper.close();
+        }
+        return stats;
+    }
+
+    // One sync: every location's forecast in a single transaction, all of it changed.
+    private static void write(SQLiteDatabase db, long[] locationIds, int round) {
+        db.beginTransaction();
+        try {
+            for (long locationId : locationIds) {
+                for (int day = 0; day < DAYS; day++) {
+                    ContentValues values = new ContentValues(10);
+                    values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+                    values.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + DAY_MILLIS * day);
+                    values.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+                    values.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+                    values.put(WeatherEntry.COLUMN_MIN_TEMP, round + day * 0.1);
+                    values.put(WeatherEntry.COLUMN_MAX_TEMP, round + day * 0.1 + 10);
+                    values.put(WeatherEntry.COLUMN_HUMIDITY, 60);
+                    values.put(WeatherEntry.COLUMN_PRESSURE, 1013.2);
+                    values.put(WeatherEntry.COLUMN_WIND_SPEED, 3.5);
+                    values.put(WeatherEntry.COLUMN_DEGREES, 270);
+                    db.insert(WeatherEntry.TABLE_NAME, null, values);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
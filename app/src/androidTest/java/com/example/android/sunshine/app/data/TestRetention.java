@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that the history maintenance keeps the daily window, sums up the days before it into
+    weeks and months, and works in steps of the size it is given.
+ */
+public class TestRetention extends AndroidTestCase {
+
+    private static final int KEEP_DAYS = 7;
+
+    private long mNow;
+    private Time mTime;
+    private int mToday;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mNow = System.currentTimeMillis();
+        mTime = new Time();
+        mTime.set(mNow);
+        mToday = Time.getJulianDay(mNow, mTime.gmtoff) - Time.EPOCH_JULIAN_DAY;
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void testStepsAreBounded() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        for (int i = 0; i < 30; i++) {
+            insertDay(mToday - i, 800, 10, 20);
+        }
+        Bundle step = compact(10);
+        assertEquals(10, step.getInt(WeatherContract.EXTRA_COMPACTED_ROWS));
+        assertTrue(step.getBoolean(WeatherContract.EXTRA_MORE));
+        assertTrue(step.getLong(WeatherContract.EXTRA_DATABASE_BYTES) > 0);
+
+        int compacted = 10;
+        while (step.getBoolean(WeatherContract.EXTRA_MORE)) {
+            step = compact(10);
+            compacted += step.getInt(WeatherContract.EXTRA_COMPACTED_ROWS);
+        }
+        // Today and the KEEP_DAYS before it stay.
+        assertEquals(30 - KEEP_DAYS - 1, compacted);
+        assertEquals(KEEP_DAYS + 1, countRows(WeatherEntry.CONTENT_URI));
+        // Every one of them is still counted.
+        assertEquals(30, sumDays(HistoryEntry.PERIOD_WEEK));
+        assertEquals(30, sumDays(HistoryEntry.PERIOD_MONTH));
+
+        step = compact(10);
+        assertEquals(0, step.getInt(WeatherContract.EXTRA_COMPACTED_ROWS));
+        assertFalse(step.getBoolean(WeatherContract.EXTRA_MORE));
+    }
+
+    // A week whose days leave the weather table over two runs ends up as if they had left at
+    // once, including the weather most of them had.
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void testWeekAddsUp() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        int monday = (int) WeatherRetention.weekStart(mToday) - 21;
+        for (int i = 0; i < 3; i++) {
+            insertDay(monday + i, 800, i, i + 10);
+        }
+        compact(100);
+        assertWeek(monday, 3, 0, 12, 6, 800);
+
+        for (int i = 3; i < 7; i++) {
+            insertDay(monday + i, 500, i, i + 10);
+        }
+        compact(100);
+        assertWeek(monday, 7, 0, 16, 8, 500);
+        assertEquals(7, sumDays(HistoryEntry.PERIOD_MONTH));
+    }
+
+    // Weeks go after half a year; months are kept.
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void testOldWeeksArePruned() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        insertDay(mToday - 250, 800, 10, 20);
+        Bundle step = compact(100);
+        assertEquals(1, step.getInt(WeatherContract.EXTRA_COMPACTED_ROWS));
+        assertEquals(1, step.getInt(WeatherContract.EXTRA_PRUNED_ROWS));
+        assertEquals(0, sumDays(HistoryEntry.PERIOD_WEEK));
+        assertEquals(1, sumDays(HistoryEntry.PERIOD_MONTH));
+    }
+
+    private void insertDay(int day, int weatherId, double min, double max) {
+        TestUtilities.insertDay(mContext, mLocationRowId, mTime, day, weatherId, min, max);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private Bundle compact(int maxRows) {
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherContract.EXTRA_KEEP_DAYS, KEEP_DAYS);
+        extras.putInt(WeatherContract.EXTRA_MAX_ROWS, maxRows);
+        extras.putLong(WeatherContract.EXTRA_NOW, mNow);
+        return mContext.getContentResolver().call(HistoryEntry.CONTENT_URI,
+                WeatherContract.METHOD_COMPACT, null, extras);
+    }
+
+    private void assertWeek(int monday, int days, double min, double max, double mean,
+                            int weatherId) {
+        Cursor cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocationWithPeriod(TestUtilities.TEST_LOCATION,
+                        HistoryEntry.PERIOD_WEEK), null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(monday * TestUtilities.DAY_MILLIS,
+                    cursor.getLong(cursor.getColumnIndex(HistoryEntry.COLUMN_START)));
+            assertEquals(days, cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_DAYS)));
+            assertEquals(min,
+                    cursor.getDouble(cursor.getColumnIndex(HistoryEntry.COLUMN_MIN_TEMP)));
+            assertEquals(max,
+                    cursor.getDouble(cursor.getColumnIndex(HistoryEntry.COLUMN_MAX_TEMP)));
+            assertEquals(mean,
+                    cursor.getDouble(cursor.getColumnIndex(HistoryEntry.COLUMN_MEAN_TEMP)), 1e-9);
+            assertEquals(weatherId,
+                    cursor.getInt(cursor.getColumnIndex(HistoryEntry.COLUMN_WEATHER_ID)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int sumDays(int period) {
+        return TestUtilities.sumDays(mContext,
+                HistoryEntry.buildHistoryLocationWithPeriod(TestUtilities.TEST_LOCATION, period),
+                HistoryEntry.COLUMN_DAYS);
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
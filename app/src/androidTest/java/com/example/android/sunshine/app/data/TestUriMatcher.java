@@ -36,6 +36,17 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    private static final Uri TEST_LOCATION_NEAREST_DIR = WeatherContract.LocationEntry.buildNearestLocationUri(64.7488, -147.353, 5);
+    private static final Uri TEST_LOCATION_SUGGEST_DIR = WeatherContract.LocationEntry.buildSuggestionUri("north po", 5);
+    // content://com.example.android.sunshine.app/hourly"
+    private static final Uri TEST_HOURLY_DIR = WeatherContract.HourlyEntry.CONTENT_URI;
+    private static final Uri TEST_HOURLY_WITH_LOCATION_DIR = WeatherContract.HourlyEntry.buildHourlyLocationWithRange(LOCATION_QUERY, TEST_DATE, TEST_DATE + 1);
+    // content://com.example.android.sunshine.app/history"
+    private static final Uri TEST_HISTORY_DIR = WeatherContract.HistoryEntry.CONTENT_URI;
+    private static final Uri TEST_HISTORY_WITH_LOCATION_DIR = WeatherContract.HistoryEntry.buildHistoryLocationWithPeriod(LOCATION_QUERY, WeatherContract.HistoryEntry.PERIOD_WEEK);
+    // content://com.example.android.sunshine.app/aggregate"
+    private static final Uri TEST_AGGREGATE_DIR = WeatherContract.AggregateEntry.CONTENT_URI;
+    private static final Uri TEST_AGGREGATE_WITH_LOCATION_ITEM = WeatherContract.AggregateEntry.buildAggregateLocationWithPeriodAndDate(LOCATION_QUERY, WeatherContract.HistoryEntry.PERIOD_MONTH, TEST_DATE);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -53,5 +64,21 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION NEAREST URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_NEAREST_DIR), WeatherProvider.LOCATION_NEAREST);
+        assertEquals("Error: The LOCATION SUGGEST URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_SUGGEST_DIR), WeatherProvider.LOCATION_SUGGEST);
+        assertEquals("Error: The HOURLY URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_DIR), WeatherProvider.HOURLY);
+        assertEquals("Error: The HOURLY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_DIR), WeatherProvider.HOURLY_WITH_LOCATION);
+        assertEquals("Error: The HISTORY URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_DIR), WeatherProvider.HISTORY);
+        assertEquals("Error: The HISTORY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HISTORY_WITH_LOCATION_DIR), WeatherProvider.HISTORY_WITH_LOCATION);
+        assertEquals("Error: The AGGREGATE URI was matched incorrectly.",
+                testMatcher.match(TEST_AGGREGATE_DIR), WeatherProvider.AGGREGATE);
+        assertEquals("Error: The AGGREGATE WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_AGGREGATE_WITH_LOCATION_ITEM), WeatherProvider.AGGREGATE_WITH_LOCATION);
     }
 }
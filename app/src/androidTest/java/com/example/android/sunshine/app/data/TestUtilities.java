@@ -24,6 +24,7 @@ import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.test.AndroidTestCase;
+import android.text.format.Time;
 
 import com.example.android.sunshine.app.utils.PollingCheck;
 
@@ -38,6 +39,7 @@ import java.util.Set;
 public class TestUtilities extends AndroidTestCase {
     static final String TEST_LOCATION = "99705";
     static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+    static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
 
     static void validateCursor(String error, Cursor valueCursor, ContentValues expectedValues) {
         assertTrue("Empty cursor returned. " + error, valueCursor.moveToFirst());
@@ -77,6 +79,44 @@ public class TestUtilities extends AndroidTestCase {
         return weatherValues;
     }
 
+    /*
+        The default weather values for a day since the epoch, at midnight in the time zone of
+        the given time, as the sync stores it.
+     */
+    static ContentValues createDayValues(long locationRowId, Time time, int day, int weatherId,
+            double min, double max) {
+        ContentValues values = createWeatherValues(locationRowId);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                time.setJulianDay(day + Time.EPOCH_JULIAN_DAY));
+        values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, min);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, max);
+        return values;
+    }
+
+    static void insertDay(Context context, long locationRowId, Time time, int day, int weatherId,
+            double min, double max) {
+        assertNotNull(context.getContentResolver().insert(WeatherContract.WeatherEntry.CONTENT_URI,
+                createDayValues(locationRowId, time, day, weatherId, min, max)));
+    }
+
+    /*
+        Adds up the days of every row of a history or aggregate URI.
+     */
+    static int sumDays(Context context, Uri uri, String daysColumn) {
+        Cursor cursor = context.getContentResolver().query(uri, new String[]{daysColumn},
+                null, null, null);
+        try {
+            int days = 0;
+            while (cursor.moveToNext()) {
+                days += cursor.getInt(0);
+            }
+            return days;
+        } finally {
+            cursor.close();
+        }
+    }
+
     /*
         Students: You can uncomment this helper function once you have finished creating the
         LocationEntry part of the WeatherContract.
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+    Times the query behind each weather URI on a table far larger than a phone will ever hold:
+    years of days for dozens of locations.  Each shape runs once with the location/date index
+    and once after dropping it, which is the schema as it was before.  Results are written to
+    logcat under this class' tag, e.g.
+
+        adb logcat -s TestWeatherQueryBenchmark
+ */
+public class TestWeatherQueryBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherQueryBenchmark.class.getSimpleName();
+
+    private static final String DATABASE = "query_benchmark.db";
+
+    private static final int LOCATIONS = 50;
+    private static final int DAYS = 3 * 365;
+    private static final int ITERATIONS = 200;
+
+    private static final long DAY_MILLIS = 1000 * 60 * 60 * 24;
+
+    private WeatherDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DATABASE);
+        mDbHelper = new WeatherDbHelper(mContext, DATABASE, false);
+        fill(mDbHelper.getWritableDatabase());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE);
+        super.tearDown();
+    }
+
+    public void testQueriesAtScale() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        long[] indexed = measureShapes(db);
+        db.execSQL("DROP INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE);
+        long[] unindexed = measureShapes(db);
+
+        Log.i(LOG_TAG, String.format("%d locations x %d days = %d rows, %d iterations",
+                LOCATIONS, DAYS, LOCATIONS * DAYS, ITERATIONS));
+        Log.i(LOG_TAG, "                     indexed   without");
+        Log.i(LOG_TAG, String.format("weather/*         %6d us %6d us", indexed[0], unindexed[0]));
+        Log.i(LOG_TAG, String.format("weather/*?date=   %6d us %6d us", indexed[1], unindexed[1]));
+        Log.i(LOG_TAG, String.format("weather/*/#       %6d us %6d us", indexed[2], unindexed[2]));
+    }
+
+    /**
+     * @return microseconds per query for each URI shape
+     */
+    private static long[] measureShapes(SQLiteDatabase db) {
+        // The middle of the table, so neither end of the date range is trivially empty.
+        String location = "location" + LOCATIONS / 2;
+        String date = Long.toString(TestUtilities.TEST_DATE + DAY_MILLIS * (DAYS / 2));
+        return new long[]{
+                measure(db, TestQueryPlans.weatherWithLocationSql(), location),
+                measure(db, TestQueryPlans.weatherWithLocationAndStartDateSql(), location, date),
+                measure(db, TestQueryPlans.weatherWithLocationAndDateSql(), location, date)
+        };
+    }
+
+    private static long measure(SQLiteDatabase db, String sql, String... args) {
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Cursor cursor = db.rawQuery(sql, args);
+            // Read every row, as the list adapter would.
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+            }
+            cursor.close();
+        }
+        return (SystemClock.elapsedRealtime() - start) * 1000 / ITERATIONS;
+    }
+
+    private static void fill(SQLiteDatabase db) {
+        db.beginTransaction();
+        SQLiteStatement insertLocation = db.compileStatement(WeatherStatements.INSERT_LOCATION_SQL);
+        SQLiteStatement insertWeather = db.compileStatement(WeatherStatements.INSERT_WEATHER_SQL);
+        try {
+            for (int location = 0; location < LOCATIONS; location++) {
+                insertLocation.bindString(WeatherStatements.LOCATION_SETTING, "location" + location);
+                insertLocation.bindString(WeatherStatements.LOCATION_CITY_NAME, "City " + location);
+                insertLocation.bindDouble(WeatherStatements.LOCATION_COORD_LAT, location);
+                insertLocation.bindDouble(WeatherStatements.LOCATION_COORD_LONG, -location);
+                insertLocation.bindNull(WeatherStatements.LOCATION_ETAG);
+                insertLocation.bindNull(WeatherStatements.LOCATION_LAST_MODIFIED);
+                long locationId = insertLocation.executeInsert();
+                for (int day = 0; day < DAYS; day++) {
+                    insertWeather.bindLong(WeatherStatements.WEATHER_LOC_KEY, locationId);
+                    insertWeather.bindLong(WeatherStatements.WEATHER_DATE,
+                            TestUtilities.TEST_DATE + DAY_MILLIS * day);
+                    insertWeather.bindLong(WeatherStatements.WEATHER_WEATHER_ID, 800 + day % 4);
+                    insertWeather.bindString(WeatherStatements.WEATHER_SHORT_DESC, "Clear");
+                    insertWeather.bindDouble(WeatherStatements.WEATHER_MIN_TEMP, day % 30);
+                    insertWeather.bindDouble(WeatherStatements.WEATHER_MAX_TEMP, day % 30 + 10);
+                    insertWeather.bindDouble(WeatherStatements.WEATHER_HUMIDITY, 60);
+                    insertWeather.bindDouble(WeatherStatements.WEATHER_PRESSURE, 1013.2);
+                    insertWeather.bindDouble(WeatherStatements.WEATHER_WIND_SPEED, 3.5);
+                    insertWeather.bindDouble(WeatherStatements.WEATHER_DEGREES, 270);
+                    insertWeather.bindNull(WeatherStatements.WEATHER_CONTENT_HASH);
+                    insertWeather.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insertLocation.close();
+            insertWeather.close();
+            db.endTransaction();
+        }
+    }
+}
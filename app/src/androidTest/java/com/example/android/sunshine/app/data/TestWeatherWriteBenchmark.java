@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Compares the rows/sec of a sync-sized write through bulkInsert(), one ContentValues per day,
+    with the same rows handed over as a WeatherRowBatch.  Every round changes every row, so both
+    paths really write.  Results are written to logcat under this class' tag, e.g.
+
+        adb logcat -s TestWeatherWriteBenchmark
+ */
+public class TestWeatherWriteBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherWriteBenchmark.class.getSimpleName();
+
+    private static final int LOCATIONS = 10;
+    private static final int DAYS = 14;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 20;
+
+    private static final long DAY_MILLIS = 1000 * 60 * 60 * 24;
+
+    private long[] mLocationIds;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAll();
+        mLocationIds = new long[LOCATIONS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            ContentValues values = TestUtilities.createNorthPoleLocationValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, "benchmark" + i);
+            mLocationIds[i] = ContentUris.parseId(
+                    mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAll();
+        super.tearDown();
+    }
+
+    public void testWriteThroughput() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // No ContentResolver.call(), so there is no fast path to compare against.
+            return;
+        }
+        int round = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            writeBulkInsert(round++);
+            writeRowBatch(round++);
+        }
+
+        long bulkInsertMs = 0;
+        long rowBatchMs = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = SystemClock.elapsedRealtime();
+            writeBulkInsert(round++);
+            bulkInsertMs += SystemClock.elapsedRealtime() - start;
+
+            start = SystemClock.elapsedRealtime();
+            writeRowBatch(round++);
+            rowBatchMs += SystemClock.elapsedRealtime() - start;
+        }
+
+        long rows = (long) ROUNDS * LOCATIONS * DAYS;
+        Log.i(LOG_TAG, String.format("%d locations x %d days, %d rounds", LOCATIONS, DAYS, ROUNDS));
+        Log.i(LOG_TAG, String.format("bulkInsert: %6d ms, %8d rows/sec",
+                bulkInsertMs, rows * 1000 / Math.max(bulkInsertMs, 1)));
+        Log.i(LOG_TAG, String.format("row batch:  %6d ms, %8d rows/sec",
+                rowBatchMs, rows * 1000 / Math.max(rowBatchMs, 1)));
+    }
+
+    private void writeBulkInsert(int round) {
+        ContentResolver resolver = mContext.getContentResolver();
+        for (int location = 0; location < LOCATIONS; location++) {
+            ContentValues[] values = new ContentValues[DAYS];
+            for (int day = 0; day < DAYS; day++) {
+                ContentValues weatherValues = new ContentValues(10);
+                weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, mLocationIds[location]);
+                weatherValues.put(WeatherEntry.COLUMN_DATE, date(day));
+                weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+                weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+                weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, minTemp(round, day));
+                weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, minTemp(round, day) + 10);
+                weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 60);
+                weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1013.2);
+                weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 3.5);
+                weatherValues.put(WeatherEntry.COLUMN_DEGREES, 270);
+                values[day] = weatherValues;
+            }
+            assertEquals(DAYS, resolver.bulkInsert(WeatherEntry.CONTENT_URI, values));
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void writeRowBatch(int round) {
+        WeatherRowBatch batch = new WeatherRowBatch(LOCATIONS, LOCATIONS * DAYS);
+        for (int location = 0; location < LOCATIONS; location++) {
+            int index = batch.addLocation(mLocationIds[location], "benchmark" + location,
+                    "North Pole", 64.7488, -147.353, null, null);
+            for (int day = 0; day < DAYS; day++) {
+                batch.addRow(index, date(day), 800, "Clear", minTemp(round, day),
+                        minTemp(round, day) + 10, 60, 1013.2, 3.5, 270);
+            }
+        }
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.EXTRA_BATCH, batch);
+        Bundle result = mContext.getContentResolver().call(WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_UPSERT_BATCH, null, extras);
+        assertEquals(LOCATIONS * DAYS,
+                result.getIntArray(WeatherContract.EXTRA_CHANGED_ROWS).length);
+    }
+
+    private static long date(int day) {
+        return TestUtilities.TEST_DATE + DAY_MILLIS * day;
+    }
+
+    // Different every round, so no row is ever skipped as unchanged.
+    private static double minTemp(int round, int day) {
+        return round + day * 0.1;
+    }
+
+    private void deleteAll() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
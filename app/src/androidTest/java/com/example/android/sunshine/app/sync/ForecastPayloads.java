@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+/*
+    Forecast responses recorded from api.openweathermap.org/data/2.5/forecast/daily, used by the
+    parser tests and benchmarks.  Only whitespace has been changed.
+ */
+class ForecastPayloads {
+
+    static final String CITY_NAME = "Mountain View";
+    static final double CITY_LAT = 37.3861;
+    static final double CITY_LON = -122.0839;
+
+    private static final String HEADER = "{\"city\":{\"id\":5375480,\"name\":\"Mountain View\","
+            + "\"coord\":{\"lon\":-122.0839,\"lat\":37.3861},\"country\":\"US\",\"population\":0},"
+            + "\"cod\":\"200\",\"message\":0.0133,\"cnt\":";
+
+    // Fourteen recorded days, in the order OWM returned them.
+    private static final String[] DAYS = {
+            "{\"dt\":1419033600,\"temp\":{\"day\":14.69,\"min\":8.9,\"max\":15.42,\"night\":8.9,\"eve\":12.45,\"morn\":10.4},\"pressure\":1011.59,\"humidity\":85,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":3.96,\"deg\":174,\"clouds\":92,\"rain\":1.25}",
+            "{\"dt\":1419120000,\"temp\":{\"day\":13.4,\"min\":9.11,\"max\":14.02,\"night\":9.11,\"eve\":11.9,\"morn\":9.6},\"pressure\":1015.2,\"humidity\":79,\"weather\":[{\"id\":803,\"main\":\"Clouds\",\"description\":\"broken clouds\",\"icon\":\"04d\"}],\"speed\":2.11,\"deg\":300,\"clouds\":68}",
+            "{\"dt\":1419206400,\"temp\":{\"day\":15.01,\"min\":7.32,\"max\":15.88,\"night\":7.32,\"eve\":12.77,\"morn\":8.01},\"pressure\":1019.03,\"humidity\":72,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":1.71,\"deg\":327,\"clouds\":0}",
+            "{\"dt\":1419292800,\"temp\":{\"day\":14.2,\"min\":8.55,\"max\":14.9,\"night\":9.02,\"eve\":12.01,\"morn\":8.55},\"pressure\":1018.4,\"humidity\":80,\"weather\":[{\"id\":802,\"main\":\"Clouds\",\"description\":\"scattered clouds\",\"icon\":\"03d\"}],\"speed\":1.52,\"deg\":281,\"clouds\":44}",
+            "{\"dt\":1419379200,\"temp\":{\"day\":12.19,\"min\":9.3,\"max\":12.61,\"night\":10.2,\"eve\":11.4,\"morn\":9.3},\"pressure\":1012.88,\"humidity\":94,\"weather\":[{\"id\":501,\"main\":\"Rain\",\"description\":\"moderate rain\",\"icon\":\"10d\"}],\"speed\":5.61,\"deg\":166,\"clouds\":100,\"rain\":7.0}",
+            "{\"dt\":1419465600,\"temp\":{\"day\":11.7,\"min\":6.2,\"max\":12.1,\"night\":6.2,\"eve\":9.8,\"morn\":8.74},\"pressure\":1016.11,\"humidity\":88,\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":4.11,\"deg\":289,\"clouds\":64,\"rain\":0.5}",
+            "{\"dt\":1419552000,\"temp\":{\"day\":12.92,\"min\":4.88,\"max\":13.3,\"night\":4.88,\"eve\":9.1,\"morn\":5.5},\"pressure\":1022.47,\"humidity\":70,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":1.36,\"deg\":341,\"clouds\":0}",
+            "{\"dt\":1419638400,\"temp\":{\"day\":13.51,\"min\":5.02,\"max\":14.16,\"night\":5.9,\"eve\":10.03,\"morn\":5.02},\"pressure\":1023.1,\"humidity\":68,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":1.08,\"deg\":5,\"clouds\":0}",
+            "{\"dt\":1419724800,\"temp\":{\"day\":14.4,\"min\":6.1,\"max\":15.23,\"night\":7.77,\"eve\":11.56,\"morn\":6.1},\"pressure\":1020.92,\"humidity\":71,\"weather\":[{\"id\":801,\"main\":\"Clouds\",\"description\":\"few clouds\",\"icon\":\"02d\"}],\"speed\":1.44,\"deg\":312,\"clouds\":12}",
+            "{\"dt\":1419811200,\"temp\":{\"day\":13.02,\"min\":8.3,\"max\":13.8,\"night\":9.1,\"eve\":11.2,\"morn\":8.3},\"pressure\":1017.6,\"humidity\":83,\"weather\":[{\"id\":804,\"main\":\"Clouds\",\"description\":\"overcast clouds\",\"icon\":\"04d\"}],\"speed\":2.93,\"deg\":201,\"clouds\":96}",
+            "{\"dt\":1419897600,\"temp\":{\"day\":11.32,\"min\":8.72,\"max\":11.9,\"night\":9.56,\"eve\":10.3,\"morn\":8.72},\"pressure\":1010.04,\"humidity\":97,\"weather\":[{\"id\":502,\"main\":\"Rain\",\"description\":\"heavy intensity rain\",\"icon\":\"10d\"}],\"speed\":7.2,\"deg\":158,\"clouds\":100,\"rain\":18.5}",
+            "{\"dt\":1419984000,\"temp\":{\"day\":10.81,\"min\":7.05,\"max\":11.43,\"night\":7.05,\"eve\":9.2,\"morn\":8.9},\"pressure\":1013.77,\"humidity\":91,\"weather\":[{\"id\":521,\"main\":\"Rain\",\"description\":\"shower rain\",\"icon\":\"09d\"}],\"speed\":5.02,\"deg\":270,\"clouds\":80,\"rain\":3.5}",
+            "{\"dt\":1420070400,\"temp\":{\"day\":12.3,\"min\":3.97,\"max\":12.74,\"night\":3.97,\"eve\":8.4,\"morn\":4.6},\"pressure\":1024.39,\"humidity\":66,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":0.97,\"deg\":22,\"clouds\":0}",
+            "{\"dt\":1420156800,\"temp\":{\"day\":13.13,\"min\":4.5,\"max\":13.86,\"night\":5.31,\"eve\":9.7,\"morn\":4.5},\"pressure\":1023.84,\"humidity\":64,\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":1.21,\"deg\":350,\"clouds\":0}"
+    };
+
+    static final String NOT_FOUND = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+    static final String MISSING_TEMPERATURE = HEADER + "1,\"list\":["
+            + "{\"dt\":1419033600,\"pressure\":1011.59,\"humidity\":85,\"weather\":[{\"id\":500,"
+            + "\"main\":\"Rain\"}],\"speed\":3.96,\"deg\":174}]}";
+
+    /**
+     * @param days how many of the recorded days to include, at most 14
+     * @return a forecast response with the first {@code days} recorded days
+     */
+    static String forecast(int days) {
+        StringBuilder builder = new StringBuilder(HEADER).append(days).append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(DAYS[i]);
+        }
+        return builder.append("]}").toString();
+    }
+
+    static String forecast() {
+        return forecast(DAYS.length);
+    }
+
+    static int maxDays() {
+        return DAYS.length;
+    }
+
+    // The three-hourly forecast from api.openweathermap.org/data/2.5/forecast.  Its steps are
+    // generated in the recorded layout, since a test needs to move the window.
+    static final long HOURLY_FIRST_STEP = 1419033600000L;
+    static final int HOURLY_STEPS = 40;
+    static final long HOURLY_STEP_MILLIS = 3 * 60 * 60 * 1000;
+
+    /**
+     * @param first the time of the first step, in milliseconds
+     * @return a three-hourly forecast of {@code steps} steps, the i-th of them at 10 + i / 10
+     * degrees
+     */
+    static String hourly(long first, int steps) {
+        StringBuilder builder = new StringBuilder("{\"cod\":\"200\",\"message\":0.0032,\"cnt\":")
+                .append(steps).append(",\"list\":[");
+        for (int i = 0; i < steps; i++) {
+            if (i > 0) builder.append(',');
+            builder.append("{\"dt\":").append((first + i * HOURLY_STEP_MILLIS) / 1000)
+                    .append(",\"main\":{\"temp\":").append(hourlyTemperature(i))
+                    .append(",\"temp_min\":8.9,\"temp_max\":15.42,\"pressure\":1011.59,")
+                    .append("\"sea_level\":1030.2,\"grnd_level\":1011.59,\"humidity\":85},")
+                    .append("\"weather\":[{\"id\":500,\"main\":\"Rain\",")
+                    .append("\"description\":\"light rain\",\"icon\":\"10d\"}],")
+                    .append("\"clouds\":{\"all\":92},\"wind\":{\"speed\":3.96,\"deg\":174},")
+                    .append("\"rain\":{\"3h\":0.25},\"sys\":{\"pod\":\"d\"}}");
+        }
+        return builder.append("],\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.0839,\"lat\":37.3861},\"country\":\"US\"}}")
+                .toString();
+    }
+
+    static String hourly() {
+        return hourly(HOURLY_FIRST_STEP, HOURLY_STEPS);
+    }
+
+    static double hourlyTemperature(int step) {
+        return 10 + step / 10.0;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/*
+    Exercises the ETag / Last-Modified round trip against a local stub server.
+ */
+public class TestConditionalRequests extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+    private static final String ETAG = "\"5f3c-1419033600\"";
+    private static final String LAST_MODIFIED = "Sat, 20 Dec 2014 00:00:00 GMT";
+
+    private StubHttpServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testNotModifiedRoundTrip() throws Exception {
+        mServer.enqueue(new StubHttpServer.Response(200)
+                .header(CacheValidators.HEADER_ETAG, ETAG)
+                .header(CacheValidators.HEADER_LAST_MODIFIED, LAST_MODIFIED)
+                .body(ForecastPayloads.forecast()));
+        mServer.enqueue(new StubHttpServer.Response(304)
+                .header(CacheValidators.HEADER_ETAG, ETAG));
+
+        // First sync: nothing stored, so the request is unconditional.
+        HttpTransport.Response response = open(CacheValidators.NONE);
+        assertEquals(HttpURLConnection.HTTP_OK, response.getCode());
+        CacheValidators validators = CacheValidators.fromResponse(response);
+        response.close();
+
+        assertEquals(ETAG, validators.getETag());
+        assertEquals(LAST_MODIFIED, validators.getLastModified());
+        StubHttpServer.Request first = mServer.takeRequest(0);
+        assertNull(first.getHeader(CacheValidators.HEADER_IF_NONE_MATCH));
+        assertNull(first.getHeader(CacheValidators.HEADER_IF_MODIFIED_SINCE));
+
+        // Second sync: the validators go back and the server answers without a body.
+        response = open(validators);
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, response.getCode());
+        response.close();
+
+        StubHttpServer.Request second = mServer.takeRequest(1);
+        assertEquals(ETAG, second.getHeader(CacheValidators.HEADER_IF_NONE_MATCH));
+        assertEquals(LAST_MODIFIED, second.getHeader(CacheValidators.HEADER_IF_MODIFIED_SINCE));
+    }
+
+    public void testResponseWithoutValidators() throws Exception {
+        mServer.enqueue(new StubHttpServer.Response(200).body(ForecastPayloads.forecast(1)));
+
+        HttpTransport.Response response = open(CacheValidators.NONE);
+        assertEquals(HttpURLConnection.HTTP_OK, response.getCode());
+        assertTrue(CacheValidators.fromResponse(response).isEmpty());
+        response.close();
+    }
+
+    public void testValidatorsStoredPerLocation() {
+        assertTrue("Error: An unknown location should have no validators",
+                CacheValidators.forLocation(mContext, TEST_LOCATION).isEmpty());
+
+        ContentValues location = new ContentValues();
+        location.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        location.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        Uri locationUri = mContext.getContentResolver()
+                .insert(WeatherContract.LocationEntry.CONTENT_URI, location);
+        long locationId = ContentUris.parseId(locationUri);
+
+        new CacheValidators(ETAG, LAST_MODIFIED).saveForLocation(mContext, locationId);
+        CacheValidators stored = CacheValidators.forLocation(mContext, TEST_LOCATION);
+        assertEquals(ETAG, stored.getETag());
+        assertEquals(LAST_MODIFIED, stored.getLastModified());
+
+        // A later response without validators clears them, so we never send stale ones.
+        CacheValidators.NONE.saveForLocation(mContext, locationId);
+        assertTrue(CacheValidators.forLocation(mContext, TEST_LOCATION).isEmpty());
+    }
+
+    private HttpTransport.Response open(CacheValidators validators) throws Exception {
+        return new UrlConnectionTransport().get(new URL(mServer.getUrl("/forecast")), validators);
+    }
+}
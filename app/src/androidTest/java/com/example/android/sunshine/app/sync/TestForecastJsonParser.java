@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import org.json.JSONException;
+
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+
+/*
+    Checks that the streaming parser reads exactly what the original org.json parser read.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public void testStreamingMatchesLegacy() throws Exception {
+        ForecastBuffer legacy = new ForecastBuffer();
+        ForecastBuffer streaming = new ForecastBuffer();
+        String json = ForecastPayloads.forecast();
+
+        ForecastJsonParser.parseLegacy(json, legacy);
+        ForecastJsonParser.parse(new StringReader(json), streaming);
+
+        assertEquals("Error: Wrong number of days", ForecastPayloads.maxDays(), streaming.size());
+        assertEquals(legacy.size(), streaming.size());
+        assertEquals(ForecastPayloads.CITY_NAME, streaming.getCityName());
+        assertEquals(ForecastPayloads.CITY_LAT, streaming.getCityLatitude());
+        assertEquals(ForecastPayloads.CITY_LON, streaming.getCityLongitude());
+        assertEquals(HttpURLConnection.HTTP_OK, streaming.getMessageCode());
+
+        for (int i = 0; i < legacy.size(); i++) {
+            assertEquals("day " + i, legacy.pressure[i], streaming.pressure[i]);
+            assertEquals("day " + i, legacy.humidity[i], streaming.humidity[i]);
+            assertEquals("day " + i, legacy.windSpeed[i], streaming.windSpeed[i]);
+            assertEquals("day " + i, legacy.windDirection[i], streaming.windDirection[i]);
+            assertEquals("day " + i, legacy.high[i], streaming.high[i]);
+            assertEquals("day " + i, legacy.low[i], streaming.low[i]);
+            assertEquals("day " + i, legacy.description[i], streaming.description[i]);
+            assertEquals("day " + i, legacy.weatherId[i], streaming.weatherId[i]);
+        }
+    }
+
+    public void testBufferIsReused() throws Exception {
+        ForecastBuffer buffer = new ForecastBuffer(2);
+        ForecastJsonParser.parse(new StringReader(ForecastPayloads.forecast()), buffer);
+        assertEquals(ForecastPayloads.maxDays(), buffer.size());
+
+        // A shorter forecast must not leave days from the previous parse behind.
+        ForecastJsonParser.parse(new StringReader(ForecastPayloads.forecast(3)), buffer);
+        assertEquals(3, buffer.size());
+        assertNull(buffer.description[3]);
+    }
+
+    public void testHourly() throws Exception {
+        HourlyBuffer buffer = new HourlyBuffer(4);
+        ForecastJsonParser.parseHourly(new StringReader(ForecastPayloads.hourly()), buffer);
+        assertEquals(HttpURLConnection.HTTP_OK, buffer.getMessageCode());
+        assertEquals(ForecastPayloads.HOURLY_STEPS, buffer.size());
+        for (int i = 0; i < buffer.size(); i++) {
+            assertEquals("step " + i, ForecastPayloads.HOURLY_FIRST_STEP
+                    + i * ForecastPayloads.HOURLY_STEP_MILLIS, buffer.time[i]);
+            assertEquals("step " + i, ForecastPayloads.hourlyTemperature(i),
+                    buffer.temperature[i]);
+            assertEquals("step " + i, 500, buffer.weatherId[i]);
+            assertEquals("step " + i, 85, buffer.humidity[i]);
+            assertEquals("step " + i, 1011.59, buffer.pressure[i]);
+            assertEquals("step " + i, 3.96, buffer.windSpeed[i]);
+            assertEquals("step " + i, 174.0, buffer.windDirection[i]);
+        }
+
+        ForecastJsonParser.parseHourly(new StringReader(ForecastPayloads.NOT_FOUND), buffer);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, buffer.getMessageCode());
+        assertEquals(0, buffer.size());
+    }
+
+    public void testErrorCode() throws Exception {
+        ForecastBuffer buffer = new ForecastBuffer();
+        ForecastJsonParser.parse(new StringReader(ForecastPayloads.NOT_FOUND), buffer);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, buffer.getMessageCode());
+        assertEquals(0, buffer.size());
+    }
+
+    public void testMissingFieldIsInvalid() throws Exception {
+        try {
+            ForecastJsonParser.parse(new StringReader(ForecastPayloads.MISSING_TEMPERATURE),
+                    new ForecastBuffer());
+            fail("Error: A day without temperatures should not parse");
+        } catch (JSONException expected) {
+        }
+    }
+
+    public void testMalformedIsInvalid() throws Exception {
+        // '=' as a name separator is only accepted by a lenient reader.
+        String malformed = ForecastPayloads.forecast(2).replace("\"pressure\":", "\"pressure\"=");
+        try {
+            ForecastJsonParser.parse(new StringReader(malformed), new ForecastBuffer());
+            fail("Error: A malformed response should not parse");
+        } catch (JSONException expected) {
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/*
+    Compares the original read-into-a-String + org.json path with the streaming parser on the
+    recorded 14 day payload.  Both sides start from the raw bytes, as they would come off the
+    HttpURLConnection.  Results are written to logcat under this class' tag, e.g.
+
+        adb logcat -s TestForecastParserBenchmark
+ */
+public class TestForecastParserBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastParserBenchmark.class.getSimpleName();
+
+    private static final int WARMUP_ITERATIONS = 50;
+    private static final int ITERATIONS = 500;
+
+    private interface ParseRun {
+        void run(byte[] payload, ForecastBuffer buffer) throws Exception;
+    }
+
+    // What onPerformSync used to do: readLine() into a StringBuffer, then a JSONObject tree.
+    private static final ParseRun LEGACY = new ParseRun() {
+        @Override
+        public void run(byte[] payload, ForecastBuffer buffer) throws Exception {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new ByteArrayInputStream(payload)));
+            StringBuffer stringBuffer = new StringBuffer();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                stringBuffer.append(line + "\n");
+            }
+            ForecastJsonParser.parseLegacy(stringBuffer.toString(), buffer);
+        }
+    };
+
+    private static final ParseRun STREAMING = new ParseRun() {
+        @Override
+        public void run(byte[] payload, ForecastBuffer buffer) throws Exception {
+            Reader reader = new InputStreamReader(new ByteArrayInputStream(payload), "UTF-8");
+            ForecastJsonParser.parse(reader, buffer);
+        }
+    };
+
+    public void testParserThroughputAndAllocations() throws Exception {
+        byte[] payload = ForecastPayloads.forecast().getBytes("UTF-8");
+
+        long[] legacy = measure(LEGACY, payload);
+        long[] streaming = measure(STREAMING, payload);
+
+        Log.i(LOG_TAG, String.format("payload %d bytes, %d iterations", payload.length, ITERATIONS));
+        Log.i(LOG_TAG, String.format("legacy:    %6d us/parse, %6d allocs/parse, %8d bytes/parse",
+                legacy[0], legacy[1], legacy[2]));
+        Log.i(LOG_TAG, String.format("streaming: %6d us/parse, %6d allocs/parse, %8d bytes/parse",
+                streaming[0], streaming[1], streaming[2]));
+
+        // Timing is too noisy to assert on, but allocations are not.
+        assertTrue("Error: Streaming parser allocated more than the org.json parser",
+                streaming[2] < legacy[2]);
+    }
+
+    /**
+     * @return microseconds, allocated objects and allocated bytes, each per parse
+     */
+    @SuppressWarnings("deprecation")
+    private static long[] measure(ParseRun run, byte[] payload) throws Exception {
+        ForecastBuffer buffer = new ForecastBuffer();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            run.run(payload, buffer);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            run.run(payload, buffer);
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        Debug.stopAllocCounting();
+
+        return new long[]{
+                elapsed * 1000 / ITERATIONS,
+                Debug.getThreadAllocCount() / ITERATIONS,
+                Debug.getThreadAllocSize() / ITERATIONS
+        };
+    }
+}
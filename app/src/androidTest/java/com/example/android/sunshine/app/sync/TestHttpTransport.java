@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Checks gzip negotiation, connection reuse, timeouts and byte accounting of the sync transport.
+ */
+public class TestHttpTransport extends AndroidTestCase {
+
+    private StubHttpServer mServer;
+    private UrlConnectionTransport mTransport;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer();
+        mTransport = new UrlConnectionTransport();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testGzipNegotiated() throws Exception {
+        String forecast = ForecastPayloads.forecast();
+        byte[] compressed = gzip(forecast);
+        mServer.enqueue(new StubHttpServer.Response(200)
+                .header(UrlConnectionTransport.HEADER_CONTENT_ENCODING,
+                        UrlConnectionTransport.ENCODING_GZIP)
+                .body(compressed));
+
+        HttpTransport.Response response = get();
+        assertEquals(HttpURLConnection.HTTP_OK, response.getCode());
+        assertEquals("Error: The decoded body doesn't match what the server compressed",
+                forecast, readAll(response.getBody()));
+        response.close();
+
+        assertEquals(UrlConnectionTransport.ENCODING_GZIP, mServer.takeRequest(0)
+                .getHeader(UrlConnectionTransport.HEADER_ACCEPT_ENCODING));
+
+        TransportStats stats = mTransport.getStats();
+        assertEquals(1, stats.getRequests());
+        assertEquals(compressed.length, stats.getWireBytes());
+        assertEquals(forecast.getBytes("UTF-8").length, stats.getDecodedBytes());
+        assertTrue("Error: gzip should shrink a forecast",
+                stats.getWireBytes() < stats.getDecodedBytes());
+    }
+
+    public void testIdentityEncodingPassesThrough() throws Exception {
+        String forecast = ForecastPayloads.forecast(3);
+        mServer.enqueue(new StubHttpServer.Response(200).body(forecast));
+
+        HttpTransport.Response response = get();
+        assertEquals(forecast, readAll(response.getBody()));
+        response.close();
+
+        TransportStats stats = mTransport.getStats();
+        assertEquals(stats.getWireBytes(), stats.getDecodedBytes());
+    }
+
+    // The connection drops between the headers and the gzip header of the body.
+    public void testGzipBodyCutOff() throws Exception {
+        mServer.enqueue(new StubHttpServer.Response(200)
+                .header(UrlConnectionTransport.HEADER_CONTENT_ENCODING,
+                        UrlConnectionTransport.ENCODING_GZIP)
+                .body(gzip(ForecastPayloads.forecast()))
+                .disconnectAfterHeaders());
+
+        HttpTransport.Response response = get();
+        try {
+            response.getBody();
+            fail("Error: Expected the body to be cut off");
+        } catch (IOException expected) {
+        }
+        response.close();
+        assertEquals(0, mTransport.getStats().getDecodedBytes());
+
+        // What the sync sees: a server that is down, not a crash.
+        mServer.enqueue(new StubHttpServer.Response(200)
+                .header(UrlConnectionTransport.HEADER_CONTENT_ENCODING,
+                        UrlConnectionTransport.ENCODING_GZIP)
+                .body(gzip(ForecastPayloads.forecast()))
+                .disconnectAfterHeaders());
+        LocationFetch fetch = new LocationFetch("94043", LocationFetch.NO_LOCATION_ID,
+                new URL(mServer.getUrl("/forecast")), CacheValidators.NONE, mTransport,
+                new ForecastBuffer()).call();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, fetch.status);
+        assertTrue(fetch.transientFailure);
+    }
+
+    // A 304 has no body to decode, even if the server says it is gzipped.
+    public void testGzipNotModified() throws Exception {
+        mServer.enqueue(new StubHttpServer.Response(304)
+                .header(UrlConnectionTransport.HEADER_CONTENT_ENCODING,
+                        UrlConnectionTransport.ENCODING_GZIP));
+        mServer.enqueue(new StubHttpServer.Response(200).body(ForecastPayloads.forecast(1)));
+
+        HttpTransport.Response response = get();
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, response.getCode());
+        assertEquals("", readAll(response.getBody()));
+        response.close();
+
+        get().close();
+        assertEquals("Error: Keep-alive connection was not reused", 1,
+                mServer.getConnectionCount());
+    }
+
+    public void testConnectionReused() throws Exception {
+        mServer.enqueue(new StubHttpServer.Response(200).body(ForecastPayloads.forecast()));
+        mServer.enqueue(new StubHttpServer.Response(304));
+        mServer.enqueue(new StubHttpServer.Response(200).body(ForecastPayloads.forecast(1)));
+
+        // Fully read, unread and bodiless responses should all hand the socket back on close.
+        HttpTransport.Response response = get();
+        readAll(response.getBody());
+        response.close();
+        get().close();
+        get().close();
+
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals("Error: Keep-alive connection was not reused", 1,
+                mServer.getConnectionCount());
+        assertEquals(1, mTransport.getStats().getNotModified());
+    }
+
+    public void testReadTimeout() throws Exception {
+        // Nothing is enqueued, so the server sits on the request for longer than we wait.
+        UrlConnectionTransport transport = new UrlConnectionTransport(1000, 500);
+        try {
+            transport.get(new URL(mServer.getUrl("/forecast")), CacheValidators.NONE).close();
+            fail("Error: Expected the read to time out");
+        } catch (SocketTimeoutException expected) {
+        }
+    }
+
+    private HttpTransport.Response get() throws IOException {
+        return mTransport.get(new URL(mServer.getUrl("/forecast")), CacheValidators.NONE);
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(text.getBytes("UTF-8"));
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            bytes.write(chunk, 0, read);
+        }
+        return bytes.toString("UTF-8");
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+    Checks the per-location fetch the sync adapter runs on its executor.
+ */
+public class TestLocationFetch extends AndroidTestCase {
+
+    private static final long SERVER_DELAY_MS = 600;
+
+    private StubHttpServer mServer;
+    private HttpTransport mTransport;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer();
+        mTransport = new UrlConnectionTransport();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testForecastParsed() throws Exception {
+        mServer.enqueue(new StubHttpServer.Response(200).body(ForecastPayloads.forecast()));
+
+        LocationFetch fetch = newFetch("94043").call();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, fetch.status);
+        assertTrue(fetch.hasForecast());
+        assertEquals(ForecastPayloads.maxDays(), fetch.forecast.size());
+        assertEquals(ForecastPayloads.CITY_NAME, fetch.forecast.getCityName());
+    }
+
+    public void testNotModified() throws Exception {
+        mServer.enqueue(new StubHttpServer.Response(304));
+
+        LocationFetch fetch = newFetch("94043").call();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, fetch.status);
+        assertTrue(fetch.notModified);
+        assertFalse("Error: A 304 has nothing to write", fetch.hasForecast());
+    }
+
+    public void testErrorStatuses() throws Exception {
+        mServer.enqueue(new StubHttpServer.Response(200).body(ForecastPayloads.NOT_FOUND));
+        mServer.enqueue(new StubHttpServer.Response(200).body("{\"city\" = 1}"));
+        mServer.enqueue(new StubHttpServer.Response(503));
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, newFetch("a").call().status);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                newFetch("b").call().status);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, newFetch("c").call().status);
+    }
+
+    // Fetching several locations side by side should take about as long as one of them.
+    public void testFetchesRunInParallel() throws Exception {
+        final int locations = 3;
+        for (int i = 0; i < locations; i++) {
+            mServer.enqueue(new StubHttpServer.Response(200)
+                    .body(ForecastPayloads.forecast())
+                    .delay(SERVER_DELAY_MS));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(locations);
+        try {
+            long start = SystemClock.elapsedRealtime();
+            List<Future<LocationFetch>> pending = new ArrayList<Future<LocationFetch>>();
+            for (int i = 0; i < locations; i++) {
+                pending.add(executor.submit(newFetch("location" + i)));
+            }
+            for (Future<LocationFetch> future : pending) {
+                assertTrue(future.get().hasForecast());
+            }
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            assertTrue("Error: " + locations + " fetches took " + elapsed + "ms, as if in series",
+                    elapsed < SERVER_DELAY_MS * (locations - 1));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private LocationFetch newFetch(String locationSetting) throws Exception {
+        return new LocationFetch(locationSetting, LocationFetch.NO_LOCATION_ID,
+                new URL(mServer.getUrl("/forecast?q=" + locationSetting)),
+                CacheValidators.NONE, mTransport, new ForecastBuffer());
+    }
+}
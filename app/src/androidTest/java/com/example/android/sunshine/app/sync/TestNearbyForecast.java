@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that a location picked next to a saved one starts out with its forecast, as long as
+    that forecast is recent.
+ */
+public class TestNearbyForecast extends AndroidTestCase {
+
+    // Mountain View, and a point picked 2km from it.
+    private static final double SAVED_LAT = 37.3861;
+    private static final double SAVED_LONG = -122.0839;
+    private static final double PICKED_LAT = 37.3900;
+    private static final double PICKED_LONG = -122.0620;
+
+    private long mNow;
+    private int mToday;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mNow = System.currentTimeMillis();
+        Time time = new Time();
+        time.setToNow();
+        mToday = Time.getJulianDay(mNow, time.gmtoff);
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        location.put(LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        location.put(LocationEntry.COLUMN_COORD_LAT, SAVED_LAT);
+        location.put(LocationEntry.COLUMN_COORD_LONG, SAVED_LONG);
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location);
+        mLocationRowId = ContentUris.parseId(uri);
+    }
+
+    public void testRecentForecastIsReused() {
+        insertDays(14);
+        LocationFetch fetch = newFetch();
+        assertTrue(NearbyForecast.reuse(mContext.getContentResolver(), fetch, PICKED_LAT,
+                PICKED_LONG, mNow));
+        assertEquals("94043", fetch.reusedFrom);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, fetch.status);
+        assertTrue(fetch.hasForecast());
+        assertEquals(14, fetch.forecast.size());
+        assertEquals("Mountain View", fetch.forecast.getCityName());
+        assertEquals(SAVED_LAT, fetch.forecast.getCityLatitude());
+        // Read back in order, from today.
+        for (int i = 0; i < 14; i++) {
+            assertEquals(10.0 + i, fetch.forecast.high[i]);
+        }
+        // Nothing goes to the network.
+        assertSame(fetch, fetch.call());
+    }
+
+    public void testOldForecastIsNotReused() {
+        // What is left of a forecast fetched a week ago.
+        insertDays(7);
+        LocationFetch fetch = newFetch();
+        assertFalse(NearbyForecast.reuse(mContext.getContentResolver(), fetch, PICKED_LAT,
+                PICKED_LONG, mNow));
+        assertNull(fetch.reusedFrom);
+        assertEquals(0, fetch.forecast.size());
+    }
+
+    public void testFarLocationIsNotReused() {
+        insertDays(14);
+        LocationFetch fetch = newFetch();
+        // Cupertino, 8km away.
+        assertFalse(NearbyForecast.reuse(mContext.getContentResolver(), fetch, 37.3230,
+                -122.0322, mNow));
+    }
+
+    private LocationFetch newFetch() {
+        return new LocationFetch("Somewhere near Mountain View", LocationFetch.NO_LOCATION_ID,
+                null, CacheValidators.NONE, null, new ForecastBuffer());
+    }
+
+    private void insertDays(int days) {
+        Time dayTime = new Time();
+        ContentValues[] values = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            ContentValues day = new ContentValues();
+            day.put(WeatherEntry.COLUMN_LOC_KEY, mLocationRowId);
+            day.put(WeatherEntry.COLUMN_DATE, dayTime.setJulianDay(mToday + i));
+            day.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+            day.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            day.put(WeatherEntry.COLUMN_MIN_TEMP, i);
+            day.put(WeatherEntry.COLUMN_MAX_TEMP, 10 + i);
+            day.put(WeatherEntry.COLUMN_HUMIDITY, 50);
+            day.put(WeatherEntry.COLUMN_PRESSURE, 1013);
+            day.put(WeatherEntry.COLUMN_WIND_SPEED, 3);
+            day.put(WeatherEntry.COLUMN_DEGREES, 270);
+            values[i] = day;
+        }
+        assertEquals(days, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                values));
+    }
+}
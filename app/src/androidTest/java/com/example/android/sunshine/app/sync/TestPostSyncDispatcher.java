@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Checks that syncs finishing close together are fanned out once, with one snapshot shared by
+    every consumer, and that the snapshot survives being passed on and kept in a file.
+ */
+public class TestPostSyncDispatcher extends AndroidTestCase {
+
+    private static final long WINDOW_MS = 500;
+
+    private static class RecordingConsumer implements PostSyncDispatcher.Consumer {
+        final List<ForecastSnapshot> snapshots =
+                Collections.synchronizedList(new ArrayList<ForecastSnapshot>());
+
+        @Override
+        public void onForecast(Context context, ForecastSnapshot snapshot) {
+            snapshots.add(snapshot);
+        }
+    }
+
+    public void testSyncsInsideTheWindowAreCoalesced() throws Exception {
+        RecordingConsumer first = new RecordingConsumer();
+        RecordingConsumer second = new RecordingConsumer();
+        final PostSyncDispatcher dispatcher = new PostSyncDispatcher(mContext, WINDOW_MS,
+                first, second);
+
+        for (int i = 0; i < 5; i++) {
+            dispatcher.dispatch();
+        }
+        new PollingCheck(WINDOW_MS * 4) {
+            @Override
+            protected boolean check() {
+                return dispatcher.getDispatched() == 1;
+            }
+        }.run();
+        // Nothing else was waiting behind it.
+        SystemClock.sleep(WINDOW_MS * 2);
+        assertEquals(5, dispatcher.getRequested());
+        assertEquals(1, dispatcher.getDispatched());
+
+        assertEquals(1, first.snapshots.size());
+        assertEquals(1, second.snapshots.size());
+        assertSame("Error: Each consumer read the forecast itself",
+                first.snapshots.get(0), second.snapshots.get(0));
+        assertEquals(Utility.getPreferredLocation(mContext),
+                first.snapshots.get(0).getLocationSetting());
+    }
+
+    public void testSyncAfterTheWindowGetsItsOwnFanOut() throws Exception {
+        RecordingConsumer consumer = new RecordingConsumer();
+        final PostSyncDispatcher dispatcher = new PostSyncDispatcher(mContext, WINDOW_MS,
+                consumer);
+
+        dispatcher.dispatch();
+        new PollingCheck(WINDOW_MS * 4) {
+            @Override
+            protected boolean check() {
+                return dispatcher.getDispatched() == 1;
+            }
+        }.run();
+        dispatcher.dispatch();
+        new PollingCheck(WINDOW_MS * 4) {
+            @Override
+            protected boolean check() {
+                return dispatcher.getDispatched() == 2;
+            }
+        }.run();
+        assertEquals(2, consumer.snapshots.size());
+    }
+
+    public void testSnapshotParcels() {
+        ForecastSnapshot snapshot = ForecastSnapshot.query(mContext.getContentResolver(),
+                Utility.getPreferredLocation(mContext), System.currentTimeMillis());
+        Parcel parcel = Parcel.obtain();
+        try {
+            snapshot.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            ForecastSnapshot copy = ForecastSnapshot.CREATOR.createFromParcel(parcel);
+            assertEquals(snapshot.getLocationSetting(), copy.getLocationSetting());
+            assertEquals(snapshot.getDayCount(), copy.getDayCount());
+            for (int day = 0; day < snapshot.getDayCount(); day++) {
+                assertEquals(snapshot.getDate(day), copy.getDate(day));
+                assertEquals(snapshot.getWeatherId(day), copy.getWeatherId(day));
+                assertEquals(snapshot.getDescription(day), copy.getDescription(day));
+                assertEquals(snapshot.getHigh(day), copy.getHigh(day));
+                assertEquals(snapshot.getLow(day), copy.getLow(day));
+            }
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    public void testSnapshotFileRoundTrips() throws Exception {
+        ForecastSnapshot snapshot = ForecastSnapshot.query(mContext.getContentResolver(),
+                Utility.getPreferredLocation(mContext), System.currentTimeMillis());
+        File file = new File(mContext.getCacheDir(), "test.snapshot");
+        try {
+            snapshot.writeTo(file);
+            ForecastSnapshot copy = ForecastSnapshot.readFrom(file);
+            assertNotNull(copy);
+            assertEquals(snapshot.getLocationSetting(), copy.getLocationSetting());
+            assertEquals(snapshot.getLatitude(), copy.getLatitude());
+            assertEquals(snapshot.getLongitude(), copy.getLongitude());
+            assertEquals(snapshot.getDayCount(), copy.getDayCount());
+            for (int day = 0; day < snapshot.getDayCount(); day++) {
+                assertEquals(snapshot.getDate(day), copy.getDate(day));
+                assertEquals(snapshot.getWeatherId(day), copy.getWeatherId(day));
+                assertEquals(snapshot.getDescription(day), copy.getDescription(day));
+                assertEquals(snapshot.getHigh(day), copy.getHigh(day));
+                assertEquals(snapshot.getLow(day), copy.getLow(day));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    // A file from another version, or one cut short, is passed over rather than misread.
+    public void testUnreadableSnapshotFileIsIgnored() throws Exception {
+        File file = new File(mContext.getCacheDir(), "test.snapshot");
+        try {
+            assertNull(ForecastSnapshot.readFrom(file));
+
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+            try {
+                out.writeInt(0x53554e53);
+                out.writeInt(ForecastSnapshot.FILE_VERSION + 1);
+            } finally {
+                out.close();
+            }
+            assertNull(ForecastSnapshot.readFrom(file));
+
+            out = new DataOutputStream(new FileOutputStream(file));
+            try {
+                out.writeInt(0x53554e53);
+                out.writeInt(ForecastSnapshot.FILE_VERSION);
+                out.writeInt(100);
+            } finally {
+                out.close();
+            }
+            assertNull(ForecastSnapshot.readFrom(file));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Checks which failed fetches are retried against a server that fails on purpose, and the
+    circuit breaker that stops syncs after too many failures.
+ */
+public class TestRetries extends AndroidTestCase {
+
+    private static final RetryPolicy FAST_RETRIES = new RetryPolicy(3, 10, 40);
+    private static final long NOW = 1419033600000L;
+    private static final long COOLDOWN_MS = 1000;
+
+    private StubHttpServer mServer;
+    private File mStateFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer();
+        mStateFile = new File(mContext.getFilesDir(), "test_sync_state");
+        mStateFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mStateFile.delete();
+        super.tearDown();
+    }
+
+    public void testTransientFailuresAreRetried() throws Exception {
+        mServer.enqueue(new StubHttpServer.Response(503));
+        mServer.enqueue(new StubHttpServer.Response(200).disconnect());
+        mServer.enqueue(new StubHttpServer.Response(200).body(ForecastPayloads.forecast()));
+
+        LocationFetch fetch = newFetch("94043").call();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, fetch.status);
+        assertTrue(fetch.hasForecast());
+        assertEquals(3, fetch.attempts);
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        for (int i = 0; i < FAST_RETRIES.getMaxAttempts(); i++) {
+            mServer.enqueue(new StubHttpServer.Response(503));
+        }
+
+        LocationFetch fetch = newFetch("94043").call();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, fetch.status);
+        assertEquals(FAST_RETRIES.getMaxAttempts(), fetch.attempts);
+    }
+
+    public void testPermanentFailuresAreNotRetried() throws Exception {
+        mServer.enqueue(new StubHttpServer.Response(200).body(ForecastPayloads.NOT_FOUND));
+        mServer.enqueue(new StubHttpServer.Response(404).body(ForecastPayloads.NOT_FOUND));
+        mServer.enqueue(new StubHttpServer.Response(401));
+
+        LocationFetch notFound = newFetch("a").call();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, notFound.status);
+        assertEquals(1, notFound.attempts);
+
+        // What OWM really sends for a city it doesn't know.
+        LocationFetch notFoundStatus = newFetch("b").call();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, notFoundStatus.status);
+        assertEquals(1, notFoundStatus.attempts);
+
+        LocationFetch unauthorized = newFetch("c").call();
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, unauthorized.status);
+        assertTrue(unauthorized.clientError);
+        assertEquals(1, unauthorized.attempts);
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    // A mistyped location, or a bad API key, is answered every time, and mustn't hold back the
+    // sync that follows fixing it.
+    public void testClientErrorsKeepBreakerClosed() throws Exception {
+        CircuitBreaker breaker = newBreaker(new SyncStateStore(mStateFile));
+        for (int i = 0; i < 5; i++) {
+            mServer.enqueue(new StubHttpServer.Response(404).body(ForecastPayloads.NOT_FOUND));
+            mServer.enqueue(new StubHttpServer.Response(401));
+            List<LocationFetch> fetches = new ArrayList<LocationFetch>();
+            fetches.add(newFetch("a").call());
+            fetches.add(newFetch("b").call());
+            SunshineSyncAdapter.recordFailures(fetches, new SyncResult(), breaker);
+            assertTrue("Error: Open after " + (i + 1) + " syncs",
+                    breaker.allowRequest(System.currentTimeMillis()));
+        }
+
+        // A server that is down still opens it.
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < FAST_RETRIES.getMaxAttempts(); j++) {
+                mServer.enqueue(new StubHttpServer.Response(503));
+            }
+            SunshineSyncAdapter.recordFailures(Collections.singletonList(newFetch("a").call()),
+                    new SyncResult(), breaker);
+        }
+        assertFalse(breaker.allowRequest(System.currentTimeMillis()));
+    }
+
+    public void testDelaysGrowWithinBounds() {
+        RetryPolicy policy = new RetryPolicy(5, 1000, 3000);
+        for (int i = 0; i < 100; i++) {
+            assertInRange(policy.getDelayMillis(1), 500, 1000);
+            assertInRange(policy.getDelayMillis(2), 1000, 2000);
+            assertInRange(policy.getDelayMillis(3), 1500, 3000);
+            assertInRange(policy.getDelayMillis(4), 1500, 3000);
+        }
+    }
+
+    public void testTransientCodes() {
+        assertTrue(RetryPolicy.isTransient(500));
+        assertTrue(RetryPolicy.isTransient(503));
+        assertTrue(RetryPolicy.isTransient(408));
+        assertTrue(RetryPolicy.isTransient(429));
+        assertFalse(RetryPolicy.isTransient(401));
+        assertFalse(RetryPolicy.isTransient(404));
+    }
+
+    public void testBreakerOpensAndBacksOff() {
+        CircuitBreaker breaker = newBreaker(new SyncStateStore(mStateFile));
+        long now = NOW;
+        for (int i = 1; i < 3; i++) {
+            breaker.onFailure(now);
+            assertTrue("Error: Open after " + i + " failures", breaker.allowRequest(now));
+        }
+        breaker.onFailure(now);
+        assertFalse(breaker.allowRequest(now));
+        assertFalse(breaker.allowRequest(now + COOLDOWN_MS - 1));
+        assertEquals(now + COOLDOWN_MS, breaker.getOpenUntil());
+
+        // The trial sync after the cooldown fails too, so it opens for twice as long.
+        now += COOLDOWN_MS;
+        assertTrue(breaker.allowRequest(now));
+        breaker.onFailure(now);
+        assertEquals(now + 2 * COOLDOWN_MS, breaker.getOpenUntil());
+
+        now += 2 * COOLDOWN_MS;
+        assertTrue(breaker.allowRequest(now));
+        breaker.onSuccess();
+        assertEquals(0, breaker.getOpenUntil());
+        breaker.onFailure(now);
+        assertTrue(breaker.allowRequest(now));
+    }
+
+    public void testBreakerIgnoresClockTurnedBack() {
+        CircuitBreaker breaker = newBreaker(new SyncStateStore(mStateFile));
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure(NOW);
+        }
+        assertFalse(breaker.allowRequest(NOW));
+        assertTrue(breaker.allowRequest(NOW - 10 * COOLDOWN_MS));
+    }
+
+    public void testStatePersists() {
+        CircuitBreaker breaker = newBreaker(new SyncStateStore(mStateFile));
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure(NOW);
+        }
+        breaker.save();
+
+        SyncStateStore reloaded = new SyncStateStore(mStateFile);
+        assertEquals(3, reloaded.getConsecutiveFailures());
+        assertEquals(NOW + COOLDOWN_MS, reloaded.getOpenUntil());
+        assertEquals(COOLDOWN_MS, reloaded.getCooldownMillis());
+        assertFalse(newBreaker(reloaded).allowRequest(NOW));
+    }
+
+    private CircuitBreaker newBreaker(SyncStateStore store) {
+        return new CircuitBreaker(store, 3, COOLDOWN_MS, 4 * COOLDOWN_MS);
+    }
+
+    private LocationFetch newFetch(String locationSetting) throws Exception {
+        return new LocationFetch(locationSetting, LocationFetch.NO_LOCATION_ID,
+                new URL(mServer.getUrl("/forecast?q=" + locationSetting)),
+                CacheValidators.NONE, new UrlConnectionTransport(), new ForecastBuffer(),
+                FAST_RETRIES);
+    }
+
+    private static void assertInRange(long value, long min, long max) {
+        assertTrue("Error: " + value + " not in [" + min + ", " + max + "]",
+                value >= min && value <= max);
+    }
+}
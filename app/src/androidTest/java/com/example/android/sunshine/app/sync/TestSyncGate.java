@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+/*
+    Checks which sync requests the gate passes on and which it collapses.
+ */
+public class TestSyncGate extends AndroidTestCase {
+
+    private static final long FRESH_MS = 500;
+    private static final String OTHER_LOCATION = "10001";
+
+    private static class CountingRequester implements SyncGate.Requester {
+        int requests;
+
+        @Override
+        public void requestSync(Context context) {
+            requests++;
+        }
+    }
+
+    private CountingRequester mRequester;
+    private SyncGate mGate;
+    private String mLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRequester = new CountingRequester();
+        mGate = new SyncGate(mRequester, FRESH_MS);
+        mLocation = Utility.getPreferredLocation(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        setPreferredLocation(mLocation);
+        super.tearDown();
+    }
+
+    public void testRequestsWhileWaitingAreCollapsed() {
+        for (int i = 0; i < 10; i++) {
+            mGate.request(mContext);
+        }
+        assertEquals(1, mRequester.requests);
+        assertEquals(1, mGate.getExecuted());
+        assertEquals(9, mGate.getCollapsed());
+    }
+
+    public void testRequestsWhileRunningAreCollapsed() {
+        mGate.request(mContext);
+        mGate.onSyncStarted(mContext);
+        mGate.request(mContext);
+        mGate.request(mContext);
+        mGate.onSyncFinished(mContext, true);
+        assertEquals(1, mRequester.requests);
+        assertEquals(2, mGate.getCollapsed());
+    }
+
+    public void testFreshnessWindow() {
+        mGate.onSyncStarted(mContext);
+        mGate.onSyncFinished(mContext, true);
+        assertTrue(mGate.isFresh(mContext));
+        mGate.request(mContext);
+        assertEquals(0, mRequester.requests);
+
+        SystemClock.sleep(FRESH_MS);
+        assertFalse(mGate.isFresh(mContext));
+        mGate.request(mContext);
+        assertEquals(1, mRequester.requests);
+    }
+
+    public void testFailedSyncIsNotFresh() {
+        mGate.onSyncStarted(mContext);
+        mGate.onSyncFinished(mContext, false);
+        assertFalse(mGate.isFresh(mContext));
+        mGate.request(mContext);
+        assertEquals(1, mRequester.requests);
+    }
+
+    // The running sync read the old location when it started, so the new one needs its own.
+    public void testNewLocationWhileRunningFollowsUp() {
+        mGate.onSyncStarted(mContext);
+        setPreferredLocation(OTHER_LOCATION);
+        mGate.request(mContext);
+        assertEquals(0, mRequester.requests);
+        mGate.onSyncFinished(mContext, true);
+        assertEquals(1, mRequester.requests);
+        assertFalse(mGate.isFresh(mContext));
+    }
+
+    private void setPreferredLocation(String location) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        prefs.edit().putString(mContext.getString(R.string.pref_location_key), location).commit();
+    }
+}
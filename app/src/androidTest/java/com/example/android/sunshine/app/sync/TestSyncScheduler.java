@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    Checks the sync scheduler's decisions, and how it reads the server's cache headers.
+ */
+public class TestSyncScheduler extends AndroidTestCase {
+
+    private static final long NOW = 1419033600000L;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    private static class HeaderResponse implements HttpTransport.Response {
+        final Map<String, String> headers = new HashMap<String, String>();
+
+        HeaderResponse header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        @Override
+        public int getCode() {
+            return 200;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return headers.get(name);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static SyncScheduler.Inputs inputs() {
+        SyncScheduler.Inputs inputs = new SyncScheduler.Inputs();
+        inputs.now = NOW;
+        inputs.lastActive = NOW - HOUR_MILLIS;
+        return inputs;
+    }
+
+    public void testDefault() {
+        assertEquals(SyncScheduler.DEFAULT_INTERVAL, SyncScheduler.decide(inputs()).interval);
+    }
+
+    public void testUnchangedSyncsStretch() {
+        SyncScheduler.Inputs inputs = inputs();
+        inputs.unchangedSyncs = SyncScheduler.UNCHANGED_SYNCS_BEFORE_STRETCH - 1;
+        assertEquals(SyncScheduler.DEFAULT_INTERVAL, SyncScheduler.decide(inputs).interval);
+        inputs.unchangedSyncs++;
+        assertEquals(SyncScheduler.DEFAULT_INTERVAL * 2, SyncScheduler.decide(inputs).interval);
+        inputs.unchangedSyncs = 100;
+        assertEquals(SyncScheduler.DEFAULT_INTERVAL << SyncScheduler.MAX_STRETCH_DOUBLINGS,
+                SyncScheduler.decide(inputs).interval);
+    }
+
+    public void testIdleStretchesUpToTheMaximum() {
+        SyncScheduler.Inputs inputs = inputs();
+        inputs.lastActive = NOW - SyncScheduler.IDLE_AFTER_MILLIS;
+        assertEquals(SyncScheduler.DEFAULT_INTERVAL * 2, SyncScheduler.decide(inputs).interval);
+        inputs.unchangedSyncs = 100;
+        assertEquals(SyncScheduler.MAX_INTERVAL, SyncScheduler.decide(inputs).interval);
+    }
+
+    public void testVolatileForecastTightens() {
+        SyncScheduler.Inputs inputs = inputs();
+        inputs.volatileForecast = true;
+        assertEquals(SyncScheduler.DEFAULT_INTERVAL / 2, SyncScheduler.decide(inputs).interval);
+    }
+
+    // Every fetch moves the numbers a little, which mustn't make the forecast look volatile.
+    public void testSmallDriftDoesNotTighten() {
+        int days = 14;
+        int[] weatherIds = new int[days];
+        double[] mins = new double[days];
+        double[] maxes = new double[days];
+        for (int i = 0; i < days; i++) {
+            weatherIds[i] = i % 3 == 0 ? 500 : 800;
+            mins[i] = 5 + i % 4;
+            maxes[i] = 12 + i % 5;
+        }
+        SyncScheduler.Inputs inputs = inputs();
+        for (int sync = 1; sync <= 6; sync++) {
+            int changed = 0;
+            int significant = 0;
+            for (int i = 0; i < days; i++) {
+                // Up to a degree and a half either way, and on the fourth sync one day turns
+                // from rain to clear.
+                double min = mins[i] + ((i + sync) % 7 - 3) * 0.5;
+                double max = maxes[i] - ((i * sync) % 5 - 2) * 0.7;
+                int weatherId = sync == 4 && i == 6 ? 800 : weatherIds[i];
+                if (min != mins[i] || max != maxes[i] || weatherId != weatherIds[i]) {
+                    changed++;
+                }
+                if (WeatherEntry.isSignificantChange(weatherIds[i], mins[i], maxes[i], weatherId,
+                        min, max)) {
+                    significant++;
+                }
+                weatherIds[i] = weatherId;
+                mins[i] = min;
+                maxes[i] = max;
+            }
+            // Most days differ bit for bit, which would have counted as volatile.
+            assertTrue(changed * 100 >= days * SyncScheduler.VOLATILE_PERCENT);
+            assertEquals(sync == 4 ? 1 : 0, significant);
+
+            SyncScheduler.onSyncFinished(inputs, significant, days, 0);
+            assertFalse(inputs.volatileForecast);
+            assertTrue("Error: Sync " + sync + " tightened the interval",
+                    SyncScheduler.decide(inputs).interval >= SyncScheduler.DEFAULT_INTERVAL);
+        }
+        // Two syncs without a change since the one that had one.
+        assertEquals(2, inputs.unchangedSyncs);
+
+        assertFalse(WeatherEntry.isSignificantChange(800, 5, 12, 800,
+                5 + WeatherEntry.SIGNIFICANT_TEMP_CHANGE, 12));
+        assertTrue(WeatherEntry.isSignificantChange(800, 5, 12, 800, 5, 12.1
+                + WeatherEntry.SIGNIFICANT_TEMP_CHANGE));
+    }
+
+    public void testAlertWins() {
+        SyncScheduler.Inputs inputs = inputs();
+        inputs.alertUntil = NOW + HOUR_MILLIS;
+        inputs.freshUntil = NOW + 12 * HOUR_MILLIS;
+        inputs.unchangedSyncs = 100;
+        assertEquals(SyncScheduler.MIN_INTERVAL, SyncScheduler.decide(inputs).interval);
+
+        inputs.alertUntil = NOW - 1;
+        assertTrue(SyncScheduler.decide(inputs).interval > SyncScheduler.MIN_INTERVAL);
+    }
+
+    public void testNeverBeforeTheServerSaysItChanged() {
+        SyncScheduler.Inputs inputs = inputs();
+        inputs.volatileForecast = true;
+        inputs.freshUntil = NOW + 5 * HOUR_MILLIS;
+        assertEquals(5 * 60 * 60, SyncScheduler.decide(inputs).interval);
+        inputs.freshUntil = NOW + 100 * HOUR_MILLIS;
+        assertEquals(SyncScheduler.MAX_INTERVAL, SyncScheduler.decide(inputs).interval);
+    }
+
+    public void testFreshUntilFromMaxAge() {
+        HeaderResponse response = new HeaderResponse()
+                .header(CacheValidators.HEADER_CACHE_CONTROL, "public, max-age=7200")
+                .header(CacheValidators.HEADER_EXPIRES, "Sat, 20 Dec 2014 10:00:00 GMT");
+        assertEquals(NOW + 2 * HOUR_MILLIS, CacheValidators.freshUntil(response, NOW));
+    }
+
+    public void testFreshUntilFromExpires() {
+        // Four hours after the server's Date, whatever our own clock says.
+        HeaderResponse response = new HeaderResponse()
+                .header(CacheValidators.HEADER_DATE, "Sat, 20 Dec 2014 00:00:00 GMT")
+                .header(CacheValidators.HEADER_EXPIRES, "Sat, 20 Dec 2014 04:00:00 GMT");
+        assertEquals(NOW + 60000 + 4 * HOUR_MILLIS,
+                CacheValidators.freshUntil(response, NOW + 60000));
+    }
+
+    public void testNoFreshness() {
+        assertEquals(0, CacheValidators.freshUntil(new HeaderResponse(), NOW));
+        assertEquals(0, CacheValidators.freshUntil(new HeaderResponse()
+                .header(CacheValidators.HEADER_CACHE_CONTROL, "no-cache")
+                .header(CacheValidators.HEADER_EXPIRES, "Sat, 20 Dec 2014 04:00:00 GMT"), NOW));
+        assertEquals(0, CacheValidators.freshUntil(new HeaderResponse()
+                .header(CacheValidators.HEADER_EXPIRES, "0"), NOW));
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A tiny HTTP/1.1 server on the loopback interface that answers with canned responses, in the
+ * order they were enqueued.  Connections are kept alive between requests so that tests can see
+ * whether the client reuses them.
+ */
+public class StubHttpServer {
+
+    private final ServerSocket mServerSocket;
+    private final BlockingQueue<Response> mResponses = new LinkedBlockingQueue<Response>();
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+    private final List<Socket> mSockets = Collections.synchronizedList(new ArrayList<Socket>());
+    private volatile int mConnectionCount;
+    private volatile boolean mShutdown;
+
+    public static class Request {
+        public final String requestLine;
+        public final Map<String, String> headers;
+        public final int connectionIndex;
+
+        Request(String requestLine, Map<String, String> headers, int connectionIndex) {
+            this.requestLine = requestLine;
+            this.headers = headers;
+            this.connectionIndex = connectionIndex;
+        }
+
+        /**
+         * @param name header name, case insensitive
+         * @return the header value, or null if the request didn't carry it
+         */
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    public static class Response {
+        final int code;
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+        byte[] body = new byte[0];
+        // Fault injection: drop the connection instead of answering.
+        boolean disconnect;
+        // Fault injection: send the headers, then drop the connection instead of the body.
+        boolean disconnectAfterHeaders;
+        // Simulated latency before the response is written.
+        long delayMs;
+
+        public Response(int code) {
+            this.code = code;
+        }
+
+        public Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Response body(byte[] body) {
+            this.body = body;
+            return this;
+        }
+
+        public Response body(String body) {
+            try {
+                return body(body.getBytes("UTF-8"));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        public Response disconnect() {
+            disconnect = true;
+            return this;
+        }
+
+        public Response disconnectAfterHeaders() {
+            disconnectAfterHeaders = true;
+            return this;
+        }
+
+        public Response delay(long delayMs) {
+            this.delayMs = delayMs;
+            return this;
+        }
+    }
+
+    public StubHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "StubHttpServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    public void enqueue(Response response) {
+        mResponses.add(response);
+    }
+
+    public List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<Request>(mRequests);
+        }
+    }
+
+    public Request takeRequest(int index) {
+        return mRequests.get(index);
+    }
+
+    public int getRequestCount() {
+        return mRequests.size();
+    }
+
+    /**
+     * @return how many TCP connections the clients have opened so far
+     */
+    public int getConnectionCount() {
+        return mConnectionCount;
+    }
+
+    public void shutdown() {
+        mShutdown = true;
+        try {
+            mServerSocket.close();
+        } catch (IOException ignored) {
+        }
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while (!mShutdown) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mSockets.add(socket);
+            final int connectionIndex = mConnectionCount++;
+            Thread connectionThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket, connectionIndex);
+                }
+            }, "StubHttpServer-" + connectionIndex);
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    private void serve(Socket socket, int connectionIndex) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (!mShutdown) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.length() == 0) {
+                    break;
+                }
+                Map<String, String> headers = new LinkedHashMap<String, String>();
+                String line;
+                while ((line = readLine(in)) != null && line.length() > 0) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                                line.substring(colon + 1).trim());
+                    }
+                }
+                mRequests.add(new Request(requestLine, headers, connectionIndex));
+
+                Response response = mResponses.poll(5, TimeUnit.SECONDS);
+                if (response == null) {
+                    response = new Response(500).body("No response enqueued");
+                }
+                if (response.delayMs > 0) {
+                    Thread.sleep(response.delayMs);
+                }
+                if (response.disconnect) {
+                    break;
+                }
+                write(out, response, requestLine.startsWith("HEAD"));
+                if (response.disconnectAfterHeaders) {
+                    break;
+                }
+            }
+        } catch (IOException ignored) {
+        } catch (InterruptedException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void write(OutputStream out, Response response, boolean head)
+            throws IOException {
+        StringBuilder builder = new StringBuilder();
+        builder.append("HTTP/1.1 ").append(response.code).append(' ')
+                .append(reasonPhrase(response.code)).append("\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            builder.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        // 304 and 204 never carry a body.
+        boolean hasBody = response.code != 304 && response.code != 204;
+        if (hasBody) {
+            builder.append("Content-Length: ").append(response.body.length).append("\r\n");
+        }
+        builder.append("\r\n");
+        out.write(builder.toString().getBytes("US-ASCII"));
+        if (hasBody && !head && !response.disconnectAfterHeaders) {
+            out.write(response.body);
+        }
+        out.flush();
+    }
+
+    private static String reasonPhrase(int code) {
+        switch (code) {
+            case 200:
+                return "OK";
+            case 304:
+                return "Not Modified";
+            case 404:
+                return "Not Found";
+            case 500:
+                return "Internal Server Error";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Status";
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("US-ASCII");
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+
+import java.io.File;
+import java.util.Arrays;
+
+/*
+    Checks that an icon is named by its bytes and read only once, and that the icons each watch
+    holds are remembered, so that it is only sent to each watch once.
+ */
+public class TestWearIcon extends AndroidTestCase {
+
+    private static final String NODE = "watch";
+
+    private File mStoreFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mStoreFile = new File(mContext.getCacheDir(), "wear_nodes_test");
+        mStoreFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStoreFile.delete();
+        super.tearDown();
+    }
+
+    public void testIconIsNamedByItsBytes() {
+        WearIcon clear = WearIcon.forResource(mContext.getResources(), R.drawable.ic_clear);
+        assertNotNull(clear);
+        assertSame(clear, WearIcon.forResource(mContext.getResources(), R.drawable.ic_clear));
+        assertEquals(WearIcon.HASH_BYTES * 2, clear.hash.length());
+
+        WearIcon rain = WearIcon.forResource(mContext.getResources(), R.drawable.ic_rain);
+        assertFalse(clear.hash.equals(rain.hash));
+
+        assertSame(clear, WearIcon.forWeather(mContext.getResources(), 800));
+        assertNull(WearIcon.forWeather(mContext.getResources(), 0));
+        assertEquals(clear.hash, WearIcon.toHex(clear.getHash(), 0, WearIcon.HASH_BYTES));
+
+        // The file as it is packaged, which decodes on the watch.
+        byte[] message = clear.encodeIcon();
+        assertTrue(Arrays.equals(clear.getHash(), Arrays.copyOf(message, WearIcon.HASH_BYTES)));
+        Bitmap bitmap = BitmapFactory.decodeByteArray(message, WearIcon.HASH_BYTES,
+                message.length - WearIcon.HASH_BYTES);
+        assertNotNull(bitmap);
+    }
+
+    public void testNodeStoreTracksIcons() {
+        WearIcon clear = WearIcon.forResource(mContext.getResources(), R.drawable.ic_clear);
+        WearIcon rain = WearIcon.forResource(mContext.getResources(), R.drawable.ic_rain);
+        WearNodeStore store = new WearNodeStore(mStoreFile);
+        assertFalse(store.holdsIcon(NODE, clear.hash));
+
+        store.onIconHeld(NODE, clear.hash);
+        store.onIconHeld(NODE, rain.hash);
+        assertTrue(store.holdsIcon(NODE, clear.hash));
+        assertFalse(store.holdsIcon("another watch", clear.hash));
+
+        // Kept across processes, so a forecast only names them.
+        store = new WearNodeStore(mStoreFile);
+        assertTrue(store.holdsIcon(NODE, clear.hash));
+        assertTrue(store.holdsIcon(NODE, rain.hash));
+
+        // A watch that lost one gets the icon itself next.
+        store.onIconMissing(NODE, clear.hash);
+        assertFalse(store.holdsIcon(NODE, clear.hash));
+        assertTrue(store.holdsIcon(NODE, rain.hash));
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.sync.ForecastSnapshot;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+    Checks that the watch gets the whole forecast once and then only what changed, nothing at all
+    when nothing did, and that what each watch acknowledged is remembered.
+ */
+public class TestWearPayload extends AndroidTestCase {
+
+    private static final String LOCATION = "94043";
+    private static final String NODE = "watch";
+    private static final int DAY_BYTES = 6 + WearIcon.HASH_BYTES;
+
+    private long mNow;
+    private int mToday;
+    private long mLocationRowId;
+    private File mStoreFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mNow = System.currentTimeMillis();
+        Time time = new Time();
+        time.setToNow();
+        mToday = Time.getJulianDay(mNow, time.gmtoff);
+
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 37.3861);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -122.0839);
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location);
+        mLocationRowId = ContentUris.parseId(uri);
+
+        mStoreFile = new File(mContext.getCacheDir(), "wear_nodes_test");
+        mStoreFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStoreFile.delete();
+        super.tearDown();
+    }
+
+    public void testPayloadHoldsRawValues() {
+        insertDays(0, 14, 0);
+        WearPayload payload = WearPayload.fromSnapshot(snapshot(), true, mContext.getResources());
+        assertEquals(14, payload.getDayCount());
+        assertEquals(WearPayload.localDay(mNow), payload.firstDay);
+        assertEquals(WearPayload.FLAG_METRIC, payload.flags);
+        assertEquals(800, payload.weatherIds[0]);
+        // 10.5 and 0.25 degrees, in tenths.
+        assertEquals(105, payload.highs[0]);
+        assertEquals(3, payload.lows[0]);
+        assertEquals(115, payload.highs[1]);
+        // Named by its icon, which the watch keeps.
+        WearIcon clear = WearIcon.forWeather(mContext.getResources(), 800);
+        assertSame(clear, payload.icons[0]);
+        assertTrue(Arrays.equals(clear.getHash(),
+                Arrays.copyOf(payload.iconHashes, WearIcon.HASH_BYTES)));
+
+        byte[] message = payload.encodeFull();
+        // Header, then six bytes a day and the hash of its icon.
+        assertEquals(2 + 4 + 1 + 4 + 1 + 14 * DAY_BYTES, message.length);
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        assertEquals(WearPayload.VERSION, buffer.get());
+        assertEquals(WearPayload.KIND_FULL, buffer.get());
+        assertEquals(payload.getId(), buffer.getInt());
+
+        WearPayload copy = WearPayload.fromBody(payload.getBody());
+        assertNotNull(copy);
+        assertEquals(payload.getId(), copy.getId());
+        assertTrue(Arrays.equals(payload.iconHashes, copy.iconHashes));
+    }
+
+    public void testUnchangedForecastSendsNothing() {
+        insertDays(0, 14, 0);
+        WearPayload first = WearPayload.fromSnapshot(snapshot(), true, mContext.getResources());
+        WearPayload second = WearPayload.fromSnapshot(snapshot(), true, mContext.getResources());
+        assertEquals(first.getId(), second.getId());
+        assertNull(second.encodeDelta(first));
+    }
+
+    public void testDeltaCarriesOnlyChangedDays() {
+        insertDays(0, 14, 0);
+        WearPayload before = WearPayload.fromSnapshot(snapshot(), true, mContext.getResources());
+        // Two days' forecast changes.
+        insertDays(3, 2, 20);
+        WearPayload after = WearPayload.fromSnapshot(snapshot(), true, mContext.getResources());
+
+        byte[] delta = after.encodeDelta(before);
+        assertEquals(2 + 4 + 4 + 1 + 4 + 1 + 4 + 2 * DAY_BYTES, delta.length);
+        ByteBuffer buffer = ByteBuffer.wrap(delta);
+        buffer.position(2);
+        assertEquals(after.getId(), buffer.getInt());
+        assertEquals(before.getId(), buffer.getInt());
+        buffer.position(buffer.position() + 1 + 4 + 1);
+        assertEquals(1 << 3 | 1 << 4, buffer.getInt());
+
+        // Switching units changes no day.
+        WearPayload imperial = WearPayload.fromSnapshot(snapshot(), false,
+                mContext.getResources());
+        assertEquals(2 + 4 + 4 + 1 + 4 + 1 + 4, imperial.encodeDelta(after).length);
+    }
+
+    public void testNodeStoreTracksAcknowledgements() {
+        insertDays(0, 14, 0);
+        WearPayload payload = WearPayload.fromSnapshot(snapshot(), true, mContext.getResources());
+        WearNodeStore store = new WearNodeStore(mStoreFile);
+        assertNull(store.getAcknowledged(NODE));
+
+        store.onSent(NODE, payload);
+        assertNull(store.getAcknowledged(NODE));
+        assertTrue(store.onAcknowledged(NODE, payload.getId()));
+        assertEquals(payload.getId(), store.getAcknowledged(NODE).getId());
+
+        // Kept across processes.
+        store = new WearNodeStore(mStoreFile);
+        assertEquals(payload.getId(), store.getAcknowledged(NODE).getId());
+
+        // A watch that starts over holds nothing, and gets the whole payload next.
+        assertFalse(store.onAcknowledged(NODE, 0));
+        assertNull(store.getAcknowledged(NODE));
+    }
+
+    private ForecastSnapshot snapshot() {
+        return ForecastSnapshot.query(mContext.getContentResolver(), LOCATION, mNow);
+    }
+
+    private void insertDays(int first, int days, int warmer) {
+        Time dayTime = new Time();
+        ContentValues[] values = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            int day = first + i;
+            ContentValues value = new ContentValues();
+            value.put(WeatherEntry.COLUMN_LOC_KEY, mLocationRowId);
+            value.put(WeatherEntry.COLUMN_DATE, dayTime.setJulianDay(mToday + day));
+            value.put(WeatherEntry.COLUMN_WEATHER_ID, 800);
+            value.put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            value.put(WeatherEntry.COLUMN_MIN_TEMP, 0.25 + warmer);
+            value.put(WeatherEntry.COLUMN_MAX_TEMP, 10.5 + day % 10 + warmer);
+            value.put(WeatherEntry.COLUMN_HUMIDITY, 50);
+            value.put(WeatherEntry.COLUMN_PRESSURE, 1013);
+            value.put(WeatherEntry.COLUMN_WIND_SPEED, 3);
+            value.put(WeatherEntry.COLUMN_DEGREES, 270);
+            values[i] = value;
+        }
+        assertEquals(days, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                values));
+    }
+}
@@ -21,9 +21,12 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
@@ -46,6 +49,7 @@ import android.widget.AbsListView;
 import android.widget.TextView;
 
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ForecastSnapshot;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
@@ -59,6 +63,15 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private int mChoiceMode;
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
+    // The last sync's forecast, shown until the loader has the database's.
+    private Cursor mSnapshotCursor;
+
+    // The first forecast frame is timed once per process, from its start or failing that from
+    // the fragment's creation, along with where the frame's data came from.
+    private static boolean sFirstFrameLogged;
+    private long mStartMillis;
+    private String mStartedAt;
+    private String mShownFrom;
 
     private static final String SELECTED_KEY = "selected_position";
 
@@ -115,6 +128,13 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         super.onCreate(savedInstanceState);
         // Add this line in order for this fragment to handle menu events.
         setHasOptionsMenu(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            mStartMillis = Process.getStartElapsedRealtime();
+            mStartedAt = "process start";
+        } else {
+            mStartMillis = SystemClock.elapsedRealtime();
+            mStartedAt = "fragment creation";
+        }
     }
 
     @Override
@@ -259,10 +279,74 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if ( mHoldForTransition ) {
             getActivity().supportPostponeEnterTransition();
         }
+        if (!sFirstFrameLogged) {
+            timeFirstFrame();
+        }
+        // After a rotation the loader still has its cursor, and hands it over straight away.
+        if (savedInstanceState == null) {
+            showSnapshot();
+        }
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
         super.onActivityCreated(savedInstanceState);
     }
 
+    /*
+        Shows the forecast the last sync kept in a file, which is read in well under a
+        millisecond, while the loader opens the database and queries it.  The loader's cursor
+        then takes its place.
+     */
+    private void showSnapshot() {
+        String locationSetting = Utility.getPreferredLocation(getActivity());
+        ForecastSnapshot snapshot = ForecastSnapshot.readFile(getActivity(), locationSetting,
+                System.currentTimeMillis());
+        if (snapshot == null) {
+            return;
+        }
+        MatrixCursor cursor = new MatrixCursor(FORECAST_COLUMNS, snapshot.getDayCount());
+        for (int day = 0; day < snapshot.getDayCount(); day++) {
+            // The snapshot has no row ids, and the dates are just as unique.
+            cursor.addRow(new Object[]{
+                    snapshot.getDate(day),
+                    snapshot.getDate(day),
+                    snapshot.getDescription(day),
+                    snapshot.getHigh(day),
+                    snapshot.getLow(day),
+                    locationSetting,
+                    snapshot.getWeatherId(day),
+                    snapshot.getLatitude(),
+                    snapshot.getLongitude()
+            });
+        }
+        mSnapshotCursor = cursor;
+        mShownFrom = "snapshot";
+        mForecastAdapter.swapCursor(cursor);
+    }
+
+    private void closeSnapshot() {
+        if (null != mSnapshotCursor) {
+            mSnapshotCursor.close();
+            mSnapshotCursor = null;
+        }
+    }
+
+    private void timeFirstFrame() {
+        mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (mRecyclerView.getChildCount() > 0) {
+                    mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                    if (!sFirstFrameLogged) {
+                        sFirstFrameLogged = true;
+                        Log.i(LOG_TAG, "First forecast frame from the " + mShownFrom + " "
+                                + (SystemClock.elapsedRealtime() - mStartMillis) + "ms after "
+                                + mStartedAt);
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
     // since we read the location when we create the loader, all we need to do is restart things
     void onLocationChanged() {
         getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
@@ -326,7 +410,13 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        if (null != mSnapshotCursor) {
+            Log.d(LOG_TAG, "Forecast loaded from the database "
+                    + (SystemClock.elapsedRealtime() - mStartMillis) + "ms after " + mStartedAt);
+        }
+        mShownFrom = "database";
         mForecastAdapter.swapCursor(data);
+        closeSnapshot();
         updateEmptyView();
         if ( data.getCount() == 0 ) {
             getActivity().supportStartPostponedEnterTransition();
@@ -377,6 +467,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     @Override
     public void onDestroy() {
         super.onDestroy();
+        closeSnapshot();
         if (null != mRecyclerView) {
             mRecyclerView.clearOnScrollListeners();
         }
@@ -385,6 +476,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         mForecastAdapter.swapCursor(null);
+        closeSnapshot();
     }
 
     public void setUseTodayLayout(boolean useTodayLayout) {
@@ -431,7 +523,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-        if (key.equals(getString(R.string.pref_location_status_key))) {
+        if (key.equals(Utility.getLocationStatusKey(getActivity(),
+                Utility.getPreferredLocation(getActivity())))) {
             updateEmptyView();
         }
     }
@@ -19,16 +19,27 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.res.TypedArray;
+import android.database.Cursor;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.EditTextPreference;
+import android.support.v4.widget.SimpleCursorAdapter;
+import android.support.v7.widget.ListPopupWindow;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.Filter;
+import android.widget.FilterQueryProvider;
+
+import com.example.android.sunshine.app.data.WeatherContract;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
@@ -37,9 +48,28 @@ import com.google.android.gms.common.GooglePlayServicesRepairableException;
 import com.google.android.gms.location.places.ui.PlacePicker;
 
 public class LocationEditTextPreference extends EditTextPreference {
+    private static final String LOG_TAG = LocationEditTextPreference.class.getSimpleName();
+
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
     private int mMinLength;
 
+    // How many saved locations are suggested at most, as the location is typed.
+    private static final int SUGGESTION_LIMIT = 5;
+    // A suggestion that takes longer than a frame to come up is logged.
+    private static final long FRAME_MILLIS = 16;
+
+    private static final String[] SUGGESTION_COLUMNS = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    // these indices must match the projection
+    private static final int COL_LOCATION_SETTING = 2;
+
+    private SimpleCursorAdapter mSuggestionAdapter;
+    private ListPopupWindow mSuggestions;
+
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
         TypedArray a = context.getTheme().obtainStyledAttributes(
@@ -107,7 +137,8 @@ public class LocationEditTextPreference extends EditTextPreference {
     protected void showDialog(Bundle state) {
         super.showDialog(state);
 
-        EditText et = getEditText();
+        final EditText et = getEditText();
+        showSuggestions(et);
         et.addTextChangedListener(new TextWatcher() {
 
 
@@ -136,7 +167,93 @@ public class LocationEditTextPreference extends EditTextPreference {
                         positiveButton.setEnabled(true);
                     }
                 }
+                filterSuggestions(s);
+            }
+        });
+    }
+
+    /**
+     * Sets up the list of saved locations that drops down from the text as it is typed.  Picking
+     * one fills in its location setting.
+     */
+    private void showSuggestions(final EditText et) {
+        mSuggestionAdapter = new SimpleCursorAdapter(getContext(),
+                android.R.layout.simple_list_item_2, null,
+                new String[]{WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                new int[]{android.R.id.text1, android.R.id.text2}, 0);
+        // The adapter's filter runs this on a thread of its own, and only for the latest text
+        // when typing gets ahead of it, so the full-text lookup never holds up a keystroke.
+        mSuggestionAdapter.setFilterQueryProvider(new FilterQueryProvider() {
+            @Override
+            public Cursor runQuery(CharSequence constraint) {
+                if (constraint == null) {
+                    return null;
+                }
+                return getContext().getContentResolver().query(
+                        WeatherContract.LocationEntry.buildSuggestionUri(constraint.toString(),
+                                SUGGESTION_LIMIT),
+                        SUGGESTION_COLUMNS, null, null, null);
             }
         });
+
+        mSuggestions = new ListPopupWindow(getContext());
+        mSuggestions.setAnchorView(et);
+        mSuggestions.setAdapter(mSuggestionAdapter);
+        // Keep the keyboard up while the list shows.
+        mSuggestions.setInputMethodMode(ListPopupWindow.INPUT_METHOD_NEEDED);
+        mSuggestions.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                Cursor cursor = mSuggestionAdapter.getCursor();
+                if (cursor != null && cursor.moveToPosition(position)) {
+                    et.setText(cursor.getString(COL_LOCATION_SETTING));
+                    et.setSelection(et.length());
+                }
+                mSuggestions.dismiss();
+            }
+        });
+    }
+
+    private void filterSuggestions(CharSequence typed) {
+        if (mSuggestionAdapter == null) {
+            return;
+        }
+        final SimpleCursorAdapter adapter = mSuggestionAdapter;
+        final long start = SystemClock.elapsedRealtime();
+        adapter.getFilter().filter(typed, new Filter.FilterListener() {
+            @Override
+            public void onFilterComplete(int count) {
+                if (adapter != mSuggestionAdapter) {
+                    // The dialog went away while the lookup ran.
+                    adapter.changeCursor(null);
+                    return;
+                }
+                long millis = SystemClock.elapsedRealtime() - start;
+                if (millis > FRAME_MILLIS) {
+                    Log.d(LOG_TAG, count + " suggestions took " + millis + "ms");
+                }
+                Dialog dialog = getDialog();
+                if (dialog == null || !dialog.isShowing() || count == 0) {
+                    mSuggestions.dismiss();
+                } else {
+                    mSuggestions.show();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onDismiss(DialogInterface dialog) {
+        super.onDismiss(dialog);
+        if (mSuggestions != null) {
+            mSuggestions.dismiss();
+            mSuggestions = null;
+        }
+        if (mSuggestionAdapter != null) {
+            // Closes the last suggestions' cursor.
+            mSuggestionAdapter.changeCursor(null);
+            mSuggestionAdapter = null;
+        }
     }
 }
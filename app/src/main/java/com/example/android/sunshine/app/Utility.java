@@ -60,6 +60,25 @@ public class Utility {
                 context.getString(R.string.pref_location_default));
     }
 
+    /**
+     * @return true if every saved location should be synced, not just the preferred one
+     */
+    public static boolean isSyncAllLocationsEnabled(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getBoolean(context.getString(R.string.pref_sync_all_locations_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_sync_all_locations_default)));
+    }
+
+    /**
+     * @return how many days before today are kept day by day; older ones are only kept as
+     * weekly and monthly summaries
+     */
+    public static int getHistoryDays(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return Integer.parseInt(prefs.getString(context.getString(R.string.pref_history_days_key),
+                context.getString(R.string.pref_history_days_default)));
+    }
+
     public static boolean isMetric(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_units_key),
@@ -577,26 +596,52 @@ public class Utility {
                 activeNetwork.isConnectedOrConnecting();
     }
 
+    /**
+     * Every location keeps its own status, so that syncing several locations at once doesn't
+     * overwrite the one the UI is showing.
+     *
+     * @param c Context used to get the key prefix
+     * @param locationSetting the location the status belongs to
+     * @return the SharedPreferences key of that location's status
+     */
+    static public String getLocationStatusKey(Context c, String locationSetting) {
+        return c.getString(R.string.pref_location_status_key) + ":" + locationSetting;
+    }
+
+    /**
+     *
+     * @param c Context used to get the SharedPreferences
+     * @return the location status integer type of the preferred location
+     */
+    static public @SunshineSyncAdapter.LocationStatus
+    int getLocationStatus(Context c){
+        return getLocationStatus(c, getPreferredLocation(c));
+    }
+
     /**
      *
      * @param c Context used to get the SharedPreferences
+     * @param locationSetting the location to look up
      * @return the location status integer type
      */
     @SuppressWarnings("ResourceType")
     static public @SunshineSyncAdapter.LocationStatus
-    int getLocationStatus(Context c){
+    int getLocationStatus(Context c, String locationSetting){
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        return sp.getInt(getLocationStatusKey(c, locationSetting),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
     }
 
     /**
-     * Resets the location status.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
+     * Resets the status of the preferred location.  (Sets it to
+     * SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
      * @param c Context used to get the SharedPreferences
      */
     static public void resetLocationStatus(Context c){
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        spe.putInt(getLocationStatusKey(c, getPreferredLocation(c)),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
         spe.apply();
     }
 }
\ No newline at end of file
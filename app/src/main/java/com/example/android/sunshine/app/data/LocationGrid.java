@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds the saved locations near a point.  The globe is cut into cells of a quarter of a degree
+ * on a side, numbered row by row from the south pole and the antimeridian, and every location
+ * row keeps the cell its coordinates fall in, in an indexed column.  A lookup first narrows the
+ * table down to the cells the radius touches, one index range per row of cells, and only then
+ * works out distances.
+ * <p>
+ * Distances are on the plane that is tangent to the globe at the point asked about, which is
+ * well within a percent of the great circle distance for the few kilometres that matter here,
+ * and is plain arithmetic that SQLite can do itself.  Lookups don't reach across the
+ * antimeridian.
+ */
+final class LocationGrid {
+
+    static final double CELL_DEGREES = 0.25;
+    static final int COLUMNS = (int) (360 / CELL_DEGREES);
+
+    // On a sphere with the Earth's mean radius of 6371km.
+    static final double KM_PER_DEGREE = 6371 * Math.PI / 180;
+
+    static final String INDEX_GRID_CELL = "location_grid_cell_idx";
+
+    static final String SQL_CREATE_GRID_CELL_INDEX = "CREATE INDEX " + INDEX_GRID_CELL + " ON " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry.COLUMN_GRID_CELL + ");";
+
+    // The database keeps the cell up to date itself, however a location is written.
+    static final String SQL_CREATE_GRID_CELL_INSERT_TRIGGER = "CREATE TRIGGER " +
+            "location_grid_cell_insert AFTER INSERT ON " + LocationEntry.TABLE_NAME +
+            " BEGIN " + updateCellSql() + " END;";
+
+    static final String SQL_CREATE_GRID_CELL_UPDATE_TRIGGER = "CREATE TRIGGER " +
+            "location_grid_cell_update AFTER UPDATE OF " + LocationEntry.COLUMN_COORD_LAT + ", " +
+            LocationEntry.COLUMN_COORD_LONG + " ON " + LocationEntry.TABLE_NAME +
+            " BEGIN " + updateCellSql() + " END;";
+
+    private LocationGrid() {
+    }
+
+    /**
+     * @return the cell a point falls in, as the triggers work it out
+     */
+    static long cellOf(double latitude, double longitude) {
+        // Both sides truncate the same way, and the longitude of 180 belongs to the last column.
+        long row = (long) ((latitude + 90) / CELL_DEGREES);
+        long column = Math.min((long) ((longitude + 180) / CELL_DEGREES), COLUMNS - 1);
+        return row * COLUMNS + column;
+    }
+
+    private static String updateCellSql() {
+        return "UPDATE " + LocationEntry.TABLE_NAME + " SET " + LocationEntry.COLUMN_GRID_CELL +
+                " = CAST((NEW." + LocationEntry.COLUMN_COORD_LAT + " + 90) / " + CELL_DEGREES +
+                " AS INTEGER) * " + COLUMNS + " + min(CAST((NEW." +
+                LocationEntry.COLUMN_COORD_LONG + " + 180) / " + CELL_DEGREES +
+                " AS INTEGER), " + (COLUMNS - 1) + ") WHERE " + LocationEntry._ID +
+                " = NEW." + LocationEntry._ID + ";";
+    }
+
+    /**
+     * Queries the locations within {@code radiusKm} of a point, nearest first unless another
+     * order is asked for.  {@link LocationEntry#COLUMN_DISTANCE} is how far each one is, in km.
+     */
+    static Cursor queryNearest(SQLiteDatabase db, String[] projection, double latitude,
+                               double longitude, double radiusKm, String sortOrder) {
+        String distanceSquared = distanceSquaredSql(latitude, longitude);
+        Map<String, String> columns = new HashMap<String, String>();
+        for (String column : new String[]{LocationEntry._ID,
+                LocationEntry.COLUMN_LOCATION_SETTING, LocationEntry.COLUMN_CITY_NAME,
+                LocationEntry.COLUMN_COORD_LAT, LocationEntry.COLUMN_COORD_LONG,
+                LocationEntry.COLUMN_ETAG, LocationEntry.COLUMN_LAST_MODIFIED,
+                LocationEntry.COLUMN_GRID_CELL}) {
+            columns.put(column, column);
+        }
+        // SQLite has no square root, the cursor takes it, see DistanceCursor.
+        columns.put(LocationEntry.COLUMN_DISTANCE,
+                distanceSquared + " AS " + LocationEntry.COLUMN_DISTANCE);
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(LocationEntry.TABLE_NAME);
+        builder.setProjectionMap(columns);
+
+        String selection = "(" + cellSelection(latitude, longitude, radiusKm) + ") AND " +
+                distanceSquared + " <= " + radiusKm * radiusKm;
+        Cursor cursor = builder.query(db, projection, selection, null, null, null,
+                sortOrder != null ? sortOrder : LocationEntry.COLUMN_DISTANCE + " ASC");
+        int distanceColumn = cursor.getColumnIndex(LocationEntry.COLUMN_DISTANCE);
+        return distanceColumn == -1 ? cursor : new DistanceCursor(cursor, distanceColumn);
+    }
+
+    /**
+     * @return the squared distance of a location's coordinates from the point, in km.  The
+     * numbers are written out rather than bound, as SQLiteQueryBuilder puts the projection
+     * ahead of the selection and its arguments would have to be repeated for both.
+     */
+    private static String distanceSquaredSql(double latitude, double longitude) {
+        double cos = Math.cos(Math.toRadians(latitude));
+        return "((" + LocationEntry.COLUMN_COORD_LAT + " - (" + latitude + ")) * (" +
+                LocationEntry.COLUMN_COORD_LAT + " - (" + latitude + ")) + (" +
+                LocationEntry.COLUMN_COORD_LONG + " - (" + longitude + ")) * (" +
+                LocationEntry.COLUMN_COORD_LONG + " - (" + longitude + ")) * " + cos * cos +
+                ") * " + KM_PER_DEGREE * KM_PER_DEGREE;
+    }
+
+    /**
+     * @return a selection of the cells that a circle around the point touches, as one range of
+     * cells for each row of them
+     */
+    static String cellSelection(double latitude, double longitude, double radiusKm) {
+        double latitudeDelta = radiusKm / KM_PER_DEGREE;
+        double south = Math.max(latitude - latitudeDelta, -90);
+        double north = Math.min(latitude + latitudeDelta, 90);
+        // The circle is widest where it is furthest from the equator.
+        double cos = Math.cos(Math.toRadians(Math.max(Math.abs(south), Math.abs(north))));
+        double west = -180;
+        double east = 180;
+        if (cos * 180 * KM_PER_DEGREE > radiusKm) {
+            double longitudeDelta = latitudeDelta / cos;
+            west = Math.max(longitude - longitudeDelta, -180);
+            east = Math.min(longitude + longitudeDelta, 180);
+        }
+        long firstRow = cellOf(south, west) / COLUMNS;
+        long lastRow = cellOf(north, west) / COLUMNS;
+        long westColumn = cellOf(south, west) % COLUMNS;
+        long eastColumn = cellOf(south, east) % COLUMNS;
+
+        StringBuilder selection = new StringBuilder();
+        for (long row = firstRow; row <= lastRow; row++) {
+            if (selection.length() > 0) {
+                selection.append(" OR ");
+            }
+            selection.append(LocationEntry.COLUMN_GRID_CELL).append(" BETWEEN ")
+                    .append(row * COLUMNS + westColumn).append(" AND ")
+                    .append(row * COLUMNS + eastColumn);
+        }
+        return selection.toString();
+    }
+
+    /**
+     * Hands out the distance column's square root, the distance itself.
+     */
+    private static final class DistanceCursor extends CursorWrapper {
+        private final int mDistanceColumn;
+
+        DistanceCursor(Cursor cursor, int distanceColumn) {
+            super(cursor);
+            mDistanceColumn = distanceColumn;
+        }
+
+        @Override
+        public double getDouble(int columnIndex) {
+            double value = super.getDouble(columnIndex);
+            return columnIndex == mDistanceColumn ? Math.sqrt(value) : value;
+        }
+
+        @Override
+        public float getFloat(int columnIndex) {
+            return columnIndex == mDistanceColumn
+                    ? (float) getDouble(columnIndex) : super.getFloat(columnIndex);
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            return columnIndex == mDistanceColumn
+                    ? Double.toString(getDouble(columnIndex)) : super.getString(columnIndex);
+        }
+    }
+}
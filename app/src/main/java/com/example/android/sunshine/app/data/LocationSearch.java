@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Suggests saved locations as a location is typed.  The words of every location's city name and
+ * location setting are kept in a full-text index, a virtual table whose rows have the location's
+ * _id as their docid, so each word typed is a prefix lookup in the index rather than a scan of
+ * the location table.  Triggers keep the index in step with the table, however a location is
+ * written.
+ * <p>
+ * The index is FTS3 with the simple tokenizer, the one every SQLite we run on has.  It splits
+ * on anything that isn't an ASCII letter or digit and only folds ASCII case, so "sao" doesn't
+ * find "São Paulo".
+ */
+final class LocationSearch {
+
+    static final String TABLE_NAME = "location_search";
+
+    static final String SQL_CREATE_TABLE = "CREATE VIRTUAL TABLE " + TABLE_NAME +
+            " USING fts3(" + LocationEntry.COLUMN_CITY_NAME + ", " +
+            LocationEntry.COLUMN_LOCATION_SETTING + ");";
+
+    static final String SQL_CREATE_INSERT_TRIGGER = "CREATE TRIGGER location_search_insert " +
+            "AFTER INSERT ON " + LocationEntry.TABLE_NAME + " BEGIN INSERT INTO " + TABLE_NAME +
+            " (docid, " + LocationEntry.COLUMN_CITY_NAME + ", " +
+            LocationEntry.COLUMN_LOCATION_SETTING + ") VALUES (NEW." + LocationEntry._ID +
+            ", NEW." + LocationEntry.COLUMN_CITY_NAME + ", NEW." +
+            LocationEntry.COLUMN_LOCATION_SETTING + "); END;";
+
+    static final String SQL_CREATE_UPDATE_TRIGGER = "CREATE TRIGGER location_search_update " +
+            "AFTER UPDATE OF " + LocationEntry.COLUMN_CITY_NAME + ", " +
+            LocationEntry.COLUMN_LOCATION_SETTING + " ON " + LocationEntry.TABLE_NAME +
+            " BEGIN UPDATE " + TABLE_NAME + " SET " + LocationEntry.COLUMN_CITY_NAME + " = NEW." +
+            LocationEntry.COLUMN_CITY_NAME + ", " + LocationEntry.COLUMN_LOCATION_SETTING +
+            " = NEW." + LocationEntry.COLUMN_LOCATION_SETTING + " WHERE docid = OLD." +
+            LocationEntry._ID + "; END;";
+
+    static final String SQL_CREATE_DELETE_TRIGGER = "CREATE TRIGGER location_search_delete " +
+            "AFTER DELETE ON " + LocationEntry.TABLE_NAME + " BEGIN DELETE FROM " + TABLE_NAME +
+            " WHERE docid = OLD." + LocationEntry._ID + "; END;";
+
+    // What a suggestion URI hands back when it doesn't say how many.
+    static final int DEFAULT_LIMIT = 10;
+
+    private static final Map<String, String> sColumns = new HashMap<String, String>();
+
+    static {
+        for (String column : new String[]{LocationEntry._ID,
+                LocationEntry.COLUMN_LOCATION_SETTING, LocationEntry.COLUMN_CITY_NAME,
+                LocationEntry.COLUMN_COORD_LAT, LocationEntry.COLUMN_COORD_LONG,
+                LocationEntry.COLUMN_ETAG, LocationEntry.COLUMN_LAST_MODIFIED,
+                LocationEntry.COLUMN_GRID_CELL}) {
+            // The index has columns of the same names, the location table's are handed out.
+            sColumns.put(column, LocationEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+    }
+
+    private static final SQLiteQueryBuilder sQueryBuilder;
+
+    static {
+        sQueryBuilder = new SQLiteQueryBuilder();
+        sQueryBuilder.setTables(TABLE_NAME + " INNER JOIN " + LocationEntry.TABLE_NAME + " ON " +
+                TABLE_NAME + ".docid = " + LocationEntry.TABLE_NAME + "." + LocationEntry._ID);
+        sQueryBuilder.setProjectionMap(sColumns);
+    }
+
+    private LocationSearch() {
+    }
+
+    /**
+     * Queries the locations whose city name or location setting has a word starting with each
+     * word typed, best first: those whose city name starts with what was typed, then those whose
+     * location setting does, then the rest, and shorter names ahead of longer ones within each.
+     *
+     * @param typed what has been typed so far, as is
+     * @param limit how many suggestions at most
+     */
+    static Cursor querySuggestions(SQLiteDatabase db, String[] projection, String typed,
+                                   int limit) {
+        String normalized = normalize(typed);
+        if (normalized.length() == 0) {
+            // Nothing to look for, and an empty MATCH is an error rather than no rows.
+            return new MatrixCursor(projection != null
+                    ? projection : sColumns.keySet().toArray(new String[sColumns.size()]));
+        }
+        // Only letters, digits and single spaces are left, so neither string has anything that
+        // MATCH or LIKE would read as an operator.  LIKE folds ASCII case, as the index does.
+        String prefix = DatabaseUtils.sqlEscapeString(normalized + "%");
+        String sortOrder = "CASE WHEN " + LocationEntry.TABLE_NAME + "." +
+                LocationEntry.COLUMN_CITY_NAME + " LIKE " + prefix + " THEN 0 WHEN " +
+                LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_LOCATION_SETTING +
+                " LIKE " + prefix + " THEN 1 ELSE 2 END, length(" + LocationEntry.TABLE_NAME +
+                "." + LocationEntry.COLUMN_CITY_NAME + "), " + LocationEntry.TABLE_NAME + "." +
+                LocationEntry.COLUMN_CITY_NAME + " COLLATE NOCASE";
+        return sQueryBuilder.query(db, projection, TABLE_NAME + " MATCH ?",
+                new String[]{matchExpression(normalized)}, null, null, sortOrder,
+                Integer.toString(limit));
+    }
+
+    /**
+     * @return the words of what was typed, lower case and split the way the index splits them,
+     * with a single space between them
+     */
+    static String normalize(String typed) {
+        StringBuilder normalized = new StringBuilder(typed.length());
+        boolean inWord = false;
+        for (int i = 0; i < typed.length(); i++) {
+            char c = typed.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                normalized.append(c);
+                inWord = true;
+            } else {
+                inWord = false;
+            }
+        }
+        return normalized.toString().toLowerCase(Locale.US);
+    }
+
+    /**
+     * @return the MATCH expression that asks for a word starting with each of the words.  Lower
+     * case, none of them can be taken for OR, AND or NEAR.
+     */
+    static String matchExpression(String normalized) {
+        return normalized.replace(" ", "* ") + "*";
+    }
+}
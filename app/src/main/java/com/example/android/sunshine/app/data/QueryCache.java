@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.CursorIndexOutOfBoundsException;
+import android.os.Build;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Results of the per-location weather queries, kept by the {@link WeatherProvider} so that the
+ * burst of identical queries after a sync (widgets, Muzei, the notification, the watch) reads
+ * the database once.  A result is read into an immutable snapshot; every hit gets its own
+ * cursor over the shared snapshot.
+ * <p>
+ * The provider drops a location's results after every write that touches it, once the write
+ * has been committed.  A query that was already running when that happened doesn't store what
+ * it read, as that may be from before the write.
+ */
+public class QueryCache {
+
+    // A handful of locations times the list, today and the detail view.
+    private static final int MAX_ENTRIES = 32;
+
+    /**
+     * Runs the query when it isn't cached.
+     */
+    interface Source {
+        Cursor query();
+    }
+
+    private static class Entry {
+        final String locationSetting;
+        final Snapshot snapshot;
+
+        Entry(String locationSetting, Snapshot snapshot) {
+            this.locationSetting = locationSetting;
+            this.snapshot = snapshot;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    // Bumped by every invalidation, so a fill that overlapped one can tell.
+    private long mGeneration;
+
+    // Identical misses arriving together wait for the first one instead of querying as well.
+    private final Object[] mFillLocks = new Object[8];
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    QueryCache() {
+        for (int i = 0; i < mFillLocks.length; i++) {
+            mFillLocks[i] = new Object();
+        }
+    }
+
+    static String key(int match, String locationSetting, long date, String[] projection,
+                      String sortOrder) {
+        StringBuilder key = new StringBuilder()
+                .append(match).append('|')
+                .append(locationSetting).append('|')
+                .append(date).append('|')
+                .append(sortOrder).append('|');
+        if (projection == null) {
+            key.append('*');
+        } else {
+            for (String column : projection) {
+                key.append(column).append(',');
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return a cursor over the cached result, or over what the source read if there was none
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    Cursor query(String key, String locationSetting, Source source) {
+        Entry entry = get(key);
+        if (entry == null) {
+            synchronized (mFillLocks[(key.hashCode() & 0x7fffffff) % mFillLocks.length]) {
+                entry = get(key);
+                if (entry == null) {
+                    mMisses.incrementAndGet();
+                    long generation;
+                    synchronized (this) {
+                        generation = mGeneration;
+                    }
+                    Cursor cursor = source.query();
+                    Snapshot snapshot;
+                    try {
+                        snapshot = Snapshot.of(cursor);
+                    } finally {
+                        cursor.close();
+                    }
+                    entry = new Entry(locationSetting, snapshot);
+                    synchronized (this) {
+                        if (generation == mGeneration) {
+                            mEntries.put(key, entry);
+                        }
+                    }
+                    return snapshot.newCursor();
+                }
+            }
+        }
+        mHits.incrementAndGet();
+        return entry.snapshot.newCursor();
+    }
+
+    private synchronized Entry get(String key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * Drops the results for a location.
+     *
+     * @param locationSetting the location that changed, or null if it isn't known
+     */
+    synchronized void invalidate(String locationSetting) {
+        mGeneration++;
+        if (locationSetting == null) {
+            mEntries.clear();
+            return;
+        }
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            if (locationSetting.equals(entries.next().locationSetting)) {
+                entries.remove();
+            }
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    public long getHits() {
+        return mHits.get();
+    }
+
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    @Override
+    public String toString() {
+        return getHits() + " hits, " + getMisses() + " misses, " + size() + " cached";
+    }
+
+    /**
+     * The rows of a query, row by row: Long, Double, String, byte[] or null.
+     */
+    static class Snapshot {
+        final String[] columns;
+        final Object[] values;
+        final int count;
+
+        private Snapshot(String[] columns, Object[] values, int count) {
+            this.columns = columns;
+            this.values = values;
+            this.count = count;
+        }
+
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        static Snapshot of(Cursor cursor) {
+            String[] columns = cursor.getColumnNames();
+            int count = cursor.getCount();
+            Object[] values = new Object[count * columns.length];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < columns.length; column++) {
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            values[i++] = cursor.getLong(column);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            values[i++] = cursor.getDouble(column);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            values[i++] = cursor.getString(column);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            values[i++] = cursor.getBlob(column);
+                            break;
+                        default:
+                            values[i++] = null;
+                    }
+                }
+            }
+            return new Snapshot(columns, values, count);
+        }
+
+        Cursor newCursor() {
+            return new SnapshotCursor(this);
+        }
+    }
+
+    /**
+     * A read-only cursor over a shared snapshot.  Values convert like a MatrixCursor's.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static class SnapshotCursor extends AbstractCursor {
+        private final Snapshot mSnapshot;
+
+        SnapshotCursor(Snapshot snapshot) {
+            mSnapshot = snapshot;
+        }
+
+        private Object get(int column) {
+            if (column < 0 || column >= mSnapshot.columns.length) {
+                throw new IndexOutOfBoundsException("Requested column: " + column
+                        + ", # of columns: " + mSnapshot.columns.length);
+            }
+            if (mPos < 0 || mPos >= mSnapshot.count) {
+                throw new CursorIndexOutOfBoundsException(mPos, mSnapshot.count);
+            }
+            return mSnapshot.values[mPos * mSnapshot.columns.length + column];
+        }
+
+        @Override
+        public int getCount() {
+            return mSnapshot.count;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mSnapshot.columns;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = get(column);
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public short getShort(int column) {
+            Object value = get(column);
+            if (value == null) return 0;
+            if (value instanceof Number) return ((Number) value).shortValue();
+            return Short.parseShort(value.toString());
+        }
+
+        @Override
+        public int getInt(int column) {
+            Object value = get(column);
+            if (value == null) return 0;
+            if (value instanceof Number) return ((Number) value).intValue();
+            return Integer.parseInt(value.toString());
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = get(column);
+            if (value == null) return 0;
+            if (value instanceof Number) return ((Number) value).longValue();
+            return Long.parseLong(value.toString());
+        }
+
+        @Override
+        public float getFloat(int column) {
+            Object value = get(column);
+            if (value == null) return 0.0f;
+            if (value instanceof Number) return ((Number) value).floatValue();
+            return Float.parseFloat(value.toString());
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = get(column);
+            if (value == null) return 0.0d;
+            if (value instanceof Number) return ((Number) value).doubleValue();
+            return Double.parseDouble(value.toString());
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = get(column);
+            // Hand out a copy, the snapshot is shared.
+            return value instanceof byte[] ? Arrays.copyOf((byte[]) value, ((byte[]) value).length)
+                    : null;
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = get(column);
+            if (value == null) return Cursor.FIELD_TYPE_NULL;
+            if (value instanceof Long) return Cursor.FIELD_TYPE_INTEGER;
+            if (value instanceof Double) return Cursor.FIELD_TYPE_FLOAT;
+            if (value instanceof byte[]) return Cursor.FIELD_TYPE_BLOB;
+            return Cursor.FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+    }
+}
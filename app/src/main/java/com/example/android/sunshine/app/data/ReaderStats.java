@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How long queries took to produce their first results, kept by the {@link WeatherProvider}.
+ * This includes waiting for a database connection and for any write that holds the database,
+ * which is what a reader blocked by a sync shows up as.
+ */
+public class ReaderStats {
+
+    // A query that takes longer than a frame has kept somebody waiting.
+    static final long SLOW_QUERY_NANOS = 16 * 1000 * 1000;
+
+    private final AtomicLong mQueries = new AtomicLong();
+    private final AtomicLong mSlowQueries = new AtomicLong();
+    private final AtomicLong mWaitNanos = new AtomicLong();
+    private final AtomicLong mMaxWaitNanos = new AtomicLong();
+
+    void onQuery(long waitNanos) {
+        mQueries.incrementAndGet();
+        mWaitNanos.addAndGet(waitNanos);
+        if (waitNanos > SLOW_QUERY_NANOS) {
+            mSlowQueries.incrementAndGet();
+        }
+        long max = mMaxWaitNanos.get();
+        while (waitNanos > max && !mMaxWaitNanos.compareAndSet(max, waitNanos)) {
+            max = mMaxWaitNanos.get();
+        }
+    }
+
+    public void reset() {
+        mQueries.set(0);
+        mSlowQueries.set(0);
+        mWaitNanos.set(0);
+        mMaxWaitNanos.set(0);
+    }
+
+    public long getQueries() {
+        return mQueries.get();
+    }
+
+    public long getSlowQueries() {
+        return mSlowQueries.get();
+    }
+
+    public long getTotalWaitNanos() {
+        return mWaitNanos.get();
+    }
+
+    public long getMaxWaitNanos() {
+        return mMaxWaitNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        long queries = getQueries();
+        return queries + " queries, " + getSlowQueries() + " slower than a frame, "
+                + (queries > 0 ? getTotalWaitNanos() / queries / 1000 : 0) + "us average, "
+                + getMaxWaitNanos() / 1000 + "us max";
+    }
+}
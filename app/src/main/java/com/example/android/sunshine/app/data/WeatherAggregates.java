@@ -0,0 +1,400 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Keeps the history table in step with the weather table.  Every day that is written is added
+ * to its week's and its month's row, and to their count of days with its weather id; a day that
+ * is replaced or deleted is taken out of them again, in the same transaction as the write.
+ * Counts and sums just go down; the lowest and highest temperature are only looked for again
+ * when the day that goes was the one that held them, among the days of that one period that are
+ * still stored and the extremes its row kept of the ones that aren't.
+ * <p>
+ * Days that leave the weather table for being older than the daily window stay counted, see
+ * WeatherRetention.
+ */
+final class WeatherAggregates {
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    // The days of each history row by weather id, which the weather id and the condition
+    // columns of HistoryEntry are worked out from.
+    static final String TABLE_CONDITION = "history_condition";
+    static final String COLUMN_HISTORY_ID = "history_id";
+    static final String COLUMN_WEATHER_ID = "weather_id";
+    static final String COLUMN_DAYS = "days";
+
+    // The lowest low and highest high of the days of a history row that are no longer in the
+    // weather table, or null while there are none.  Only kept so that the row's own extremes
+    // can be found again, see UPDATE_EXTREMES_SQL.
+    static final String COLUMN_PAST_MIN = "past_min";
+    static final String COLUMN_PAST_MAX = "past_max";
+
+    static final String[] CONDITION_COLUMNS = {
+            HistoryEntry.COLUMN_STORM_DAYS,
+            HistoryEntry.COLUMN_DRIZZLE_DAYS,
+            HistoryEntry.COLUMN_RAIN_DAYS,
+            HistoryEntry.COLUMN_SNOW_DAYS,
+            HistoryEntry.COLUMN_FOG_DAYS,
+            HistoryEntry.COLUMN_CLEAR_DAYS,
+            HistoryEntry.COLUMN_CLOUDY_DAYS,
+            HistoryEntry.COLUMN_OTHER_DAYS
+    };
+
+    // The weather ids each of CONDITION_COLUMNS counts, in the same order
+    static final String[] CONDITION_WEATHER_IDS = {
+            COLUMN_WEATHER_ID + " / 100 = 2",
+            COLUMN_WEATHER_ID + " / 100 = 3",
+            COLUMN_WEATHER_ID + " / 100 = 5",
+            COLUMN_WEATHER_ID + " / 100 = 6",
+            COLUMN_WEATHER_ID + " / 100 = 7",
+            COLUMN_WEATHER_ID + " = 800",
+            COLUMN_WEATHER_ID + " > 800 AND " + COLUMN_WEATHER_ID + " < 900",
+            COLUMN_WEATHER_ID + " / 100 NOT IN (2, 3, 5, 6, 7, 8)"
+    };
+
+    // The weather ids that HistoryEntry.COLUMN_WET_DAYS counts
+    static final String WET_WEATHER_IDS = COLUMN_WEATHER_ID + " / 100 IN (2, 3, 5, 6)";
+
+    // The most common weather id of the history row a query is on, the lower one of a tie
+    static final String DOMINANT_WEATHER_ID =
+            "(SELECT " + COLUMN_WEATHER_ID + " FROM " + TABLE_CONDITION +
+                    " WHERE " + COLUMN_HISTORY_ID + " = " +
+                    HistoryEntry.TABLE_NAME + "." + HistoryEntry._ID +
+                    " ORDER BY " + COLUMN_DAYS + " DESC, " + COLUMN_WEATHER_ID + " ASC LIMIT 1)";
+
+    private static final String[] DAY_COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP
+    };
+
+    // these indices must match the projection
+    private static final int COL_ID = 0;
+    private static final int COL_LOC_KEY = 1;
+    private static final int COL_DATE = 2;
+    private static final int COL_WEATHER_ID = 3;
+    private static final int COL_MIN_TEMP = 4;
+    private static final int COL_MAX_TEMP = 5;
+
+    static final String PERIOD_KEY =
+            HistoryEntry.COLUMN_LOC_KEY + " = ?1 AND " +
+                    HistoryEntry.COLUMN_PERIOD + " = ?2 AND " +
+                    HistoryEntry.COLUMN_START + " = ?3";
+
+    private static final String HISTORY_ID_OF_PERIOD =
+            "(SELECT " + HistoryEntry._ID + " FROM " + HistoryEntry.TABLE_NAME +
+                    " WHERE " + PERIOD_KEY + ")";
+
+    // A new period starts out empty; its min and max are those of its first day.
+    static final String INSERT_HISTORY_SQL =
+            "INSERT OR IGNORE INTO " + HistoryEntry.TABLE_NAME + " (" +
+                    HistoryEntry.COLUMN_LOC_KEY + ", " +
+                    HistoryEntry.COLUMN_PERIOD + ", " +
+                    HistoryEntry.COLUMN_START + ", " +
+                    HistoryEntry.COLUMN_DAYS + ", " +
+                    HistoryEntry.COLUMN_MIN_TEMP + ", " +
+                    HistoryEntry.COLUMN_MAX_TEMP + ", " +
+                    HistoryEntry.COLUMN_MIN_SUM + ", " +
+                    HistoryEntry.COLUMN_MAX_SUM +
+                    ") VALUES (?1, ?2, ?3, 0, ?4, ?5, 0, 0)";
+
+    // days += ?4, min_sum += ?5, max_sum += ?6, min = min(min, ?7), max = max(max, ?8)
+    // of the period ?1, ?2, ?3
+    static final String ADD_TO_HISTORY_SQL =
+            "UPDATE " + HistoryEntry.TABLE_NAME + " SET " +
+                    sum(HistoryEntry.COLUMN_DAYS, 4) + ", " +
+                    sum(HistoryEntry.COLUMN_MIN_SUM, 5) + ", " +
+                    sum(HistoryEntry.COLUMN_MAX_SUM, 6) + ", " +
+                    HistoryEntry.COLUMN_MIN_TEMP + " = min(" +
+                    HistoryEntry.COLUMN_MIN_TEMP + ", ?7), " +
+                    HistoryEntry.COLUMN_MAX_TEMP + " = max(" +
+                    HistoryEntry.COLUMN_MAX_TEMP + ", ?8)" +
+                    " WHERE " + PERIOD_KEY;
+
+    // The weather id ?4 of the period ?1, ?2, ?3, starting out at no days
+    static final String INSERT_CONDITION_SQL =
+            "INSERT OR IGNORE INTO " + TABLE_CONDITION + " (" +
+                    COLUMN_HISTORY_ID + ", " +
+                    COLUMN_WEATHER_ID + ", " +
+                    COLUMN_DAYS + ") SELECT " + HistoryEntry._ID + ", ?4, 0 FROM " +
+                    HistoryEntry.TABLE_NAME + " WHERE " + PERIOD_KEY;
+
+    // days += ?5 of the weather id ?4 of the period ?1, ?2, ?3
+    static final String ADD_TO_CONDITION_SQL =
+            "UPDATE " + TABLE_CONDITION + " SET " + sum(COLUMN_DAYS, 5) +
+                    " WHERE " + COLUMN_HISTORY_ID + " = " + HISTORY_ID_OF_PERIOD +
+                    " AND " + COLUMN_WEATHER_ID + " = ?4";
+
+    static final String DELETE_EMPTY_CONDITION_SQL =
+            "DELETE FROM " + TABLE_CONDITION +
+                    " WHERE " + COLUMN_HISTORY_ID + " = " + HISTORY_ID_OF_PERIOD +
+                    " AND " + COLUMN_WEATHER_ID + " = ?4 AND " + COLUMN_DAYS + " <= 0";
+
+    // Once its last weather id is gone, see above.
+    static final String DELETE_EMPTY_HISTORY_SQL =
+            "DELETE FROM " + HistoryEntry.TABLE_NAME + " WHERE " + PERIOD_KEY + " AND " +
+                    HistoryEntry.COLUMN_DAYS + " <= 0";
+
+    // The lowest and highest temperature of the period ?1, ?2, ?3 again, from its stored days
+    // dated from ?4 up to ?5 and the extremes of the ones that aren't stored any more, if the
+    // day taken out had a low of ?6 or a high of ?7 that could have been them.
+    static final String UPDATE_EXTREMES_SQL =
+            "UPDATE " + HistoryEntry.TABLE_NAME + " SET " +
+                    HistoryEntry.COLUMN_MIN_TEMP + " = " + extremeOfPeriod("min",
+                    WeatherEntry.COLUMN_MIN_TEMP, COLUMN_PAST_MIN, HistoryEntry.COLUMN_MIN_TEMP) +
+                    ", " +
+                    HistoryEntry.COLUMN_MAX_TEMP + " = " + extremeOfPeriod("max",
+                    WeatherEntry.COLUMN_MAX_TEMP, COLUMN_PAST_MAX, HistoryEntry.COLUMN_MAX_TEMP) +
+                    " WHERE " + PERIOD_KEY + " AND (" +
+                    HistoryEntry.COLUMN_MIN_TEMP + " >= ?6 OR " +
+                    HistoryEntry.COLUMN_MAX_TEMP + " <= ?7)";
+
+    private static String sum(String column, int index) {
+        return column + " = " + column + " + ?" + index;
+    }
+
+    /**
+     * @return the extreme of the stored days and the past one, whichever of them there is, or
+     * else the current one
+     */
+    private static String extremeOfPeriod(String function, String weatherColumn,
+                                          String pastColumn, String column) {
+        String stored = "(SELECT " + function + "(" + WeatherEntry.TABLE_NAME + "." +
+                weatherColumn + ") FROM " + WeatherEntry.TABLE_NAME +
+                " WHERE " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_LOC_KEY + " = ?1" +
+                " AND " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + " >= ?4" +
+                " AND " + WeatherEntry.TABLE_NAME + "." + WeatherEntry.COLUMN_DATE + " < ?5)";
+        // The function of several values is null if any of them is.
+        return "coalesce(" + function + "(" + stored + ", " + pastColumn + "), " +
+                stored + ", " + pastColumn + ", " + column + ")";
+    }
+
+    /**
+     * The columns of a stored day that the history is made of.
+     */
+    static final class Day {
+        final long id;
+        final long locationId;
+        final long date;
+        final int weatherId;
+        final double minTemp;
+        final double maxTemp;
+
+        Day(long id, long locationId, long date, int weatherId, double minTemp, double maxTemp) {
+            this.id = id;
+            this.locationId = locationId;
+            this.date = date;
+            this.weatherId = weatherId;
+            this.minTemp = minTemp;
+            this.maxTemp = maxTemp;
+        }
+    }
+
+    private final WeatherStatements mStatements;
+    private final Time mTime = new Time();
+    private final Calendar mCalendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+    /**
+     * Must be used inside a transaction, holding the statements.
+     */
+    WeatherAggregates(WeatherStatements statements) {
+        mStatements = statements;
+    }
+
+    void add(long locationId, long date, int weatherId, double minTemp, double maxTemp) {
+        apply(locationId, date, weatherId, minTemp, maxTemp, 1);
+    }
+
+    void add(Day day) {
+        apply(day.locationId, day.date, day.weatherId, day.minTemp, day.maxTemp, 1);
+    }
+
+    /**
+     * Takes a day out.  Call it once the day is no longer in the weather table.
+     */
+    void remove(Day day) {
+        apply(day.locationId, day.date, day.weatherId, day.minTemp, day.maxTemp, -1);
+    }
+
+    private void apply(long locationId, long date, int weatherId, double minTemp,
+                       double maxTemp, int sign) {
+        // Dates are stored at midnight where the sync ran, see WeatherRetention.
+        mTime.set(date);
+        long gmtoff = mTime.gmtoff;
+        int day = WeatherRetention.dayOf(date, gmtoff);
+
+        int weekStart = (int) WeatherRetention.weekStart(day);
+        applyToPeriod(locationId, HistoryEntry.PERIOD_WEEK, weekStart * DAY_MILLIS,
+                firstDate(weekStart, gmtoff), firstDate(weekStart + 7, gmtoff),
+                weatherId, minTemp, maxTemp, sign);
+
+        long monthStart = WeatherRetention.monthStart(mCalendar, day);
+        mCalendar.add(Calendar.MONTH, 1);
+        int nextMonth = (int) (mCalendar.getTimeInMillis() / DAY_MILLIS);
+        applyToPeriod(locationId, HistoryEntry.PERIOD_MONTH, monthStart,
+                firstDate((int) (monthStart / DAY_MILLIS), gmtoff), firstDate(nextMonth, gmtoff),
+                weatherId, minTemp, maxTemp, sign);
+    }
+
+    /**
+     * @param from the first stored date of the period
+     * @param to the first stored date of the next one
+     */
+    private void applyToPeriod(long locationId, int period, long start, long from, long to,
+                               int weatherId, double minTemp, double maxTemp, int sign) {
+        if (sign > 0) {
+            SQLiteStatement insert = mStatements.insertHistory;
+            bindPeriod(insert, locationId, period, start);
+            insert.bindDouble(4, minTemp);
+            insert.bindDouble(5, maxTemp);
+            insert.executeInsert();
+
+            SQLiteStatement insertCondition = mStatements.insertCondition;
+            bindPeriod(insertCondition, locationId, period, start);
+            insertCondition.bindLong(4, weatherId);
+            insertCondition.executeInsert();
+        }
+
+        SQLiteStatement add = mStatements.addToHistory;
+        bindPeriod(add, locationId, period, start);
+        add.bindLong(4, sign);
+        add.bindDouble(5, sign * minTemp);
+        add.bindDouble(6, sign * maxTemp);
+        // Taking a day out leaves min and max alone here, they are looked at below.
+        add.bindDouble(7, sign > 0 ? minTemp : Double.MAX_VALUE);
+        add.bindDouble(8, sign > 0 ? maxTemp : -Double.MAX_VALUE);
+        // execute() rather than executeUpdateDelete(), which would need Honeycomb.
+        add.execute();
+
+        SQLiteStatement addToCondition = mStatements.addToCondition;
+        bindPeriod(addToCondition, locationId, period, start);
+        addToCondition.bindLong(4, weatherId);
+        addToCondition.bindLong(5, sign);
+        addToCondition.execute();
+
+        if (sign < 0) {
+            SQLiteStatement deleteCondition = mStatements.deleteEmptyCondition;
+            bindPeriod(deleteCondition, locationId, period, start);
+            deleteCondition.bindLong(4, weatherId);
+            deleteCondition.execute();
+
+            SQLiteStatement deleteEmpty = mStatements.deleteEmptyHistory;
+            bindPeriod(deleteEmpty, locationId, period, start);
+            deleteEmpty.execute();
+
+            SQLiteStatement extremes = mStatements.updateHistoryExtremes;
+            bindPeriod(extremes, locationId, period, start);
+            extremes.bindLong(4, from);
+            extremes.bindLong(5, to);
+            extremes.bindDouble(6, minTemp);
+            extremes.bindDouble(7, maxTemp);
+            extremes.execute();
+        }
+    }
+
+    /**
+     * @return the earliest a date of the given day can be stored as, with the same half day of
+     * margin as WeatherRetention
+     */
+    private static long firstDate(int day, long gmtoff) {
+        return day * DAY_MILLIS - gmtoff * 1000 - DAY_MILLIS / 2;
+    }
+
+    private static void bindPeriod(SQLiteStatement statement, long locationId, int period,
+                                   long start) {
+        statement.bindLong(1, locationId);
+        statement.bindLong(2, period);
+        statement.bindLong(3, start);
+    }
+
+    /**
+     * @return the HistoryEntry.COLUMN_START of the week or month a stored date falls in
+     */
+    static long periodStart(int period, long date) {
+        Time time = new Time();
+        time.set(date);
+        int day = WeatherRetention.dayOf(date, time.gmtoff);
+        switch (period) {
+            case HistoryEntry.PERIOD_WEEK:
+                return WeatherRetention.weekStart(day) * DAY_MILLIS;
+            case HistoryEntry.PERIOD_MONTH:
+                return WeatherRetention.monthStart(
+                        Calendar.getInstance(TimeZone.getTimeZone("UTC")), day);
+            default:
+                throw new IllegalArgumentException("Unknown period: " + period);
+        }
+    }
+
+    /**
+     * @return the stored day of a location, or null if there is none
+     */
+    static Day readDay(SQLiteDatabase db, long locationId, long date) {
+        List<Day> days = readDays(db,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(locationId), Long.toString(date)});
+        return days.isEmpty() ? null : days.get(0);
+    }
+
+    /**
+     * @return the stored days that match a selection on the weather table
+     */
+    static List<Day> readDays(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(WeatherEntry.TABLE_NAME, DAY_COLUMNS, selection, selectionArgs,
+                null, null, null);
+        try {
+            List<Day> days = new ArrayList<Day>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                days.add(new Day(cursor.getLong(COL_ID), cursor.getLong(COL_LOC_KEY),
+                        cursor.getLong(COL_DATE), cursor.getInt(COL_WEATHER_ID),
+                        cursor.getDouble(COL_MIN_TEMP), cursor.getDouble(COL_MAX_TEMP)));
+            }
+            return days;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the same rows as they are stored now, e.g. after an update
+     */
+    static List<Day> readDaysAgain(SQLiteDatabase db, List<Day> days) {
+        if (days.isEmpty()) {
+            return new ArrayList<Day>();
+        }
+        StringBuilder ids = new StringBuilder();
+        for (Day day : days) {
+            ids.append(ids.length() == 0 ? "" : ",").append(day.id);
+        }
+        return readDays(db, WeatherEntry._ID + " IN (" + ids + ")", null);
+    }
+}
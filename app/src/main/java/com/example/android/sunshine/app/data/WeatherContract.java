@@ -43,6 +43,45 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_AGGREGATE = "aggregate";
+
+    // Provider methods reachable through ContentResolver.call(), Honeycomb and up.
+
+    // Upserts the weather rows passed in EXTRA_VALUES, skipping those already stored unchanged.
+    // The result holds the normalized dates of the rows that were written in
+    // EXTRA_CHANGED_DATES.
+    public static final String METHOD_BULK_UPSERT = "bulk_upsert";
+    public static final String EXTRA_VALUES = "values";
+    public static final String EXTRA_CHANGED_DATES = "changed_dates";
+
+    // Writes the WeatherRowBatch passed in EXTRA_BATCH in one transaction: its locations, the
+    // weather rows that changed, and the three-hourly forecast.  The result holds the indexes
+    // of the batch rows that were written in EXTRA_CHANGED_ROWS, and those of them that changed
+    // a stored day significantly, see WeatherEntry.isSignificantChange(), in
+    // EXTRA_SIGNIFICANT_ROWS.
+    public static final String METHOD_UPSERT_BATCH = "upsert_batch";
+    public static final String EXTRA_BATCH = "batch";
+    public static final String EXTRA_CHANGED_ROWS = "changed_rows";
+    public static final String EXTRA_SIGNIFICANT_ROWS = "significant_rows";
+
+    // Runs one small step of the history maintenance in a transaction of its own: drops the
+    // oldest days past the daily window, which stay counted in HistoryEntry, and the history
+    // and three-hourly steps that are past keeping.  EXTRA_KEEP_DAYS is the daily window,
+    // EXTRA_MAX_ROWS how many rows the step may touch at most, and EXTRA_NOW optionally the
+    // time to work from.  The result holds how many days were rolled up in
+    // EXTRA_COMPACTED_ROWS, how many other rows were dropped in EXTRA_PRUNED_ROWS, whether
+    // there is more to do in EXTRA_MORE, and the bytes the database uses in
+    // EXTRA_DATABASE_BYTES.
+    public static final String METHOD_COMPACT = "compact";
+    public static final String EXTRA_KEEP_DAYS = "keep_days";
+    public static final String EXTRA_MAX_ROWS = "max_rows";
+    public static final String EXTRA_NOW = "now";
+    public static final String EXTRA_COMPACTED_ROWS = "compacted_rows";
+    public static final String EXTRA_PRUNED_ROWS = "pruned_rows";
+    public static final String EXTRA_MORE = "more";
+    public static final String EXTRA_DATABASE_BYTES = "database_bytes";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,9 +120,107 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // HTTP cache validators from the last forecast response for this location.  They are
+        // sent back on the next sync so that an unchanged forecast comes back as a bodyless 304.
+        // Both are stored exactly as the server sent them and may be null.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+
+        // The cell of a fixed grid over the globe that the coordinates fall in, which is what
+        // the table is indexed on to find the locations near a point.  The database works it
+        // out by itself whenever the coordinates are written.
+        public static final String COLUMN_GRID_CELL = "grid_cell";
+
+        // How far the location is from the point a nearest-location URI asks about, in km.
+        // Only those URIs return it.
+        public static final String COLUMN_DISTANCE = "distance";
+
+        public static final String PATH_NEAREST = "nearest";
+
+        // Query parameters of a nearest-location URI, in degrees and km.
+        public static final String PARAM_LATITUDE = "lat";
+        public static final String PARAM_LONGITUDE = "lon";
+        public static final String PARAM_RADIUS = "radius";
+
+        // Suggestions for what has been typed of a location, best first.
+        public static final String PATH_SUGGEST = "suggest";
+
+        // Query parameters of a suggestion URI: the text as typed, and how many at most.
+        public static final String PARAM_QUERY = "q";
+        public static final String PARAM_LIMIT = "limit";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        /**
+         * @return the URI of the saved locations within {@code radiusKm} of a point, nearest
+         * first
+         */
+        public static Uri buildNearestLocationUri(double latitude, double longitude,
+                                                  double radiusKm) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAREST)
+                    .appendQueryParameter(PARAM_LATITUDE, Double.toString(latitude))
+                    .appendQueryParameter(PARAM_LONGITUDE, Double.toString(longitude))
+                    .appendQueryParameter(PARAM_RADIUS, Double.toString(radiusKm)).build();
+        }
+
+        public static double getLatitudeFromUri(Uri uri) {
+            return getDoubleParameter(uri, PARAM_LATITUDE);
+        }
+
+        public static double getLongitudeFromUri(Uri uri) {
+            return getDoubleParameter(uri, PARAM_LONGITUDE);
+        }
+
+        public static double getRadiusFromUri(Uri uri) {
+            return getDoubleParameter(uri, PARAM_RADIUS);
+        }
+
+        /**
+         * @return the URI of the saved locations whose city name or location setting has words
+         * starting with the words typed, at most {@code limit} of them
+         */
+        public static Uri buildSuggestionUri(String typed, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SUGGEST)
+                    .appendQueryParameter(PARAM_QUERY, typed)
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
+        public static String getQueryFromUri(Uri uri) {
+            String typed = uri.getQueryParameter(PARAM_QUERY);
+            return null == typed ? "" : typed;
+        }
+
+        /**
+         * @return the limit, or 0 if it is missing or not a number
+         */
+        public static int getLimitFromUri(Uri uri) {
+            String limit = uri.getQueryParameter(PARAM_LIMIT);
+            if (null == limit) {
+                return 0;
+            }
+            try {
+                return Integer.parseInt(limit);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        /**
+         * @return the parameter's value, or NaN if it is missing or not a number
+         */
+        private static double getDoubleParameter(Uri uri, String name) {
+            String value = uri.getQueryParameter(name);
+            if (null == value) {
+                return Double.NaN;
+            }
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -126,6 +263,26 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Hash of the forecast columns above, maintained by the provider.  A row that comes in
+        // with the same hash as the stored one for its day is skipped rather than rewritten.
+        public static final String COLUMN_CONTENT_HASH = "content_hash";
+
+        // How far, in degrees Celsius, a day's high or low has to move to count as a change in
+        // the forecast rather than the drift every fetch has.
+        public static final double SIGNIFICANT_TEMP_CHANGE = 2.0;
+
+        /**
+         * @return whether a stored day's forecast changed in a way someone would notice: it
+         * shows other weather, or its high or low moved by more than
+         * {@link #SIGNIFICANT_TEMP_CHANGE}.  Humidity, pressure and wind change on every fetch.
+         */
+        public static boolean isSignificantChange(int oldWeatherId, double oldMin, double oldMax,
+                                                  int weatherId, double min, double max) {
+            return weatherId != oldWeatherId
+                    || Math.abs(min - oldMin) > SIGNIFICANT_TEMP_CHANGE
+                    || Math.abs(max - oldMax) > SIGNIFICANT_TEMP_CHANGE;
+        }
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -165,4 +322,267 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the hourly table */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // OWM forecasts the next five days in steps of three hours.  A time is stored as the
+        // step it falls in, counted from the epoch.
+        public static final long STEP_MILLIS = 3 * 60 * 60 * 1000;
+
+        // The table holds about ten rows for every one of the weather table, so it is kept
+        // small: _id is the location's id in the upper 32 bits and the step in the lower ones,
+        // and every other column is an INTEGER.  A location's forecast is one contiguous range
+        // of _id, in time order, which SQLite reads without any index of its own.
+        //
+        // The columns below are what a query returns.  The location and time are worked out
+        // from _id, and the fixed point columns are turned back into decimals.
+
+        // The location this forecast is for, see LocationEntry._ID.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the three hours, in milliseconds since the epoch
+        public static final String COLUMN_TIME = "time";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Temperature in degrees Celsius, stored in tenths of a degree
+        public static final String COLUMN_TEMP = "temp";
+        // Humidity in percent
+        public static final String COLUMN_HUMIDITY = "humidity";
+        // Pressure in hPa, stored in tenths
+        public static final String COLUMN_PRESSURE = "pressure";
+        // Windspeed in metres per second, stored in tenths
+        public static final String COLUMN_WIND_SPEED = "wind";
+        // Meteorological degrees (e.g, 0 is north, 180 is south)
+        public static final String COLUMN_DEGREES = "degrees";
+
+        // Query parameters of a location's URI, in milliseconds since the epoch.
+        public static final String PARAM_START = "start";
+        public static final String PARAM_END = "end";
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /**
+         * @return the URI of a location's forecast from the step {@code start} falls in, up to
+         * but not including the one {@code end} falls in
+         */
+        public static Uri buildHourlyLocationWithRange(String locationSetting, long start,
+                                                       long end) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(start))
+                    .appendQueryParameter(PARAM_END, Long.toString(end)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the start of the URI's range, or 0 if it has none
+         */
+        public static long getStartFromUri(Uri uri) {
+            return getTimeParameter(uri, PARAM_START, 0);
+        }
+
+        /**
+         * @return the end of the URI's range, or Long.MAX_VALUE if it has none
+         */
+        public static long getEndFromUri(Uri uri) {
+            return getTimeParameter(uri, PARAM_END, Long.MAX_VALUE);
+        }
+
+        private static long getTimeParameter(Uri uri, String name, long defaultValue) {
+            String value = uri.getQueryParameter(name);
+            if (null != value && value.length() > 0)
+                return Long.parseLong(value);
+            else
+                return defaultValue;
+        }
+
+        // The last step a key can hold, many centuries from now.
+        static final long MAX_STEP = 0xffffffffL;
+
+        /**
+         * @return the _id of a location's row for the step that {@code time} falls in.  Times
+         * past the last step a key can hold end up in the last one, so a range may end at
+         * Long.MAX_VALUE.
+         */
+        static long buildKey(long locationId, long time) {
+            long step = Math.min(Math.max(time, 0) / STEP_MILLIS, MAX_STEP);
+            return (locationId << 32) | step;
+        }
+
+        /**
+         * @return {@code value} in the fixed point the table stores, in tenths
+         */
+        static long toTenths(double value) {
+            return Math.round(value * 10);
+        }
+    }
+
+    /* Inner class that defines the table contents of the history table */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        // Every day stored for a location, summed up once for its week and once for its month.
+        // Each write to the weather table keeps the sums up to date, and the days that leave it
+        // for being older than the daily window stay counted.  Weeks are kept for half a year and
+        // months for five years, see METHOD_COMPACT.  Reading a period is a single row, however
+        // many days it holds.
+
+        // The location this history is for, see LocationEntry._ID.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // PERIOD_WEEK or PERIOD_MONTH
+        public static final String COLUMN_PERIOD = "period";
+        // Start of the week (a Monday) or month, at UTC midnight, in milliseconds since the epoch
+        public static final String COLUMN_START = "start";
+        // How many days of the period are counted
+        public static final String COLUMN_DAYS = "days";
+        // Lowest low and highest high of those days
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        // Sums of the days' lows and highs.  Stored so that days can be added and taken out.
+        public static final String COLUMN_MIN_SUM = "min_sum";
+        public static final String COLUMN_MAX_SUM = "max_sum";
+        // The average low and high, and the mean of each day's (min + max) / 2, worked out from
+        // the sums by queries.
+        public static final String COLUMN_MEAN_MIN = "mean_min";
+        public static final String COLUMN_MEAN_MAX = "mean_max";
+        public static final String COLUMN_MEAN_TEMP = "mean";
+
+        // The rest is worked out by queries from how many of the days had each weather id.
+
+        // The weather id that most of the days had.  Of two that are as common, the lower one,
+        // which is the more severe in OWM's numbering.
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // How many of the days had weather of each OWM group: thunderstorm (2xx), drizzle (3xx),
+        // rain (5xx), snow (6xx), fog and the like (7xx), clear (800), clouds (80x), and
+        // anything else.  Together they add up to COLUMN_DAYS.
+        public static final String COLUMN_STORM_DAYS = "storm_days";
+        public static final String COLUMN_DRIZZLE_DAYS = "drizzle_days";
+        public static final String COLUMN_RAIN_DAYS = "rain_days";
+        public static final String COLUMN_SNOW_DAYS = "snow_days";
+        public static final String COLUMN_FOG_DAYS = "fog_days";
+        public static final String COLUMN_CLEAR_DAYS = "clear_days";
+        public static final String COLUMN_CLOUDY_DAYS = "cloudy_days";
+        public static final String COLUMN_OTHER_DAYS = "other_days";
+        // The days with any kind of precipitation.
+        public static final String COLUMN_WET_DAYS = "wet_days";
+
+        public static final int PERIOD_WEEK = 1;
+        public static final int PERIOD_MONTH = 2;
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHistoryLocationWithPeriod(String locationSetting, int period) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_PERIOD, Integer.toString(period)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the period the URI asks for, or 0 for both
+         */
+        public static int getPeriodFromUri(Uri uri) {
+            String period = uri.getQueryParameter(COLUMN_PERIOD);
+            if (null != period && period.length() > 0)
+                return Integer.parseInt(period);
+            else
+                return 0;
+        }
+    }
+
+    /* Inner class that defines a view of the history table by date */
+    public static final class AggregateEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_AGGREGATE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_AGGREGATE;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_AGGREGATE;
+
+        // The rows of HistoryEntry, also found by a date that their period holds.  They have
+        // HistoryEntry's columns.
+
+        // URI parameters, the same as the HistoryEntry columns they select on
+        public static final String COLUMN_PERIOD = HistoryEntry.COLUMN_PERIOD;
+        public static final String COLUMN_START = HistoryEntry.COLUMN_START;
+
+        public static Uri buildAggregateLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildAggregateLocationWithPeriod(String locationSetting, int period) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_PERIOD, Integer.toString(period)).build();
+        }
+
+        /**
+         * The one row of the period that {@code date} falls in, e.g. this week's for "the
+         * average high this week".
+         */
+        public static Uri buildAggregateLocationWithPeriodAndDate(String locationSetting,
+                                                                  int period, long date) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_PERIOD, Integer.toString(period))
+                    .appendQueryParameter(COLUMN_START,
+                            Long.toString(getPeriodStart(period, date))).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the period the URI asks for, or 0 for both
+         */
+        public static int getPeriodFromUri(Uri uri) {
+            String period = uri.getQueryParameter(COLUMN_PERIOD);
+            if (null != period && period.length() > 0)
+                return Integer.parseInt(period);
+            else
+                return 0;
+        }
+
+        /**
+         * @return the start of the period the URI asks for, or 0 for all of them
+         */
+        public static long getStartFromUri(Uri uri) {
+            String start = uri.getQueryParameter(COLUMN_START);
+            if (null != start && start.length() > 0)
+                return Long.parseLong(start);
+            else
+                return 0;
+        }
+
+        /**
+         * @return the COLUMN_START of the week or month a stored date falls in
+         */
+        public static long getPeriodStart(int period, long date) {
+            return WeatherAggregates.periodStart(period, date);
+        }
+    }
 }
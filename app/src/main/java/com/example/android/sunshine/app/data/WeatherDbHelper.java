@@ -15,25 +15,150 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ * <p>
+ * From Jelly Bean on the database uses write-ahead logging, so the loaders, widgets and wear
+ * service that all query right after a sync read the last committed state instead of waiting
+ * for the sync's transaction.  With WAL the framework keeps one connection for the writer and a
+ * small pool of read connections (its size is a platform setting, 4 on most devices), which
+ * covers the handful of readers we have at once.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
+
+    // If you change the database schema, you must increment the database version, and add the
+    // step that brings the previous version up to it to WeatherMigrations.
+    static final int DATABASE_VERSION = 11;
 
     static final String DATABASE_NAME = "weather.db";
 
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date_idx";
+
+    // Every weather URI asks for one location's days, by date.  The UNIQUE constraint's index
+    // starts with the date, which suits pruning old days but not that, so this one starts with
+    // the location.  It also carries the columns of the forecast list, so listing a location's
+    // forecast never has to read the weather table itself.
+    static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX = "CREATE INDEX " +
+            INDEX_WEATHER_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ");";
+
+    // The three-hourly forecast.  No AUTOINCREMENT and no constraints beyond the key: _id is
+    // made up of the location and time, see HourlyEntry, and rows are only ever replaced.
+    static final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+            HourlyEntry._ID + " INTEGER PRIMARY KEY, " +
+            HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_TEMP + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+            HourlyEntry.COLUMN_DEGREES + " INTEGER NOT NULL);";
+
+    // Weekly and monthly totals of every day stored, see WeatherAggregates.  The UNIQUE
+    // constraint's index is how a period's row is found, both by writes and by queries.
+    static final String SQL_CREATE_HISTORY_TABLE = "CREATE TABLE " + HistoryEntry.TABLE_NAME +
+            " (" +
+            HistoryEntry._ID + " INTEGER PRIMARY KEY, " +
+            HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_PERIOD + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_START + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+            HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_MIN_SUM + " REAL NOT NULL, " +
+            HistoryEntry.COLUMN_MAX_SUM + " REAL NOT NULL, " +
+            WeatherAggregates.COLUMN_PAST_MIN + " REAL, " +
+            WeatherAggregates.COLUMN_PAST_MAX + " REAL, " +
+            " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+            LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+            " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " + HistoryEntry.COLUMN_PERIOD + ", " +
+            HistoryEntry.COLUMN_START + "));";
+
+    // How many days of each history period had which weather id.
+    static final String SQL_CREATE_HISTORY_CONDITION_TABLE = "CREATE TABLE " +
+            WeatherAggregates.TABLE_CONDITION + " (" +
+            WeatherAggregates.COLUMN_HISTORY_ID + " INTEGER NOT NULL, " +
+            WeatherAggregates.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+            WeatherAggregates.COLUMN_DAYS + " INTEGER NOT NULL, " +
+            " PRIMARY KEY (" + WeatherAggregates.COLUMN_HISTORY_ID + ", " +
+            WeatherAggregates.COLUMN_WEATHER_ID + "));";
+
+    // Once a checkpoint has copied the log back, a log larger than this is truncated.  A sync of
+    // every saved location fits comfortably, so the file isn't regrown on every sync.
+    private static final long JOURNAL_SIZE_LIMIT_BYTES = 512 * 1024;
+
+    private final boolean mWriteAheadLogging;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN);
+    }
+
+    // For tests that compare journaling modes on a database of their own.
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    WeatherDbHelper(Context context, String name, boolean writeAheadLogging) {
+        super(context, name, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging;
+        if (writeAheadLogging) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (mWriteAheadLogging) {
+            // A pragma that answers with a row has to go through rawQuery().
+            Cursor cursor = db.rawQuery("PRAGMA journal_size_limit = " + JOURNAL_SIZE_LIMIT_BYTES,
+                    null);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Copies what the write-ahead log holds back into the database, without waiting on anyone.
+     * SQLite checkpoints by itself once the log reaches 1000 pages; calling this after each large
+     * write as well keeps the log short, so readers have less of it to look through and the
+     * checkpoint never falls on a write that's in a hurry.  Pages that a reader still needs are
+     * left for the next checkpoint.
+     */
+    public void checkpoint(SQLiteDatabase db) {
+        if (!mWriteAheadLogging) {
+            return;
+        }
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            // busy, pages in the log, pages checkpointed
+            if (cursor.moveToFirst() && cursor.getInt(1) != cursor.getInt(2)) {
+                Log.d(LOG_TAG, "Checkpointed " + cursor.getInt(2) + " of " + cursor.getInt(1)
+                        + " log pages, the rest are still being read");
+            }
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -45,7 +170,11 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_ETAG + " TEXT, " +
+                LocationEntry.COLUMN_LAST_MODIFIED + " TEXT, " +
+                // Filled in by a trigger, see LocationGrid.
+                LocationEntry.COLUMN_GRID_CELL + " INTEGER " +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -70,6 +199,8 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
                 WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
 
+                WeatherEntry.COLUMN_CONTENT_HASH + " INTEGER, " +
+
                 // Set up the location column as a foreign key to location table.
                 " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
                 LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
@@ -80,19 +211,59 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(LocationGrid.SQL_CREATE_GRID_CELL_INDEX);
+        sqLiteDatabase.execSQL(LocationGrid.SQL_CREATE_GRID_CELL_INSERT_TRIGGER);
+        sqLiteDatabase.execSQL(LocationGrid.SQL_CREATE_GRID_CELL_UPDATE_TRIGGER);
+        sqLiteDatabase.execSQL(LocationSearch.SQL_CREATE_TABLE);
+        sqLiteDatabase.execSQL(LocationSearch.SQL_CREATE_INSERT_TRIGGER);
+        sqLiteDatabase.execSQL(LocationSearch.SQL_CREATE_UPDATE_TRIGGER);
+        sqLiteDatabase.execSQL(LocationSearch.SQL_CREATE_DELETE_TRIGGER);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_CONDITION_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // This database is only a cache for online data, but discarding it leaves the forecast
+        // empty until the next sync gets through.  So every version comes with a step that
+        // brings the one before it up to date, keeping what's stored.  SQLiteOpenHelper runs
+        // this in a single transaction: an upgrade either completes or leaves nothing behind.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (oldVersion < WeatherMigrations.OLDEST_VERSION) {
+            Log.i(LOG_TAG, "No migration from version " + oldVersion + ", starting over");
+            recreate(sqLiteDatabase);
+            return;
+        }
+        try {
+            WeatherMigrations.migrate(sqLiteDatabase, oldVersion, newVersion);
+        } catch (SQLException e) {
+            // Starting over is still better than not opening at all.
+            Log.e(LOG_TAG, "Migration from version " + oldVersion + " failed, starting over", e);
+            recreate(sqLiteDatabase);
+        }
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Going back to an older app; its schema is only known by how it creates it.
+        Log.i(LOG_TAG, "Downgrading from version " + oldVersion + ", starting over");
+        recreate(db);
+    }
+
+    private void recreate(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+        // A table of its own, it doesn't go along with the location table's triggers.
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationSearch.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherAggregates.TABLE_CONDITION);
+        // Left behind by versions 8 to 10 if their migration failed, see WeatherMigrations.
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS aggregate");
         onCreate(sqLiteDatabase);
     }
 }
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * The steps that bring an existing weather.db up to {@link WeatherDbHelper#DATABASE_VERSION}
+ * without losing what it holds, one step per version.  A step only ever describes the change
+ * from the version before it.  Its SQL is written out literally, as the schema was at the time,
+ * so that later changes to the contract can't alter what an old step does.
+ */
+final class WeatherMigrations {
+
+    private static final String LOG_TAG = WeatherMigrations.class.getSimpleName();
+
+    // Databases older than this are recreated instead.
+    static final int OLDEST_VERSION = 2;
+
+    abstract static class Step {
+        final int toVersion;
+
+        Step(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        abstract void apply(SQLiteDatabase db);
+    }
+
+    // STEPS[i] upgrades version OLDEST_VERSION + i to OLDEST_VERSION + i + 1.
+    static final Step[] STEPS = {
+            // The cache validators of each location's last forecast.  Null until its next sync.
+            new Step(3) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE location ADD COLUMN etag TEXT");
+                    db.execSQL("ALTER TABLE location ADD COLUMN last_modified TEXT");
+                }
+            },
+            // The hash of each day's forecast.  A null hash never matches, so the next sync
+            // rewrites these days once and hashes them.
+            new Step(4) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE weather ADD COLUMN content_hash INTEGER");
+                }
+            },
+            // The index for looking up a location's days.
+            new Step(5) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX weather_location_date_idx ON weather "
+                            + "(location_id, date, weather_id, short_desc, max, min)");
+                }
+            },
+            // The three-hourly forecast, empty until the next sync.
+            new Step(6) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE hourly (_id INTEGER PRIMARY KEY, "
+                            + "weather_id INTEGER NOT NULL, temp INTEGER NOT NULL, "
+                            + "humidity INTEGER NOT NULL, pressure INTEGER NOT NULL, "
+                            + "wind INTEGER NOT NULL, degrees INTEGER NOT NULL)");
+                }
+            },
+            // The weekly and monthly history, empty until the first maintenance run.  The days
+            // already stored stay in the weather table until then.
+            new Step(7) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE history (_id INTEGER PRIMARY KEY, "
+                            + "location_id INTEGER NOT NULL, period INTEGER NOT NULL, "
+                            + "start INTEGER NOT NULL, days INTEGER NOT NULL, "
+                            + "min REAL NOT NULL, max REAL NOT NULL, temp_sum REAL NOT NULL, "
+                            + "weather_id INTEGER NOT NULL, "
+                            + "FOREIGN KEY (location_id) REFERENCES location (_id), "
+                            + "UNIQUE (location_id, period, start))");
+                    db.execSQL("CREATE TABLE history_condition (history_id INTEGER NOT NULL, "
+                            + "weather_id INTEGER NOT NULL, days INTEGER NOT NULL, "
+                            + "PRIMARY KEY (history_id, weather_id))");
+                }
+            },
+            // The weekly and monthly aggregates, worked out from the days stored so far.  Days
+            // that were already rolled up into the history aren't in them.  SQLite's localtime
+            // gives the day each date was stored for, as the stored midnight was local.
+            new Step(8) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE aggregate (_id INTEGER PRIMARY KEY, "
+                            + "location_id INTEGER NOT NULL, period INTEGER NOT NULL, "
+                            + "start INTEGER NOT NULL, days INTEGER NOT NULL, "
+                            + "min REAL NOT NULL, max REAL NOT NULL, "
+                            + "min_sum REAL NOT NULL, max_sum REAL NOT NULL, "
+                            + "storm_days INTEGER NOT NULL, drizzle_days INTEGER NOT NULL, "
+                            + "rain_days INTEGER NOT NULL, snow_days INTEGER NOT NULL, "
+                            + "fog_days INTEGER NOT NULL, clear_days INTEGER NOT NULL, "
+                            + "cloudy_days INTEGER NOT NULL, other_days INTEGER NOT NULL, "
+                            + "FOREIGN KEY (location_id) REFERENCES location (_id), "
+                            + "UNIQUE (location_id, period, start))");
+                    // Weeks start on Monday: six days back, then forward to the next Monday.
+                    fillAggregates(db, 1, "'-6 days', 'weekday 1'");
+                    fillAggregates(db, 2, "'start of month'");
+                }
+
+                private void fillAggregates(SQLiteDatabase db, int period, String modifiers) {
+                    db.execSQL("INSERT INTO aggregate (location_id, period, start, days, "
+                            + "min, max, min_sum, max_sum, storm_days, drizzle_days, "
+                            + "rain_days, snow_days, fog_days, clear_days, cloudy_days, "
+                            + "other_days) "
+                            + "SELECT location_id, " + period + ", "
+                            + "strftime('%s', date / 1000, 'unixepoch', 'localtime', "
+                            + "'start of day', " + modifiers + ") * 1000 AS period_start, "
+                            + "count(*), min(min), max(max), sum(min), sum(max), "
+                            + "sum(weather_id / 100 = 2), sum(weather_id / 100 = 3), "
+                            + "sum(weather_id / 100 = 5), sum(weather_id / 100 = 6), "
+                            + "sum(weather_id / 100 = 7), sum(weather_id = 800), "
+                            + "sum(weather_id > 800 AND weather_id < 900), "
+                            + "sum(weather_id / 100 NOT IN (2, 3, 5, 6, 7, 8)) "
+                            + "FROM weather GROUP BY location_id, period_start");
+                }
+            },
+            // The grid cell of each location, for finding the ones near a point, and the
+            // triggers that keep it up to date from now on.
+            new Step(9) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE location ADD COLUMN grid_cell INTEGER");
+                    db.execSQL("UPDATE location SET grid_cell = "
+                            + "CAST((coord_lat + 90) / 0.25 AS INTEGER) * 1440 "
+                            + "+ min(CAST((coord_long + 180) / 0.25 AS INTEGER), 1439)");
+                    db.execSQL("CREATE INDEX location_grid_cell_idx ON location (grid_cell)");
+                    db.execSQL("CREATE TRIGGER location_grid_cell_insert AFTER INSERT ON location "
+                            + "BEGIN UPDATE location SET grid_cell = "
+                            + "CAST((NEW.coord_lat + 90) / 0.25 AS INTEGER) * 1440 "
+                            + "+ min(CAST((NEW.coord_long + 180) / 0.25 AS INTEGER), 1439) "
+                            + "WHERE _id = NEW._id; END");
+                    db.execSQL("CREATE TRIGGER location_grid_cell_update "
+                            + "AFTER UPDATE OF coord_lat, coord_long ON location "
+                            + "BEGIN UPDATE location SET grid_cell = "
+                            + "CAST((NEW.coord_lat + 90) / 0.25 AS INTEGER) * 1440 "
+                            + "+ min(CAST((NEW.coord_long + 180) / 0.25 AS INTEGER), 1439) "
+                            + "WHERE _id = NEW._id; END");
+                }
+            },
+            // The full-text index of location names, filled from the locations stored so far,
+            // and the triggers that keep it in step with them from now on.
+            new Step(10) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    db.execSQL("CREATE VIRTUAL TABLE location_search "
+                            + "USING fts3(city_name, location_setting)");
+                    db.execSQL("INSERT INTO location_search (docid, city_name, location_setting) "
+                            + "SELECT _id, city_name, location_setting FROM location");
+                    db.execSQL("CREATE TRIGGER location_search_insert AFTER INSERT ON location "
+                            + "BEGIN INSERT INTO location_search "
+                            + "(docid, city_name, location_setting) "
+                            + "VALUES (NEW._id, NEW.city_name, NEW.location_setting); END");
+                    db.execSQL("CREATE TRIGGER location_search_update "
+                            + "AFTER UPDATE OF city_name, location_setting ON location "
+                            + "BEGIN UPDATE location_search SET city_name = NEW.city_name, "
+                            + "location_setting = NEW.location_setting "
+                            + "WHERE docid = OLD._id; END");
+                    db.execSQL("CREATE TRIGGER location_search_delete AFTER DELETE ON location "
+                            + "BEGIN DELETE FROM location_search WHERE docid = OLD._id; END");
+                }
+            },
+            // The history takes over from the aggregates: one row per week and month with the
+            // totals of every day stored, the days rolled up so far as well as the ones still in
+            // the weather table.  The aggregates are dropped rather than carried over, as they
+            // miss whatever was rolled up before version 8.  A rolled-up day's low and high
+            // weren't summed apart, so both sums start from its mean for it.
+            new Step(11) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE history RENAME TO history_old");
+                    db.execSQL("ALTER TABLE history_condition RENAME TO history_condition_old");
+                    db.execSQL("CREATE TABLE history (_id INTEGER PRIMARY KEY, "
+                            + "location_id INTEGER NOT NULL, period INTEGER NOT NULL, "
+                            + "start INTEGER NOT NULL, days INTEGER NOT NULL, "
+                            + "min REAL NOT NULL, max REAL NOT NULL, "
+                            + "min_sum REAL NOT NULL, max_sum REAL NOT NULL, "
+                            + "past_min REAL, past_max REAL, "
+                            + "FOREIGN KEY (location_id) REFERENCES location (_id), "
+                            + "UNIQUE (location_id, period, start))");
+                    db.execSQL("CREATE TABLE history_condition (history_id INTEGER NOT NULL, "
+                            + "weather_id INTEGER NOT NULL, days INTEGER NOT NULL, "
+                            + "PRIMARY KEY (history_id, weather_id))");
+                    // Each stored day with its week and its month, as in version 8.
+                    db.execSQL("CREATE TEMP TABLE stored_day AS "
+                            + "SELECT location_id, 1 AS period, "
+                            + "strftime('%s', date / 1000, 'unixepoch', 'localtime', "
+                            + "'start of day', '-6 days', 'weekday 1') * 1000 AS start, "
+                            + "weather_id, min, max FROM weather "
+                            + "UNION ALL SELECT location_id, 2, "
+                            + "strftime('%s', date / 1000, 'unixepoch', 'localtime', "
+                            + "'start of day', 'start of month') * 1000, "
+                            + "weather_id, min, max FROM weather");
+                    db.execSQL("INSERT INTO history (location_id, period, start, days, "
+                            + "min, max, min_sum, max_sum, past_min, past_max) "
+                            + "SELECT location_id, period, start, sum(days), min(min), max(max), "
+                            + "sum(min_sum), sum(max_sum), min(past_min), max(past_max) FROM ("
+                            + "SELECT location_id, period, start, days, min, max, "
+                            + "temp_sum AS min_sum, temp_sum AS max_sum, "
+                            + "min AS past_min, max AS past_max FROM history_old "
+                            + "UNION ALL SELECT location_id, period, start, 1, min, max, "
+                            + "min, max, NULL, NULL FROM stored_day) "
+                            + "GROUP BY location_id, period, start");
+                    db.execSQL("INSERT INTO history_condition (history_id, weather_id, days) "
+                            + "SELECT history._id, counted.weather_id, sum(counted.days) FROM ("
+                            + "SELECT history_old.location_id, history_old.period, "
+                            + "history_old.start, history_condition_old.weather_id, "
+                            + "history_condition_old.days FROM history_condition_old "
+                            + "INNER JOIN history_old "
+                            + "ON history_old._id = history_condition_old.history_id "
+                            + "UNION ALL SELECT location_id, period, start, weather_id, 1 "
+                            + "FROM stored_day) AS counted "
+                            + "INNER JOIN history ON history.location_id = counted.location_id "
+                            + "AND history.period = counted.period "
+                            + "AND history.start = counted.start "
+                            + "GROUP BY history._id, counted.weather_id");
+                    db.execSQL("DROP TABLE stored_day");
+                    db.execSQL("DROP TABLE history_old");
+                    db.execSQL("DROP TABLE history_condition_old");
+                    db.execSQL("DROP TABLE aggregate");
+                }
+            },
+    };
+
+    private WeatherMigrations() {
+    }
+
+    /**
+     * Runs every step from oldVersion up to newVersion, logging how long each took.  The caller
+     * provides the transaction.
+     */
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < OLDEST_VERSION || newVersion > OLDEST_VERSION + STEPS.length) {
+            throw new IllegalArgumentException(
+                    "No migration from version " + oldVersion + " to " + newVersion);
+        }
+        long start = SystemClock.elapsedRealtime();
+        for (int version = oldVersion; version < newVersion; version++) {
+            Step step = STEPS[version - OLDEST_VERSION];
+            long stepStart = SystemClock.elapsedRealtime();
+            step.apply(db);
+            Log.i(LOG_TAG, "Migrated to version " + step.toVersion + " in "
+                    + (SystemClock.elapsedRealtime() - stepStart) + "ms");
+        }
+        Log.i(LOG_TAG, "Migrated from version " + oldVersion + " to " + newVersion + " in "
+                + (SystemClock.elapsedRealtime() - start) + "ms");
+    }
+}
@@ -17,25 +17,68 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    // Compiled on first write and kept for the life of the database.
+    private WeatherStatements mStatements;
+    private final ReaderStats mReaderStats = new ReaderStats();
+    private final QueryCache mQueryCache = new QueryCache();
+
+    // State of the batch being applied on the current thread, if any.
+    private final ThreadLocal<BatchState> mBatch = new ThreadLocal<BatchState>();
+
+    private static class BatchState {
+        // URIs the batch changed, notified once the whole batch has been committed.
+        final Set<Uri> changedUris = new LinkedHashSet<Uri>();
+        // Weather inserts that matched a stored row and weren't written.
+        final Set<Uri> unchangedInserts = new HashSet<Uri>();
+        // Locations whose cached queries are dropped once the batch has been committed.
+        final Set<String> staleLocations = new HashSet<String>();
+        boolean allLocationsStale;
+    }
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int LOCATION_NEAREST = 301;
+    static final int LOCATION_SUGGEST = 302;
+    static final int HOURLY = 400;
+    static final int HOURLY_WITH_LOCATION = 401;
+    static final int HISTORY = 500;
+    static final int HISTORY_WITH_LOCATION = 501;
+    static final int AGGREGATE = 600;
+    static final int AGGREGATE_WITH_LOCATION = 601;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -51,19 +94,137 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.LocationEntry._ID);
     }
 
+    static final SQLiteQueryBuilder sHourlyQueryBuilder;
+
+    static{
+        // The hourly table stores its location and time in _id and the decimals in tenths,
+        // see HourlyEntry.  Queries get them back as the columns the contract lists.
+        Map<String, String> columns = new HashMap<String, String>();
+        columns.put(WeatherContract.HourlyEntry._ID, WeatherContract.HourlyEntry._ID);
+        columns.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY,
+                WeatherContract.HourlyEntry._ID + " >> 32 AS " +
+                        WeatherContract.HourlyEntry.COLUMN_LOC_KEY);
+        columns.put(WeatherContract.HourlyEntry.COLUMN_TIME,
+                "(" + WeatherContract.HourlyEntry._ID + " & " + WeatherContract.HourlyEntry.MAX_STEP +
+                        ") * " + WeatherContract.HourlyEntry.STEP_MILLIS + " AS " +
+                        WeatherContract.HourlyEntry.COLUMN_TIME);
+        columns.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID,
+                WeatherContract.HourlyEntry.COLUMN_WEATHER_ID);
+        columns.put(WeatherContract.HourlyEntry.COLUMN_TEMP,
+                tenthsColumn(WeatherContract.HourlyEntry.COLUMN_TEMP));
+        columns.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY,
+                WeatherContract.HourlyEntry.COLUMN_HUMIDITY);
+        columns.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+                tenthsColumn(WeatherContract.HourlyEntry.COLUMN_PRESSURE));
+        columns.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+                tenthsColumn(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED));
+        columns.put(WeatherContract.HourlyEntry.COLUMN_DEGREES,
+                WeatherContract.HourlyEntry.COLUMN_DEGREES);
+
+        sHourlyQueryBuilder = new SQLiteQueryBuilder();
+        sHourlyQueryBuilder.setTables(WeatherContract.HourlyEntry.TABLE_NAME);
+        sHourlyQueryBuilder.setProjectionMap(columns);
+    }
+
+    static final SQLiteQueryBuilder sHistoryQueryBuilder;
+
+    static{
+        // The averages are kept as sums, so that days can be added and taken out, and the
+        // weather as days by weather id, see WeatherAggregates.
+        Map<String, String> columns = new HashMap<String, String>();
+        for (String column : new String[]{WeatherContract.HistoryEntry._ID,
+                WeatherContract.HistoryEntry.COLUMN_LOC_KEY,
+                WeatherContract.HistoryEntry.COLUMN_PERIOD,
+                WeatherContract.HistoryEntry.COLUMN_START,
+                WeatherContract.HistoryEntry.COLUMN_DAYS,
+                WeatherContract.HistoryEntry.COLUMN_MIN_TEMP,
+                WeatherContract.HistoryEntry.COLUMN_MAX_TEMP,
+                WeatherContract.HistoryEntry.COLUMN_MIN_SUM,
+                WeatherContract.HistoryEntry.COLUMN_MAX_SUM}) {
+            columns.put(column, column);
+        }
+        columns.put(WeatherContract.HistoryEntry.COLUMN_MEAN_MIN,
+                WeatherContract.HistoryEntry.COLUMN_MIN_SUM + " / " +
+                        WeatherContract.HistoryEntry.COLUMN_DAYS + " AS " +
+                        WeatherContract.HistoryEntry.COLUMN_MEAN_MIN);
+        columns.put(WeatherContract.HistoryEntry.COLUMN_MEAN_MAX,
+                WeatherContract.HistoryEntry.COLUMN_MAX_SUM + " / " +
+                        WeatherContract.HistoryEntry.COLUMN_DAYS + " AS " +
+                        WeatherContract.HistoryEntry.COLUMN_MEAN_MAX);
+        columns.put(WeatherContract.HistoryEntry.COLUMN_MEAN_TEMP,
+                "(" + WeatherContract.HistoryEntry.COLUMN_MIN_SUM + " + " +
+                        WeatherContract.HistoryEntry.COLUMN_MAX_SUM + ") / (2 * " +
+                        WeatherContract.HistoryEntry.COLUMN_DAYS + ") AS " +
+                        WeatherContract.HistoryEntry.COLUMN_MEAN_TEMP);
+        columns.put(WeatherContract.HistoryEntry.COLUMN_WEATHER_ID,
+                WeatherAggregates.DOMINANT_WEATHER_ID + " AS " +
+                        WeatherContract.HistoryEntry.COLUMN_WEATHER_ID);
+        for (int i = 0; i < WeatherAggregates.CONDITION_COLUMNS.length; i++) {
+            columns.put(WeatherAggregates.CONDITION_COLUMNS[i],
+                    conditionDays(WeatherAggregates.CONDITION_WEATHER_IDS[i]) + " AS " +
+                            WeatherAggregates.CONDITION_COLUMNS[i]);
+        }
+        columns.put(WeatherContract.HistoryEntry.COLUMN_WET_DAYS,
+                conditionDays(WeatherAggregates.WET_WEATHER_IDS) + " AS " +
+                        WeatherContract.HistoryEntry.COLUMN_WET_DAYS);
+
+        sHistoryQueryBuilder = new SQLiteQueryBuilder();
+        sHistoryQueryBuilder.setTables(WeatherContract.HistoryEntry.TABLE_NAME);
+        sHistoryQueryBuilder.setProjectionMap(columns);
+    }
+
+    //(SELECT ifnull(sum(days), 0) FROM history_condition WHERE history_id = history._id AND ...)
+    private static String conditionDays(String weatherIds) {
+        return "(SELECT ifnull(sum(" + WeatherAggregates.COLUMN_DAYS + "), 0) FROM " +
+                WeatherAggregates.TABLE_CONDITION + " WHERE " +
+                WeatherAggregates.COLUMN_HISTORY_ID + " = " +
+                WeatherContract.HistoryEntry.TABLE_NAME + "." +
+                WeatherContract.HistoryEntry._ID + " AND " + weatherIds + ")";
+    }
+
+    private static String tenthsColumn(String column) {
+        return column + " / 10.0 AS " + column;
+    }
+
+    //(SELECT _id FROM location WHERE location_setting = ?)
+    private static final String sLocationIdOfSetting =
+            "(SELECT " + WeatherContract.LocationEntry._ID +
+                    " FROM " + WeatherContract.LocationEntry.TABLE_NAME +
+                    " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?)";
+
+    //_id >= (location id << 32) + first step AND _id < (location id << 32) + end step
+    // A range of the table's own key, so SQLite only reads the rows it returns.
+    static final String sHourlyLocationRangeSelection =
+            WeatherContract.HourlyEntry._ID + " >= (" + sLocationIdOfSetting + " << 32) + ? AND " +
+                    WeatherContract.HourlyEntry._ID + " < (" + sLocationIdOfSetting + " << 32) + ?";
+
+    //location_id = (SELECT _id FROM location WHERE location_setting = ?)
+    static final String sHistoryLocationSelection =
+            WeatherContract.HistoryEntry.COLUMN_LOC_KEY + " = " + sLocationIdOfSetting;
+
+    //location_id = (SELECT _id FROM location WHERE location_setting = ?) AND period = ?
+    static final String sHistoryLocationAndPeriodSelection =
+            sHistoryLocationSelection + " AND " +
+                    WeatherContract.HistoryEntry.COLUMN_PERIOD + " = ?";
+
+    //location_id = (SELECT ...) AND period = ? AND start = ?, one row of the UNIQUE index
+    static final String sHistoryPeriodSelection =
+            sHistoryLocationAndPeriodSelection + " AND " +
+                    WeatherContract.HistoryEntry.COLUMN_START + " = ?";
+
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -108,6 +269,86 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        return sHourlyQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sHourlyLocationRangeSelection,
+                hourlyLocationRangeArgs(uri),
+                null,
+                null,
+                // Key order is time order, and costs nothing.
+                sortOrder == null ? WeatherContract.HourlyEntry._ID + " ASC" : sortOrder
+        );
+    }
+
+    /**
+     * Serves both the history and the aggregate URIs, which only differ in that the latter
+     * may ask for the one period that holds a date.
+     */
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HistoryEntry.getLocationSettingFromUri(uri);
+        int period = WeatherContract.HistoryEntry.getPeriodFromUri(uri);
+        long start = WeatherContract.AggregateEntry.getStartFromUri(uri);
+
+        String[] selectionArgs;
+        String selection;
+
+        if (period == 0) {
+            selection = sHistoryLocationSelection;
+            selectionArgs = new String[]{locationSetting};
+        } else if (start == 0) {
+            selection = sHistoryLocationAndPeriodSelection;
+            selectionArgs = new String[]{locationSetting, Integer.toString(period)};
+        } else {
+            selection = sHistoryPeriodSelection;
+            selectionArgs = new String[]{locationSetting, Integer.toString(period),
+                    Long.toString(start)};
+        }
+
+        return sHistoryQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                // The order of the UNIQUE constraint's index.
+                sortOrder == null ? WeatherContract.HistoryEntry.COLUMN_PERIOD + " ASC, " +
+                        WeatherContract.HistoryEntry.COLUMN_START + " ASC" : sortOrder
+        );
+    }
+
+    private Cursor getNearestLocations(Uri uri, String[] projection, String sortOrder) {
+        double latitude = WeatherContract.LocationEntry.getLatitudeFromUri(uri);
+        double longitude = WeatherContract.LocationEntry.getLongitudeFromUri(uri);
+        double radius = WeatherContract.LocationEntry.getRadiusFromUri(uri);
+        // NaN fails every one of these.
+        if (!(latitude >= -90 && latitude <= 90) || !(longitude >= -180 && longitude <= 180)
+                || !(radius > 0 && radius < Double.POSITIVE_INFINITY)) {
+            throw new IllegalArgumentException("Bad point or radius: " + uri);
+        }
+        return LocationGrid.queryNearest(mOpenHelper.getReadableDatabase(), projection,
+                latitude, longitude, radius, sortOrder);
+    }
+
+    private Cursor getLocationSuggestions(Uri uri, String[] projection) {
+        int limit = WeatherContract.LocationEntry.getLimitFromUri(uri);
+        return LocationSearch.querySuggestions(mOpenHelper.getReadableDatabase(), projection,
+                WeatherContract.LocationEntry.getQueryFromUri(uri),
+                limit > 0 ? limit : LocationSearch.DEFAULT_LIMIT);
+    }
+
+    static String[] hourlyLocationRangeArgs(Uri uri) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        // A key of location 0 is just the step.
+        return new String[]{
+                locationSetting,
+                Long.toString(WeatherContract.HourlyEntry.buildKey(0,
+                        WeatherContract.HourlyEntry.getStartFromUri(uri))),
+                locationSetting,
+                Long.toString(WeatherContract.HourlyEntry.buildKey(0,
+                        WeatherContract.HourlyEntry.getEndFromUri(uri)))};
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +371,19 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.LocationEntry.PATH_NEAREST, LOCATION_NEAREST);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.LocationEntry.PATH_SUGGEST, LOCATION_SUGGEST);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_AGGREGATE, AGGREGATE);
+        matcher.addURI(authority, WeatherContract.PATH_AGGREGATE + "/*", AGGREGATE_WITH_LOCATION);
         return matcher;
     }
 
@@ -163,7 +417,22 @@ public class WeatherProvider extends ContentProvider {
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
+            case LOCATION_NEAREST:
+            case LOCATION_SUGGEST:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case HOURLY_WITH_LOCATION:
+            case HOURLY:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case HISTORY_WITH_LOCATION:
+            case HISTORY:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case AGGREGATE_WITH_LOCATION:
+                // One row if the URI names the period's start.
+                return WeatherContract.AggregateEntry.getStartFromUri(uri) != 0
+                        ? WeatherContract.AggregateEntry.CONTENT_ITEM_TYPE
+                        : WeatherContract.AggregateEntry.CONTENT_TYPE;
+            case AGGREGATE:
+                return WeatherContract.AggregateEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -174,17 +443,15 @@ public class WeatherProvider extends ContentProvider {
                         String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
+        long start = System.nanoTime();
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getWeatherForLocation(match, uri, projection, sortOrder);
                 break;
             }
             // "weather"
@@ -213,14 +480,105 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/nearest", with the point and radius
+            case LOCATION_NEAREST: {
+                retCursor = getNearestLocations(uri, projection, sortOrder);
+                break;
+            }
+            // "location/suggest", with what has been typed.  Always in order of relevance.
+            case LOCATION_SUGGEST: {
+                retCursor = getLocationSuggestions(uri, projection);
+                break;
+            }
+            // "hourly/*", with an optional range
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = sHourlyQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "history/*", with an optional period, or "aggregate/*", with an optional period
+            // and start
+            case HISTORY_WITH_LOCATION:
+            case AGGREGATE_WITH_LOCATION: {
+                retCursor = getHistoryByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "history" or "aggregate"
+            case HISTORY:
+            case AGGREGATE: {
+                retCursor = sHistoryQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        // The query only runs once the cursor is first filled.  Every caller asks for the count
+        // straight away anyway, so do it here and time the wait along with the query.
+        retCursor.getCount();
+        mReaderStats.onQuery(System.nanoTime() - start);
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
         return retCursor;
     }
 
+    private Cursor getWeatherForLocation(final int match, final Uri uri, final String[] projection,
+                                         final String sortOrder) {
+        // No Cursor.getType() to read a snapshot with before Honeycomb.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return queryWeatherForLocation(match, uri, projection, sortOrder);
+        }
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long date = match == WEATHER_WITH_LOCATION_AND_DATE
+                ? WeatherContract.WeatherEntry.getDateFromUri(uri)
+                : WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        String key = QueryCache.key(match, locationSetting, date, projection, sortOrder);
+        return mQueryCache.query(key, locationSetting, new QueryCache.Source() {
+            @Override
+            public Cursor query() {
+                return queryWeatherForLocation(match, uri, projection, sortOrder);
+            }
+        });
+    }
+
+    private Cursor queryWeatherForLocation(int match, Uri uri, String[] projection,
+                                           String sortOrder) {
+        return match == WEATHER_WITH_LOCATION_AND_DATE
+                ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                : getWeatherByLocationSetting(uri, projection, sortOrder);
+    }
+
+    /**
+     * @return how long this provider's queries have had to wait for their results
+     */
+    public ReaderStats getReaderStats() {
+        return mReaderStats;
+    }
+
+    /**
+     * @return the hits and misses of the per-location weather queries
+     */
+    public QueryCache getQueryCache() {
+        return mQueryCache;
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
@@ -233,11 +591,36 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                long _id;
+                boolean unchanged;
+                // Look up and write in one transaction, so nothing slips in between.
+                db.beginTransaction();
+                try {
+                    _id = findUnchangedWeather(db, values);
+                    unchanged = _id != -1;
+                    if (!unchanged) {
+                        _id = insertWeather(db, values);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (unchanged) {
+                    // This day is already stored exactly like this: nothing to write or notify.
+                    returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
+                    BatchState batch = mBatch.get();
+                    if (batch != null) {
+                        batch.unchangedInserts.add(returnUri);
+                    }
+                    return returnUri;
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                invalidateQueries(findLocationSetting(db,
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)));
+                notifyHistoryChange();
                 break;
             }
             case LOCATION: {
@@ -246,12 +629,15 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                // Its weather was cached as empty until now.
+                invalidateQueries(values.getAsString(
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING));
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -264,19 +650,60 @@ public class WeatherProvider extends ContentProvider {
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                db.beginTransaction();
+                try {
+                    List<WeatherAggregates.Day> days =
+                            WeatherAggregates.readDays(db, selection, selectionArgs);
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    updateAggregates(db, days, new ArrayList<WeatherAggregates.Day>());
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsDeleted != 0) {
+                    notifyHistoryChange();
+                }
                 break;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case HOURLY:
+                // The selection is on the stored columns, not the ones queries return.
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case HOURLY_WITH_LOCATION:
+                rowsDeleted = db.delete(WeatherContract.HourlyEntry.TABLE_NAME,
+                        sHourlyLocationRangeSelection, hourlyLocationRangeArgs(uri));
+                break;
+            case HISTORY:
+            case AGGREGATE:
+                db.beginTransaction();
+                try {
+                    rowsDeleted = db.delete(
+                            WeatherContract.HistoryEntry.TABLE_NAME, selection, selectionArgs);
+                    // Along with the weather ids counted for the rows that are gone.
+                    db.delete(WeatherAggregates.TABLE_CONDITION,
+                            WeatherAggregates.COLUMN_HISTORY_ID + " NOT IN (SELECT " +
+                                    WeatherContract.HistoryEntry._ID + " FROM " +
+                                    WeatherContract.HistoryEntry.TABLE_NAME + ")", null);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsDeleted != 0) {
+                    notifyHistoryChange();
+                }
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            invalidateQueries(null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -299,8 +726,23 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                // The update may only touch some columns, so the hash can't be recomputed here.
+                // Dropping it means the next upsert of these days always writes.
+                values.putNull(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH);
+                db.beginTransaction();
+                try {
+                    List<WeatherAggregates.Day> before =
+                            WeatherAggregates.readDays(db, selection, selectionArgs);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    updateAggregates(db, before, WeatherAggregates.readDaysAgain(db, before));
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsUpdated != 0) {
+                    notifyHistoryChange();
+                }
                 break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
@@ -310,7 +752,8 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            invalidateQueries(null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
@@ -321,33 +764,536 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+                // Only days whose forecast actually changed are written, and observers only
+                // hear about it if there was at least one.
+                long[] changedDates = upsertWeather(db, values);
+                if (changedDates.length > 0) {
+                    invalidateQueries(db, values);
+                    notifyChange(uri);
+                    notifyHistoryChange();
+                    mOpenHelper.checkpoint(db);
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                return changedDates.length;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    @Override
+    @TargetApi(11)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_BULK_UPSERT.equals(method)) {
+            Parcelable[] parcelables = extras.getParcelableArray(WeatherContract.EXTRA_VALUES);
+            ContentValues[] values = new ContentValues[parcelables.length];
+            for (int i = 0; i < parcelables.length; i++) {
+                values[i] = (ContentValues) parcelables[i];
+            }
+            SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            long[] changedDates = upsertWeather(db, values);
+            if (changedDates.length > 0) {
+                invalidateQueries(db, values);
+                notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+                notifyHistoryChange();
+            }
+            Bundle result = new Bundle();
+            result.putLongArray(WeatherContract.EXTRA_CHANGED_DATES, changedDates);
+            return result;
+        } else if (WeatherContract.METHOD_UPSERT_BATCH.equals(method)) {
+            extras.setClassLoader(WeatherRowBatch.class.getClassLoader());
+            WeatherRowBatch batch = extras.getParcelable(WeatherContract.EXTRA_BATCH);
+            return upsertBatch(mOpenHelper.getWritableDatabase(), batch);
+        } else if (WeatherContract.METHOD_COMPACT.equals(method)) {
+            return compact(mOpenHelper.getWritableDatabase(),
+                    extras == null ? Bundle.EMPTY : extras);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * The fast path for a sync's writes: binds the batch's primitive columns straight into the
+     * cached statements, without building a ContentValues or any SQL per row.  Everything happens
+     * in one transaction: the locations, the weather rows whose forecast changed and their
+     * aggregates, and the three-hourly forecast.  Old weather is left to the history maintenance,
+     * see {@link #compact}.  Observers are notified once, and only about tables that changed.
+     *
+     * @return the indexes of the batch rows that were written, and of those that changed a
+     * stored day significantly, as {@link WeatherContract#METHOD_UPSERT_BATCH} returns them
+     */
+    @TargetApi(11)
+    private Bundle upsertBatch(SQLiteDatabase db, WeatherRowBatch batch) {
+        int[] changedRows = new int[batch.rowCount];
+        int changedCount = 0;
+        int[] significantRows = new int[batch.rowCount];
+        int significantCount = 0;
+        long[] locationIds = new long[batch.locationCount];
+        db.beginTransaction();
+        try {
+            WeatherStatements statements = getStatements(db);
+            synchronized (statements) {
+                for (int i = 0; i < batch.locationCount; i++) {
+                    if (batch.locationId[i] == WeatherRowBatch.NEW_LOCATION) {
+                        SQLiteStatement insert = statements.insertLocation;
+                        insert.bindString(WeatherStatements.LOCATION_SETTING, batch.locationSetting[i]);
+                        insert.bindString(WeatherStatements.LOCATION_CITY_NAME, batch.cityName[i]);
+                        insert.bindDouble(WeatherStatements.LOCATION_COORD_LAT, batch.coordLat[i]);
+                        insert.bindDouble(WeatherStatements.LOCATION_COORD_LONG, batch.coordLong[i]);
+                        WeatherStatements.bindStringOrNull(insert, WeatherStatements.LOCATION_ETAG, batch.eTag[i]);
+                        WeatherStatements.bindStringOrNull(insert, WeatherStatements.LOCATION_LAST_MODIFIED, batch.lastModified[i]);
+                        locationIds[i] = insert.executeInsert();
+                        if (locationIds[i] == -1) {
+                            throw new android.database.SQLException("Failed to insert location "
+                                    + batch.locationSetting[i]);
+                        }
+                    } else {
+                        SQLiteStatement update = statements.updateLocationValidators;
+                        WeatherStatements.bindStringOrNull(update, 1, batch.eTag[i]);
+                        WeatherStatements.bindStringOrNull(update, 2, batch.lastModified[i]);
+                        update.bindLong(3, batch.locationId[i]);
+                        update.executeUpdateDelete();
+                        locationIds[i] = batch.locationId[i];
+                    }
+                }
+
+                SQLiteStatement unchanged = statements.unchangedWeather;
+                SQLiteStatement insert = statements.insertWeather;
+                WeatherAggregates aggregates = new WeatherAggregates(statements);
+                for (int i = 0; i < batch.rowCount; i++) {
+                    long locationId = locationIds[batch.rowLocation[i]];
+                    long date = WeatherContract.normalizeDate(batch.date[i]);
+                    long hash = contentHash(batch.shortDesc[i], batch.weatherId[i],
+                            batch.minTemp[i], batch.maxTemp[i], batch.humidity[i],
+                            batch.pressure[i], batch.windSpeed[i], batch.degrees[i]);
+                    unchanged.bindLong(1, locationId);
+                    unchanged.bindLong(2, date);
+                    unchanged.bindLong(3, hash);
+                    if (unchanged.simpleQueryForLong() != -1) {
+                        continue;
+                    }
+                    WeatherAggregates.Day replaced =
+                            WeatherAggregates.readDay(db, locationId, date);
+                    insert.bindLong(WeatherStatements.WEATHER_LOC_KEY, locationId);
+                    insert.bindLong(WeatherStatements.WEATHER_DATE, date);
+                    insert.bindLong(WeatherStatements.WEATHER_WEATHER_ID, batch.weatherId[i]);
+                    insert.bindString(WeatherStatements.WEATHER_SHORT_DESC, batch.shortDesc[i]);
+                    insert.bindDouble(WeatherStatements.WEATHER_MIN_TEMP, batch.minTemp[i]);
+                    insert.bindDouble(WeatherStatements.WEATHER_MAX_TEMP, batch.maxTemp[i]);
+                    insert.bindDouble(WeatherStatements.WEATHER_HUMIDITY, batch.humidity[i]);
+                    insert.bindDouble(WeatherStatements.WEATHER_PRESSURE, batch.pressure[i]);
+                    insert.bindDouble(WeatherStatements.WEATHER_WIND_SPEED, batch.windSpeed[i]);
+                    insert.bindDouble(WeatherStatements.WEATHER_DEGREES, batch.degrees[i]);
+                    insert.bindLong(WeatherStatements.WEATHER_CONTENT_HASH, hash);
+                    if (insert.executeInsert() == -1) {
+                        throw new android.database.SQLException("Failed to insert weather row " + i);
+                    }
+                    if (replaced != null) {
+                        aggregates.remove(replaced);
+                        // A day new to the window isn't a change of the forecast.
+                        if (WeatherContract.WeatherEntry.isSignificantChange(replaced.weatherId,
+                                replaced.minTemp, replaced.maxTemp, batch.weatherId[i],
+                                batch.minTemp[i], batch.maxTemp[i])) {
+                            significantRows[significantCount++] = i;
+                        }
+                    }
+                    aggregates.add(locationId, date, batch.weatherId[i], batch.minTemp[i],
+                            batch.maxTemp[i]);
+                    changedRows[changedCount++] = i;
+                }
+
+                replaceHourly(statements, batch, locationIds);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // Every location in the batch has new cache validators, if nothing else.
+        for (int i = 0; i < batch.locationCount; i++) {
+            invalidateQueries(batch.locationSetting[i]);
+        }
+        if (batch.locationCount > 0) {
+            notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        }
+        if (changedCount > 0) {
+            notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+            notifyHistoryChange();
+        }
+        if (batch.hourlyCount > 0) {
+            notifyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+        }
+        mOpenHelper.checkpoint(db);
+        Bundle result = new Bundle();
+        result.putIntArray(WeatherContract.EXTRA_CHANGED_ROWS,
+                Arrays.copyOf(changedRows, changedCount));
+        result.putIntArray(WeatherContract.EXTRA_SIGNIFICANT_ROWS,
+                Arrays.copyOf(significantRows, significantCount));
+        return result;
+    }
+
+    /**
+     * Runs one step of the history maintenance in a transaction of its own, see
+     * WeatherRetention.
+     */
+    @TargetApi(11)
+    private Bundle compact(SQLiteDatabase db, Bundle extras) {
+        long now = extras.getLong(WeatherContract.EXTRA_NOW, System.currentTimeMillis());
+        int keepDays = extras.getInt(WeatherContract.EXTRA_KEEP_DAYS,
+                WeatherRetention.DEFAULT_KEEP_DAYS);
+        int maxRows = extras.getInt(WeatherContract.EXTRA_MAX_ROWS,
+                WeatherRetention.DEFAULT_MAX_ROWS);
+        WeatherRetention.Result step;
+        db.beginTransaction();
+        try {
+            step = WeatherRetention.compact(db, now, keepDays, maxRows);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        // Nobody shows days this old, so the weather observers aren't told.  A cached query
+        // could still hold them, though.  The days stay counted in the history.
+        if (step.compacted > 0) {
+            invalidateQueries(null);
+        }
+        if (step.prunedHistory > 0) {
+            notifyHistoryChange();
+        }
+        if (step.prunedHourly > 0) {
+            notifyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+        }
+        mOpenHelper.checkpoint(db);
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.EXTRA_COMPACTED_ROWS, step.compacted);
+        result.putInt(WeatherContract.EXTRA_PRUNED_ROWS,
+                step.prunedHistory + step.prunedHourly);
+        result.putBoolean(WeatherContract.EXTRA_MORE, step.more);
+        result.putLong(WeatherContract.EXTRA_DATABASE_BYTES, WeatherRetention.getUsedBytes(db));
+        return result;
+    }
+
+    /**
+     * Slides the three-hourly window of each location in the batch forward: every step it had
+     * from the batch's first one on is replaced.  The delete is a range of the table's key, so
+     * it touches no other rows; the steps before it are pruned by the history maintenance.
+     * Must be called inside a transaction, holding the statements.
+     */
+    @TargetApi(11)
+    private static void replaceHourly(WeatherStatements statements, WeatherRowBatch batch,
+                                      long[] locationIds) {
+        SQLiteStatement delete = statements.deleteHourlyRange;
+        SQLiteStatement insert = statements.insertHourly;
+        int location = -1;
+        for (int i = 0; i < batch.hourlyCount; i++) {
+            long locationId = locationIds[batch.hourlyLocation[i]];
+            if (batch.hourlyLocation[i] != location) {
+                // The first of this location's steps.
+                location = batch.hourlyLocation[i];
+                delete.bindLong(1, WeatherContract.HourlyEntry.buildKey(locationId,
+                        batch.hourlyTime[i]));
+                delete.bindLong(2, WeatherContract.HourlyEntry.buildKey(locationId + 1, 0));
+                delete.executeUpdateDelete();
+            }
+            insert.bindLong(WeatherStatements.HOURLY_KEY,
+                    WeatherContract.HourlyEntry.buildKey(locationId, batch.hourlyTime[i]));
+            insert.bindLong(WeatherStatements.HOURLY_WEATHER_ID, batch.hourlyWeatherId[i]);
+            insert.bindLong(WeatherStatements.HOURLY_TEMP,
+                    WeatherContract.HourlyEntry.toTenths(batch.hourlyTemp[i]));
+            insert.bindLong(WeatherStatements.HOURLY_HUMIDITY, batch.hourlyHumidity[i]);
+            insert.bindLong(WeatherStatements.HOURLY_PRESSURE,
+                    WeatherContract.HourlyEntry.toTenths(batch.hourlyPressure[i]));
+            insert.bindLong(WeatherStatements.HOURLY_WIND_SPEED,
+                    WeatherContract.HourlyEntry.toTenths(batch.hourlyWindSpeed[i]));
+            insert.bindLong(WeatherStatements.HOURLY_DEGREES, Math.round(batch.hourlyDegrees[i]));
+            if (insert.executeInsert() == -1) {
+                throw new android.database.SQLException("Failed to insert hourly row " + i);
+            }
+        }
+    }
+
+    /**
+     * @return the cached write statements, compiled against the current database
+     */
+    private synchronized WeatherStatements getStatements(SQLiteDatabase db) {
+        if (mStatements == null || mStatements.database != db) {
+            if (mStatements != null) {
+                mStatements.close();
+            }
+            mStatements = new WeatherStatements(db);
+        }
+        return mStatements;
+    }
+
+    /**
+     * Writes the weather rows whose forecast differs from what is stored for their location and
+     * day, in one transaction.  Doesn't notify anyone.
+     *
+     * @return the normalized dates of the rows that were written
+     */
+    private long[] upsertWeather(SQLiteDatabase db, ContentValues[] values) {
+        long[] changedDates = new long[values.length];
+        int changedCount = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                normalizeDate(value);
+                if (findUnchangedWeather(db, value) != -1) {
+                    continue;
+                }
+                long _id = insertWeather(db, value);
+                if (_id != -1) {
+                    changedDates[changedCount++] =
+                            value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return Arrays.copyOf(changedDates, changedCount);
+    }
+
+    /**
+     * Writes a weather row and moves its day's aggregates over from the row it replaces, if
+     * any.  Must be called inside a transaction.
+     *
+     * @return the _id of the new row, or -1 if it couldn't be written
+     */
+    private long insertWeather(SQLiteDatabase db, ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        WeatherAggregates.Day replaced = locationId == null || date == null
+                ? null : WeatherAggregates.readDay(db, locationId, date);
+        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+        if (_id != -1) {
+            // Written, so none of these are missing.
+            WeatherStatements statements = getStatements(db);
+            synchronized (statements) {
+                WeatherAggregates aggregates = new WeatherAggregates(statements);
+                if (replaced != null) {
+                    aggregates.remove(replaced);
+                }
+                aggregates.add(locationId, date,
+                        values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                        values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                        values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP));
+            }
+        }
+        return _id;
+    }
+
+    /**
+     * Takes days out of the aggregates and adds others.  Must be called inside a transaction,
+     * once the weather table holds what the aggregates should say.
+     */
+    private void updateAggregates(SQLiteDatabase db, List<WeatherAggregates.Day> removed,
+                                  List<WeatherAggregates.Day> added) {
+        if (removed.isEmpty() && added.isEmpty()) {
+            return;
+        }
+        WeatherStatements statements = getStatements(db);
+        synchronized (statements) {
+            WeatherAggregates aggregates = new WeatherAggregates(statements);
+            for (WeatherAggregates.Day day : removed) {
+                aggregates.remove(day);
+            }
+            for (WeatherAggregates.Day day : added) {
+                aggregates.add(day);
+            }
+        }
+    }
+
+    /**
+     * Stamps a weather row with its content hash and looks for a stored row that already says
+     * the same thing about the same location and day.  Must be called inside a transaction.
+     *
+     * @return the _id of the identical stored row, or -1 if the row needs writing
+     */
+    private long findUnchangedWeather(SQLiteDatabase db, ContentValues values) {
+        long hash = contentHash(values);
+        values.put(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH, hash);
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null) {
+            // Let the insert fail on the missing column.
+            return -1;
+        }
+        WeatherStatements statements = getStatements(db);
+        synchronized (statements) {
+            SQLiteStatement unchanged = statements.unchangedWeather;
+            unchanged.bindLong(1, locationId);
+            unchanged.bindLong(2, date);
+            unchanged.bindLong(3, hash);
+            return unchanged.simpleQueryForLong();
+        }
+    }
+
+    static long contentHash(ContentValues values) {
+        // Missing columns hash as zero; such a row fails its NOT NULL constraints anyway.
+        // Numbers are read as doubles so that 1 and 1.0 hash alike, whatever type the caller used.
+        Integer weatherId = values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        return contentHash(values.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC),
+                weatherId == null ? 0 : weatherId,
+                getAsDouble(values, WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                getAsDouble(values, WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                getAsDouble(values, WeatherContract.WeatherEntry.COLUMN_HUMIDITY),
+                getAsDouble(values, WeatherContract.WeatherEntry.COLUMN_PRESSURE),
+                getAsDouble(values, WeatherContract.WeatherEntry.COLUMN_WIND_SPEED),
+                getAsDouble(values, WeatherContract.WeatherEntry.COLUMN_DEGREES));
+    }
+
+    /**
+     * 64-bit FNV-1a over the forecast columns of a weather row.  The location and date aren't
+     * part of it, they are what the hash gets compared under.
+     */
+    static long contentHash(String shortDesc, int weatherId, double min, double max,
+                            double humidity, double pressure, double windSpeed, double degrees) {
+        long hash = 0xcbf29ce484222325L;
+        if (shortDesc != null) {
+            for (int i = 0; i < shortDesc.length(); i++) {
+                hash = (hash ^ shortDesc.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        hash = mix(hash, weatherId);
+        hash = mix(hash, Double.doubleToLongBits(min));
+        hash = mix(hash, Double.doubleToLongBits(max));
+        hash = mix(hash, Double.doubleToLongBits(humidity));
+        hash = mix(hash, Double.doubleToLongBits(pressure));
+        hash = mix(hash, Double.doubleToLongBits(windSpeed));
+        hash = mix(hash, Double.doubleToLongBits(degrees));
+        return hash;
+    }
+
+    private static double getAsDouble(ContentValues values, String key) {
+        Double value = values.getAsDouble(key);
+        return value == null ? 0 : value;
+    }
+
+    private static long mix(long hash, long value) {
+        for (int i = 0; i < 8; i++, value >>>= 8) {
+            hash = (hash ^ (value & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Applies the whole batch in a single transaction, so a sync that writes several locations
+     * either stores all of them or none.
+     * <p>
+     * A weather insert that matched the stored row for its day comes back with a count of 0 and
+     * no uri, so the caller can tell which days actually changed.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        BatchState batch = new BatchState();
+        mBatch.set(batch);
+        ContentProviderResult[] results;
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatch.remove();
+        }
+        if (batch.allLocationsStale) {
+            mQueryCache.invalidate(null);
+        } else {
+            for (String locationSetting : batch.staleLocations) {
+                mQueryCache.invalidate(locationSetting);
+            }
+        }
+        if (!batch.unchangedInserts.isEmpty()) {
+            for (int i = 0; i < results.length; i++) {
+                if (results[i].uri != null && batch.unchangedInserts.contains(results[i].uri)) {
+                    results[i] = new ContentProviderResult(0);
+                }
+            }
+        }
+        for (Uri uri : batch.changedUris) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        if (!batch.changedUris.isEmpty()) {
+            mOpenHelper.checkpoint(db);
+        }
+        return results;
+    }
+
+    /**
+     * Drops the cached queries of a location, once the write that changed it has been
+     * committed.  Until then a query would still read what was there before.
+     *
+     * @param locationSetting the location, or null for every location
+     */
+    private void invalidateQueries(String locationSetting) {
+        BatchState batch = mBatch.get();
+        if (batch == null) {
+            mQueryCache.invalidate(locationSetting);
+        } else if (locationSetting == null) {
+            batch.allLocationsStale = true;
+        } else {
+            batch.staleLocations.add(locationSetting);
+        }
+    }
+
+    private void invalidateQueries(SQLiteDatabase db, ContentValues[] values) {
+        Set<Long> locationIds = new HashSet<Long>();
+        for (ContentValues value : values) {
+            locationIds.add(value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+        }
+        for (Long locationId : locationIds) {
+            invalidateQueries(findLocationSetting(db, locationId));
+        }
+    }
+
+    /**
+     * @return the setting of the location with this id, or null if there is none
+     */
+    private static String findLocationSetting(SQLiteDatabase db, Long locationId) {
+        if (locationId == null) {
+            return null;
+        }
+        try {
+            return DatabaseUtils.stringForQuery(db,
+                    "SELECT " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+                            + " FROM " + WeatherContract.LocationEntry.TABLE_NAME
+                            + " WHERE " + WeatherContract.LocationEntry._ID + " = ?",
+                    new String[]{Long.toString(locationId)});
+        } catch (SQLiteDoneException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Tells the observers of both the history and the aggregate URIs, which read the same rows.
+     */
+    private void notifyHistoryChange() {
+        notifyChange(WeatherContract.HistoryEntry.CONTENT_URI);
+        notifyChange(WeatherContract.AggregateEntry.CONTENT_URI);
+    }
+
+    private void notifyChange(Uri uri) {
+        BatchState batch = mBatch.get();
+        if (batch != null) {
+            batch.changedUris.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        synchronized (this) {
+            if (mStatements != null) {
+                mStatements.close();
+                mStatements = null;
+            }
+        }
         mOpenHelper.close();
         super.shutdown();
     }
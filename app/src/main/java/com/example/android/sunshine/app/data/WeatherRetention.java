@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Keeps the weather table to a window of recent days without forgetting the ones before it.  A
+ * day that falls out of the window is already counted in its week's and its month's row of
+ * the history table, see WeatherAggregates; it is deleted, and those rows keep its low and high
+ * in case their own extremes have to be found again.  Weeks are kept for {@link #WEEKS_KEPT}
+ * weeks and months for {@link #MONTHS_KEPT} months; three-hourly steps are dropped a day after
+ * they have passed.
+ * <p>
+ * The work is done in steps that touch a bounded number of rows, each in a transaction of its
+ * own, so that maintenance never holds up a sync or a reader for long.  The provider runs one
+ * step per {@link WeatherContract#METHOD_COMPACT} call.
+ */
+final class WeatherRetention {
+
+    static final int DEFAULT_KEEP_DAYS = 14;
+    static final int DEFAULT_MAX_ROWS = 100;
+    static final int WEEKS_KEPT = 26;
+    static final int MONTHS_KEPT = 60;
+    static final long HOURLY_KEPT_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final String[] DAY_COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP
+    };
+
+    // these indices must match the projection
+    private static final int COL_ID = 0;
+    private static final int COL_LOC_KEY = 1;
+    private static final int COL_DATE = 2;
+    private static final int COL_MIN_TEMP = 3;
+    private static final int COL_MAX_TEMP = 4;
+
+    // past_min = min(past_min, ?4), past_max = max(past_max, ?5) of the period ?1, ?2, ?3,
+    // either of them null until the first day leaves
+    static final String ADD_TO_PAST_SQL =
+            "UPDATE " + HistoryEntry.TABLE_NAME + " SET " +
+                    WeatherAggregates.COLUMN_PAST_MIN + " = min(coalesce(" +
+                    WeatherAggregates.COLUMN_PAST_MIN + ", ?4), ?4), " +
+                    WeatherAggregates.COLUMN_PAST_MAX + " = max(coalesce(" +
+                    WeatherAggregates.COLUMN_PAST_MAX + ", ?5), ?5)" +
+                    " WHERE " + WeatherAggregates.PERIOD_KEY;
+
+    static final String DELETE_DAY_SQL =
+            "DELETE FROM " + WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry._ID + " = ?";
+
+    static final String DELETE_HISTORY_SQL =
+            "DELETE FROM " + HistoryEntry.TABLE_NAME + " WHERE " + HistoryEntry._ID + " = ?";
+
+    static final String DELETE_CONDITIONS_SQL =
+            "DELETE FROM " + WeatherAggregates.TABLE_CONDITION +
+                    " WHERE " + WeatherAggregates.COLUMN_HISTORY_ID + " = ?";
+
+    // At most ?2 steps, of any location, that started before the step ?1
+    static final String PRUNE_HOURLY_SQL =
+            "DELETE FROM " + HourlyEntry.TABLE_NAME + " WHERE " + HourlyEntry._ID + " IN (" +
+                    "SELECT " + HourlyEntry._ID + " FROM " + HourlyEntry.TABLE_NAME +
+                    " WHERE (" + HourlyEntry._ID + " & " + HourlyEntry.MAX_STEP + ") < ?" +
+                    " LIMIT ?)";
+
+    /**
+     * What one step did.
+     */
+    static class Result {
+        // Days that left the weather table for the history.
+        int compacted;
+        // History rows and three-hourly steps that were past keeping.
+        int prunedHistory;
+        int prunedHourly;
+        // Whether the step stopped at its row limit.
+        boolean more;
+    }
+
+    /**
+     * A week or month of one location, as far as the days of this step go.
+     */
+    private static final class Period {
+        final long locationId;
+        final int period;
+        final long start;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+
+        Period(long locationId, int period, long start) {
+            this.locationId = locationId;
+            this.period = period;
+            this.start = start;
+        }
+
+        void addDay(double minTemp, double maxTemp) {
+            min = Math.min(min, minTemp);
+            max = Math.max(max, maxTemp);
+        }
+    }
+
+    private WeatherRetention() {
+    }
+
+    /**
+     * Runs one step: drops the oldest days before the window, then the weeks, months and
+     * three-hourly steps that are past keeping, touching at most {@code maxRows} rows in
+     * all.  The caller provides the transaction.
+     *
+     * @param keepDays how many days before today stay in the weather table
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static Result compact(SQLiteDatabase db, long now, int keepDays, int maxRows) {
+        // Dates are stored at midnight where the sync ran, so days are counted in local time.
+        Time time = new Time();
+        time.set(now);
+        long gmtoff = time.gmtoff;
+        int firstKeptDay = Time.getJulianDay(now, gmtoff) - Time.EPOCH_JULIAN_DAY - keepDays;
+        // Half a day early, for the days stored on the other side of a daylight saving change.
+        long keptFrom = firstKeptDay * DAY_MILLIS - gmtoff * 1000 - DAY_MILLIS / 2;
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+        Result result = new Result();
+        SQLiteStatement addToPast = db.compileStatement(ADD_TO_PAST_SQL);
+        SQLiteStatement deleteDay = db.compileStatement(DELETE_DAY_SQL);
+        try {
+            Map<String, Period> periods = new LinkedHashMap<String, Period>();
+            long[] dayIds;
+            Cursor cursor = db.query(WeatherEntry.TABLE_NAME, DAY_COLUMNS,
+                    WeatherEntry.COLUMN_DATE + " < ?",
+                    new String[]{Long.toString(keptFrom)},
+                    null, null, WeatherEntry.COLUMN_DATE + " ASC", Integer.toString(maxRows));
+            try {
+                dayIds = new long[cursor.getCount()];
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    dayIds[i] = cursor.getLong(COL_ID);
+                    long locationId = cursor.getLong(COL_LOC_KEY);
+                    int day = dayOf(cursor.getLong(COL_DATE), gmtoff);
+                    double minTemp = cursor.getDouble(COL_MIN_TEMP);
+                    double maxTemp = cursor.getDouble(COL_MAX_TEMP);
+                    getPeriod(periods, locationId, HistoryEntry.PERIOD_WEEK,
+                            weekStart(day) * DAY_MILLIS).addDay(minTemp, maxTemp);
+                    getPeriod(periods, locationId, HistoryEntry.PERIOD_MONTH,
+                            monthStart(calendar, day)).addDay(minTemp, maxTemp);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            // Their days and sums stay as they are.
+            for (Period period : periods.values()) {
+                addToPast.bindLong(1, period.locationId);
+                addToPast.bindLong(2, period.period);
+                addToPast.bindLong(3, period.start);
+                addToPast.bindDouble(4, period.min);
+                addToPast.bindDouble(5, period.max);
+                addToPast.executeUpdateDelete();
+            }
+
+            for (long id : dayIds) {
+                deleteDay.bindLong(1, id);
+                deleteDay.executeUpdateDelete();
+            }
+            result.compacted = dayIds.length;
+        } finally {
+            addToPast.close();
+            deleteDay.close();
+        }
+
+        long weeksBefore = (weekStart(firstKeptDay) - WEEKS_KEPT * 7) * DAY_MILLIS;
+        monthStart(calendar, firstKeptDay);
+        calendar.add(Calendar.MONTH, -MONTHS_KEPT);
+        long monthsBefore = calendar.getTimeInMillis();
+        int budget = maxRows - result.compacted;
+        if (budget > 0) {
+            result.prunedHistory += pruneHistory(db, HistoryEntry.PERIOD_WEEK, weeksBefore, budget);
+            budget = maxRows - result.compacted - result.prunedHistory;
+        }
+        if (budget > 0) {
+            result.prunedHistory += pruneHistory(db, HistoryEntry.PERIOD_MONTH, monthsBefore,
+                    budget);
+            budget = maxRows - result.compacted - result.prunedHistory;
+        }
+        if (budget > 0) {
+            SQLiteStatement pruneHourly = db.compileStatement(PRUNE_HOURLY_SQL);
+            try {
+                pruneHourly.bindLong(1, HourlyEntry.buildKey(0, now - HOURLY_KEPT_MILLIS));
+                pruneHourly.bindLong(2, budget);
+                result.prunedHourly = pruneHourly.executeUpdateDelete();
+            } finally {
+                pruneHourly.close();
+            }
+        }
+        result.more = result.compacted + result.prunedHistory + result.prunedHourly >= maxRows;
+        return result;
+    }
+
+    /**
+     * Deletes at most {@code maxRows} rows of a period that started before {@code before}.
+     *
+     * @return how many it deleted
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int pruneHistory(SQLiteDatabase db, int period, long before, int maxRows) {
+        Cursor cursor = db.query(HistoryEntry.TABLE_NAME, new String[]{HistoryEntry._ID},
+                HistoryEntry.COLUMN_PERIOD + " = ? AND " + HistoryEntry.COLUMN_START + " < ?",
+                new String[]{Integer.toString(period), Long.toString(before)},
+                null, null, null, Integer.toString(maxRows));
+        long[] ids;
+        try {
+            ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (ids.length == 0) {
+            return 0;
+        }
+        SQLiteStatement deleteHistory = db.compileStatement(DELETE_HISTORY_SQL);
+        SQLiteStatement deleteConditions = db.compileStatement(DELETE_CONDITIONS_SQL);
+        try {
+            for (long id : ids) {
+                deleteConditions.bindLong(1, id);
+                deleteConditions.executeUpdateDelete();
+                deleteHistory.bindLong(1, id);
+                deleteHistory.executeUpdateDelete();
+            }
+        } finally {
+            deleteHistory.close();
+            deleteConditions.close();
+        }
+        return ids.length;
+    }
+
+    /**
+     * @return how many bytes of the database file hold data; pages freed by deletes are reused
+     * before the file grows again
+     */
+    static long getUsedBytes(SQLiteDatabase db) {
+        long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        return (pages - freePages) * db.getPageSize();
+    }
+
+    private static Period getPeriod(Map<String, Period> periods, long locationId, int period,
+                                    long start) {
+        String key = locationId + "/" + period + "/" + start;
+        Period result = periods.get(key);
+        if (result == null) {
+            result = new Period(locationId, period, start);
+            periods.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the day of a stored date, counted from the epoch
+     */
+    static int dayOf(long date, long gmtoff) {
+        // The nearest midnight, for the same reason as above.
+        return (int) ((date + gmtoff * 1000 + DAY_MILLIS / 2) / DAY_MILLIS);
+    }
+
+    /**
+     * @return the Monday of the week {@code day} is in, both counted from the epoch
+     */
+    static long weekStart(int day) {
+        // The epoch was a Thursday.
+        return day - ((day + 3) % 7 + 7) % 7;
+    }
+
+    /**
+     * @return the first of the month {@code day} is in, at UTC midnight, in milliseconds
+     */
+    static long monthStart(Calendar utcCalendar, int day) {
+        utcCalendar.setTimeInMillis(day * DAY_MILLIS);
+        utcCalendar.set(Calendar.DAY_OF_MONTH, 1);
+        return utcCalendar.getTimeInMillis();
+    }
+}
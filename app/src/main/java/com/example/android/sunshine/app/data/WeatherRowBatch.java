@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Everything one sync writes, as primitive columns rather than a ContentValues per row: the
+ * locations the forecasts belong to, the weather rows themselves, the three-hourly forecast, and
+ * the date before which old weather is dropped.  The provider binds these straight into
+ * precompiled statements.
+ * <p>
+ * A batch is meant to be cleared and refilled by every sync, so its arrays only ever grow.
+ */
+public class WeatherRowBatch implements Parcelable {
+
+    // Location id of a location that doesn't have a row yet; the provider inserts it.
+    public static final long NEW_LOCATION = -1;
+
+    private static final int DEFAULT_LOCATIONS = 4;
+    private static final int DEFAULT_ROWS = 16 * DEFAULT_LOCATIONS;
+    // Five days of three-hour steps take 40 rows, against 14 for the daily forecast.
+    private static final int HOURLY_ROWS_PER_ROW = 3;
+
+    int locationCount;
+    long[] locationId;
+    String[] locationSetting;
+    String[] cityName;
+    double[] coordLat;
+    double[] coordLong;
+    String[] eTag;
+    String[] lastModified;
+
+    int rowCount;
+    // Index into the location columns above.
+    int[] rowLocation;
+    long[] date;
+    int[] weatherId;
+    String[] shortDesc;
+    double[] minTemp;
+    double[] maxTemp;
+    double[] humidity;
+    double[] pressure;
+    double[] windSpeed;
+    double[] degrees;
+
+    int hourlyCount;
+    // Index into the location columns above.
+    int[] hourlyLocation;
+    long[] hourlyTime;
+    int[] hourlyWeatherId;
+    double[] hourlyTemp;
+    int[] hourlyHumidity;
+    double[] hourlyPressure;
+    double[] hourlyWindSpeed;
+    double[] hourlyDegrees;
+
+    // Weather rows dated on or before this are deleted along with the write; 0 keeps them all.
+    // Only toOperations() honours it, see setPruneDate().
+    long pruneDate;
+
+    public WeatherRowBatch() {
+        this(DEFAULT_LOCATIONS, DEFAULT_ROWS);
+    }
+
+    public WeatherRowBatch(int locationCapacity, int rowCapacity) {
+        locationId = new long[locationCapacity];
+        locationSetting = new String[locationCapacity];
+        cityName = new String[locationCapacity];
+        coordLat = new double[locationCapacity];
+        coordLong = new double[locationCapacity];
+        eTag = new String[locationCapacity];
+        lastModified = new String[locationCapacity];
+
+        rowLocation = new int[rowCapacity];
+        date = new long[rowCapacity];
+        weatherId = new int[rowCapacity];
+        shortDesc = new String[rowCapacity];
+        minTemp = new double[rowCapacity];
+        maxTemp = new double[rowCapacity];
+        humidity = new double[rowCapacity];
+        pressure = new double[rowCapacity];
+        windSpeed = new double[rowCapacity];
+        degrees = new double[rowCapacity];
+
+        int hourlyCapacity = rowCapacity * HOURLY_ROWS_PER_ROW;
+        hourlyLocation = new int[hourlyCapacity];
+        hourlyTime = new long[hourlyCapacity];
+        hourlyWeatherId = new int[hourlyCapacity];
+        hourlyTemp = new double[hourlyCapacity];
+        hourlyHumidity = new int[hourlyCapacity];
+        hourlyPressure = new double[hourlyCapacity];
+        hourlyWindSpeed = new double[hourlyCapacity];
+        hourlyDegrees = new double[hourlyCapacity];
+    }
+
+    /**
+     * Empties the batch, keeping its arrays.
+     */
+    public void clear() {
+        // Drop the string references so they can be collected, the primitives don't matter.
+        Arrays.fill(locationSetting, 0, locationCount, null);
+        Arrays.fill(cityName, 0, locationCount, null);
+        Arrays.fill(eTag, 0, locationCount, null);
+        Arrays.fill(lastModified, 0, locationCount, null);
+        Arrays.fill(shortDesc, 0, rowCount, null);
+        locationCount = 0;
+        rowCount = 0;
+        hourlyCount = 0;
+        pruneDate = 0;
+    }
+
+    /**
+     * Adds the location some of the following rows belong to.  A new location is inserted, an
+     * existing one only has its cache validators replaced.
+     *
+     * @param id the location's row id, or {@link #NEW_LOCATION}
+     * @return the index to pass to {@link #addRow} for this location's weather
+     */
+    public int addLocation(long id, String setting, String city, double lat, double lon,
+                           String eTagValue, String lastModifiedValue) {
+        if (locationCount == locationId.length) {
+            int capacity = locationCount * 2;
+            locationId = Arrays.copyOf(locationId, capacity);
+            locationSetting = Arrays.copyOf(locationSetting, capacity);
+            cityName = Arrays.copyOf(cityName, capacity);
+            coordLat = Arrays.copyOf(coordLat, capacity);
+            coordLong = Arrays.copyOf(coordLong, capacity);
+            eTag = Arrays.copyOf(eTag, capacity);
+            lastModified = Arrays.copyOf(lastModified, capacity);
+        }
+        int i = locationCount++;
+        locationId[i] = id;
+        locationSetting[i] = setting;
+        cityName[i] = city;
+        coordLat[i] = lat;
+        coordLong[i] = lon;
+        eTag[i] = eTagValue;
+        lastModified[i] = lastModifiedValue;
+        return i;
+    }
+
+    /**
+     * Adds one day of weather for a location added earlier.
+     *
+     * @return the index of the row, as reported back in the changed rows
+     */
+    public int addRow(int location, long dateValue, int weatherIdValue, String shortDescValue,
+                      double min, double max, double humidityValue, double pressureValue,
+                      double windSpeedValue, double degreesValue) {
+        if (rowCount == date.length) {
+            int capacity = rowCount * 2;
+            rowLocation = Arrays.copyOf(rowLocation, capacity);
+            date = Arrays.copyOf(date, capacity);
+            weatherId = Arrays.copyOf(weatherId, capacity);
+            shortDesc = Arrays.copyOf(shortDesc, capacity);
+            minTemp = Arrays.copyOf(minTemp, capacity);
+            maxTemp = Arrays.copyOf(maxTemp, capacity);
+            humidity = Arrays.copyOf(humidity, capacity);
+            pressure = Arrays.copyOf(pressure, capacity);
+            windSpeed = Arrays.copyOf(windSpeed, capacity);
+            degrees = Arrays.copyOf(degrees, capacity);
+        }
+        int i = rowCount++;
+        rowLocation[i] = location;
+        date[i] = dateValue;
+        weatherId[i] = weatherIdValue;
+        shortDesc[i] = shortDescValue;
+        minTemp[i] = min;
+        maxTemp[i] = max;
+        humidity[i] = humidityValue;
+        pressure[i] = pressureValue;
+        windSpeed[i] = windSpeedValue;
+        degrees[i] = degreesValue;
+        return i;
+    }
+
+    /**
+     * Adds one three-hour step of forecast for a location added earlier.  A location's steps
+     * replace every step stored for it from the first one on, so add all of them, one after the
+     * other and in time order.  Before Honeycomb they aren't written, see {@link #toOperations}.
+     *
+     * @param time the start of the step, in milliseconds since the epoch
+     */
+    public void addHourlyRow(int location, long time, int weatherIdValue, double temp,
+                             int humidityValue, double pressureValue, double windSpeedValue,
+                             double degreesValue) {
+        if (hourlyCount == hourlyTime.length) {
+            int capacity = Math.max(hourlyCount * 2, HOURLY_ROWS_PER_ROW);
+            hourlyLocation = Arrays.copyOf(hourlyLocation, capacity);
+            hourlyTime = Arrays.copyOf(hourlyTime, capacity);
+            hourlyWeatherId = Arrays.copyOf(hourlyWeatherId, capacity);
+            hourlyTemp = Arrays.copyOf(hourlyTemp, capacity);
+            hourlyHumidity = Arrays.copyOf(hourlyHumidity, capacity);
+            hourlyPressure = Arrays.copyOf(hourlyPressure, capacity);
+            hourlyWindSpeed = Arrays.copyOf(hourlyWindSpeed, capacity);
+            hourlyDegrees = Arrays.copyOf(hourlyDegrees, capacity);
+        }
+        int i = hourlyCount++;
+        hourlyLocation[i] = location;
+        hourlyTime[i] = time;
+        hourlyWeatherId[i] = weatherIdValue;
+        hourlyTemp[i] = temp;
+        hourlyHumidity[i] = humidityValue;
+        hourlyPressure[i] = pressureValue;
+        hourlyWindSpeed[i] = windSpeedValue;
+        hourlyDegrees[i] = degreesValue;
+    }
+
+    /**
+     * Deletes the weather rows dated on or before {@code date} along with the operations of
+     * {@link #toOperations()}, for devices that have no history maintenance.  The provider's
+     * {@link WeatherContract#METHOD_UPSERT_BATCH} ignores it: where it is available, old days are
+     * summed up into the history and pruned by {@link WeatherContract#METHOD_COMPACT}.
+     */
+    public void setPruneDate(long date) {
+        pruneDate = date;
+    }
+
+    public int getLocationCount() {
+        return locationCount;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getHourlyCount() {
+        return hourlyCount;
+    }
+
+    /**
+     * The same batch as provider operations, for devices without ContentResolver.call().  The
+     * operations are laid out as every location, then every row, then the pruning; apply them
+     * as one batch and hand the results to {@link #changedRows}.
+     * <p>
+     * The three-hourly rows are left out.  Ten times the rows as single inserts are more than an
+     * old device should write in one sync, so they are only stored by the provider's
+     * {@link WeatherContract#METHOD_UPSERT_BATCH}.
+     */
+    public ArrayList<ContentProviderOperation> toOperations() {
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(locationCount + rowCount + 1);
+        for (int i = 0; i < locationCount; i++) {
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_ETAG, eTag[i]);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED, lastModified[i]);
+            if (locationId[i] == NEW_LOCATION) {
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting[i]);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName[i]);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, coordLat[i]);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, coordLong[i]);
+                operations.add(ContentProviderOperation
+                        .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                        .withValues(locationValues)
+                        .build());
+            } else {
+                operations.add(ContentProviderOperation
+                        .newUpdate(WeatherContract.LocationEntry.CONTENT_URI)
+                        .withSelection(WeatherContract.LocationEntry._ID + " = ?",
+                                new String[]{Long.toString(locationId[i])})
+                        .withValues(locationValues)
+                        .build());
+            }
+        }
+        for (int i = 0; i < rowCount; i++) {
+            int location = rowLocation[i];
+            ContentValues weatherValues = new ContentValues(10);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, date[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, shortDesc[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, minTemp[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, maxTemp[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, degrees[i]);
+            ContentProviderOperation.Builder builder = ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI);
+            if (locationId[location] == NEW_LOCATION) {
+                // The location's id isn't known until its insert has run.
+                builder.withValues(weatherValues)
+                        .withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, location);
+            } else {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId[location]);
+                builder.withValues(weatherValues);
+            }
+            operations.add(builder.build());
+        }
+        if (pruneDate > 0) {
+            operations.add(ContentProviderOperation
+                    .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                            new String[]{Long.toString(pruneDate)})
+                    .build());
+        }
+        return operations;
+    }
+
+    /**
+     * @param results the results of applying {@link #toOperations()}
+     * @return the indexes of the rows that were written, in the same form the provider's
+     * {@link WeatherContract#METHOD_UPSERT_BATCH} returns them
+     */
+    public int[] changedRows(ContentProviderResult[] results) {
+        int[] changed = new int[rowCount];
+        int count = 0;
+        for (int i = 0; i < rowCount; i++) {
+            // Rows that were already stored unchanged come back without a uri.
+            if (results[locationCount + i].uri != null) {
+                changed[count++] = i;
+            }
+        }
+        return Arrays.copyOf(changed, count);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(locationCount);
+        for (int i = 0; i < locationCount; i++) {
+            dest.writeLong(locationId[i]);
+            dest.writeString(locationSetting[i]);
+            dest.writeString(cityName[i]);
+            dest.writeDouble(coordLat[i]);
+            dest.writeDouble(coordLong[i]);
+            dest.writeString(eTag[i]);
+            dest.writeString(lastModified[i]);
+        }
+        dest.writeInt(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            dest.writeInt(rowLocation[i]);
+            dest.writeLong(date[i]);
+            dest.writeInt(weatherId[i]);
+            dest.writeString(shortDesc[i]);
+            dest.writeDouble(minTemp[i]);
+            dest.writeDouble(maxTemp[i]);
+            dest.writeDouble(humidity[i]);
+            dest.writeDouble(pressure[i]);
+            dest.writeDouble(windSpeed[i]);
+            dest.writeDouble(degrees[i]);
+        }
+        dest.writeInt(hourlyCount);
+        for (int i = 0; i < hourlyCount; i++) {
+            dest.writeInt(hourlyLocation[i]);
+            dest.writeLong(hourlyTime[i]);
+            dest.writeInt(hourlyWeatherId[i]);
+            dest.writeDouble(hourlyTemp[i]);
+            dest.writeInt(hourlyHumidity[i]);
+            dest.writeDouble(hourlyPressure[i]);
+            dest.writeDouble(hourlyWindSpeed[i]);
+            dest.writeDouble(hourlyDegrees[i]);
+        }
+        dest.writeLong(pruneDate);
+    }
+
+    public static final Creator<WeatherRowBatch> CREATOR = new Creator<WeatherRowBatch>() {
+        @Override
+        public WeatherRowBatch createFromParcel(Parcel in) {
+            int locations = in.readInt();
+            WeatherRowBatch batch = new WeatherRowBatch(Math.max(locations, 1), DEFAULT_ROWS);
+            for (int i = 0; i < locations; i++) {
+                batch.addLocation(in.readLong(), in.readString(), in.readString(),
+                        in.readDouble(), in.readDouble(), in.readString(), in.readString());
+            }
+            int rows = in.readInt();
+            for (int i = 0; i < rows; i++) {
+                batch.addRow(in.readInt(), in.readLong(), in.readInt(), in.readString(),
+                        in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+                        in.readDouble(), in.readDouble());
+            }
+            int hourlyRows = in.readInt();
+            for (int i = 0; i < hourlyRows; i++) {
+                batch.addHourlyRow(in.readInt(), in.readLong(), in.readInt(), in.readDouble(),
+                        in.readInt(), in.readDouble(), in.readDouble(), in.readDouble());
+            }
+            batch.pruneDate = in.readLong();
+            return batch;
+        }
+
+        @Override
+        public WeatherRowBatch[] newArray(int size) {
+            return new WeatherRowBatch[size];
+        }
+    };
+}
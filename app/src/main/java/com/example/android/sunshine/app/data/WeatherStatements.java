@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * The provider's write statements, compiled once per database and reused for every row.
+ * <p>
+ * A statement is not safe to use from two threads at once, so callers synchronize on this
+ * object.  They must already be inside a transaction when they do, so that a thread holding
+ * the database lock never waits on one holding this object's lock.
+ */
+class WeatherStatements {
+
+    // the _id of the row with this location_id, date and content_hash, or -1
+    static final String UNCHANGED_WEATHER_SQL =
+            "SELECT coalesce((SELECT " + WeatherEntry._ID +
+                    " FROM " + WeatherEntry.TABLE_NAME +
+                    " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherEntry.COLUMN_DATE + " = ? AND " +
+                    WeatherEntry.COLUMN_CONTENT_HASH + " = ?), -1)";
+
+    // these bind indices must match the column order of INSERT_WEATHER_SQL
+    static final int WEATHER_LOC_KEY = 1;
+    static final int WEATHER_DATE = 2;
+    static final int WEATHER_WEATHER_ID = 3;
+    static final int WEATHER_SHORT_DESC = 4;
+    static final int WEATHER_MIN_TEMP = 5;
+    static final int WEATHER_MAX_TEMP = 6;
+    static final int WEATHER_HUMIDITY = 7;
+    static final int WEATHER_PRESSURE = 8;
+    static final int WEATHER_WIND_SPEED = 9;
+    static final int WEATHER_DEGREES = 10;
+    static final int WEATHER_CONTENT_HASH = 11;
+
+    // The table's UNIQUE (date, location_id) ON CONFLICT REPLACE applies here as well.
+    static final String INSERT_WEATHER_SQL =
+            "INSERT INTO " + WeatherEntry.TABLE_NAME + " (" +
+                    WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherEntry.COLUMN_DEGREES + ", " +
+                    WeatherEntry.COLUMN_CONTENT_HASH +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // these bind indices must match the column order of INSERT_LOCATION_SQL
+    static final int LOCATION_SETTING = 1;
+    static final int LOCATION_CITY_NAME = 2;
+    static final int LOCATION_COORD_LAT = 3;
+    static final int LOCATION_COORD_LONG = 4;
+    static final int LOCATION_ETAG = 5;
+    static final int LOCATION_LAST_MODIFIED = 6;
+
+    static final String INSERT_LOCATION_SQL =
+            "INSERT INTO " + LocationEntry.TABLE_NAME + " (" +
+                    LocationEntry.COLUMN_LOCATION_SETTING + ", " +
+                    LocationEntry.COLUMN_CITY_NAME + ", " +
+                    LocationEntry.COLUMN_COORD_LAT + ", " +
+                    LocationEntry.COLUMN_COORD_LONG + ", " +
+                    LocationEntry.COLUMN_ETAG + ", " +
+                    LocationEntry.COLUMN_LAST_MODIFIED +
+                    ") VALUES (?, ?, ?, ?, ?, ?)";
+
+    // etag = ?1, last_modified = ?2 WHERE _id = ?3
+    static final String UPDATE_LOCATION_VALIDATORS_SQL =
+            "UPDATE " + LocationEntry.TABLE_NAME + " SET " +
+                    LocationEntry.COLUMN_ETAG + " = ?, " +
+                    LocationEntry.COLUMN_LAST_MODIFIED + " = ? WHERE " +
+                    LocationEntry._ID + " = ?";
+
+    // these bind indices must match the column order of INSERT_HOURLY_SQL
+    static final int HOURLY_KEY = 1;
+    static final int HOURLY_WEATHER_ID = 2;
+    static final int HOURLY_TEMP = 3;
+    static final int HOURLY_HUMIDITY = 4;
+    static final int HOURLY_PRESSURE = 5;
+    static final int HOURLY_WIND_SPEED = 6;
+    static final int HOURLY_DEGREES = 7;
+
+    static final String INSERT_HOURLY_SQL =
+            "INSERT OR REPLACE INTO " + HourlyEntry.TABLE_NAME + " (" +
+                    HourlyEntry._ID + ", " +
+                    HourlyEntry.COLUMN_WEATHER_ID + ", " +
+                    HourlyEntry.COLUMN_TEMP + ", " +
+                    HourlyEntry.COLUMN_HUMIDITY + ", " +
+                    HourlyEntry.COLUMN_PRESSURE + ", " +
+                    HourlyEntry.COLUMN_WIND_SPEED + ", " +
+                    HourlyEntry.COLUMN_DEGREES +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    // _id >= ?1 AND _id < ?2, keys from HourlyEntry.buildKey()
+    static final String DELETE_HOURLY_RANGE_SQL =
+            "DELETE FROM " + HourlyEntry.TABLE_NAME + " WHERE " +
+                    HourlyEntry._ID + " >= ? AND " +
+                    HourlyEntry._ID + " < ?";
+
+    final SQLiteDatabase database;
+    final SQLiteStatement unchangedWeather;
+    final SQLiteStatement insertWeather;
+    final SQLiteStatement insertLocation;
+    final SQLiteStatement updateLocationValidators;
+    final SQLiteStatement insertHourly;
+    final SQLiteStatement deleteHourlyRange;
+    // see WeatherAggregates
+    final SQLiteStatement insertHistory;
+    final SQLiteStatement addToHistory;
+    final SQLiteStatement insertCondition;
+    final SQLiteStatement addToCondition;
+    final SQLiteStatement deleteEmptyCondition;
+    final SQLiteStatement deleteEmptyHistory;
+    final SQLiteStatement updateHistoryExtremes;
+
+    WeatherStatements(SQLiteDatabase db) {
+        database = db;
+        unchangedWeather = db.compileStatement(UNCHANGED_WEATHER_SQL);
+        insertWeather = db.compileStatement(INSERT_WEATHER_SQL);
+        insertLocation = db.compileStatement(INSERT_LOCATION_SQL);
+        updateLocationValidators = db.compileStatement(UPDATE_LOCATION_VALIDATORS_SQL);
+        insertHourly = db.compileStatement(INSERT_HOURLY_SQL);
+        deleteHourlyRange = db.compileStatement(DELETE_HOURLY_RANGE_SQL);
+        insertHistory = db.compileStatement(WeatherAggregates.INSERT_HISTORY_SQL);
+        addToHistory = db.compileStatement(WeatherAggregates.ADD_TO_HISTORY_SQL);
+        insertCondition = db.compileStatement(WeatherAggregates.INSERT_CONDITION_SQL);
+        addToCondition = db.compileStatement(WeatherAggregates.ADD_TO_CONDITION_SQL);
+        deleteEmptyCondition = db.compileStatement(WeatherAggregates.DELETE_EMPTY_CONDITION_SQL);
+        deleteEmptyHistory = db.compileStatement(WeatherAggregates.DELETE_EMPTY_HISTORY_SQL);
+        updateHistoryExtremes = db.compileStatement(WeatherAggregates.UPDATE_EXTREMES_SQL);
+    }
+
+    static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    void close() {
+        unchangedWeather.close();
+        insertWeather.close();
+        insertLocation.close();
+        updateLocationValidators.close();
+        insertHourly.close();
+        deleteHourlyRange.close();
+        insertHistory.close();
+        addToHistory.close();
+        insertCondition.close();
+        addToCondition.close();
+        deleteEmptyCondition.close();
+        deleteEmptyHistory.close();
+        updateHistoryExtremes.close();
+    }
+}
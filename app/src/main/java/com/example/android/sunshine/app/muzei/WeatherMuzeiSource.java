@@ -22,6 +22,7 @@ import android.net.Uri;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ForecastSnapshot;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.apps.muzei.api.Artwork;
 import com.google.android.apps.muzei.api.MuzeiArtSource;
@@ -38,6 +39,10 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     private static final int INDEX_WEATHER_ID = 0;
     private static final int INDEX_SHORT_DESC = 1;
 
+    // The forecast a sync sent along, for the update it asked for.  Only touched on the
+    // service's worker thread.
+    private ForecastSnapshot mSnapshot;
+
     public WeatherMuzeiSource() {
         super("WeatherMuzeiSource");
     }
@@ -48,32 +53,45 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
         boolean dataUpdated = intent != null &&
                 SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction());
         if (dataUpdated && isEnabled()) {
-            onUpdate(UPDATE_REASON_OTHER);
+            mSnapshot = ForecastSnapshot.fromIntent(intent, Utility.getPreferredLocation(this));
+            try {
+                onUpdate(UPDATE_REASON_OTHER);
+            } finally {
+                mSnapshot = null;
+            }
         }
     }
 
     @Override
     protected void onUpdate(int reason) {
         String location = Utility.getPreferredLocation(this);
+        if (mSnapshot != null && mSnapshot.getLocationSetting().equals(location)) {
+            if (!mSnapshot.isEmpty()) {
+                publishWeather(location, mSnapshot.getWeatherId(0), mSnapshot.getDescription(0));
+            }
+            return;
+        }
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 location, System.currentTimeMillis());
         Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
                 null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
         if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
-
-            String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
-            // Only publish a new wallpaper if we have a valid image
-            if (imageUrl != null) {
-                publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
-                        .title(desc)
-                        .byline(location)
-                        .viewIntent(new Intent(this, MainActivity.class))
-                        .build());
-            }
+            publishWeather(location, cursor.getInt(INDEX_WEATHER_ID),
+                    cursor.getString(INDEX_SHORT_DESC));
         }
         cursor.close();
     }
+
+    private void publishWeather(String location, int weatherId, String desc) {
+        String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
+        // Only publish a new wallpaper if we have a valid image
+        if (imageUrl != null) {
+            publishArtwork(new Artwork.Builder()
+                    .imageUri(Uri.parse(imageUrl))
+                    .title(desc)
+                    .byline(location)
+                    .viewIntent(new Intent(this, MainActivity.class))
+                    .build());
+        }
+    }
 }
@@ -0,0 +1,179 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.net.HttpURLConnection;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The ETag / Last-Modified pair OpenWeatherMap sent with a forecast, stored on the location row
+ * so the next sync for that location can make a conditional request.
+ */
+public class CacheValidators {
+
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    static final String HEADER_EXPIRES = "Expires";
+    static final String HEADER_DATE = "Date";
+
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    static final CacheValidators NONE = new CacheValidators(null, null);
+
+    private static final String[] VALIDATOR_PROJECTION = new String[]{
+            WeatherContract.LocationEntry.COLUMN_ETAG,
+            WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_ETAG = 0;
+    private static final int INDEX_LAST_MODIFIED = 1;
+
+    private final String mETag;
+    private final String mLastModified;
+
+    public CacheValidators(String eTag, String lastModified) {
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    public String getETag() {
+        return mETag;
+    }
+
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    public boolean isEmpty() {
+        return mETag == null && mLastModified == null;
+    }
+
+    /**
+     * Adds the conditional request headers.  Must be called before the connection is opened.
+     */
+    public void applyTo(HttpURLConnection connection) {
+        if (mETag != null) {
+            connection.setRequestProperty(HEADER_IF_NONE_MATCH, mETag);
+        }
+        if (mLastModified != null) {
+            connection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, mLastModified);
+        }
+    }
+
+    /**
+     * @return the validators the server sent with this response, which may be {@link #NONE}
+     */
+    public static CacheValidators fromResponse(HttpTransport.Response response) {
+        String eTag = response.getHeader(HEADER_ETAG);
+        String lastModified = response.getHeader(HEADER_LAST_MODIFIED);
+        if (eTag == null && lastModified == null) {
+            return NONE;
+        }
+        return new CacheValidators(eTag, lastModified);
+    }
+
+    /**
+     * Works out how long the server says a response stays fresh: Cache-Control's max-age if it
+     * sent one, otherwise Expires, measured against its own Date so that a skewed phone clock
+     * doesn't matter.
+     *
+     * @param now the current wall clock time
+     * @return when the response stops being fresh, in wall clock millis, or 0 if the server
+     * didn't say or asked not to be cached
+     */
+    public static long freshUntil(HttpTransport.Response response, long now) {
+        String cacheControl = response.getHeader(HEADER_CACHE_CONTROL);
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.US);
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    return 0;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return now + Long.parseLong(directive.substring(8).trim()) * 1000;
+                    } catch (NumberFormatException e) {
+                        // Unusable, see if Expires says anything.
+                    }
+                }
+            }
+        }
+        long expires = parseHttpDate(response.getHeader(HEADER_EXPIRES));
+        if (expires == 0) {
+            return 0;
+        }
+        long date = parseHttpDate(response.getHeader(HEADER_DATE));
+        return date == 0 ? expires : now + expires - date;
+    }
+
+    /**
+     * @return the time of an RFC 1123 date such as "Sat, 20 Dec 2014 00:00:00 GMT", or 0 if it
+     * is missing or malformed
+     */
+    static long parseHttpDate(String value) {
+        if (value == null) {
+            return 0;
+        }
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the stored validators of a location.  Unknown locations have none.
+     */
+    public static CacheValidators forLocation(Context context, String locationSetting) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                VALIDATOR_PROJECTION,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor == null) {
+            return NONE;
+        }
+        try {
+            if (cursor.moveToFirst()) {
+                return new CacheValidators(cursor.getString(INDEX_ETAG),
+                        cursor.getString(INDEX_LAST_MODIFIED));
+            }
+            return NONE;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Stores these validators on the location row, replacing whatever was there.
+     */
+    public void saveForLocation(Context context, long locationId) {
+        ContentValues values = new ContentValues(2);
+        putInto(values);
+        context.getContentResolver().update(WeatherContract.LocationEntry.CONTENT_URI, values,
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)});
+    }
+
+    /**
+     * Adds these validators to a set of location values, e.g. for an insert or a batched update.
+     */
+    public void putInto(ContentValues values) {
+        values.put(WeatherContract.LocationEntry.COLUMN_ETAG, mETag);
+        values.put(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED, mLastModified);
+    }
+}
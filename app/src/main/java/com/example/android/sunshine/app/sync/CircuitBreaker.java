@@ -0,0 +1,92 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Stops the sync from asking OpenWeatherMap for anything after several syncs in a row got no
+ * answer from it.  Once open, the breaker lets no sync through until its cooldown has passed.
+ * The next sync after that is a trial: if it fails the breaker opens again for twice as long,
+ * if it succeeds the breaker closes and the count starts over.  The state is kept in the
+ * {@link SyncStateStore}, so it holds across restarts.
+ */
+final class CircuitBreaker {
+    private static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    static final int FAILURES_BEFORE_OPEN = 3;
+    static final long BASE_COOLDOWN_MILLIS = 15 * 60 * 1000;
+    static final long MAX_COOLDOWN_MILLIS = 6 * 60 * 60 * 1000;
+
+    private static CircuitBreaker sInstance;
+
+    private final SyncStateStore mStore;
+    private final int mFailuresBeforeOpen;
+    private final long mBaseCooldownMillis;
+    private final long mMaxCooldownMillis;
+
+    static synchronized CircuitBreaker getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CircuitBreaker(SyncStateStore.getInstance(context),
+                    FAILURES_BEFORE_OPEN, BASE_COOLDOWN_MILLIS, MAX_COOLDOWN_MILLIS);
+        }
+        return sInstance;
+    }
+
+    CircuitBreaker(SyncStateStore store, int failuresBeforeOpen, long baseCooldownMillis,
+                   long maxCooldownMillis) {
+        mStore = store;
+        mFailuresBeforeOpen = failuresBeforeOpen;
+        mBaseCooldownMillis = baseCooldownMillis;
+        mMaxCooldownMillis = maxCooldownMillis;
+    }
+
+    /**
+     * @param now the current wall clock time
+     * @return false while the breaker is open
+     */
+    boolean allowRequest(long now) {
+        long openUntil = mStore.getOpenUntil();
+        // A cooldown longer than any the breaker sets means the clock was turned back.
+        return openUntil <= now || openUntil - now > mMaxCooldownMillis;
+    }
+
+    /**
+     * @return when the breaker closes again, or 0 if it isn't open
+     */
+    long getOpenUntil() {
+        return mStore.getOpenUntil();
+    }
+
+    /**
+     * OpenWeatherMap answered.
+     */
+    synchronized void onSuccess() {
+        if (mStore.getConsecutiveFailures() > 0) {
+            Log.d(LOG_TAG, "Closed after " + mStore.getConsecutiveFailures() + " failures");
+        }
+        mStore.setBreaker(0, 0, 0);
+    }
+
+    /**
+     * A whole sync got no answer from OpenWeatherMap, retries included.
+     */
+    synchronized void onFailure(long now) {
+        int failures = mStore.getConsecutiveFailures() + 1;
+        long openUntil = mStore.getOpenUntil();
+        long cooldown = mStore.getCooldownMillis();
+        if (failures >= mFailuresBeforeOpen) {
+            cooldown = cooldown == 0 ? mBaseCooldownMillis
+                    : Math.min(mMaxCooldownMillis, cooldown * 2);
+            openUntil = now + cooldown;
+            Log.d(LOG_TAG, "Open for " + cooldown / 1000 + "s after " + failures + " failures");
+        }
+        mStore.setBreaker(failures, openUntil, cooldown);
+    }
+
+    /**
+     * Persists the breaker, if it changed.
+     */
+    void save() {
+        mStore.save();
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherRowBatch;
+
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+
+/**
+ * Reusable, column-oriented holder for one parsed OpenWeatherMap daily forecast.
+ * <p>
+ * The parser writes each day straight into primitive arrays instead of building an object per
+ * day, and the arrays are kept between syncs so a steady-state sync does not reallocate them.
+ */
+public class ForecastBuffer {
+
+    // OWM sends up to 16 days; 14 is what we ask for.
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // The "cod" field of the response, or HTTP_OK if the response did not carry one.
+    int messageCode;
+
+    String cityName;
+    double cityLatitude;
+    double cityLongitude;
+
+    int size;
+    double[] pressure;
+    int[] humidity;
+    double[] windSpeed;
+    double[] windDirection;
+    double[] high;
+    double[] low;
+    String[] description;
+    int[] weatherId;
+
+    public ForecastBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ForecastBuffer(int capacity) {
+        pressure = new double[capacity];
+        humidity = new int[capacity];
+        windSpeed = new double[capacity];
+        windDirection = new double[capacity];
+        high = new double[capacity];
+        low = new double[capacity];
+        description = new String[capacity];
+        weatherId = new int[capacity];
+        reset();
+    }
+
+    /**
+     * Clears the buffer so it can be filled by the next parse.  The backing arrays are kept.
+     */
+    public void reset() {
+        messageCode = HttpURLConnection.HTTP_OK;
+        cityName = null;
+        cityLatitude = 0;
+        cityLongitude = 0;
+        // Drop the description references so they can be collected, the primitives don't matter.
+        Arrays.fill(description, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Reserves the next day slot, growing the arrays if the response is longer than expected.
+     *
+     * @return the index of the new day
+     */
+    int addDay() {
+        if (size == weatherId.length) {
+            int capacity = size * 2;
+            pressure = Arrays.copyOf(pressure, capacity);
+            humidity = Arrays.copyOf(humidity, capacity);
+            windSpeed = Arrays.copyOf(windSpeed, capacity);
+            windDirection = Arrays.copyOf(windDirection, capacity);
+            high = Arrays.copyOf(high, capacity);
+            low = Arrays.copyOf(low, capacity);
+            description = Arrays.copyOf(description, capacity);
+            weatherId = Arrays.copyOf(weatherId, capacity);
+        }
+        return size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getMessageCode() {
+        return messageCode;
+    }
+
+    public String getCityName() {
+        return cityName;
+    }
+
+    public double getCityLatitude() {
+        return cityLatitude;
+    }
+
+    public double getCityLongitude() {
+        return cityLongitude;
+    }
+
+    /**
+     * Converts the buffered days to the ContentValues expected by the weather table.
+     *
+     * @param locationId     row id of the location the forecast belongs to
+     * @param julianStartDay julian day of the first entry; OWM always starts with "today"
+     * @return one ContentValues per buffered day
+     */
+    public ContentValues[] toContentValues(long locationId, int julianStartDay) {
+        ContentValues[] values = new ContentValues[size];
+        // Cheating to convert this to UTC time, which is what we want anyhow
+        Time dayTime = new Time();
+        for (int i = 0; i < size; i++) {
+            ContentValues weatherValues = new ContentValues(10);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    dayTime.setJulianDay(julianStartDay + i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description[i]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId[i]);
+            values[i] = weatherValues;
+        }
+        return values;
+    }
+
+    /**
+     * Copies the buffered days into a row batch, without a ContentValues per day.
+     *
+     * @param location       the batch's index of the location the forecast belongs to
+     * @param julianStartDay julian day of the first entry; OWM always starts with "today"
+     * @return the batch index of the first day
+     */
+    public int appendTo(WeatherRowBatch batch, int location, int julianStartDay) {
+        int first = batch.getRowCount();
+        Time dayTime = new Time();
+        for (int i = 0; i < size; i++) {
+            batch.addRow(location, dayTime.setJulianDay(julianStartDay + i), weatherId[i],
+                    description[i], low[i], high[i], humidity[i], pressure[i], windSpeed[i],
+                    windDirection[i]);
+        }
+        return first;
+    }
+}
@@ -0,0 +1,416 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * Parses the OpenWeatherMap daily forecast into a {@link ForecastBuffer}, and the three-hourly
+ * one into a {@link HourlyBuffer}.
+ * <p>
+ * {@link #parse(Reader, ForecastBuffer)} is a pull parser that reads straight from the network
+ * stream, so neither the response String nor a JSONObject tree is ever built.
+ * {@link #parseLegacy(String, ForecastBuffer)} is the original org.json implementation, kept for
+ * pre-Honeycomb devices (android.util.JsonReader is API 11) and as the benchmark baseline.
+ */
+public final class ForecastJsonParser {
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Each step of the three-hourly forecast has its time, and groups the rest by kind.  Its
+    // "temp" is a single number.
+    private static final String OWM_TIME = "dt";
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_WIND = "wind";
+
+    // Bits used to check that every day carried all the fields we store.
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WINDSPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_MAX = 1 << 4;
+    private static final int FIELD_MIN = 1 << 5;
+    private static final int FIELD_DESCRIPTION = 1 << 6;
+    private static final int FIELD_WEATHER_ID = 1 << 7;
+    private static final int ALL_DAY_FIELDS = (1 << 8) - 1;
+    private static final int FIELD_TIME = 1 << 8;
+    private static final int FIELD_TEMPERATURE = 1 << 9;
+    private static final int ALL_STEP_FIELDS = FIELD_TIME | FIELD_TEMPERATURE | FIELD_PRESSURE
+            | FIELD_HUMIDITY | FIELD_WINDSPEED | FIELD_WIND_DIRECTION | FIELD_WEATHER_ID;
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Streams the forecast from {@code in} into {@code out}.  If the response carries a "cod"
+     * other than 200 parsing stops early and the code is left in the buffer.
+     *
+     * @throws IOException   if the underlying stream fails
+     * @throws JSONException if the document is not a forecast we understand
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static void parse(Reader in, ForecastBuffer out) throws IOException, JSONException {
+        out.reset();
+        JsonReader reader = new JsonReader(in);
+        boolean hasList = false;
+        boolean hasCity = false;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // OWM sends this as a string for some endpoints, nextInt() accepts both.
+                    out.messageCode = reader.nextInt();
+                    if (out.messageCode != HttpURLConnection.HTTP_OK) {
+                        return;
+                    }
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, out);
+                    hasCity = true;
+                } else if (OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readDay(reader, out);
+                    }
+                    reader.endArray();
+                    hasList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException e) {
+            throw newJsonException(e);
+        } catch (IllegalStateException e) {
+            // Thrown by JsonReader when a token has an unexpected type.
+            throw newJsonException(e);
+        } catch (NumberFormatException e) {
+            throw newJsonException(e);
+        }
+        if (!hasList || !hasCity) {
+            throw new JSONException("Forecast is missing " + (hasList ? OWM_CITY : OWM_LIST));
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, ForecastBuffer out) throws IOException,
+            JSONException {
+        boolean hasName = false;
+        boolean hasCoord = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                out.cityName = reader.nextString();
+                hasName = true;
+            } else if (OWM_COORD.equals(name)) {
+                int seen = 0;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        out.cityLatitude = reader.nextDouble();
+                        seen |= 1;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        out.cityLongitude = reader.nextDouble();
+                        seen |= 2;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                hasCoord = seen == 3;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!hasName || !hasCoord) {
+            throw new JSONException("City is missing " + (hasName ? OWM_COORD : OWM_CITY_NAME));
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDay(JsonReader reader, ForecastBuffer out) throws IOException,
+            JSONException {
+        int day = out.addDay();
+        int seen = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                out.pressure[day] = reader.nextDouble();
+                seen |= FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                out.humidity[day] = (int) reader.nextDouble();
+                seen |= FIELD_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                out.windSpeed[day] = reader.nextDouble();
+                seen |= FIELD_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                out.windDirection[day] = reader.nextDouble();
+                seen |= FIELD_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        out.high[day] = reader.nextDouble();
+                        seen |= FIELD_MAX;
+                    } else if (OWM_MIN.equals(tempName)) {
+                        out.low[day] = reader.nextDouble();
+                        seen |= FIELD_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.  Anything after it is skipped.
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            out.description[day] = reader.nextString();
+                            seen |= FIELD_DESCRIPTION;
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            out.weatherId[day] = reader.nextInt();
+                            seen |= FIELD_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (seen != ALL_DAY_FIELDS) {
+            throw new JSONException("Incomplete forecast for day " + day);
+        }
+    }
+
+    /**
+     * Streams the three-hourly forecast from {@code in} into {@code out}, like
+     * {@link #parse(Reader, ForecastBuffer)}.  The city isn't read, the daily forecast has it.
+     *
+     * @throws IOException   if the underlying stream fails
+     * @throws JSONException if the document is not a forecast we understand
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static void parseHourly(Reader in, HourlyBuffer out) throws IOException,
+            JSONException {
+        out.reset();
+        JsonReader reader = new JsonReader(in);
+        boolean hasList = false;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    out.messageCode = reader.nextInt();
+                    if (out.messageCode != HttpURLConnection.HTTP_OK) {
+                        return;
+                    }
+                } else if (OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readStep(reader, out);
+                    }
+                    reader.endArray();
+                    hasList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException e) {
+            throw newJsonException(e);
+        } catch (IllegalStateException e) {
+            // Thrown by JsonReader when a token has an unexpected type.
+            throw newJsonException(e);
+        } catch (NumberFormatException e) {
+            throw newJsonException(e);
+        }
+        if (!hasList) {
+            throw new JSONException("Forecast is missing " + OWM_LIST);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readStep(JsonReader reader, HourlyBuffer out) throws IOException,
+            JSONException {
+        int step = out.addStep();
+        int seen = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TIME.equals(name)) {
+                // In seconds.
+                out.time[step] = reader.nextLong() * 1000;
+                seen |= FIELD_TIME;
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(mainName)) {
+                        out.temperature[step] = reader.nextDouble();
+                        seen |= FIELD_TEMPERATURE;
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        out.pressure[step] = reader.nextDouble();
+                        seen |= FIELD_PRESSURE;
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        out.humidity[step] = (int) reader.nextDouble();
+                        seen |= FIELD_HUMIDITY;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        out.windSpeed[step] = reader.nextDouble();
+                        seen |= FIELD_WINDSPEED;
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        out.windDirection[step] = reader.nextDouble();
+                        seen |= FIELD_WIND_DIRECTION;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Only the first element's weather code is used, as for a day.
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                            out.weatherId[step] = reader.nextInt();
+                            seen |= FIELD_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (seen != ALL_STEP_FIELDS) {
+            throw new JSONException("Incomplete forecast for step " + step);
+        }
+    }
+
+    private static JSONException newJsonException(Exception cause) {
+        JSONException e = new JSONException(cause.getMessage());
+        e.initCause(cause);
+        return e;
+    }
+
+    /**
+     * Take the String representing the complete forecast in JSON Format and
+     * pull out the data we need into {@code out}.
+     * <p>
+     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
+     * into an Object hierarchy for us.
+     */
+    public static void parseLegacy(String forecastJsonStr, ForecastBuffer out)
+            throws JSONException {
+        out.reset();
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            out.messageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (out.messageCode != HttpURLConnection.HTTP_OK) {
+                return;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        out.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        out.cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        out.cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            int day = out.addDay();
+
+            out.pressure[day] = dayForecast.getDouble(OWM_PRESSURE);
+            out.humidity[day] = dayForecast.getInt(OWM_HUMIDITY);
+            out.windSpeed[day] = dayForecast.getDouble(OWM_WINDSPEED);
+            out.windDirection[day] = dayForecast.getDouble(OWM_WIND_DIRECTION);
+
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            out.description[day] = weatherObject.getString(OWM_DESCRIPTION);
+            out.weatherId[day] = weatherObject.getInt(OWM_WEATHER_ID);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+            out.high[day] = temperatureObject.getDouble(OWM_MAX);
+            out.low[day] = temperatureObject.getDouble(OWM_MIN);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * The preferred location's forecast from today on, as it was after a sync.  It is read with a
+ * single query and handed to everything that shows the weather, so the widgets, Muzei, the
+ * notification and the watch don't each query the provider for the same rows.  It never
+ * changes once read.
+ * <p>
+ * The last one is also kept in a small file, which the forecast list shows while its loader
+ * is still opening the database on a cold start.  The file is laid out as follows, big-endian,
+ * with strings as their UTF-8 length followed by the bytes:
+ * <pre>
+ * int magic, int version,
+ * string location setting, double latitude, double longitude,
+ * int days, then for each day:
+ *     long date, int weather id, double high, double low, string description
+ * </pre>
+ */
+public final class ForecastSnapshot implements Parcelable {
+
+    // The extra a snapshot travels in, on the intents that follow a sync.
+    public static final String EXTRA_SNAPSHOT = "forecast_snapshot";
+
+    // The last snapshot's file, in the cache directory: losing it only costs a slower start.
+    private static final String FILE_NAME = "forecast.snapshot";
+    // "SUNS", then the layout the file was written with.  A file with any other layout is
+    // ignored until the next sync replaces it.
+    private static final int FILE_MAGIC = 0x53554e53;
+    static final int FILE_VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] SNAPSHOT_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+    private static final int INDEX_COORD_LAT = 5;
+    private static final int INDEX_COORD_LONG = 6;
+
+    private final String mLocationSetting;
+    private double mLatitude;
+    private double mLongitude;
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final String[] mDescriptions;
+    private final double[] mHighs;
+    private final double[] mLows;
+
+    private ForecastSnapshot(String locationSetting, int days) {
+        mLocationSetting = locationSetting;
+        mDates = new long[days];
+        mWeatherIds = new int[days];
+        mDescriptions = new String[days];
+        mHighs = new double[days];
+        mLows = new double[days];
+    }
+
+    /**
+     * Reads a location's forecast from the day containing now onwards.
+     *
+     * @return the snapshot, or null if the provider couldn't be queried
+     */
+    public static ForecastSnapshot query(ContentResolver resolver, String locationSetting,
+                                         long now) {
+        Cursor cursor = resolver.query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(locationSetting, now),
+                SNAPSHOT_COLUMNS, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            ForecastSnapshot snapshot = new ForecastSnapshot(locationSetting, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                if (i == 0) {
+                    snapshot.mLatitude = cursor.getDouble(INDEX_COORD_LAT);
+                    snapshot.mLongitude = cursor.getDouble(INDEX_COORD_LONG);
+                }
+                snapshot.mDates[i] = cursor.getLong(INDEX_DATE);
+                snapshot.mWeatherIds[i] = cursor.getInt(INDEX_WEATHER_ID);
+                snapshot.mDescriptions[i] = cursor.getString(INDEX_SHORT_DESC);
+                snapshot.mHighs[i] = cursor.getDouble(INDEX_MAX_TEMP);
+                snapshot.mLows[i] = cursor.getDouble(INDEX_MIN_TEMP);
+            }
+            return snapshot;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the snapshot an intent carries, if it is for this location, otherwise null
+     */
+    public static ForecastSnapshot fromIntent(Intent intent, String locationSetting) {
+        if (intent == null) {
+            return null;
+        }
+        ForecastSnapshot snapshot = intent.getParcelableExtra(EXTRA_SNAPSHOT);
+        if (snapshot == null || !snapshot.mLocationSetting.equals(locationSetting)) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads the snapshot the last sync left behind, if it is for this location and still has
+     * days from the one containing now on.  The days before it are left out.
+     *
+     * @return the snapshot, or null if there is no such file or it can't be used
+     */
+    public static ForecastSnapshot readFile(Context context, String locationSetting, long now) {
+        ForecastSnapshot snapshot;
+        try {
+            snapshot = readFrom(getFile(context));
+        } catch (IOException e) {
+            return null;
+        }
+        if (snapshot == null || !snapshot.mLocationSetting.equals(locationSetting)) {
+            return null;
+        }
+        long today = WeatherContract.normalizeDate(now);
+        int first = 0;
+        while (first < snapshot.mDates.length && snapshot.mDates[first] < today) {
+            first++;
+        }
+        if (first == snapshot.mDates.length) {
+            return null;
+        }
+        return first == 0 ? snapshot : snapshot.from(first);
+    }
+
+    /**
+     * Keeps this snapshot for {@link #readFile} to find, in place of the last one.
+     */
+    public void writeFile(Context context) throws IOException {
+        writeTo(getFile(context));
+    }
+
+    static File getFile(Context context) {
+        return new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    /**
+     * Writes the snapshot next to the file and then moves it over, so a reader never sees half
+     * of it.
+     */
+    void writeTo(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            writeString(out, mLocationSetting);
+            out.writeDouble(mLatitude);
+            out.writeDouble(mLongitude);
+            out.writeInt(mDates.length);
+            for (int i = 0; i < mDates.length; i++) {
+                out.writeLong(mDates[i]);
+                out.writeInt(mWeatherIds[i]);
+                out.writeDouble(mHighs[i]);
+                out.writeDouble(mLows[i]);
+                writeString(out, mDescriptions[i]);
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Couldn't replace " + file);
+        }
+    }
+
+    /**
+     * Reads a snapshot file through a read-only mapping of it.
+     *
+     * @return the snapshot, or null if there is no file, or it has another layout or is cut
+     * short
+     */
+    static ForecastSnapshot readFrom(File file) throws IOException {
+        FileInputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            FileChannel channel = in.getChannel();
+            // The mapping outlives the channel, but the file is only read here.
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 8
+                    || buffer.getInt() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) {
+                return null;
+            }
+            String locationSetting = readString(buffer);
+            double latitude = buffer.getDouble();
+            double longitude = buffer.getDouble();
+            int days = buffer.getInt();
+            // Each day takes at least 32 bytes, which also catches a garbled count.
+            if (days < 0 || days > buffer.remaining() / 32) {
+                return null;
+            }
+            ForecastSnapshot snapshot = new ForecastSnapshot(locationSetting, days);
+            snapshot.mLatitude = latitude;
+            snapshot.mLongitude = longitude;
+            for (int i = 0; i < days; i++) {
+                snapshot.mDates[i] = buffer.getLong();
+                snapshot.mWeatherIds[i] = buffer.getInt();
+                snapshot.mHighs[i] = buffer.getDouble();
+                snapshot.mLows[i] = buffer.getDouble();
+                snapshot.mDescriptions[i] = readString(buffer);
+            }
+            return snapshot;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * @return a copy with the days from the given one on
+     */
+    private ForecastSnapshot from(int first) {
+        ForecastSnapshot snapshot = new ForecastSnapshot(mLocationSetting, mDates.length - first);
+        snapshot.mLatitude = mLatitude;
+        snapshot.mLongitude = mLongitude;
+        int days = snapshot.mDates.length;
+        System.arraycopy(mDates, first, snapshot.mDates, 0, days);
+        System.arraycopy(mWeatherIds, first, snapshot.mWeatherIds, 0, days);
+        System.arraycopy(mDescriptions, first, snapshot.mDescriptions, 0, days);
+        System.arraycopy(mHighs, first, snapshot.mHighs, 0, days);
+        System.arraycopy(mLows, first, snapshot.mLows, 0, days);
+        return snapshot;
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public int getDayCount() {
+        return mDates.length;
+    }
+
+    public boolean isEmpty() {
+        return mDates.length == 0;
+    }
+
+    /**
+     * @return whether the first day is the one containing the given time
+     */
+    public boolean startsOn(long dateMillis) {
+        return mDates.length > 0
+                && mDates[0] == WeatherContract.normalizeDate(dateMillis);
+    }
+
+    public long getDate(int day) {
+        return mDates[day];
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    public String getDescription(int day) {
+        return mDescriptions[day];
+    }
+
+    public double getHigh(int day) {
+        return mHighs[day];
+    }
+
+    public double getLow(int day) {
+        return mLows[day];
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(mLocationSetting);
+        dest.writeDouble(mLatitude);
+        dest.writeDouble(mLongitude);
+        dest.writeInt(mDates.length);
+        dest.writeLongArray(mDates);
+        dest.writeIntArray(mWeatherIds);
+        dest.writeStringArray(mDescriptions);
+        dest.writeDoubleArray(mHighs);
+        dest.writeDoubleArray(mLows);
+    }
+
+    public static final Parcelable.Creator<ForecastSnapshot> CREATOR =
+            new Parcelable.Creator<ForecastSnapshot>() {
+                @Override
+                public ForecastSnapshot createFromParcel(Parcel in) {
+                    String locationSetting = in.readString();
+                    double latitude = in.readDouble();
+                    double longitude = in.readDouble();
+                    ForecastSnapshot snapshot = new ForecastSnapshot(locationSetting, in.readInt());
+                    snapshot.mLatitude = latitude;
+                    snapshot.mLongitude = longitude;
+                    in.readLongArray(snapshot.mDates);
+                    in.readIntArray(snapshot.mWeatherIds);
+                    in.readStringArray(snapshot.mDescriptions);
+                    in.readDoubleArray(snapshot.mHighs);
+                    in.readDoubleArray(snapshot.mLows);
+                    return snapshot;
+                }
+
+                @Override
+                public ForecastSnapshot[] newArray(int size) {
+                    return new ForecastSnapshot[size];
+                }
+            };
+}
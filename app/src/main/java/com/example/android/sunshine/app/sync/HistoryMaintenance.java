@@ -0,0 +1,146 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the stored weather from growing without bound, by running the provider's
+ * {@link WeatherContract#METHOD_COMPACT} until there is nothing left to do.  Each call is a small
+ * transaction of its own, so a sync or a reader never waits long behind it.
+ * <p>
+ * From Lollipop on this runs as a daily job while the device is idle and charging.  Before that
+ * it runs for a short while after each sync, once the sync's own transaction is done.  Before
+ * Honeycomb the provider can't be called, so the sync still deletes every day before today.
+ * <p>
+ * Every run is logged under this class' tag with what it did, how long it took and how much of
+ * the database is in use:
+ * <pre>
+ *     adb logcat -s HistoryMaintenance
+ * </pre>
+ */
+public final class HistoryMaintenance {
+    private static final String LOG_TAG = HistoryMaintenance.class.getSimpleName();
+
+    static final int JOB_ID = 1;
+    static final long JOB_INTERVAL_MILLIS = 24 * 60 * 60 * 1000;
+    // Rows per provider call, and so per transaction.
+    static final int ROWS_PER_STEP = 100;
+    // How long a run after a sync may take.  Whatever is left is done after the next one.
+    static final long AFTER_SYNC_MILLIS = 500;
+
+    /**
+     * What one run did.
+     */
+    static class Report {
+        int steps;
+        // Days rolled up into weeks and months.
+        int compacted;
+        // Weeks, months and three-hourly steps past keeping.
+        int pruned;
+        boolean more;
+        long millis;
+        long databaseBytes;
+
+        @Override
+        public String toString() {
+            return "Rolled up " + compacted + " days and pruned " + pruned + " rows in " + steps
+                    + " steps, " + millis + "ms. Database uses " + databaseBytes / 1024 + "KB"
+                    + (more ? ", more to do" : "");
+        }
+    }
+
+    private HistoryMaintenance() {
+    }
+
+    /**
+     * Makes sure the maintenance job is scheduled.  Does nothing before Lollipop.
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleJob(context);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJob(Context context) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, HistoryMaintenanceService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(JOB_INTERVAL_MILLIS)
+                .build());
+    }
+
+    /**
+     * Runs a short while after a sync, on the devices that have no maintenance job.  A run that
+     * fails is left for after the next sync, the sync itself went fine.
+     */
+    static void onSyncFinished(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            run(context, AFTER_SYNC_MILLIS, new AtomicBoolean());
+        }
+    }
+
+    /**
+     * Runs steps until there are no more, {@code budgetMillis} have passed or {@code stopped}
+     * is set.  Call it off the main thread.
+     *
+     * @return what the run did, or null if a step failed; the steps before it stay done
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static Report run(Context context, long budgetMillis, AtomicBoolean stopped) {
+        ContentResolver resolver = context.getContentResolver();
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherContract.EXTRA_KEEP_DAYS, Utility.getHistoryDays(context));
+        extras.putInt(WeatherContract.EXTRA_MAX_ROWS, ROWS_PER_STEP);
+        // Every step works from the same day, even if the run goes past midnight.
+        extras.putLong(WeatherContract.EXTRA_NOW, System.currentTimeMillis());
+
+        Report report = new Report();
+        long start = SystemClock.elapsedRealtime();
+        do {
+            Bundle result;
+            try {
+                result = resolver.call(WeatherContract.HistoryEntry.CONTENT_URI,
+                        WeatherContract.METHOD_COMPACT, null, extras);
+            } catch (android.database.SQLException e) {
+                Log.e(LOG_TAG, "Error after " + report.steps + " steps", e);
+                return null;
+            }
+            if (result == null) {
+                // The provider is gone, or doesn't know the method.
+                Log.e(LOG_TAG, "No result after " + report.steps + " steps");
+                return null;
+            }
+            report.steps++;
+            report.compacted += result.getInt(WeatherContract.EXTRA_COMPACTED_ROWS);
+            report.pruned += result.getInt(WeatherContract.EXTRA_PRUNED_ROWS);
+            report.more = result.getBoolean(WeatherContract.EXTRA_MORE);
+            report.databaseBytes = result.getLong(WeatherContract.EXTRA_DATABASE_BYTES);
+            report.millis = SystemClock.elapsedRealtime() - start;
+        } while (report.more && !stopped.get() && report.millis < budgetMillis);
+        Log.i(LOG_TAG, report.toString());
+        return report;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs {@link HistoryMaintenance} while the device is idle, on a thread of its own.  If the
+ * device wakes up first the run stops after the step it is in, and the job is retried later, as
+ * it is when a step fails.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class HistoryMaintenanceService extends JobService {
+
+    private volatile AtomicBoolean mStopped;
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final AtomicBoolean stopped = new AtomicBoolean();
+        mStopped = stopped;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                HistoryMaintenance.Report report = HistoryMaintenance.run(
+                        HistoryMaintenanceService.this, Long.MAX_VALUE, stopped);
+                if (!stopped.get()) {
+                    // Done for today, unless it failed.
+                    jobFinished(params, report == null);
+                }
+            }
+        }, "HistoryMaintenance").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        AtomicBoolean stopped = mStopped;
+        if (stopped != null) {
+            stopped.set(true);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.WeatherRowBatch;
+
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+
+/**
+ * Reusable, column-oriented holder for one parsed OpenWeatherMap three-hourly forecast, the
+ * counterpart of {@link ForecastBuffer}.  Five days come in 40 steps, so it starts out with room
+ * for that many.
+ */
+public class HourlyBuffer {
+
+    private static final int DEFAULT_CAPACITY = 40;
+
+    // The "cod" field of the response, or HTTP_OK if the response did not carry one.
+    int messageCode;
+
+    int size;
+    // Start of each step, in milliseconds since the epoch.
+    long[] time;
+    int[] weatherId;
+    double[] temperature;
+    int[] humidity;
+    double[] pressure;
+    double[] windSpeed;
+    double[] windDirection;
+
+    public HourlyBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public HourlyBuffer(int capacity) {
+        time = new long[capacity];
+        weatherId = new int[capacity];
+        temperature = new double[capacity];
+        humidity = new int[capacity];
+        pressure = new double[capacity];
+        windSpeed = new double[capacity];
+        windDirection = new double[capacity];
+        reset();
+    }
+
+    /**
+     * Clears the buffer so it can be filled by the next parse.  The backing arrays are kept.
+     */
+    public void reset() {
+        messageCode = HttpURLConnection.HTTP_OK;
+        size = 0;
+    }
+
+    /**
+     * Reserves the next step slot, growing the arrays if the response is longer than expected.
+     *
+     * @return the index of the new step
+     */
+    int addStep() {
+        if (size == time.length) {
+            int capacity = size * 2;
+            time = Arrays.copyOf(time, capacity);
+            weatherId = Arrays.copyOf(weatherId, capacity);
+            temperature = Arrays.copyOf(temperature, capacity);
+            humidity = Arrays.copyOf(humidity, capacity);
+            pressure = Arrays.copyOf(pressure, capacity);
+            windSpeed = Arrays.copyOf(windSpeed, capacity);
+            windDirection = Arrays.copyOf(windDirection, capacity);
+        }
+        return size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getMessageCode() {
+        return messageCode;
+    }
+
+    /**
+     * Copies the buffered steps into a row batch, where they replace the location's stored ones.
+     *
+     * @param location the batch's index of the location the forecast belongs to
+     */
+    public void appendTo(WeatherRowBatch batch, int location) {
+        for (int i = 0; i < size; i++) {
+            batch.addHourlyRow(location, time[i], weatherId[i], temperature[i], humidity[i],
+                    pressure[i], windSpeed[i], windDirection[i]);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Fetches and parses the three-hourly forecast of a location.  It runs on the same executor
+ * thread as the location's {@link LocationFetch}, once that has the daily forecast.  Failing
+ * only costs the hourly rows: the daily forecast is stored either way and the location's status
+ * doesn't change.  No cache validators are sent, as OWM updates this forecast more often than
+ * we sync.
+ */
+class HourlyFetch {
+
+    private static final String LOG_TAG = HourlyFetch.class.getSimpleName();
+
+    final String locationSetting;
+    final HourlyBuffer forecast;
+
+    private final URL mUrl;
+    private final HttpTransport mTransport;
+    private final RetryPolicy mRetryPolicy;
+
+    // Outcome, valid once run() has returned.
+    boolean succeeded;
+    int attempts;
+
+    HourlyFetch(String locationSetting, URL url, HttpTransport transport, HourlyBuffer forecast,
+                RetryPolicy retryPolicy) {
+        this.locationSetting = locationSetting;
+        this.forecast = forecast;
+        mUrl = url;
+        mTransport = transport;
+        mRetryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return true if this fetch produced rows that need to be written
+     */
+    boolean hasForecast() {
+        return succeeded && forecast.size() > 0;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    void run() {
+        for (attempts = 1; ; attempts++) {
+            boolean transientFailure = fetch();
+            if (succeeded || !transientFailure || attempts >= mRetryPolicy.getMaxAttempts()) {
+                return;
+            }
+            try {
+                Thread.sleep(mRetryPolicy.getDelayMillis(attempts));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return whether the attempt failed in a way worth retrying
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private boolean fetch() {
+        forecast.reset();
+        succeeded = false;
+        int code = 0;
+        HttpTransport.Response response = null;
+        try {
+            response = mTransport.get(mUrl, CacheValidators.NONE);
+            code = response.getCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response code " + code);
+            }
+            ForecastJsonParser.parseHourly(new InputStreamReader(response.getBody(), "UTF-8"),
+                    forecast);
+            if (forecast.getMessageCode() != HttpURLConnection.HTTP_OK) {
+                Log.e(LOG_TAG, "No hourly forecast for " + locationSetting + ", code "
+                        + forecast.getMessageCode());
+                return RetryPolicy.isTransient(forecast.getMessageCode());
+            }
+            succeeded = true;
+            return false;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error fetching the hourly forecast for " + locationSetting, e);
+            return code == 0 || code == HttpURLConnection.HTTP_OK
+                    || RetryPolicy.isTransient(code);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            return true;
+        } finally {
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * The HTTP client the sync adapter fetches forecasts with.  Implementations must be safe to use
+ * from several sync threads at once and are expected to keep connections alive between requests.
+ */
+public interface HttpTransport {
+
+    /**
+     * Issues a GET, conditional on {@code validators} if there are any.
+     * <p>
+     * The caller must close the returned response, even if it does not read the body, so the
+     * underlying connection can go back to the pool.
+     */
+    Response get(URL url, CacheValidators validators) throws IOException;
+
+    /**
+     * @return running totals for everything this transport has fetched
+     */
+    TransportStats getStats();
+
+    interface Response extends Closeable {
+
+        int getCode();
+
+        /**
+         * @return the decoded response body; empty for a 304
+         */
+        InputStream getBody() throws IOException;
+
+        /**
+         * @return the named response header, or null
+         */
+        String getHeader(String name);
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.Build;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherRowBatch;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Callable;
+
+/**
+ * Fetches and parses the forecast of a single location.  Several of these run side by side on
+ * the sync executor; each one parses straight off its own connection, so parsing one location
+ * overlaps with waiting on the network for the others.  Nothing here touches the database, the
+ * results are committed together once every fetch has finished.
+ */
+class LocationFetch implements Callable<LocationFetch> {
+
+    private static final String LOG_TAG = LocationFetch.class.getSimpleName();
+
+    // Id of a location that has no row yet.
+    static final long NO_LOCATION_ID = WeatherRowBatch.NEW_LOCATION;
+
+    final String locationSetting;
+    final long locationId;
+    final ForecastBuffer forecast;
+
+    private final URL mUrl;
+    private final CacheValidators mRequestValidators;
+    private final HttpTransport mTransport;
+    private final RetryPolicy mRetryPolicy;
+
+    // Outcome, valid once call() has returned.
+    @SunshineSyncAdapter.LocationStatus
+    int status = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+    boolean notModified;
+    CacheValidators validators = CacheValidators.NONE;
+    // When the server says the forecast may have changed, or 0 if it didn't say.
+    long freshUntil;
+    // How many requests it took, and whether the last one failed in a way worth retrying.
+    int attempts;
+    boolean transientFailure;
+    // Whether the last request was turned down as our own mistake, e.g. a 401 for a bad API
+    // key.  OWM answered, so this doesn't count against the circuit breaker.
+    boolean clientError;
+
+    // Run after the daily forecast if set, see HourlyFetch.  Set before the fetch is submitted.
+    HourlyFetch hourly;
+
+    // The saved location whose forecast this one was filled in with, see NearbyForecast, or
+    // null if it goes to the network.  Set before the fetch is submitted.
+    String reusedFrom;
+
+    // Filled in while committing: where this location's weather rows sit in the row batch, and
+    // how many of them differed from what was stored.
+    int firstRow;
+    int changedDays;
+
+    LocationFetch(String locationSetting, long locationId, URL url,
+                  CacheValidators requestValidators, HttpTransport transport,
+                  ForecastBuffer forecast) {
+        this(locationSetting, locationId, url, requestValidators, transport, forecast,
+                RetryPolicy.NONE);
+    }
+
+    LocationFetch(String locationSetting, long locationId, URL url,
+                  CacheValidators requestValidators, HttpTransport transport,
+                  ForecastBuffer forecast, RetryPolicy retryPolicy) {
+        this.locationSetting = locationSetting;
+        this.locationId = locationId;
+        this.forecast = forecast;
+        mUrl = url;
+        mRequestValidators = requestValidators;
+        mTransport = transport;
+        mRetryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return true if this fetch produced rows that need to be written
+     */
+    boolean hasForecast() {
+        return status == SunshineSyncAdapter.LOCATION_STATUS_OK && !notModified
+                && forecast.size() > 0;
+    }
+
+    @Override
+    public LocationFetch call() {
+        if (reusedFrom != null) {
+            // Nothing to ask OWM.
+            return this;
+        }
+        fetchWithRetries();
+        // A location OWM doesn't know, or a server that is down, has no hourly forecast either.
+        if (hourly != null && status == SunshineSyncAdapter.LOCATION_STATUS_OK
+                && !Thread.currentThread().isInterrupted()) {
+            hourly.run();
+        }
+        return this;
+    }
+
+    private void fetchWithRetries() {
+        for (attempts = 1; ; attempts++) {
+            fetch();
+            if (!transientFailure || attempts >= mRetryPolicy.getMaxAttempts()) {
+                return;
+            }
+            long delay = mRetryPolicy.getDelayMillis(attempts);
+            Log.d(LOG_TAG, "Attempt " + attempts + " for " + locationSetting
+                    + " failed, retrying in " + delay + "ms");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                // The sync was cancelled, report the failure as it is.
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void fetch() {
+        forecast.reset();
+        status = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+        notModified = false;
+        validators = CacheValidators.NONE;
+        freshUntil = 0;
+        transientFailure = false;
+        clientError = false;
+        int code = 0;
+        HttpTransport.Response response = null;
+        try {
+            response = mTransport.get(mUrl, mRequestValidators);
+            code = response.getCode();
+            freshUntil = CacheValidators.freshUntil(response, System.currentTimeMillis());
+            if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // What we have stored is still current, so there is nothing to parse or insert.
+                // The validators we sent are the ones stored, and stay so.
+                notModified = true;
+                validators = mRequestValidators;
+                status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                return;
+            }
+            if (response.getCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                // OWM doesn't know the location, and says so in the status as well as the body.
+                status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                return;
+            }
+            if (response.getCode() != HttpURLConnection.HTTP_OK) {
+                clientError = code >= HttpURLConnection.HTTP_BAD_REQUEST
+                        && code < HttpURLConnection.HTTP_INTERNAL_ERROR
+                        && !RetryPolicy.isTransient(code);
+                throw new IOException("Unexpected response code " + response.getCode());
+            }
+            Reader reader = new InputStreamReader(response.getBody(), "UTF-8");
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                // Parse straight off the wire.  An empty stream surfaces as an EOFException,
+                // which is reported as the server being down below.
+                ForecastJsonParser.parse(reader, forecast);
+            } else {
+                // No JsonReader before Honeycomb, so read the whole response and use org.json.
+                String forecastJsonStr = readFully(reader);
+                if (forecastJsonStr.length() == 0) {
+                    // Stream was empty.  No point in parsing.
+                    status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                    transientFailure = true;
+                    return;
+                }
+                ForecastJsonParser.parseLegacy(forecastJsonStr, forecast);
+            }
+            validators = CacheValidators.fromResponse(response);
+
+            // do we have an error?
+            switch (forecast.getMessageCode()) {
+                case HttpURLConnection.HTTP_OK:
+                    status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                    break;
+                default:
+                    status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                    transientFailure = RetryPolicy.isTransient(forecast.getMessageCode());
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error fetching " + locationSetting, e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+            // No response at all, a dropped connection or a server error, but not e.g. a 401.
+            transientFailure = code == 0 || code == HttpURLConnection.HTTP_OK
+                    || RetryPolicy.isTransient(code);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+            // Most likely cut off on the way.
+            transientFailure = true;
+        } finally {
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    private static String readFully(Reader reader) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        char[] chunk = new char[4096];
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            builder.append(chunk, 0, read);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Lets a location that was just picked start out with the forecast of a saved location next to
+ * it, rather than fetching one that would be all but the same.  OWM answers a point with the
+ * city nearest to it, so a point a few kilometres from a saved city, e.g. the same place picked
+ * again after the GPS drifted, gets that city's forecast anyway.  The new location is saved
+ * with the copy, and its own forecast is fetched on the next sync as usual.
+ */
+final class NearbyForecast {
+
+    private static final String LOG_TAG = NearbyForecast.class.getSimpleName();
+
+    static final double REUSE_RADIUS_KM = 5;
+
+    // A forecast is only reused while it still reaches about as far ahead as a fresh one, that
+    // is within a day or so of being fetched.  We ask OWM for 14 days.
+    static final int MIN_DAYS = 13;
+
+    private static final String[] NEARBY_COLUMNS = {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_DISTANCE
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_LOCATION_SETTING = 0;
+    private static final int INDEX_CITY_NAME = 1;
+    private static final int INDEX_COORD_LAT = 2;
+    private static final int INDEX_COORD_LONG = 3;
+    private static final int INDEX_DISTANCE = 4;
+
+    private static final String[] DAILY_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_MAX_TEMP = 4;
+    private static final int INDEX_HUMIDITY = 5;
+    private static final int INDEX_PRESSURE = 6;
+    private static final int INDEX_WIND_SPEED = 7;
+    private static final int INDEX_DEGREES = 8;
+
+    private static final String[] HOURLY_COLUMNS = {
+            WeatherContract.HourlyEntry.COLUMN_TIME,
+            WeatherContract.HourlyEntry.COLUMN_WEATHER_ID,
+            WeatherContract.HourlyEntry.COLUMN_TEMP,
+            WeatherContract.HourlyEntry.COLUMN_HUMIDITY,
+            WeatherContract.HourlyEntry.COLUMN_PRESSURE,
+            WeatherContract.HourlyEntry.COLUMN_WIND_SPEED,
+            WeatherContract.HourlyEntry.COLUMN_DEGREES
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_HOURLY_TIME = 0;
+    private static final int INDEX_HOURLY_WEATHER_ID = 1;
+    private static final int INDEX_HOURLY_TEMP = 2;
+    private static final int INDEX_HOURLY_HUMIDITY = 3;
+    private static final int INDEX_HOURLY_PRESSURE = 4;
+    private static final int INDEX_HOURLY_WIND_SPEED = 5;
+    private static final int INDEX_HOURLY_DEGREES = 6;
+
+    private NearbyForecast() {
+    }
+
+    /**
+     * Fills the fetch in with the forecast of the nearest saved location within
+     * {@link #REUSE_RADIUS_KM} of the point that has a recent one, three-hourly forecast and
+     * all.  The fetch then doesn't go to the network.
+     *
+     * @return whether there was such a location
+     */
+    static boolean reuse(ContentResolver resolver, LocationFetch fetch, double latitude,
+                         double longitude, long now) {
+        Cursor nearby = resolver.query(WeatherContract.LocationEntry.buildNearestLocationUri(
+                latitude, longitude, REUSE_RADIUS_KM), NEARBY_COLUMNS, null, null, null);
+        if (nearby == null) {
+            return false;
+        }
+        try {
+            while (nearby.moveToNext()) {
+                String locationSetting = nearby.getString(INDEX_LOCATION_SETTING);
+                if (!readDaily(resolver, locationSetting, fetch.forecast, now)) {
+                    continue;
+                }
+                fetch.forecast.cityName = nearby.getString(INDEX_CITY_NAME);
+                fetch.forecast.cityLatitude = nearby.getDouble(INDEX_COORD_LAT);
+                fetch.forecast.cityLongitude = nearby.getDouble(INDEX_COORD_LONG);
+                fetch.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                fetch.reusedFrom = locationSetting;
+                if (fetch.hourly != null) {
+                    readHourly(resolver, locationSetting, fetch.hourly, now);
+                }
+                Log.d(LOG_TAG, "Reusing the forecast of " + locationSetting + ", "
+                        + nearby.getDouble(INDEX_DISTANCE) + "km away, for "
+                        + fetch.locationSetting);
+                return true;
+            }
+            return false;
+        } finally {
+            nearby.close();
+        }
+    }
+
+    /**
+     * Reads a location's days from today on into the buffer, as long as they follow each other
+     * as a fetched forecast's do.
+     *
+     * @return whether there were at least {@link #MIN_DAYS} of them, otherwise the buffer is
+     * left empty
+     */
+    private static boolean readDaily(ContentResolver resolver, String locationSetting,
+                                     ForecastBuffer forecast, long now) {
+        forecast.reset();
+        Cursor cursor = resolver.query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(locationSetting,
+                        now),
+                DAILY_COLUMNS, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            // The days are stored from the local julian day, see commitForecasts().
+            Time dayTime = new Time();
+            dayTime.setToNow();
+            int julianStartDay = Time.getJulianDay(now, dayTime.gmtoff);
+            dayTime = new Time();
+            while (cursor.moveToNext()
+                    && cursor.getLong(INDEX_DATE)
+                    == dayTime.setJulianDay(julianStartDay + forecast.size())) {
+                int day = forecast.addDay();
+                forecast.weatherId[day] = cursor.getInt(INDEX_WEATHER_ID);
+                forecast.description[day] = cursor.getString(INDEX_SHORT_DESC);
+                forecast.low[day] = cursor.getDouble(INDEX_MIN_TEMP);
+                forecast.high[day] = cursor.getDouble(INDEX_MAX_TEMP);
+                forecast.humidity[day] = cursor.getInt(INDEX_HUMIDITY);
+                forecast.pressure[day] = cursor.getDouble(INDEX_PRESSURE);
+                forecast.windSpeed[day] = cursor.getDouble(INDEX_WIND_SPEED);
+                forecast.windDirection[day] = cursor.getDouble(INDEX_DEGREES);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (forecast.size() < MIN_DAYS) {
+            forecast.reset();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads a location's three-hourly steps from now on into the fetch's buffer.  Having none
+     * just leaves the hourly forecast out, as a failed fetch of it would.
+     */
+    private static void readHourly(ContentResolver resolver, String locationSetting,
+                                   HourlyFetch hourly, long now) {
+        HourlyBuffer forecast = hourly.forecast;
+        forecast.reset();
+        Cursor cursor = resolver.query(
+                WeatherContract.HourlyEntry.buildHourlyLocationWithRange(locationSetting, now,
+                        Long.MAX_VALUE),
+                HOURLY_COLUMNS, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                int step = forecast.addStep();
+                forecast.time[step] = cursor.getLong(INDEX_HOURLY_TIME);
+                forecast.weatherId[step] = cursor.getInt(INDEX_HOURLY_WEATHER_ID);
+                forecast.temperature[step] = cursor.getDouble(INDEX_HOURLY_TEMP);
+                forecast.humidity[step] = cursor.getInt(INDEX_HOURLY_HUMIDITY);
+                forecast.pressure[step] = cursor.getDouble(INDEX_HOURLY_PRESSURE);
+                forecast.windSpeed[step] = cursor.getDouble(INDEX_HOURLY_WIND_SPEED);
+                forecast.windDirection[step] = cursor.getDouble(INDEX_HOURLY_DEGREES);
+            }
+        } finally {
+            cursor.close();
+        }
+        hourly.succeeded = forecast.size() > 0;
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.app.wear.AppListenWearService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets everything that shows the weather know that a sync changed the preferred location's
+ * forecast.  The sync only asks for this and returns: a moment later the forecast is read once
+ * into a {@link ForecastSnapshot}, which the widgets, Muzei, the notification, the watch and
+ * the snapshot file for the next cold start then get side by side.  Syncs that finish within
+ * {@link #COALESCE_WINDOW_MILLIS} of the first one are covered by the same fan-out, as it reads
+ * the forecast after all of them.
+ */
+final class PostSyncDispatcher {
+    private static final String LOG_TAG = PostSyncDispatcher.class.getSimpleName();
+
+    // How long a fan-out waits for further syncs before reading the forecast.
+    static final long COALESCE_WINDOW_MILLIS = 2000;
+    // The CPU is kept awake until the fan-out is done, but never longer than this.
+    private static final long WAKE_LOCK_TIMEOUT_MILLIS = 30 * 1000;
+
+    /**
+     * Something that shows the weather, and is handed each new snapshot.
+     */
+    interface Consumer {
+        void onForecast(Context context, ForecastSnapshot snapshot);
+    }
+
+    private static final Consumer WIDGETS = new Consumer() {
+        @Override
+        public void onForecast(Context context, ForecastSnapshot snapshot) {
+            // Setting the package ensures that only components in our app will receive the
+            // broadcast
+            context.sendBroadcast(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                    .setPackage(context.getPackageName())
+                    .putExtra(ForecastSnapshot.EXTRA_SNAPSHOT, snapshot));
+        }
+    };
+
+    private static final Consumer MUZEI = new Consumer() {
+        @Override
+        public void onForecast(Context context, ForecastSnapshot snapshot) {
+            // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to
+            // update the Muzei background on lower API level devices
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                context.startService(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                        .setClass(context, WeatherMuzeiSource.class)
+                        .putExtra(ForecastSnapshot.EXTRA_SNAPSHOT, snapshot));
+            }
+        }
+    };
+
+    private static final Consumer NOTIFICATION = new Consumer() {
+        @Override
+        public void onForecast(Context context, ForecastSnapshot snapshot) {
+            WeatherNotification.notifyWeather(context, snapshot);
+        }
+    };
+
+    private static final Consumer WEAR = new Consumer() {
+        @Override
+        public void onForecast(Context context, ForecastSnapshot snapshot) {
+            context.startService(new Intent(context, AppListenWearService.class)
+                    .putExtra(ForecastSnapshot.EXTRA_SNAPSHOT, snapshot));
+        }
+    };
+
+    private static final Consumer SNAPSHOT_FILE = new Consumer() {
+        @Override
+        public void onForecast(Context context, ForecastSnapshot snapshot) {
+            try {
+                snapshot.writeFile(context);
+            } catch (IOException e) {
+                // The forecast list then waits for the database, as it did before.
+                Log.w(LOG_TAG, "Couldn't keep the forecast snapshot", e);
+            }
+        }
+    };
+
+    private static PostSyncDispatcher sInstance;
+
+    private final Context mContext;
+    private final long mWindowMillis;
+    private final Consumer[] mConsumers;
+    private final ScheduledThreadPoolExecutor mScheduler;
+    private final ExecutorService mConsumerExecutor;
+
+    // Whether a fan-out is scheduled that hasn't read the forecast yet.  Guarded by this.
+    private boolean mPending;
+
+    private final AtomicLong mRequested = new AtomicLong();
+    private final AtomicLong mDispatched = new AtomicLong();
+
+    static synchronized PostSyncDispatcher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PostSyncDispatcher(context.getApplicationContext(),
+                    COALESCE_WINDOW_MILLIS, WIDGETS, MUZEI, NOTIFICATION, WEAR, SNAPSHOT_FILE);
+        }
+        return sInstance;
+    }
+
+    PostSyncDispatcher(Context context, long windowMillis, Consumer... consumers) {
+        mContext = context;
+        mWindowMillis = windowMillis;
+        mConsumers = consumers;
+        mScheduler = new ScheduledThreadPoolExecutor(1);
+        mScheduler.setKeepAliveTime(30, TimeUnit.SECONDS);
+        mScheduler.allowCoreThreadTimeOut(true);
+        ThreadPoolExecutor consumerExecutor = new ThreadPoolExecutor(consumers.length,
+                consumers.length, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        consumerExecutor.allowCoreThreadTimeOut(true);
+        mConsumerExecutor = consumerExecutor;
+    }
+
+    /**
+     * Schedules a fan-out of the preferred location's forecast, unless one is already waiting
+     * to read it.  Returns straight away.
+     */
+    void dispatch() {
+        mRequested.incrementAndGet();
+        synchronized (this) {
+            if (mPending) {
+                return;
+            }
+            mPending = true;
+        }
+        PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        final PowerManager.WakeLock wakeLock =
+                powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, LOG_TAG);
+        // Not counted, so releasing it after the timeout already did is harmless.
+        wakeLock.setReferenceCounted(false);
+        wakeLock.acquire(WAKE_LOCK_TIMEOUT_MILLIS);
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fanOut();
+                } finally {
+                    wakeLock.release();
+                }
+            }
+        }, mWindowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void fanOut() {
+        // A sync that finishes from now on may have changed what is about to be read, so it
+        // gets a fan-out of its own.
+        synchronized (this) {
+            mPending = false;
+        }
+        long start = SystemClock.elapsedRealtime();
+        final ForecastSnapshot snapshot = ForecastSnapshot.query(mContext.getContentResolver(),
+                Utility.getPreferredLocation(mContext), System.currentTimeMillis());
+        if (snapshot == null) {
+            return;
+        }
+
+        List<Future<?>> running = new ArrayList<Future<?>>(mConsumers.length);
+        for (final Consumer consumer : mConsumers) {
+            running.add(mConsumerExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    consumer.onForecast(mContext, snapshot);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : running) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // One consumer failing doesn't stop the others from showing the forecast.
+                    Log.e(LOG_TAG, "Error handing out the forecast", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        mDispatched.incrementAndGet();
+        Log.d(LOG_TAG, "Handed out " + snapshot.getDayCount() + " days to "
+                + mConsumers.length + " consumers in " + (SystemClock.elapsedRealtime() - start)
+                + "ms. " + this);
+    }
+
+    /**
+     * @return how many syncs asked for a fan-out
+     */
+    long getRequested() {
+        return mRequested.get();
+    }
+
+    /**
+     * @return how many fan-outs actually ran
+     */
+    long getDispatched() {
+        return mDispatched.get();
+    }
+
+    @Override
+    public String toString() {
+        return getRequested() + " requested, " + getDispatched() + " dispatched";
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.android.sunshine.app.sync;
+
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+/**
+ * How often and how soon a failed forecast fetch is tried again within the same sync.  The
+ * wait doubles with each failure, and half of it is random, so that phones which failed
+ * together don't all come back at the same moment.
+ */
+final class RetryPolicy {
+
+    // A single attempt, as before.
+    static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+    // Waits about 0.5-1s, then 1-2s, before giving up until the next sync.
+    static final RetryPolicy DEFAULT = new RetryPolicy(3, 1000, 8000);
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final int mMaxAttempts;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom = new Random();
+
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+    }
+
+    int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * @param failedAttempts how many attempts have failed so far, at least 1
+     * @return how long to wait before the next attempt: between half and all of the base delay
+     * doubled for each earlier failure, capped at the maximum delay
+     */
+    long getDelayMillis(int failedAttempts) {
+        long ceiling = Math.min(mMaxDelayMillis,
+                mBaseDelayMillis << Math.min(failedAttempts - 1, 20));
+        long half = ceiling / 2;
+        return half + (long) (mRandom.nextDouble() * (ceiling - half));
+    }
+
+    /**
+     * @return whether a response with this code may well succeed if asked again
+     */
+    static boolean isTransient(int code) {
+        return code >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                || code == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                || code == HTTP_TOO_MANY_REQUESTS;
+    }
+}
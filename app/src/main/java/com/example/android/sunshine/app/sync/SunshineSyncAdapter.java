@@ -2,81 +2,49 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
+import android.annotation.TargetApi;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
-import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
-import android.content.res.Resources;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
-import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
-import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.example.android.sunshine.app.wear.AppListenWearService;
+import com.example.android.sunshine.app.data.WeatherRowBatch;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
-    // 60 seconds (1 minute) * 180 = 3 hours
-    public static final int SYNC_INTERVAL = 60 * 180;
-    public static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
-    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
-    private static final int WEATHER_NOTIFICATION_ID = 3004;
-
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID, LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -89,6 +57,39 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // Forecasts of several locations are fetched side by side, but never more than this many
+    // at a time, so a long list of locations doesn't open a connection for each of them at once.
+    private static final int MAX_PARALLEL_FETCHES = 4;
+    private static final ExecutorService sFetchExecutor = newFetchExecutor();
+
+    // Shared by every sync in the process so that keep-alive connections outlive a single sync.
+    private static HttpTransport sTransport = new UrlConnectionTransport();
+
+    private static final String[] SYNC_LOCATION_PROJECTION = new String[]{
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_ETAG,
+            WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_LOCATION_ID = 0;
+    private static final int INDEX_LOCATION_SETTING = 1;
+    private static final int INDEX_COORD_LAT = 2;
+    private static final int INDEX_COORD_LONG = 3;
+    private static final int INDEX_ETAG = 4;
+    private static final int INDEX_LAST_MODIFIED = 5;
+
+    // Reused across syncs so that parsing a forecast doesn't allocate a fresh set of rows.  There
+    // is one per location, as every forecast is held until they are all committed together.
+    private final List<ForecastBuffer> mForecastBuffers = new ArrayList<ForecastBuffer>();
+    // The same for the three-hourly forecasts.
+    private final List<HourlyBuffer> mHourlyBuffers = new ArrayList<HourlyBuffer>();
+    // Likewise every forecast's rows, on their way to the provider.
+    private final WeatherRowBatch mRowBatch = new WeatherRowBatch();
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
     }
@@ -96,440 +97,460 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-
-        // We no longer need just the location String, but also potentially the latitude and
-        // longitude, in case we are syncing based on a new Place Picker API result.
         Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        SyncGate gate = SyncGate.getInstance();
+        gate.onSyncStarted(context);
+        boolean succeeded = false;
+        try {
+            succeeded = performSync(context, syncResult);
+            HistoryMaintenance.onSyncFinished(context);
+        } finally {
+            gate.onSyncFinished(context, succeeded);
+        }
+    }
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+    /**
+     * @return whether the preferred location's forecast is now current
+     */
+    private boolean performSync(Context context, SyncResult syncResult) {
+        CircuitBreaker breaker = CircuitBreaker.getInstance(context);
+        if (!breaker.allowRequest(System.currentTimeMillis())) {
+            // OpenWeatherMap kept failing.  Leave it alone for a while, and have the framework
+            // hold back its own retries until then too.
+            syncResult.delayUntil = breaker.getOpenUntil() / 1000;
+            Log.d(LOG_TAG, "Skipping sync, OpenWeatherMap failed too often");
+            return false;
+        }
 
+        List<LocationFetch> fetches;
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
-            // Instead of always building the query based off of the location string, we want to
-            // potentially build a query using a lat/lon value. This will be the case when we are
-            // syncing based off of a new location from the Place Picker API. So we need to check
-            // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
-            // service may not understand the location address provided by the Place Picker API
-            // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
-            } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
-            }
+            fetches = buildFetches(context);
+        } catch (MalformedURLException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            return false;
+        }
 
-            Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+        // Every location is fetched and parsed on the executor, so the whole sync takes about as
+        // long as the slowest location rather than the sum of all of them.
+        long startTime = SystemClock.elapsedRealtime();
+        List<Future<LocationFetch>> pending = new ArrayList<Future<LocationFetch>>(fetches.size());
+        for (LocationFetch fetch : fetches) {
+            pending.add(sFetchExecutor.submit(fetch));
+        }
+        try {
+            for (Future<LocationFetch> future : pending) {
+                future.get();
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+        } catch (InterruptedException e) {
+            // The sync was cancelled.  Nothing has been written yet, so just stop the rest.
+            for (Future<LocationFetch> future : pending) {
+                future.cancel(true);
             }
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            // LocationFetch handles its own network and parse errors, anything else is a bug.
+            throw new RuntimeException(e.getCause());
+        }
+        Log.d(LOG_TAG, "Fetched " + fetches.size() + " locations in "
+                + (SystemClock.elapsedRealtime() - startTime) + "ms. Transport: "
+                + sTransport.getStats());
+        recordFailures(fetches, syncResult, breaker);
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+        if (!commitForecasts(fetches, syncResult)) {
+            return false;
+        }
+        String preferredLocation = Utility.getPreferredLocation(context);
+        for (LocationFetch fetch : fetches) {
+            if (fetch.locationSetting.equals(preferredLocation)) {
+                return fetch.status == LOCATION_STATUS_OK;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+        }
+        return false;
+    }
+
+    /**
+     * Reports each location that failed to the framework: a network or server error is a soft
+     * error, which it retries later by itself, an unreadable forecast a hard one.  A sync in
+     * which OpenWeatherMap didn't answer for any location counts against the circuit breaker;
+     * turning a request down as a client error, such as an unknown location, is an answer.
+     * One that didn't ask it anything, as every forecast was reused, leaves the breaker as it is.
+     */
+    static void recordFailures(List<LocationFetch> fetches, SyncResult syncResult,
+                               CircuitBreaker breaker) {
+        boolean asked = false;
+        boolean answered = false;
+        for (LocationFetch fetch : fetches) {
+            if (fetch.reusedFrom != null) {
+                continue;
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+            asked = true;
+            switch (fetch.status) {
+                case LOCATION_STATUS_OK:
+                case LOCATION_STATUS_INVALID:
+                    answered = true;
+                    break;
+                case LOCATION_STATUS_SERVER_DOWN:
+                    syncResult.stats.numIoExceptions++;
+                    answered |= fetch.clientError;
+                    break;
+                case LOCATION_STATUS_SERVER_INVALID:
+                    syncResult.stats.numParseExceptions++;
+                    break;
+                default:
+                    break;
             }
         }
-        return;
+        if (!asked) {
+            return;
+        }
+        if (answered) {
+            breaker.onSuccess();
+        } else {
+            breaker.onFailure(System.currentTimeMillis());
+        }
+        breaker.save();
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     * <p>
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Lists what to sync: the preferred location, plus every other saved location if the user
+     * asked for that.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+    private List<LocationFetch> buildFetches(Context context) throws MalformedURLException {
+        String preferredLocation = Utility.getPreferredLocation(context);
+        boolean syncAllLocations = Utility.isSyncAllLocationsEnabled(context);
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
-
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+        List<LocationFetch> fetches = new ArrayList<LocationFetch>();
+        boolean preferredLocationSaved = false;
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                SYNC_LOCATION_PROJECTION,
+                syncAllLocations ? null
+                        : WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                syncAllLocations ? null : new String[]{preferredLocation},
+                null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    String locationSetting = cursor.getString(INDEX_LOCATION_SETTING);
+                    URL url;
+                    URL hourlyUrl;
+                    if (locationSetting.equals(preferredLocation)) {
+                        preferredLocationSaved = true;
+                        url = buildPreferredLocationUrl(context, preferredLocation, false);
+                        hourlyUrl = buildPreferredLocationUrl(context, preferredLocation, true);
+                    } else {
+                        // The saved coordinates came from OWM itself, so they always resolve to
+                        // the same city, even when the setting was a Place Picker address.
+                        String lat = String.valueOf(cursor.getDouble(INDEX_COORD_LAT));
+                        String lon = String.valueOf(cursor.getDouble(INDEX_COORD_LONG));
+                        url = buildForecastUrl(false, null, lat, lon);
+                        hourlyUrl = buildForecastUrl(true, null, lat, lon);
+                    }
+                    // If we have seen this forecast before, only ask for it again if it has
+                    // changed.
+                    CacheValidators validators = new CacheValidators(
+                            cursor.getString(INDEX_ETAG), cursor.getString(INDEX_LAST_MODIFIED));
+                    LocationFetch fetch = new LocationFetch(locationSetting,
+                            cursor.getLong(INDEX_LOCATION_ID), url, validators, sTransport,
+                            obtainForecastBuffer(fetches.size()), RetryPolicy.DEFAULT);
+                    addHourlyFetch(fetch, hourlyUrl, fetches.size());
+                    fetches.add(fetch);
                 }
+            } finally {
+                cursor.close();
             }
+        }
+        if (!preferredLocationSaved) {
+            LocationFetch fetch = new LocationFetch(preferredLocation,
+                    LocationFetch.NO_LOCATION_ID,
+                    buildPreferredLocationUrl(context, preferredLocation, false),
+                    CacheValidators.NONE, sTransport, obtainForecastBuffer(fetches.size()),
+                    RetryPolicy.DEFAULT);
+            addHourlyFetch(fetch, buildPreferredLocationUrl(context, preferredLocation, true),
+                    fetches.size());
+            // A location picked right next to a saved one can start out with its forecast.
+            if (Utility.isLocationLatLonAvailable(context)) {
+                NearbyForecast.reuse(context.getContentResolver(), fetch,
+                        Utility.getLocationLatitude(context),
+                        Utility.getLocationLongitude(context), System.currentTimeMillis());
+            }
+            fetches.add(0, fetch);
+        }
+        return fetches;
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+    /**
+     * Has the fetch go on to the location's three-hourly forecast.  Honeycomb and up only: there
+     * is no streaming parser before it, and ten times the rows parsed into a JSONObject tree and
+     * written one insert at a time is too much for devices that old.
+     */
+    private void addHourlyFetch(LocationFetch fetch, URL url, int index) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            fetch.hourly = new HourlyFetch(fetch.locationSetting, url, sTransport,
+                    obtainHourlyBuffer(index), RetryPolicy.DEFAULT);
+        }
+    }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+    private ForecastBuffer obtainForecastBuffer(int index) {
+        while (mForecastBuffers.size() <= index) {
+            mForecastBuffers.add(new ForecastBuffer());
+        }
+        return mForecastBuffers.get(index);
+    }
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+    private HourlyBuffer obtainHourlyBuffer(int index) {
+        while (mHourlyBuffers.size() <= index) {
+            mHourlyBuffers.add(new HourlyBuffer());
+        }
+        return mHourlyBuffers.get(index);
+    }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+    private static URL buildPreferredLocationUrl(Context context, String locationQuery,
+                                                 boolean hourly) throws MalformedURLException {
+        // Instead of always building the query based off of the location string, we want to
+        // potentially build a query using a lat/lon value. This will be the case when we are
+        // syncing based off of a new location from the Place Picker API. So we need to check
+        // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
+        // service may not understand the location address provided by the Place Picker API
+        // and the user could end up with no weather! The horror!
+        if (Utility.isLocationLatLonAvailable(context)) {
+            return buildForecastUrl(hourly, null,
+                    String.valueOf(Utility.getLocationLatitude(context)),
+                    String.valueOf(Utility.getLocationLongitude(context)));
+        }
+        return buildForecastUrl(hourly, locationQuery, null, null);
+    }
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
+    /**
+     * Builds the forecast URL for either a location query or a latitude / longitude pair.
+     *
+     * @param hourly whether to ask for the three-hourly forecast rather than the daily one
+     */
+    private static URL buildForecastUrl(boolean hourly, String locationQuery,
+                                        String locationLatitude, String locationLongitude)
+            throws MalformedURLException {
+        String format = "json";
+        String units = "metric";
+        int numDays = 14;
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        final String FORECAST_BASE_URL =
+                "http://api.openweathermap.org/data/2.5/forecast/daily?";
+        // Always five days, so there is no count to ask for.
+        final String HOURLY_FORECAST_BASE_URL =
+                "http://api.openweathermap.org/data/2.5/forecast?";
+        final String QUERY_PARAM = "q";
+        final String LAT_PARAM = "lat";
+        final String LON_PARAM = "lon";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        Uri.Builder uriBuilder = Uri.parse(hourly ? HOURLY_FORECAST_BASE_URL : FORECAST_BASE_URL)
+                .buildUpon();
+        if (locationQuery == null) {
+            uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
+                    .appendQueryParameter(LON_PARAM, locationLongitude);
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+        }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+        uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units);
+        if (!hourly) {
+            uriBuilder.appendQueryParameter(DAYS_PARAM, Integer.toString(numDays));
+        }
+        Uri builtUri = uriBuilder
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
 
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+        return new URL(builtUri.toString());
+    }
 
-                double high;
-                double low;
+    /**
+     * Replaces the transport every sync goes through, e.g. with one that has different timeouts.
+     */
+    public static void setTransport(HttpTransport transport) {
+        sTransport = transport;
+    }
 
-                String description;
-                int weatherId;
+    public static HttpTransport getTransport() {
+        return sTransport;
+    }
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+    private static ExecutorService newFetchExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                MAX_PARALLEL_FETCHES, MAX_PARALLEL_FETCHES, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        // Syncs are hours apart, so don't keep the threads around in between.
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
+    /**
+     * Writes every parsed forecast to the database in a single transaction, records how each
+     * location did, and lets everything that shows weather know if the preferred location's
+     * forecast changed.  Days that are stored unchanged already aren't rewritten.
+     *
+     * @param fetches    the finished fetches, one per location
+     * @param syncResult where to report what was written
+     * @return false if nothing could be written
+     */
+    private boolean commitForecasts(List<LocationFetch> fetches, SyncResult syncResult) {
+        Context context = getContext();
+        String preferredLocation = Utility.getPreferredLocation(context);
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+        Time dayTime = new Time();
+        dayTime.setToNow();
 
-                ContentValues weatherValues = new ContentValues();
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        // now we work exclusively in UTC
+        dayTime = new Time();
 
-                cVVector.add(weatherValues);
+        WeatherRowBatch batch = mRowBatch;
+        batch.clear();
+        for (LocationFetch fetch : fetches) {
+            // The hourly forecast changes more often than the daily one, so it may well be new
+            // when the daily one came back unchanged.
+            boolean hasHourly = fetch.hourly != null && fetch.hourly.hasForecast();
+            if (!fetch.hasForecast() && !hasHourly) {
+                continue;
             }
+            ForecastBuffer forecast = fetch.forecast;
+            // A location we haven't seen before is inserted along with its weather.  The
+            // validators are only stored together with the rows they describe.
+            int location = batch.addLocation(fetch.locationId, fetch.locationSetting,
+                    forecast.getCityName(), forecast.getCityLatitude(),
+                    forecast.getCityLongitude(), fetch.validators.getETag(),
+                    fetch.validators.getLastModified());
+            if (fetch.hasForecast()) {
+                fetch.firstRow = forecast.appendTo(batch, location, julianStartDay);
+            }
+            if (hasHourly) {
+                fetch.hourly.forecast.appendTo(batch, location);
+            }
+        }
 
-            int inserted = 0;
-            // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                getContext().startService(new Intent(getContext(), AppListenWearService.class));
+        int fetched = batch.getRowCount();
+        int changed = 0;
+        int significant = 0;
+        boolean preferredLocationChanged = false;
+        if (fetched > 0 || batch.getHourlyCount() > 0) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+                // delete old data so we don't build up an endless history.  Later versions keep
+                // it, and HistoryMaintenance sums it up and prunes it.
+                batch.setPruneDate(dayTime.setJulianDay(julianStartDay - 1));
+            }
+            Bundle stored;
+            try {
+                stored = storeBatch(context.getContentResolver(), batch);
+            } catch (RemoteException | OperationApplicationException
+                    | android.database.SQLException e) {
+                // The batch is one transaction, so none of it was written.
+                Log.e(LOG_TAG, "Error storing forecasts", e);
+                syncResult.databaseError = true;
+                return false;
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            int[] changedRows = stored.getIntArray(WeatherContract.EXTRA_CHANGED_ROWS);
+            significant = stored.getIntArray(WeatherContract.EXTRA_SIGNIFICANT_ROWS).length;
+            // changedRows is in ascending order, as are the fetches' rows in the batch.
+            int next = 0;
+            for (LocationFetch fetch : fetches) {
+                if (!fetch.hasForecast()) {
+                    continue;
+                }
+                int end = fetch.firstRow + fetch.forecast.size();
+                while (next < changedRows.length && changedRows[next] < end) {
+                    fetch.changedDays++;
+                    next++;
+                }
+                changed += fetch.changedDays;
+                if (fetch.changedDays > 0 && fetch.locationSetting.equals(preferredLocation)) {
+                    preferredLocationChanged = true;
+                }
+            }
+            // The hourly rows are all replaced.
+            syncResult.stats.numInserts += changed + batch.getHourlyCount();
+            syncResult.stats.numSkippedEntries += fetched - changed;
         }
-    }
+        setLocationStatuses(context, fetches);
+        reschedule(context, fetches, significant, fetched);
 
-    private void updateWidgets() {
-        Context context = getContext();
-        // Setting the package ensures that only components in our app will receive the broadcast
-        Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
-        context.sendBroadcast(dataUpdatedIntent);
-    }
-
-    private void updateMuzei() {
-        // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
-        // Muzei background on lower API level devices
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
-            context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
+        // Nobody needs to redraw a forecast that is the same as before.  Everything else runs
+        // after the sync has returned, once for any syncs that finish close together.
+        if (preferredLocationChanged) {
+            PostSyncDispatcher.getInstance(context).dispatch();
         }
+        Log.d(LOG_TAG, "Sync Complete. " + changed + " of " + fetched + " days changed");
+        return true;
     }
 
-    private void notifyWeather() {
-        Context context = getContext();
-        //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if (displayNotifications) {
-
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
-
-            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
-                // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    Bitmap largeIcon = getArtIcon(weatherId);
-
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
-                }
-                cursor.close();
+    /**
+     * Lets the scheduler pick the next interval from what this sync found.  A sync in which
+     * every location failed says nothing about the weather, so it is left out.
+     *
+     * @param changed how many days changed significantly, see
+     *                WeatherContract.WeatherEntry.isSignificantChange()
+     */
+    private static void reschedule(Context context, List<LocationFetch> fetches, int changed,
+                                   int fetched) {
+        boolean anyFetched = false;
+        long freshUntil = Long.MAX_VALUE;
+        for (LocationFetch fetch : fetches) {
+            if (fetch.status == LOCATION_STATUS_OK) {
+                anyFetched = true;
+                // The soonest any location may change, or 0 if one of them didn't say.
+                freshUntil = Math.min(freshUntil, fetch.freshUntil);
             }
         }
+        if (anyFetched) {
+            SyncScheduler.onSyncFinished(context, changed, fetched, freshUntil);
+        }
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Hands the batch to the provider in one call, so the rows are bound straight into its
+     * precompiled statements.  Before Honeycomb there is no ContentResolver.call(), and the
+     * batch goes through applyBatch() instead.
      *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName        A human-readable city name, e.g "Mountain View"
-     * @param lat             the latitude of the city
-     * @param lon             the longitude of the city
-     * @return the row ID of the added location.
+     * @return the indexes of the batch rows that differed from what was stored, and of those
+     * that differed significantly, as {@link WeatherContract#METHOD_UPSERT_BATCH} returns them
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+    private static Bundle storeBatch(ContentResolver resolver, WeatherRowBatch batch)
+            throws RemoteException, OperationApplicationException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            Bundle extras = new Bundle();
+            extras.putParcelable(WeatherContract.EXTRA_BATCH, batch);
+            return callProvider(resolver, extras);
         }
+        int[] changedRows = batch.changedRows(resolver.applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, batch.toOperations()));
+        // The rows replaced aren't read on the way, so every change counts.
+        Bundle result = new Bundle();
+        result.putIntArray(WeatherContract.EXTRA_CHANGED_ROWS, changedRows);
+        result.putIntArray(WeatherContract.EXTRA_SIGNIFICANT_ROWS, changedRows);
+        return result;
+    }
 
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Bundle callProvider(ContentResolver resolver, Bundle extras) {
+        return resolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_UPSERT_BATCH, null, extras);
     }
 
     /**
@@ -552,11 +573,16 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately, unless a sync that is running,
+     * waiting to run or just finished already covers it.  See {@link SyncGate}.
      *
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        SyncGate.getInstance().request(context);
+    }
+
+    static void requestExpeditedSync(Context context) {
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
@@ -607,7 +633,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         /*
          * Since we've created an account
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        SyncScheduler.schedule(context);
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
@@ -622,52 +648,22 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
+        HistoryMaintenance.schedule(context);
     }
 
     /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
+     * Sets the status of every synced location into shared preference.  This function should
+     * not be called from the UI thread because it uses commit to write to the shared preferences.
      *
-     * @param c              Context to get the PreferenceManager from.
-     * @param locationStatus The IntDef value to set
+     * @param c       Context to get the PreferenceManager from.
+     * @param fetches The finished fetches, whose IntDef status is stored per location
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus) {
+    static private void setLocationStatuses(Context c, List<LocationFetch> fetches) {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
-    }
-
-    private Bitmap getArtIcon(int weatherId) {
-        Context context = getContext();
-        Resources resources = context.getResources();
-        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-        // On Honeycomb and higher devices, we can retrieve the size of the large icon
-        // Prior to that, we use a fixed size
-        @SuppressLint("InlinedApi")
-        int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-        @SuppressLint("InlinedApi")
-        int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-        // Retrieve the large icon
-        Bitmap largeIcon;
-        try {
-            largeIcon = Glide.with(context)
-                    .load(artUrl)
-                    .asBitmap()
-                    .error(artResourceId)
-                    .fitCenter()
-                    .into(largeIconWidth, largeIconHeight).get();
-        } catch (InterruptedException | ExecutionException e) {
-            Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-            largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
+        for (LocationFetch fetch : fetches) {
+            spe.putInt(Utility.getLocationStatusKey(c, fetch.locationSetting), fetch.status);
         }
-        return largeIcon;
+        spe.commit();
     }
-}
\ No newline at end of file
+}
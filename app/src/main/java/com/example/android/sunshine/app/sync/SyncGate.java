@@ -0,0 +1,170 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in front of every immediate sync request, so that a burst of them (a watch
+ * reconnecting, a user typing locations) costs one sync instead of one each.  A request is
+ * collapsed when a sync for the same locations is already running or waiting to start, or
+ * finished within {@link #FRESH_MILLIS}.  A request for other locations that arrives while a
+ * sync runs is held back and made once that sync is done, since the running one read its
+ * locations when it started.
+ */
+public final class SyncGate {
+    private static final String LOG_TAG = SyncGate.class.getSimpleName();
+
+    // A sync of the same locations that finished this recently is taken as current.
+    static final long FRESH_MILLIS = 10 * 60 * 1000;
+    // A requested sync that hasn't started after this long is assumed dropped.
+    static final long QUEUED_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * Actually asks the sync framework for a sync.
+     */
+    interface Requester {
+        void requestSync(Context context);
+    }
+
+    private static final Requester SYNC_MANAGER = new Requester() {
+        @Override
+        public void requestSync(Context context) {
+            SunshineSyncAdapter.requestExpeditedSync(context);
+        }
+    };
+
+    private static SyncGate sInstance;
+
+    private final Requester mRequester;
+    private final long mFreshMillis;
+
+    // All guarded by this.  Times are elapsedRealtime().
+    private String mRunningTarget;
+    private long mQueuedAt = -1;
+    private boolean mFollowUp;
+    private String mFreshTarget;
+    private long mFreshAt;
+
+    private final AtomicLong mCollapsed = new AtomicLong();
+    private final AtomicLong mExecuted = new AtomicLong();
+
+    public static synchronized SyncGate getInstance() {
+        if (sInstance == null) {
+            sInstance = new SyncGate(SYNC_MANAGER, FRESH_MILLIS);
+        }
+        return sInstance;
+    }
+
+    SyncGate(Requester requester, long freshMillis) {
+        mRequester = requester;
+        mFreshMillis = freshMillis;
+    }
+
+    /**
+     * Requests an expedited sync, unless a running, waiting or recent sync already covers it.
+     */
+    void request(Context context) {
+        String target = getTarget(context);
+        long now = SystemClock.elapsedRealtime();
+        String collapsedInto;
+        synchronized (this) {
+            if (mRunningTarget != null) {
+                if (!mRunningTarget.equals(target)) {
+                    mFollowUp = true;
+                }
+                collapsedInto = "running sync";
+            } else if (mQueuedAt >= 0 && now - mQueuedAt < QUEUED_TIMEOUT_MILLIS) {
+                // It reads the locations when it starts, so it covers this one too.
+                collapsedInto = "waiting sync";
+            } else if (isFresh(target, now)) {
+                collapsedInto = "recent sync";
+            } else {
+                mQueuedAt = now;
+                collapsedInto = null;
+            }
+        }
+        if (collapsedInto == null) {
+            mExecuted.incrementAndGet();
+            mRequester.requestSync(context);
+        } else {
+            mCollapsed.incrementAndGet();
+            Log.d(LOG_TAG, "Collapsed a sync request into the " + collapsedInto + ". " + this);
+        }
+    }
+
+    /**
+     * @return whether the locations the next sync would fetch were synced recently enough that
+     * what is stored can be used as it is
+     */
+    public boolean isFresh(Context context) {
+        String target = getTarget(context);
+        synchronized (this) {
+            return isFresh(target, SystemClock.elapsedRealtime());
+        }
+    }
+
+    private boolean isFresh(String target, long now) {
+        return target.equals(mFreshTarget) && now - mFreshAt < mFreshMillis;
+    }
+
+    /**
+     * Called by every sync as it starts, whoever asked for it.
+     */
+    synchronized void onSyncStarted(Context context) {
+        mQueuedAt = -1;
+        mRunningTarget = getTarget(context);
+    }
+
+    /**
+     * Called by every sync as it ends.
+     *
+     * @param succeeded whether the preferred location's forecast is now current
+     */
+    void onSyncFinished(Context context, boolean succeeded) {
+        boolean followUp;
+        synchronized (this) {
+            if (succeeded) {
+                mFreshTarget = mRunningTarget;
+                mFreshAt = SystemClock.elapsedRealtime();
+            }
+            mRunningTarget = null;
+            followUp = mFollowUp;
+            mFollowUp = false;
+        }
+        if (followUp) {
+            request(context);
+        }
+    }
+
+    /**
+     * @return how many requests were covered by another sync
+     */
+    public long getCollapsed() {
+        return mCollapsed.get();
+    }
+
+    /**
+     * @return how many requests were passed on to the sync framework
+     */
+    public long getExecuted() {
+        return mExecuted.get();
+    }
+
+    @Override
+    public String toString() {
+        return getCollapsed() + " collapsed, " + getExecuted() + " executed";
+    }
+
+    /**
+     * @return what a sync started now would fetch
+     */
+    private static String getTarget(Context context) {
+        return Utility.getPreferredLocation(context)
+                + (Utility.isSyncAllLocationsEnabled(context) ? " and saved locations" : "");
+    }
+}
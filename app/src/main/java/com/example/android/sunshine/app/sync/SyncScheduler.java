@@ -0,0 +1,251 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides how often the periodic sync runs, instead of always every three hours.  The interval
+ * stretches while the last few syncs found nothing new and while nobody has looked at the
+ * weather for a day, and tightens while the forecast keeps changing or after a weather alert.
+ * It is never shorter than the server says its forecast stays fresh for.
+ * <p>
+ * Each decision is logged under this class' tag together with its inputs, and the last few are
+ * kept in preferences, e.g. for a bug report:
+ * <pre>
+ *     adb logcat -s SyncScheduler
+ * </pre>
+ */
+public final class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    // Interval at which to sync with the weather, in seconds, when nothing says otherwise.
+    // 60 seconds (1 minute) * 180 = 3 hours
+    static final int DEFAULT_INTERVAL = 60 * 180;
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int MAX_INTERVAL = 24 * 60 * 60;
+
+    // After this many syncs in a row without a change, each further one doubles the interval...
+    static final int UNCHANGED_SYNCS_BEFORE_STRETCH = 3;
+    // ...up to this many times.
+    static final int MAX_STRETCH_DOUBLINGS = 2;
+    // The forecast is volatile when a sync changed at least this share of its days.  Only
+    // significant changes count, see WeatherContract.WeatherEntry.isSignificantChange(): the
+    // numbers drift a little on almost every fetch.
+    static final int VOLATILE_PERCENT = 50;
+    static final long IDLE_AFTER_MILLIS = 24 * 60 * 60 * 1000;
+    static final long ALERT_MILLIS = 6 * 60 * 60 * 1000;
+
+    private static final String PREFS_NAME = "sync_schedule";
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_UNCHANGED_SYNCS = "unchanged_syncs";
+    private static final String KEY_VOLATILE = "volatile";
+    private static final String KEY_LAST_ACTIVE = "last_active";
+    private static final String KEY_ALERT_UNTIL = "alert_until";
+    private static final String KEY_FRESH_UNTIL = "fresh_until";
+    private static final String KEY_DECISIONS = "decisions";
+    private static final int MAX_RECORDED_DECISIONS = 20;
+
+    /**
+     * What a decision is based on.
+     */
+    static class Inputs {
+        long now;
+        // When someone last opened the app, resized a widget or asked from the watch, or 0.
+        long lastActive;
+        int unchangedSyncs;
+        boolean volatileForecast;
+        long alertUntil;
+        long freshUntil;
+
+        @Override
+        public String toString() {
+            return "unchanged=" + unchangedSyncs + " volatile=" + volatileForecast
+                    + " idle=" + minutesSince(lastActive) + "m"
+                    + " alert=" + minutesUntil(alertUntil) + "m"
+                    + " fresh=" + minutesUntil(freshUntil) + "m";
+        }
+
+        private long minutesSince(long time) {
+            return time == 0 ? -1 : (now - time) / 60000;
+        }
+
+        private long minutesUntil(long time) {
+            return Math.max(0, time - now) / 60000;
+        }
+    }
+
+    static class Decision {
+        // In seconds, as the sync framework wants it.
+        final int interval;
+        final String reason;
+
+        Decision(int interval, String reason) {
+            this.interval = interval;
+            this.reason = reason;
+        }
+
+        int getFlexTime() {
+            return interval / 3;
+        }
+
+        @Override
+        public String toString() {
+            return "every " + interval / 60 + "m (" + reason + ")";
+        }
+    }
+
+    private SyncScheduler() {
+    }
+
+    static Decision decide(Inputs inputs) {
+        if (inputs.alertUntil > inputs.now) {
+            // Conditions are changing faster than any cache lifetime the server claims.
+            return new Decision(MIN_INTERVAL, "weather alert");
+        }
+        List<String> reasons = new ArrayList<String>();
+        long interval = DEFAULT_INTERVAL;
+        if (inputs.volatileForecast) {
+            interval /= 2;
+            reasons.add("forecast changing");
+        } else if (inputs.unchangedSyncs >= UNCHANGED_SYNCS_BEFORE_STRETCH) {
+            int doublings = Math.min(inputs.unchangedSyncs - UNCHANGED_SYNCS_BEFORE_STRETCH + 1,
+                    MAX_STRETCH_DOUBLINGS);
+            interval <<= doublings;
+            reasons.add(inputs.unchangedSyncs + " syncs unchanged");
+        }
+        if (inputs.lastActive != 0 && inputs.now - inputs.lastActive >= IDLE_AFTER_MILLIS) {
+            interval *= 2;
+            reasons.add("idle");
+        }
+        interval = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+
+        long freshFor = (inputs.freshUntil - inputs.now) / 1000;
+        if (freshFor > interval) {
+            interval = Math.min(MAX_INTERVAL, freshFor);
+            reasons.add("server cache");
+        }
+        return new Decision((int) interval,
+                reasons.isEmpty() ? "default" : TextUtils.join(", ", reasons));
+    }
+
+    /**
+     * Registers the periodic sync with whatever the current inputs call for.
+     */
+    public static synchronized void schedule(Context context) {
+        SharedPreferences prefs = getPreferences(context);
+        apply(context, prefs, prefs.edit(), readInputs(prefs), "scheduled", true);
+    }
+
+    /**
+     * Takes a finished sync into account.  Only called when at least one location was fetched.
+     *
+     * @param changedDays how many days differed significantly from what was stored
+     * @param fetchedDays how many days were fetched; 0 if every location was unchanged
+     * @param freshUntil  when the earliest of the fetched forecasts stops being fresh, or 0
+     */
+    static synchronized void onSyncFinished(Context context, int changedDays, int fetchedDays,
+                                            long freshUntil) {
+        SharedPreferences prefs = getPreferences(context);
+        SharedPreferences.Editor editor = prefs.edit();
+        Inputs inputs = readInputs(prefs);
+        onSyncFinished(inputs, changedDays, fetchedDays, freshUntil);
+        editor.putInt(KEY_UNCHANGED_SYNCS, inputs.unchangedSyncs)
+                .putBoolean(KEY_VOLATILE, inputs.volatileForecast)
+                .putLong(KEY_FRESH_UNTIL, inputs.freshUntil);
+        apply(context, prefs, editor, inputs, "sync", false);
+    }
+
+    static void onSyncFinished(Inputs inputs, int changedDays, int fetchedDays,
+                               long freshUntil) {
+        inputs.unchangedSyncs = changedDays == 0 ? inputs.unchangedSyncs + 1 : 0;
+        inputs.volatileForecast = fetchedDays > 0
+                && changedDays * 100 >= fetchedDays * VOLATILE_PERCENT;
+        inputs.freshUntil = freshUntil;
+    }
+
+    /**
+     * Someone is looking at the weather: the app, a widget or the watch.
+     */
+    public static synchronized void onUserActive(Context context) {
+        SharedPreferences prefs = getPreferences(context);
+        SharedPreferences.Editor editor = prefs.edit();
+        Inputs inputs = readInputs(prefs);
+        boolean wasIdle = inputs.lastActive == 0
+                || inputs.now - inputs.lastActive >= IDLE_AFTER_MILLIS;
+        inputs.lastActive = inputs.now;
+        editor.putLong(KEY_LAST_ACTIVE, inputs.lastActive);
+        if (wasIdle) {
+            // The only case in which this changes the interval.
+            apply(context, prefs, editor, inputs, "active", false);
+        } else {
+            editor.apply();
+        }
+    }
+
+    /**
+     * A weather alert arrived, so sync more often for a while.
+     */
+    public static synchronized void onWeatherAlert(Context context) {
+        SharedPreferences prefs = getPreferences(context);
+        SharedPreferences.Editor editor = prefs.edit();
+        Inputs inputs = readInputs(prefs);
+        inputs.alertUntil = inputs.now + ALERT_MILLIS;
+        editor.putLong(KEY_ALERT_UNTIL, inputs.alertUntil);
+        apply(context, prefs, editor, inputs, "alert", false);
+    }
+
+    /**
+     * @return the most recent decisions, oldest first, with their inputs
+     */
+    public static List<String> getRecentDecisions(Context context) {
+        String decisions = getPreferences(context).getString(KEY_DECISIONS, "");
+        if (decisions.length() == 0) {
+            return new ArrayList<String>();
+        }
+        return new ArrayList<String>(Arrays.asList(decisions.split("\n")));
+    }
+
+    private static void apply(Context context, SharedPreferences prefs,
+                              SharedPreferences.Editor editor, Inputs inputs, String trigger,
+                              boolean force) {
+        Decision decision = decide(inputs);
+        String record = inputs.now / 1000 + " " + trigger + ": " + decision + " " + inputs;
+        Log.i(LOG_TAG, record);
+
+        List<String> decisions = getRecentDecisions(context);
+        decisions.add(record);
+        while (decisions.size() > MAX_RECORDED_DECISIONS) {
+            decisions.remove(0);
+        }
+        editor.putString(KEY_DECISIONS, TextUtils.join("\n", decisions));
+
+        // Registering the same period again would only restart its timer.
+        if (force || decision.interval != prefs.getInt(KEY_INTERVAL, 0)) {
+            SunshineSyncAdapter.configurePeriodicSync(context, decision.interval,
+                    decision.getFlexTime());
+            editor.putInt(KEY_INTERVAL, decision.interval);
+        }
+        editor.apply();
+    }
+
+    private static Inputs readInputs(SharedPreferences prefs) {
+        Inputs inputs = new Inputs();
+        inputs.now = System.currentTimeMillis();
+        inputs.lastActive = prefs.getLong(KEY_LAST_ACTIVE, 0);
+        inputs.unchangedSyncs = prefs.getInt(KEY_UNCHANGED_SYNCS, 0);
+        inputs.volatileForecast = prefs.getBoolean(KEY_VOLATILE, false);
+        inputs.alertUntil = prefs.getLong(KEY_ALERT_UNTIL, 0);
+        inputs.freshUntil = prefs.getLong(KEY_FRESH_UNTIL, 0);
+        return inputs;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * What the sync remembers about OpenWeatherMap from one sync to the next, kept in one small
+ * file.  It is read once per process and written at most once per sync, and only if something
+ * changed.  The file is replaced atomically, so a sync that dies halfway leaves the previous
+ * state behind rather than a torn one.
+ */
+final class SyncStateStore {
+    private static final String LOG_TAG = SyncStateStore.class.getSimpleName();
+
+    private static final String FILE_NAME = "sync_state";
+    // Bump this when the layout changes; a file of another version is ignored.
+    private static final int VERSION = 1;
+
+    private static SyncStateStore sInstance;
+
+    private final AtomicFile mFile;
+    private boolean mDirty;
+
+    // The circuit breaker, see CircuitBreaker.  Times are wall clock millis.
+    private int mConsecutiveFailures;
+    private long mOpenUntil;
+    private long mCooldownMillis;
+
+    static synchronized SyncStateStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncStateStore(new File(context.getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    SyncStateStore(File file) {
+        mFile = new AtomicFile(file);
+        load();
+    }
+
+    synchronized int getConsecutiveFailures() {
+        return mConsecutiveFailures;
+    }
+
+    synchronized long getOpenUntil() {
+        return mOpenUntil;
+    }
+
+    synchronized long getCooldownMillis() {
+        return mCooldownMillis;
+    }
+
+    synchronized void setBreaker(int consecutiveFailures, long openUntil, long cooldownMillis) {
+        if (consecutiveFailures != mConsecutiveFailures || openUntil != mOpenUntil
+                || cooldownMillis != mCooldownMillis) {
+            mConsecutiveFailures = consecutiveFailures;
+            mOpenUntil = openUntil;
+            mCooldownMillis = cooldownMillis;
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Writes the state out, if it changed since it was last read or written.
+     */
+    synchronized void save() {
+        if (!mDirty) {
+            return;
+        }
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(VERSION);
+            data.writeInt(mConsecutiveFailures);
+            data.writeLong(mOpenUntil);
+            data.writeLong(mCooldownMillis);
+            data.flush();
+            mFile.finishWrite(out);
+            mDirty = false;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing " + mFile.getBaseFile(), e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+    private void load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            mConsecutiveFailures = in.readInt();
+            mOpenUntil = in.readLong();
+            mCooldownMillis = in.readLong();
+        } catch (FileNotFoundException e) {
+            // Nothing stored yet.
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading " + mFile.getBaseFile(), e);
+            mConsecutiveFailures = 0;
+            mOpenUntil = 0;
+            mCooldownMillis = 0;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.android.sunshine.app.sync;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte and request counters kept by an {@link HttpTransport}.  "Wire" bytes are the body as it
+ * came over the network, "decoded" bytes are what the parser saw after gzip was undone.
+ */
+public class TransportStats {
+
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mNotModified = new AtomicLong();
+    private final AtomicLong mWireBytes = new AtomicLong();
+    private final AtomicLong mDecodedBytes = new AtomicLong();
+
+    void onRequest(int code) {
+        mRequests.incrementAndGet();
+        if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            mNotModified.incrementAndGet();
+        }
+    }
+
+    void onBody(long wireBytes, long decodedBytes) {
+        mWireBytes.addAndGet(wireBytes);
+        mDecodedBytes.addAndGet(decodedBytes);
+    }
+
+    public long getRequests() {
+        return mRequests.get();
+    }
+
+    public long getNotModified() {
+        return mNotModified.get();
+    }
+
+    public long getWireBytes() {
+        return mWireBytes.get();
+    }
+
+    public long getDecodedBytes() {
+        return mDecodedBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        long wire = getWireBytes();
+        long decoded = getDecodedBytes();
+        return getRequests() + " requests (" + getNotModified() + " not modified), "
+                + wire + " bytes on the wire, " + decoded + " bytes decoded"
+                + (decoded > 0 ? " (" + (100 * wire / decoded) + "%)" : "");
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link HttpTransport} on top of {@link HttpURLConnection}, which already pools keep-alive
+ * connections per host.  To get the most out of that pool we never call
+ * {@link HttpURLConnection#disconnect()}: a response is drained and closed instead, which hands
+ * the socket back for the next request.
+ * <p>
+ * Gzip is asked for explicitly rather than left to the platform, because the platform's
+ * transparent decompression hides how many bytes actually came over the network.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 20 * 1000;
+
+    static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    static final String ENCODING_GZIP = "gzip";
+
+    // Whatever is left of a body after this much is not worth draining to save a connection.
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final int mConnectTimeoutMs;
+    private final int mReadTimeoutMs;
+    private final TransportStats mStats = new TransportStats();
+
+    public UrlConnectionTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+    }
+
+    public UrlConnectionTransport(int connectTimeoutMs, int readTimeoutMs) {
+        mConnectTimeoutMs = connectTimeoutMs;
+        mReadTimeoutMs = readTimeoutMs;
+    }
+
+    @Override
+    public Response get(URL url, CacheValidators validators) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(mConnectTimeoutMs);
+        connection.setReadTimeout(mReadTimeoutMs);
+        connection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+        validators.applyTo(connection);
+        try {
+            connection.connect();
+            int code = connection.getResponseCode();
+            mStats.onRequest(code);
+            return new ConnectionResponse(connection, code, mStats);
+        } catch (IOException e) {
+            // The connection never got to a state where it could be reused.
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    @Override
+    public TransportStats getStats() {
+        return mStats;
+    }
+
+    private static class ConnectionResponse implements Response {
+        private final HttpURLConnection mConnection;
+        private final int mCode;
+        private final TransportStats mStats;
+        private CountingInputStream mWire;
+        private CountingInputStream mDecoded;
+        private boolean mClosed;
+
+        ConnectionResponse(HttpURLConnection connection, int code, TransportStats stats) {
+            mConnection = connection;
+            mCode = code;
+            mStats = stats;
+        }
+
+        @Override
+        public int getCode() {
+            return mCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mDecoded == null) {
+                if (mWire != null) {
+                    // The gzip header couldn't be read the first time, and is gone now.
+                    throw new IOException("Body of a broken response");
+                }
+                // Error responses keep their body on the error stream, and a 304 may have none.
+                InputStream raw = mCode < HttpURLConnection.HTTP_BAD_REQUEST
+                        ? mConnection.getInputStream() : mConnection.getErrorStream();
+                if (raw == null) {
+                    raw = new EmptyInputStream();
+                }
+                mWire = new CountingInputStream(raw);
+                InputStream decoded = mWire;
+                // A 304 or 204 has no body to decode, whatever its headers say.
+                if (hasBody() && ENCODING_GZIP.equalsIgnoreCase(
+                        getHeader(HEADER_CONTENT_ENCODING))) {
+                    // Reads the gzip header, which throws if the connection drops first.
+                    decoded = new GZIPInputStream(mWire);
+                }
+                mDecoded = new CountingInputStream(decoded);
+            }
+            return mDecoded;
+        }
+
+        private boolean hasBody() {
+            return mCode != HttpURLConnection.HTTP_NOT_MODIFIED
+                    && mCode != HttpURLConnection.HTTP_NO_CONTENT;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                if (mWire != null && mDecoded == null) {
+                    // Its body was broken from the start, there is nothing to drain.
+                    return;
+                }
+                // The connection only goes back to the pool once its body has been read to the
+                // end, so finish off whatever the caller left behind.
+                InputStream body = getBody();
+                byte[] skip = new byte[1024];
+                int drained = 0;
+                int read;
+                while (drained < MAX_DRAIN_BYTES && (read = body.read(skip)) != -1) {
+                    drained += read;
+                }
+                body.close();
+            } finally {
+                if (mWire != null) {
+                    mStats.onBody(mWire.getCount(), mDecoded != null ? mDecoded.getCount() : 0);
+                    // Closing the decoded stream closes it too, unless reading it failed.
+                    mWire.close();
+                }
+            }
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            mCount += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    private static class EmptyInputStream extends InputStream {
+        @Override
+        public int read() {
+            return -1;
+        }
+    }
+}
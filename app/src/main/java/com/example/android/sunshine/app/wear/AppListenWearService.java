@@ -2,51 +2,49 @@ package com.example.android.sunshine.app.wear;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.Resources;
-import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
 
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ForecastSnapshot;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncGate;
+import com.example.android.sunshine.app.sync.SyncScheduler;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.MessageApi;
 import com.google.android.gms.wearable.MessageEvent;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
 
-public class AppListenWearService extends WearableListenerService implements DataApi.DataListener, MessageApi.MessageListener {
+public class AppListenWearService extends WearableListenerService {
 
     private static final String WEATHER_REQUEST = "/weather-request";
-    private static final String WEATHER_INFO = "/weather-info";
-    private static final String WEATHER_HIGH = "w_high";
-    private static final String WEATHER_LOW = "w_low";
-    private static final String WEATHER_ICON = "w_icon";
-    private static GoogleApiClient googleApiClient;
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    // The forecast, as a WearPayload message to each watch.  The watch answers every one with
+    // WEATHER_ACK and the id of the payload it holds, as it does WEATHER_REQUEST.
+    private static final String WEATHER_FORECAST = "/weather-forecast";
+    private static final String WEATHER_ACK = "/weather-ack";
+    // The icons of the forecast's days, as a WearIcon message to each watch that doesn't hold
+    // them.  The watch answers with WEATHER_ICON_ACK and whether it holds it, and sends that
+    // too for an icon a forecast names that it doesn't hold.
+    private static final String WEATHER_ICON = "/weather-icon";
+    private static final String WEATHER_ICON_ACK = "/weather-icon-ack";
+
+    // Connected only while there is something to send.  The watch's messages come in through
+    // the manifest, so it needs no listeners.
+    private GoogleApiClient googleApiClient;
+    // Requests made on the client and not yet answered; it disconnects after the last one.
+    private int mPending;
+
+    // The forecast the last sync sent along, if it is still for the preferred location.
+    private volatile ForecastSnapshot mSnapshot;
 
     public AppListenWearService() {
     }
@@ -54,29 +52,72 @@ public class AppListenWearService extends WearableListenerService implements Dat
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.d("AppListenWearService", "onStartCommand method call");
+        mSnapshot = ForecastSnapshot.fromIntent(intent, Utility.getPreferredLocation(this));
         initializeGoogleApiClient();
         sendUpdatedDataToWear();
         return super.onStartCommand(intent, flags, startId);
     }
 
+    @Override
+    public void onDestroy() {
+        if (googleApiClient != null) {
+            googleApiClient.disconnect();
+        }
+        super.onDestroy();
+    }
+
     @Override
     public void onMessageReceived(MessageEvent messageEvent) {
         super.onMessageReceived(messageEvent);
         Log.d("AppListenWearService", "message is :: " + messageEvent);
-        if (messageEvent.getPath().equals(WEATHER_REQUEST)) {
+        if (messageEvent.getPath().equals(WEATHER_ICON_ACK)) {
+            byte[] data = messageEvent.getData();
+            if (data == null || data.length != WearIcon.HASH_BYTES + 1) {
+                return;
+            }
+            String hash = WearIcon.toHex(data, 0, WearIcon.HASH_BYTES);
+            if (data[WearIcon.HASH_BYTES] != 0) {
+                WearNodeStore.getInstance(this).onIconHeld(messageEvent.getSourceNodeId(), hash);
+            } else {
+                // It doesn't have the icon it was told about, so it gets the icon itself.
+                WearNodeStore.getInstance(this).onIconMissing(messageEvent.getSourceNodeId(),
+                        hash);
+                mSnapshot = null;
+                initializeGoogleApiClient();
+                sendUpdatedDataToWear();
+            }
+        } else if (messageEvent.getPath().equals(WEATHER_ACK)) {
+            if (!WearNodeStore.getInstance(this).onAcknowledged(messageEvent.getSourceNodeId(),
+                    readId(messageEvent.getData()))) {
+                // The watch couldn't apply the delta to what it holds, so it gets it all.
+                mSnapshot = null;
+                initializeGoogleApiClient();
+                sendUpdatedDataToWear();
+            }
+        } else if (messageEvent.getPath().equals(WEATHER_REQUEST)) {
             Log.d("AppListenWearService", "send data to wear if there is");
-            SunshineSyncAdapter.syncImmediately(getApplicationContext());
+            Context context = getApplicationContext();
+            // A watch that is starting over holds nothing, and gets the whole forecast.
+            WearNodeStore.getInstance(context).onAcknowledged(messageEvent.getSourceNodeId(),
+                    readId(messageEvent.getData()));
+            SyncScheduler.onUserActive(context);
+            // Answer with what is stored straight away.  Only if it is getting old is it worth a
+            // sync, which sends the watch the new forecast if there is one.
+            if (!SyncGate.getInstance().isFresh(context)) {
+                SunshineSyncAdapter.syncImmediately(context);
+            }
+            mSnapshot = null;
+            initializeGoogleApiClient();
+            sendUpdatedDataToWear();
         }
     }
 
     private void initializeGoogleApiClient() {
         if (googleApiClient == null) {
-            googleApiClient = new GoogleApiClient.Builder(this).addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
+            googleApiClient = new GoogleApiClient.Builder(getApplicationContext()).addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
                 @Override
                 public void onConnected(Bundle bundle) {
                     Log.d("AppListenWearService", "OnConnectedCall");
-                    Wearable.DataApi.addListener(googleApiClient, AppListenWearService.this);
-                    Wearable.MessageApi.addListener(googleApiClient, AppListenWearService.this);
                     sendData();
                 }
 
@@ -107,46 +148,119 @@ public class AppListenWearService extends WearableListenerService implements Dat
     private void sendData() {
         Context context = getApplicationContext();
         String locationQuery = Utility.getPreferredLocation(context);
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-        // we'll query our contentProvider, as always
-        Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-        if (cursor != null && cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            double high = cursor.getDouble(INDEX_MAX_TEMP);
-            double low = cursor.getDouble(INDEX_MIN_TEMP);
-
-            String highTemp = Utility.formatTemperature(getApplicationContext(), high);
-            String lowTemp = Utility.formatTemperature(getApplicationContext(), low);
-
-            int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-            Resources resources = context.getResources();
-            Bitmap weatherIcon = BitmapFactory.decodeResource(resources, iconId);
-            if (googleApiClient.isConnected()) {
-                PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEATHER_INFO);
-                putDataMapRequest.getDataMap().putString(WEATHER_HIGH, highTemp);
-                putDataMapRequest.getDataMap().putString(WEATHER_LOW, lowTemp);
-                putDataMapRequest.getDataMap().putAsset(WEATHER_ICON, createAssetFromBitmap(weatherIcon));
-
-                PutDataRequest putDataRequest = putDataMapRequest.asPutDataRequest();
-                Wearable.DataApi.putDataItem(googleApiClient, putDataRequest).setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+        long now = System.currentTimeMillis();
+        ForecastSnapshot snapshot = mSnapshot;
+        if (snapshot == null || !snapshot.getLocationSetting().equals(locationQuery)
+                || !snapshot.startsOn(now)) {
+            // Nothing straight from the sync, so read it.
+            snapshot = ForecastSnapshot.query(context.getContentResolver(), locationQuery, now);
+        }
+        if (snapshot == null || snapshot.isEmpty()) {
+            disconnectIfIdle();
+            return;
+        }
+        final WearPayload payload = WearPayload.fromSnapshot(snapshot, Utility.isMetric(context),
+                context.getResources());
+        onRequestStarted();
+        Wearable.NodeApi.getConnectedNodes(googleApiClient).setResultCallback(
+                new ResultCallback<NodeApi.GetConnectedNodesResult>() {
                     @Override
-                    public void onResult(DataApi.DataItemResult dataItemResult) {
-                        if (dataItemResult.getStatus().isSuccess()) {
-                            Log.d("AppListenWearService", "send data to wear app" + dataItemResult.getDataItem().getUri());
+                    public void onResult(NodeApi.GetConnectedNodesResult result) {
+                        WearNodeStore store = WearNodeStore.getInstance(AppListenWearService.this);
+                        for (Node node : result.getNodes()) {
+                            sendIcons(node.getId(), payload);
+                            sendPayload(node.getId(), payload,
+                                    store.getAcknowledged(node.getId()));
+                        }
+                        onRequestFinished();
+                    }
+                });
+    }
+
+    // Watch messages arrive on a thread of their own, the results on the main thread.
+    private synchronized void onRequestStarted() {
+        mPending++;
+    }
+
+    private synchronized void onRequestFinished() {
+        mPending--;
+        disconnectIfIdle();
+    }
+
+    private synchronized void disconnectIfIdle() {
+        if (mPending == 0 && googleApiClient.isConnected()) {
+            Log.d("AppListenWearService", "disconnecting");
+            googleApiClient.disconnect();
+        }
+    }
+
+    /**
+     * Sends a watch what turns the payload it last acknowledged into this one, or the whole
+     * payload if it isn't known to hold one.  A watch that already holds it gets nothing.
+     */
+    private void sendPayload(final String nodeId, WearPayload payload,
+                             WearPayload acknowledged) {
+        byte[] message = acknowledged == null
+                ? payload.encodeFull() : payload.encodeDelta(acknowledged);
+        if (message == null) {
+            Log.d("AppListenWearService", nodeId + " is up to date");
+            return;
+        }
+        WearNodeStore.getInstance(this).onSent(nodeId, payload);
+        final int bytes = message.length;
+        onRequestStarted();
+        Wearable.MessageApi.sendMessage(googleApiClient, nodeId, WEATHER_FORECAST, message)
+                .setResultCallback(new ResultCallback<MessageApi.SendMessageResult>() {
+                    @Override
+                    public void onResult(MessageApi.SendMessageResult sendMessageResult) {
+                        if (sendMessageResult.getStatus().isSuccess()) {
+                            Log.d("AppListenWearService", "sent " + bytes + " bytes to " + nodeId);
                         } else {
-                            Log.d("AppListenWearService", "failed to send data to wear app.");
+                            // It asks again when it next connects.
+                            Log.d("AppListenWearService", "failed to send data to " + nodeId);
                         }
-                        googleApiClient.disconnect();
+                        onRequestFinished();
                     }
                 });
+    }
+
+    /**
+     * Sends a watch the icons of the payload's days that it doesn't hold, ahead of the payload.
+     */
+    private void sendIcons(String nodeId, WearPayload payload) {
+        WearNodeStore store = WearNodeStore.getInstance(this);
+        Set<String> sent = new HashSet<String>();
+        for (WearIcon icon : payload.icons) {
+            if (icon != null && !store.holdsIcon(nodeId, icon.hash) && sent.add(icon.hash)) {
+                sendIcon(nodeId, icon);
             }
         }
     }
 
-    private static Asset createAssetFromBitmap(Bitmap bitmap) {
-        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-        return Asset.createFromBytes(byteStream.toByteArray());
+    private void sendIcon(final String nodeId, WearIcon icon) {
+        byte[] message = icon.encodeIcon();
+        final int bytes = message.length;
+        onRequestStarted();
+        Wearable.MessageApi.sendMessage(googleApiClient, nodeId, WEATHER_ICON, message)
+                .setResultCallback(new ResultCallback<MessageApi.SendMessageResult>() {
+                    @Override
+                    public void onResult(MessageApi.SendMessageResult sendMessageResult) {
+                        if (sendMessageResult.getStatus().isSuccess()) {
+                            Log.d("AppListenWearService", "sent icon of " + bytes + " bytes to "
+                                    + nodeId);
+                        } else {
+                            // It is sent again with the next forecast, as it isn't held.
+                            Log.d("AppListenWearService", "failed to send icon to " + nodeId);
+                        }
+                        onRequestFinished();
+                    }
+                });
+    }
+
+    /**
+     * @return the payload id a watch's message carries, or 0 if it has none
+     */
+    private static int readId(byte[] data) {
+        return data != null && data.length >= 4 ? ByteBuffer.wrap(data).getInt() : 0;
     }
 }
@@ -0,0 +1,127 @@
+package com.example.android.sunshine.app.wear;
+
+import android.content.res.Resources;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.app.Utility;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A weather icon as the watch gets it: the PNG file of the resource as it is, named by the SHA-1
+ * of its bytes.  A watch keeps every icon it gets under that name, so the phone only sends it
+ * once, and the days of a WearPayload only carry the name:
+ * <pre>
+ *   hash:byte[20] png:byte*
+ * </pre>
+ * The watch answers with the name and whether it now holds the icon, and also says so of a name
+ * a payload carries that it doesn't hold.  The watch reads this format with IconCache in the
+ * wear module, which has to change along with it.
+ */
+final class WearIcon {
+    private static final String LOG_TAG = WearIcon.class.getSimpleName();
+
+    static final int HASH_BYTES = 20;
+
+    // There are only a few icons, each read and hashed once a process.
+    private static final SparseArray<WearIcon> sIcons = new SparseArray<WearIcon>();
+
+    final String hash;
+
+    private final byte[] mHash;
+    private final byte[] mBytes;
+
+    private WearIcon(byte[] bytes) {
+        mBytes = bytes;
+        mHash = sha1(bytes);
+        hash = toHex(mHash, 0, mHash.length);
+    }
+
+    /**
+     * @return the icon shown for a weather id, or null if there is none
+     */
+    static WearIcon forWeather(Resources resources, int weatherId) {
+        int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+        return iconId == -1 ? null : forResource(resources, iconId);
+    }
+
+    /**
+     * @return the icon of a drawable resource, or null if it can't be read
+     */
+    static synchronized WearIcon forResource(Resources resources, int resId) {
+        WearIcon icon = sIcons.get(resId);
+        if (icon == null) {
+            byte[] bytes = readResource(resources, resId);
+            if (bytes == null) {
+                return null;
+            }
+            icon = new WearIcon(bytes);
+            sIcons.put(resId, icon);
+        }
+        return icon;
+    }
+
+    byte[] getHash() {
+        return mHash;
+    }
+
+    /**
+     * @return the message that hands the icon over
+     */
+    byte[] encodeIcon() {
+        byte[] message = new byte[HASH_BYTES + mBytes.length];
+        System.arraycopy(mHash, 0, message, 0, HASH_BYTES);
+        System.arraycopy(mBytes, 0, message, HASH_BYTES, mBytes.length);
+        return message;
+    }
+
+    static String toHex(byte[] data, int offset, int length) {
+        StringBuilder builder = new StringBuilder(length * 2);
+        for (int i = offset; i < offset + length; i++) {
+            builder.append(Character.forDigit(data[i] >> 4 & 0xf, 16))
+                    .append(Character.forDigit(data[i] & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    private static byte[] sha1(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release has it.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] readResource(Resources resources, int resId) {
+        InputStream in = null;
+        try {
+            // The file as it is packaged, which is what the watch decodes.  Decoding it here to
+            // compress it again would only cost time and change the bytes.
+            in = resources.openRawResource(resId);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (Resources.NotFoundException | IOException e) {
+            Log.e(LOG_TAG, "Error reading icon " + resId, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.android.sunshine.app.wear;
+
+import android.content.Context;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The forecast payload each watch is known to hold, the last one it acknowledged, and the one
+ * sent to it since that it hasn't acknowledged yet.  Deltas are worked out against the former.
+ * Also the icons each watch holds, by their WearIcon hash.  Kept in one
+ * small file, as the service that sends them lives no longer than a sync.
+ */
+final class WearNodeStore {
+    private static final String LOG_TAG = WearNodeStore.class.getSimpleName();
+
+    private static final String FILE_NAME = "wear_nodes";
+    // Bump this when the layout changes; a file of another version is ignored.
+    private static final int VERSION = 3;
+    // More than a payload of WearPayload.MAX_DAYS takes.
+    private static final int MAX_BODY_BYTES = 512;
+
+    private static WearNodeStore sInstance;
+
+    private static final class Node {
+        WearPayload acknowledged;
+        WearPayload pending;
+        final Set<String> icons = new HashSet<String>();
+    }
+
+    private final AtomicFile mFile;
+    private final Map<String, Node> mNodes = new HashMap<String, Node>();
+
+    static synchronized WearNodeStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearNodeStore(new File(context.getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    WearNodeStore(File file) {
+        mFile = new AtomicFile(file);
+        load();
+    }
+
+    /**
+     * @return the payload the watch last acknowledged, or null if it isn't known to hold any
+     */
+    synchronized WearPayload getAcknowledged(String nodeId) {
+        Node node = mNodes.get(nodeId);
+        return node == null ? null : node.acknowledged;
+    }
+
+    synchronized void onSent(String nodeId, WearPayload payload) {
+        node(nodeId).pending = payload;
+        save();
+    }
+
+    /**
+     * Records the payload a watch says it holds, either to acknowledge a message or when it
+     * asks for the forecast.  A watch that holds something other than what was last sent to it
+     * didn't get that, or couldn't apply it to what it had, and gets the whole payload next.
+     *
+     * @return whether the watch holds what was last sent to it
+     */
+    synchronized boolean onAcknowledged(String nodeId, int id) {
+        Node node = node(nodeId);
+        boolean upToDate;
+        if (node.pending != null) {
+            upToDate = node.pending.getId() == id;
+            node.acknowledged = upToDate ? node.pending : null;
+            node.pending = null;
+        } else {
+            upToDate = node.acknowledged != null && node.acknowledged.getId() == id;
+            if (!upToDate) {
+                node.acknowledged = null;
+            }
+        }
+        save();
+        return upToDate;
+    }
+
+    /**
+     * @return whether the watch holds this icon, and only needs to be told its hash
+     */
+    synchronized boolean holdsIcon(String nodeId, String hash) {
+        Node node = mNodes.get(nodeId);
+        return node != null && node.icons.contains(hash);
+    }
+
+    synchronized void onIconHeld(String nodeId, String hash) {
+        node(nodeId).icons.add(hash);
+        save();
+    }
+
+    /**
+     * Records that a watch was told the hash of an icon it doesn't hold, having lost it or
+     * never got it, so that it gets the icon itself next.
+     */
+    synchronized void onIconMissing(String nodeId, String hash) {
+        node(nodeId).icons.remove(hash);
+        save();
+    }
+
+    private Node node(String nodeId) {
+        Node node = mNodes.get(nodeId);
+        if (node == null) {
+            node = new Node();
+            mNodes.put(nodeId, node);
+        }
+        return node;
+    }
+
+    private void save() {
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(VERSION);
+            data.writeInt(mNodes.size());
+            for (Map.Entry<String, Node> entry : mNodes.entrySet()) {
+                Node node = entry.getValue();
+                data.writeUTF(entry.getKey());
+                writePayload(data, node.acknowledged);
+                writePayload(data, node.pending);
+                data.writeInt(node.icons.size());
+                for (String hash : node.icons) {
+                    data.writeUTF(hash);
+                }
+            }
+            data.flush();
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing " + mFile.getBaseFile(), e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+    private static void writePayload(DataOutputStream data, WearPayload payload)
+            throws IOException {
+        if (payload == null) {
+            data.writeInt(-1);
+            return;
+        }
+        byte[] body = payload.getBody();
+        data.writeInt(body.length);
+        data.write(body);
+    }
+
+    private void load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            int nodes = in.readInt();
+            for (int i = 0; i < nodes; i++) {
+                Node node = node(in.readUTF());
+                node.acknowledged = readPayload(in);
+                node.pending = readPayload(in);
+                int icons = in.readInt();
+                for (int icon = 0; icon < icons; icon++) {
+                    node.icons.add(in.readUTF());
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing sent yet.
+        } catch (IOException e) {
+            // Every watch then gets the whole forecast once.
+            Log.e(LOG_TAG, "Error reading " + mFile.getBaseFile(), e);
+            mNodes.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    private static WearPayload readPayload(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_BODY_BYTES) {
+            throw new IOException("Payload of " + length + " bytes");
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return WearPayload.fromBody(body);
+    }
+}
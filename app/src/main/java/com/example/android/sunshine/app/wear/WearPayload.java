@@ -0,0 +1,224 @@
+package com.example.android.sunshine.app.wear;
+
+import android.content.res.Resources;
+
+import com.example.android.sunshine.app.sync.ForecastSnapshot;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+
+/**
+ * The forecast as the watch gets it: for each day from the first one, its weather id, its high
+ * and low in tenths of a degree Celsius, and the hash of its WearIcon, all zeros if it has none.
+ * The watch formats them itself, in the units the flags ask for, and keeps them to show each day
+ * in turn.  A payload's id is the CRC32 of its body, so the same forecast always has the
+ * same id on either side.
+ * <p>
+ * A message starts with the version and whether it is a whole payload or a delta, then the id of
+ * the payload it makes.  A delta also names the payload it applies to, and then only carries the
+ * days that differ from that one's, with a bit for each day of the new payload that it carries:
+ * <pre>
+ *   version:byte kind:byte id:int [baseId:int]
+ *   flags:byte firstDay:int count:byte [changed:int]
+ *   (weatherId:short high:short low:short icon:byte[20])*
+ * </pre>
+ * Days are counted from 1970-01-01 in the phone's time zone.  The watch reads this format with a
+ * copy of its own, WeatherPayload in the wear module, which has to change along with it.
+ */
+final class WearPayload {
+
+    // Bump this when the layout changes.  A watch ignores messages of another version.
+    static final byte VERSION = 2;
+
+    static final byte KIND_FULL = 0;
+    static final byte KIND_DELTA = 1;
+
+    static final int FLAG_METRIC = 1;
+
+    // A delta marks the days it carries in an int.
+    static final int MAX_DAYS = 14;
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final int HEADER_BYTES = 2 + 4;
+    private static final int DAY_BYTES = 2 + 2 + 2 + WearIcon.HASH_BYTES;
+
+    final int flags;
+    final int firstDay;
+    final short[] weatherIds;
+    final short[] highs;
+    final short[] lows;
+    // The icon hashes of the days, one after the other.
+    final byte[] iconHashes;
+    // The icons themselves, which a payload read back from its body doesn't have.
+    final WearIcon[] icons;
+
+    private final byte[] mBody;
+    private final int mId;
+
+    private WearPayload(int flags, int firstDay, short[] weatherIds, short[] highs, short[] lows,
+                        byte[] iconHashes, WearIcon[] icons) {
+        this.flags = flags;
+        this.firstDay = firstDay;
+        this.weatherIds = weatherIds;
+        this.highs = highs;
+        this.lows = lows;
+        this.iconHashes = iconHashes;
+        this.icons = icons;
+        mBody = encodeBody();
+        CRC32 crc = new CRC32();
+        crc.update(mBody);
+        mId = (int) crc.getValue();
+    }
+
+    /**
+     * @return the snapshot's days from the first one on, for as long as they follow each other,
+     * at most {@link #MAX_DAYS} of them
+     */
+    static WearPayload fromSnapshot(ForecastSnapshot snapshot, boolean metric,
+                                    Resources resources) {
+        int firstDay = snapshot.isEmpty() ? 0 : localDay(snapshot.getDate(0));
+        int count = 0;
+        while (count < snapshot.getDayCount() && count < MAX_DAYS
+                && localDay(snapshot.getDate(count)) == firstDay + count) {
+            count++;
+        }
+        short[] weatherIds = new short[count];
+        short[] highs = new short[count];
+        short[] lows = new short[count];
+        byte[] iconHashes = new byte[count * WearIcon.HASH_BYTES];
+        WearIcon[] icons = new WearIcon[count];
+        for (int day = 0; day < count; day++) {
+            weatherIds[day] = (short) snapshot.getWeatherId(day);
+            highs[day] = tenths(snapshot.getHigh(day));
+            lows[day] = tenths(snapshot.getLow(day));
+            icons[day] = WearIcon.forWeather(resources, weatherIds[day]);
+            if (icons[day] != null) {
+                System.arraycopy(icons[day].getHash(), 0, iconHashes, day * WearIcon.HASH_BYTES,
+                        WearIcon.HASH_BYTES);
+            }
+        }
+        return new WearPayload(metric ? FLAG_METRIC : 0, firstDay, weatherIds, highs, lows,
+                iconHashes, icons);
+    }
+
+    /**
+     * @return the payload of a body written by {@link #getBody()}, or null if it can't be read
+     */
+    static WearPayload fromBody(byte[] body) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(body);
+            int flags = buffer.get();
+            int firstDay = buffer.getInt();
+            int count = buffer.get();
+            if (count < 0 || count > MAX_DAYS) {
+                return null;
+            }
+            short[] weatherIds = new short[count];
+            short[] highs = new short[count];
+            short[] lows = new short[count];
+            byte[] iconHashes = new byte[count * WearIcon.HASH_BYTES];
+            for (int day = 0; day < count; day++) {
+                weatherIds[day] = buffer.getShort();
+                highs[day] = buffer.getShort();
+                lows[day] = buffer.getShort();
+                buffer.get(iconHashes, day * WearIcon.HASH_BYTES, WearIcon.HASH_BYTES);
+            }
+            return new WearPayload(flags, firstDay, weatherIds, highs, lows, iconHashes, null);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the day a stored date falls on, counted in the phone's time zone.  The provider
+     * stores each day as its local midnight.
+     */
+    static int localDay(long dateMillis) {
+        return (int) ((dateMillis + TimeZone.getDefault().getOffset(dateMillis)) / DAY_MILLIS);
+    }
+
+    private static short tenths(double celsius) {
+        return (short) Math.round(celsius * 10);
+    }
+
+    int getId() {
+        return mId;
+    }
+
+    int getDayCount() {
+        return weatherIds.length;
+    }
+
+    byte[] getBody() {
+        return mBody;
+    }
+
+    private byte[] encodeBody() {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + 1 + getDayCount() * DAY_BYTES);
+        buffer.put((byte) flags).putInt(firstDay).put((byte) getDayCount());
+        for (int day = 0; day < getDayCount(); day++) {
+            putDay(buffer, day);
+        }
+        return buffer.array();
+    }
+
+    private void putDay(ByteBuffer buffer, int day) {
+        buffer.putShort(weatherIds[day]).putShort(highs[day]).putShort(lows[day])
+                .put(iconHashes, day * WearIcon.HASH_BYTES, WearIcon.HASH_BYTES);
+    }
+
+    private boolean sameDay(int day, WearPayload other, int otherDay) {
+        if (other.weatherIds[otherDay] != weatherIds[day] || other.highs[otherDay] != highs[day]
+                || other.lows[otherDay] != lows[day]) {
+            return false;
+        }
+        for (int i = 0; i < WearIcon.HASH_BYTES; i++) {
+            if (other.iconHashes[otherDay * WearIcon.HASH_BYTES + i]
+                    != iconHashes[day * WearIcon.HASH_BYTES + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the message that hands the whole payload over
+     */
+    byte[] encodeFull() {
+        return ByteBuffer.allocate(HEADER_BYTES + mBody.length)
+                .put(VERSION).put(KIND_FULL).putInt(mId).put(mBody).array();
+    }
+
+    /**
+     * @return the message that turns the base payload into this one, or null if they are the
+     * same and nothing needs to be sent
+     */
+    byte[] encodeDelta(WearPayload base) {
+        if (base.mId == mId && Arrays.equals(base.mBody, mBody)) {
+            return null;
+        }
+        int changed = 0;
+        int changedDays = 0;
+        for (int day = 0; day < getDayCount(); day++) {
+            int baseDay = firstDay + day - base.firstDay;
+            if (baseDay < 0 || baseDay >= base.getDayCount() || !sameDay(day, base, baseDay)) {
+                changed |= 1 << day;
+                changedDays++;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 4 + 1 + 4 + 1 + 4
+                + changedDays * DAY_BYTES);
+        buffer.put(VERSION).put(KIND_DELTA).putInt(mId).putInt(base.mId)
+                .put((byte) flags).putInt(firstDay).put((byte) getDayCount()).putInt(changed);
+        for (int day = 0; day < getDayCount(); day++) {
+            if ((changed & 1 << day) != 0) {
+                putDay(buffer, day);
+            }
+        }
+        return buffer.array();
+    }
+}
@@ -23,6 +23,7 @@ import android.os.Bundle;
 import android.support.annotation.NonNull;
 
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncScheduler;
 
 /**
  * Provider for a horizontally expandable widget showing today's weather.
@@ -40,6 +41,8 @@ public class TodayWidgetProvider extends AppWidgetProvider {
     @Override
     public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager,
                                           int appWidgetId, Bundle newOptions) {
+        // Someone just resized it, so they are looking.
+        SyncScheduler.onUserActive(context);
         context.startService(new Intent(context, TodayWidgetIntentService.class));
     }
 
@@ -47,7 +50,9 @@ public class TodayWidgetProvider extends AppWidgetProvider {
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
         if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
-            context.startService(new Intent(context, TodayWidgetIntentService.class));
+            // Passes on the forecast the sync read, if it sent one.
+            context.startService(new Intent(context, TodayWidgetIntentService.class)
+                    .putExtras(intent));
         }
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The last forecast the phone sent, and when, kept in a small file so that a new engine shows
+ * it straight away, each day in turn, without asking the phone for it.
+ */
+final class ForecastStore {
+    private static final String LOG_TAG = ForecastStore.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast";
+    // Bump this when the layout changes; a file of another version is ignored.
+    private static final int VERSION = 1;
+    // More than a whole payload of the most days takes.
+    private static final int MAX_MESSAGE_BYTES = 1024;
+
+    private final AtomicFile mFile;
+
+    private WeatherPayload mPayload;
+    private long mReceivedMillis;
+
+    ForecastStore(File filesDir) {
+        mFile = new AtomicFile(new File(filesDir, FILE_NAME));
+        load();
+    }
+
+    /**
+     * @return the forecast held, or null if the phone never sent one
+     */
+    WeatherPayload getPayload() {
+        return mPayload;
+    }
+
+    /**
+     * @return when the forecast held came from the phone
+     */
+    long getReceivedMillis() {
+        return mReceivedMillis;
+    }
+
+    void save(WeatherPayload payload, long receivedMillis) {
+        mPayload = payload;
+        mReceivedMillis = receivedMillis;
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            DataOutputStream data = new DataOutputStream(out);
+            byte[] message = payload.encode();
+            data.writeInt(VERSION);
+            data.writeLong(receivedMillis);
+            data.writeInt(message.length);
+            data.write(message);
+            data.flush();
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing " + mFile.getBaseFile(), e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+    private void load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(mFile.openRead()));
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            long receivedMillis = in.readLong();
+            int length = in.readInt();
+            if (length < 0 || length > MAX_MESSAGE_BYTES) {
+                throw new IOException("Forecast of " + length + " bytes");
+            }
+            byte[] message = new byte[length];
+            in.readFully(message);
+            // Null if it is of another version of the payload, and then the phone sends it all.
+            mPayload = WeatherPayload.apply(message, null);
+            mReceivedMillis = receivedMillis;
+        } catch (FileNotFoundException e) {
+            // Nothing received yet.
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading " + mFile.getBaseFile(), e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * What the frames the watch face draws cost: how long each takes, how many objects it
+ * allocates, which should be none unless the minute or the forecast changed, and how many of
+ * them had to draw a layer again.  Off unless turned on with
+ * {@code adb shell setprop log.tag.FrameStats VERBOSE} before the face becomes visible, and then
+ * logged every {@link #FRAMES} frames.  Counting allocations slows the runtime down, so the
+ * times are only worth comparing with each other.
+ */
+final class FrameStats {
+    private static final String LOG_TAG = "FrameStats";
+
+    private static final int FRAMES = 60;
+
+    private boolean mEnabled;
+
+    private long mStartNanos;
+    private int mStartAllocations;
+
+    private int mFrames;
+    private long mTotalNanos;
+    private long mMaxNanos;
+    private int mTotalAllocations;
+    private int mMaxAllocations;
+    private int mLayers;
+
+    /**
+     * Turns counting on while the face is visible, if the log tag asks for it.
+     */
+    @SuppressWarnings("deprecation")
+    void setVisible(boolean visible) {
+        boolean enabled = visible && Log.isLoggable(LOG_TAG, Log.VERBOSE);
+        if (enabled == mEnabled) {
+            return;
+        }
+        mEnabled = enabled;
+        if (enabled) {
+            Debug.startAllocCounting();
+        } else {
+            Debug.stopAllocCounting();
+        }
+        reset();
+    }
+
+    @SuppressWarnings("deprecation")
+    void beginFrame() {
+        if (!mEnabled) {
+            return;
+        }
+        mStartAllocations = Debug.getThreadAllocCount();
+        mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Counts a layer drawn again in the frame being drawn.
+     */
+    void onLayerDrawn() {
+        mLayers++;
+    }
+
+    @SuppressWarnings("deprecation")
+    void endFrame() {
+        if (!mEnabled) {
+            return;
+        }
+        long nanos = System.nanoTime() - mStartNanos;
+        int allocations = Debug.getThreadAllocCount() - mStartAllocations;
+        mFrames++;
+        mTotalNanos += nanos;
+        mMaxNanos = Math.max(mMaxNanos, nanos);
+        mTotalAllocations += allocations;
+        mMaxAllocations = Math.max(mMaxAllocations, allocations);
+        if (mFrames == FRAMES) {
+            Log.v(LOG_TAG, String.format("%d frames: %d us average, %d us at most, "
+                            + "%d allocations, %d at most in a frame, %d layers drawn", mFrames,
+                    mTotalNanos / mFrames / 1000, mMaxNanos / 1000, mTotalAllocations,
+                    mMaxAllocations, mLayers));
+            reset();
+        }
+    }
+
+    private void reset() {
+        mFrames = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+        mTotalAllocations = 0;
+        mMaxAllocations = 0;
+        mLayers = 0;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.AtomicFile;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The weather icons the phone sent, in its WearIcon format, by the SHA-1 of their bytes.  Each
+ * is kept as the phone sent it in a file of its own, so the phone only has to send it once, and
+ * decoded in memory while it is in use, so showing it again costs a lookup.
+ */
+final class IconCache {
+    private static final String LOG_TAG = IconCache.class.getSimpleName();
+
+    static final int HASH_BYTES = 20;
+
+    private static final String DIRECTORY = "icons";
+    // The phone has about ten icons, a few more are kept across an update of them.
+    private static final int MAX_FILES = 32;
+    // Enough for every icon of a forecast's days, which are all decoded when it arrives.
+    private static final int MAX_MEMORY_BYTES = 2 * 1024 * 1024;
+
+    private final File mDirectory;
+    private final LruCache<String, Bitmap> mBitmaps =
+            new LruCache<String, Bitmap>(MAX_MEMORY_BYTES) {
+                @Override
+                protected int sizeOf(String hash, Bitmap bitmap) {
+                    return bitmap.getByteCount();
+                }
+            };
+
+    IconCache(File filesDir) {
+        mDirectory = new File(filesDir, DIRECTORY);
+    }
+
+    /**
+     * @return the icon of this hash, or null if the phone never sent it or it is gone
+     */
+    Bitmap get(String hash) {
+        Bitmap bitmap = mBitmaps.get(hash);
+        if (bitmap == null) {
+            File file = new File(mDirectory, hash);
+            bitmap = BitmapFactory.decodeFile(file.getPath());
+            if (bitmap == null) {
+                return null;
+            }
+            // Kept the longest of all the files, see trim().
+            file.setLastModified(System.currentTimeMillis());
+            mBitmaps.put(hash, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Keeps the icon of a message that carries one.
+     *
+     * @return the icon, or null if its bytes don't match its hash or can't be decoded
+     */
+    Bitmap put(byte[] message) {
+        String hash = toHex(message, 0, HASH_BYTES);
+        byte[] png = Arrays.copyOfRange(message, HASH_BYTES, message.length);
+        if (!Arrays.equals(sha1(png), Arrays.copyOf(message, HASH_BYTES))) {
+            Log.d(LOG_TAG, "Icon doesn't match its hash " + hash);
+            return null;
+        }
+        Bitmap bitmap = BitmapFactory.decodeByteArray(png, 0, png.length);
+        if (bitmap == null) {
+            return null;
+        }
+        mBitmaps.put(hash, bitmap);
+        write(hash, png);
+        return bitmap;
+    }
+
+    private void write(String hash, byte[] png) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Error creating " + mDirectory);
+            return;
+        }
+        AtomicFile file = new AtomicFile(new File(mDirectory, hash));
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            out.write(png);
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing " + file.getBaseFile(), e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+        }
+        trim();
+    }
+
+    /**
+     * Deletes the icons used longest ago, past {@link #MAX_FILES} of them.
+     */
+    private void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= MAX_FILES) {
+            return;
+        }
+        long[] used = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            used[i] = files[i].lastModified();
+        }
+        Arrays.sort(used);
+        long oldestKept = used[files.length - MAX_FILES];
+        for (File file : files) {
+            if (file.lastModified() < oldestKept) {
+                mBitmaps.remove(file.getName());
+                file.delete();
+            }
+        }
+    }
+
+    static String toHex(byte[] data, int offset, int length) {
+        StringBuilder builder = new StringBuilder(length * 2);
+        for (int i = offset; i < offset + length; i++) {
+            builder.append(Character.forDigit(data[i] >> 4 & 0xf, 16))
+                    .append(Character.forDigit(data[i] & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    static byte[] fromHex(String hex) {
+        byte[] data = new byte[hex.length() / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return data;
+    }
+
+    private static byte[] sha1(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release has it.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -43,23 +43,19 @@ import android.widget.Toast;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.DataEvent;
-import com.google.android.gms.wearable.DataEventBuffer;
-import com.google.android.gms.wearable.DataItem;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
 
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
@@ -73,10 +69,10 @@ public class MyWatchFace extends CanvasWatchFaceService {
     private static final Typeface BOLD_TYPEFACE =
             Typeface.create(Typeface.SANS_SERIF, Typeface.BOLD);
     private static final String WEATHER_REQUEST = "/weather-request";
-    private static final String WEATHER_INFO = "/weather-info";
-    private static final String WEATHER_HIGH = "w_high";
-    private static final String WEATHER_LOW = "w_low";
-    private static final String WEATHER_ICON = "w_icon";
+    private static final String WEATHER_FORECAST = "/weather-forecast";
+    private static final String WEATHER_ACK = "/weather-ack";
+    private static final String WEATHER_ICON = "/weather-icon";
+    private static final String WEATHER_ICON_ACK = "/weather-icon-ack";
 
     /**
      * Update rate in milliseconds for interactive mode. We update once a second since seconds are
@@ -89,6 +85,20 @@ public class MyWatchFace extends CanvasWatchFaceService {
      */
     private static final int MSG_UPDATE_TIME = 0;
 
+    /**
+     * Handler message id for showing the next day's forecast at local midnight.
+     */
+    private static final int MSG_NEW_DAY = 1;
+
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long MINUTES_PER_DAY = TimeUnit.DAYS.toMinutes(1);
+
+    /**
+     * How old the stored forecast gets before a new engine asks the phone whether it has a newer
+     * one.  Until then the phone sends each new forecast on its own.
+     */
+    private static final long REQUEST_AFTER_MS = TimeUnit.HOURS.toMillis(3);
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
@@ -109,12 +119,15 @@ public class MyWatchFace extends CanvasWatchFaceService {
                     case MSG_UPDATE_TIME:
                         engine.handleUpdateTimeMessage();
                         break;
+                    case MSG_NEW_DAY:
+                        engine.handleNewDayMessage();
+                        break;
                 }
             }
         }
     }
 
-    private class Engine extends CanvasWatchFaceService.Engine implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener, DataApi.DataListener {
+    private class Engine extends CanvasWatchFaceService.Engine implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener, MessageApi.MessageListener {
         final Handler mUpdateTimeHandler = new EngineHandler(this);
         boolean mRegisteredTimeZoneReceiver = false;
         Paint mBackgroundPaint;
@@ -123,10 +136,21 @@ public class MyWatchFace extends CanvasWatchFaceService {
         Paint mHighTempPaint;
         Paint mLowTempPaint;
         Bitmap mWeatherStatus;
+        // Shown for a day the phone has no icon for, or while the icon is on its way.
+        Bitmap mDefaultWeatherStatus;
+        IconCache mIconCache;
+        // The hashes of the forecast's icons this watch doesn't hold, which the phone has to send.
+        final Set<String> mMissingIconHashes = new HashSet<String>();
 
         // Weather data
         String defaultHighTemp = "0°";
         String defaultLowTemp = "0°";
+        // The forecast the phone sent, see WeatherPayload, kept in mForecastStore.  Null until it
+        // sends one.  Each day the face shows that day's entry.
+        WeatherPayload mPayload;
+        ForecastStore mForecastStore;
+        // The day whose entry is shown.  It moves on outside onDraw, see checkDay().
+        int mForecastDay = -1;
 
         boolean mAmbient;
         GoogleApiClient mGoogleApiClient;
@@ -134,7 +158,9 @@ public class MyWatchFace extends CanvasWatchFaceService {
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                updateTimeZone();
+                checkDay();
+                scheduleNewDay();
                 invalidate();
             }
         };
@@ -153,6 +179,43 @@ public class MyWatchFace extends CanvasWatchFaceService {
         String mHourFormat;
         String mMinuteFormat;
         boolean isWeatherDataAvailable;
+
+        // What onDraw draws, and where, worked out again only when the minute, the forecast or
+        // the size of the text changes, so that drawing a frame allocates nothing.  A change of
+        // the layout also draws the layers again.
+        final Rect mTextBounds = new Rect();
+        final Rect mLayoutBounds = new Rect();
+        boolean mLayoutValid;
+        TimeZone mTimeZone;
+        long mMinute = -1;
+        long mDay = -1;
+        int mHour = -1;
+        String mDateText;
+        String mHourText;
+        String mMinuteText;
+        float mLineStartX;
+        float mLineEndX;
+        float mLineY;
+        float mDateX;
+        float mDateY;
+        float mHourX;
+        float mHourY;
+        float mMinuteX;
+        float mIconX;
+        float mIconY;
+        float mHighTempX;
+        float mLowTempX;
+        float mTempY;
+        final FrameStats mFrameStats = new FrameStats();
+
+        // Everything but the time, which changes at most once a day or a sync, drawn into a
+        // bitmap of the surface's size once for each mode, and then under the time every frame.
+        // Each mode's layer is drawn in that mode, with its paints.
+        final Canvas mLayerCanvas = new Canvas();
+        Bitmap mInteractiveLayer;
+        Bitmap mAmbientLayer;
+        boolean mInteractiveLayerValid;
+        boolean mAmbientLayerValid;
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
          * disable anti-aliasing in ambient mode.
@@ -177,7 +240,9 @@ public class MyWatchFace extends CanvasWatchFaceService {
 
             BitmapFactory.Options options = new BitmapFactory.Options();
             options.inSampleSize = 2;
-            mWeatherStatus = BitmapFactory.decodeResource(getResources(), R.drawable.art_clear, options);
+            mDefaultWeatherStatus = BitmapFactory.decodeResource(getResources(), R.drawable.art_clear, options);
+            mWeatherStatus = mDefaultWeatherStatus;
+            mIconCache = new IconCache(getFilesDir());
 
             mHourPaint = createWhiteBoldPaint();
             mMinutePaint = createWhiteNormalPaint();
@@ -188,21 +253,32 @@ public class MyWatchFace extends CanvasWatchFaceService {
 
             mCalendar = Calendar.getInstance();
             dateFormat = new SimpleDateFormat(resources.getString(R.string.date_format));
-            dateFormat.setTimeZone(mCalendar.getTimeZone());
+            updateTimeZone();
             mHourFormat = resources.getString(R.string.hour_format);
             mMinuteFormat = resources.getString(R.string.minute_format);
             isWeatherDataAvailable = false;
+            // What the phone last sent, shown from the first frame.
+            mForecastStore = new ForecastStore(getFilesDir());
+            mPayload = mForecastStore.getPayload();
             mGoogleApiClient = new GoogleApiClient.Builder(getApplicationContext()).addConnectionCallbacks(this).addOnConnectionFailedListener(this).addApi(Wearable.API).build();
+            if (mPayload != null) {
+                loadIcons();
+            }
+            checkDay();
+            scheduleNewDay();
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mUpdateTimeHandler.removeMessages(MSG_NEW_DAY);
+            mFrameStats.setVisible(false);
             if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
                 mGoogleApiClient.disconnect();
             }
             super.onDestroy();
-            isWeatherDataAvailable = false;
+            mInteractiveLayer = null;
+            mAmbientLayer = null;
         }
 
         private Paint createWhiteBoldPaint() {
@@ -239,18 +315,33 @@ public class MyWatchFace extends CanvasWatchFaceService {
                     mGoogleApiClient.connect();
                 }
                 // Update time zone in case it changed while we weren't visible.
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                updateTimeZone();
+                checkDay();
+                scheduleNewDay();
                 invalidate();
             } else {
                 unregisterReceiver();
 //                mGoogleApiClient.disconnect();
             }
+            mFrameStats.setVisible(visible);
 
             // Whether the timer should be running depends on whether we're visible (as well as
             // whether we're in ambient mode), so we may need to start or stop the timer.
             updateTimer();
         }
 
+        /**
+         * Takes the time zone up again, and with it the texts of the time.
+         */
+        private void updateTimeZone() {
+            mTimeZone = TimeZone.getDefault();
+            mCalendar.setTimeZone(mTimeZone);
+            dateFormat.setTimeZone(mTimeZone);
+            mMinute = -1;
+            mDay = -1;
+            mHour = -1;
+        }
+
         private void registerReceiver() {
             if (mRegisteredTimeZoneReceiver) {
                 return;
@@ -289,18 +380,22 @@ public class MyWatchFace extends CanvasWatchFaceService {
             mDatePaint.setTextSize(smallTextSize);
             mHighTempPaint.setTextSize(medium);
             mLowTempPaint.setTextSize(medium);
-
+            mLayoutValid = false;
         }
 
         @Override
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            // Drawn again with or without anti-aliasing.
+            mAmbientLayerValid = false;
         }
 
         @Override
         public void onTimeTick() {
             super.onTimeTick();
+            // In case MSG_NEW_DAY was held up while the watch slept.
+            checkDay();
             invalidate();
         }
 
@@ -349,59 +444,141 @@ public class MyWatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            // Draw the background.
-            if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
-            } else {
-                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
+            mFrameStats.beginFrame();
+            boolean timeChanged = updateTime(System.currentTimeMillis());
+            if (!mLayoutValid || !mLayoutBounds.equals(bounds)) {
+                layout(bounds);
+            } else if (timeChanged) {
+                layoutTime();
             }
 
-            int centerX = bounds.centerX();
-            int centerY = bounds.centerY();
-
-            // Draw line
-            int halfLineWidth = bounds.width() / 8;
-            canvas.drawLine((centerX - halfLineWidth), centerY, (centerX + halfLineWidth), centerY, mLinePaint);
-
-            // Draw Date
-            String todayDate = dateFormat.format(mCalendar.getTime());
-            Rect rect = new Rect();
-            mDatePaint.getTextBounds(todayDate, 0, todayDate.length(), rect);
-            int dateYPos = centerY - rect.height() - 2;
-            canvas.drawText(todayDate, centerX - (rect.width() / 2), dateYPos, mDatePaint);
+            canvas.drawBitmap(layer(bounds), 0, 0, null);
 
             // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
-            long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
+            canvas.drawText(mHourText, mHourX, mHourY, mHourPaint);
+            canvas.drawText(mMinuteText, mMinuteX, mHourY, mMinutePaint);
+            mFrameStats.endFrame();
+        }
 
-            rect.setEmpty();
+        /**
+         * @return the layer of the mode the face is in, drawn again first if it isn't valid
+         */
+        private Bitmap layer(Rect bounds) {
+            boolean ambient = isInAmbientMode();
+            Bitmap layer = ambient ? mAmbientLayer : mInteractiveLayer;
+            boolean valid = ambient ? mAmbientLayerValid : mInteractiveLayerValid;
+            if (layer == null || layer.getWidth() != bounds.width()
+                    || layer.getHeight() != bounds.height()) {
+                layer = Bitmap.createBitmap(bounds.width(), bounds.height(),
+                        Bitmap.Config.ARGB_8888);
+                valid = false;
+            }
+            if (!valid) {
+                mLayerCanvas.setBitmap(layer);
+                drawLayer(mLayerCanvas, bounds, ambient);
+                mLayerCanvas.setBitmap(null);
+                mFrameStats.onLayerDrawn();
+            }
+            if (ambient) {
+                mAmbientLayer = layer;
+                mAmbientLayerValid = true;
+            } else {
+                mInteractiveLayer = layer;
+                mInteractiveLayerValid = true;
+            }
+            return layer;
+        }
 
-            // Draw hour
-            String hourString = String.format(mHourFormat, mCalendar.get(Calendar.HOUR));
-            mHourPaint.getTextBounds(hourString, 0, hourString.length(), rect);
-            int hourYPos = dateYPos - rect.height() + 14;
-            canvas.drawText(hourString, centerX - rect.width(), hourYPos, mHourPaint);
+        private void drawLayer(Canvas canvas, Rect bounds, boolean ambient) {
+            // Draw the background.
+            if (ambient) {
+                canvas.drawColor(Color.BLACK);
+            } else {
+                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
+            }
 
-            // Draw minutes
-            canvas.drawText(String.format(mMinuteFormat, mCalendar.get(Calendar.MINUTE)), centerX + 2, hourYPos, mMinutePaint);
+            canvas.drawLine(mLineStartX, mLineY, mLineEndX, mLineY, mLinePaint);
+            canvas.drawText(mDateText, mDateX, mDateY, mDatePaint);
 
             if (isWeatherDataAvailable) {
-                // draw bitmap
-                int imageXPos = centerX / 2 - mWeatherStatus.getWidth() / 2;
-                int imageYPos = centerY + 10;
-                canvas.drawBitmap(mWeatherStatus, imageXPos, imageYPos, null);
+                canvas.drawBitmap(mWeatherStatus, mIconX, mIconY, null);
+                canvas.drawText(defaultHighTemp, mHighTempX, mTempY, mHighTempPaint);
+                canvas.drawText(defaultLowTemp, mLowTempX, mTempY, mLowTempPaint);
+            }
+        }
 
-                int tempYPos = imageYPos + (mWeatherStatus.getHeight() / 2) + 8;
-                int tempXPos = centerX + 10;
-                // draw high temp
-                canvas.drawText(defaultHighTemp, tempXPos, tempYPos, mHighTempPaint);
+        /**
+         * Formats the date, hour and minute again if the minute changed since they last were,
+         * each only if it changed.  A new date needs the layout and the layers again; its
+         * forecast was shown already, see checkDay().
+         *
+         * @return whether any of them did
+         */
+        private boolean updateTime(long now) {
+            long minute = (now + mTimeZone.getOffset(now)) / MINUTE_MILLIS;
+            if (minute == mMinute) {
+                return false;
+            }
+            mMinute = minute;
+            mCalendar.setTimeInMillis(now);
+            if (minute / MINUTES_PER_DAY != mDay) {
+                mDay = minute / MINUTES_PER_DAY;
+                mDateText = dateFormat.format(mCalendar.getTime());
+                mLayoutValid = false;
+            }
+            int hour = mCalendar.get(Calendar.HOUR);
+            if (hour != mHour) {
+                mHour = hour;
+                mHourText = String.format(mHourFormat, hour);
+            }
+            mMinuteText = String.format(mMinuteFormat, mCalendar.get(Calendar.MINUTE));
+            return true;
+        }
 
-                // draw low temp
-                rect.setEmpty();
-                mHighTempPaint.getTextBounds(defaultHighTemp, 0, defaultHighTemp.length(), rect);
+        /**
+         * Works out where everything onDraw draws goes, for the texts it draws now, and has the
+         * layers drawn again to match.
+         */
+        private void layout(Rect bounds) {
+            mLayoutBounds.set(bounds);
+            mLayoutValid = true;
+            mInteractiveLayerValid = false;
+            mAmbientLayerValid = false;
+            int centerX = bounds.centerX();
+            int centerY = bounds.centerY();
 
-                canvas.drawText(defaultLowTemp, tempXPos + rect.width() + 1, tempYPos, mLowTempPaint);
-            }
+            int halfLineWidth = bounds.width() / 8;
+            mLineStartX = centerX - halfLineWidth;
+            mLineEndX = centerX + halfLineWidth;
+            mLineY = centerY;
+
+            mDatePaint.getTextBounds(mDateText, 0, mDateText.length(), mTextBounds);
+            mDateX = centerX - (mTextBounds.width() / 2);
+            mDateY = centerY - mTextBounds.height() - 2;
+
+            layoutTime();
+
+            int imageXPos = centerX / 2 - mWeatherStatus.getWidth() / 2;
+            int imageYPos = centerY + 10;
+            mIconX = imageXPos;
+            mIconY = imageYPos;
+            mTempY = imageYPos + (mWeatherStatus.getHeight() / 2) + 8;
+            mHighTempX = centerX + 10;
+            mHighTempPaint.getTextBounds(defaultHighTemp, 0, defaultHighTemp.length(),
+                    mTextBounds);
+            mLowTempX = mHighTempX + mTextBounds.width() + 1;
+        }
+
+        /**
+         * Works out where the hour and minute go, above the date, as only they change within a
+         * day.
+         */
+        private void layoutTime() {
+            int centerX = mLayoutBounds.centerX();
+            mHourPaint.getTextBounds(mHourText, 0, mHourText.length(), mTextBounds);
+            mHourX = centerX - mTextBounds.width();
+            mHourY = mDateY - mTextBounds.height() + 14;
+            mMinuteX = centerX + 2;
         }
 
         /**
@@ -426,6 +603,35 @@ public class MyWatchFace extends CanvasWatchFaceService {
         /**
          * Handle updating the time periodically in interactive mode.
          */
+        private void handleNewDayMessage() {
+            checkDay();
+            invalidate();
+            scheduleNewDay();
+        }
+
+        /**
+         * Posts {@link #MSG_NEW_DAY} for the next local midnight.
+         */
+        private void scheduleNewDay() {
+            mUpdateTimeHandler.removeMessages(MSG_NEW_DAY);
+            long now = System.currentTimeMillis();
+            long dayMs = TimeUnit.DAYS.toMillis(1);
+            long delayMs = dayMs - (now + mTimeZone.getOffset(now)) % dayMs;
+            mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_NEW_DAY, delayMs);
+        }
+
+        /**
+         * Shows the entry of the day it is now, if the shown one is of another.  Called from the
+         * handler, the time tick and the time zone receiver, so that onDraw only ever draws what
+         * is decoded already.
+         */
+        private void checkDay() {
+            int today = WeatherPayload.localDay(System.currentTimeMillis());
+            if (today != mForecastDay) {
+                updateForecast(today);
+            }
+        }
+
         private void handleUpdateTimeMessage() {
             invalidate();
             if (shouldTimerBeRunning()) {
@@ -439,8 +645,19 @@ public class MyWatchFace extends CanvasWatchFaceService {
         @Override
         public void onConnected(@Nullable Bundle bundle) {
             Log.d("MyWatchFace", "OnConnectedCall");
-            Wearable.DataApi.addListener(mGoogleApiClient, this);
-            getDataFromMobileApp();
+            Wearable.MessageApi.addListener(mGoogleApiClient, this);
+            long now = System.currentTimeMillis();
+            long age = now - mForecastStore.getReceivedMillis();
+            // The stored forecast is shown already.  The phone only needs asking if it runs
+            // out, or it has been long enough that a sync may have been missed while no engine
+            // was listening.
+            if (mPayload == null || mPayload.dayIndex(WeatherPayload.localDay(now)) == -1
+                    || age < 0 || age >= REQUEST_AFTER_MS) {
+                getDataFromMobileApp();
+            }
+            for (String hash : mMissingIconHashes) {
+                requestIcon(hash);
+            }
         }
 
         @Override
@@ -453,19 +670,6 @@ public class MyWatchFace extends CanvasWatchFaceService {
             Log.d("MyWatchFace", "onConnectionFailed" + connectionResult);
         }
 
-        @Override
-        public void onDataChanged(DataEventBuffer dataEventBuffer) {
-            Log.d("MyWatchFace", "onDataChanged");
-            for (DataEvent event : dataEventBuffer) {
-                if (event.getType() == DataEvent.TYPE_CHANGED) {
-                    // DataItem changed
-                    processDataItem(event.getDataItem());
-                } else if (event.getType() == DataEvent.TYPE_DELETED) {
-                    // DataItem deleted
-                }
-            }
-        }
-
         private String getLocalNodeId() {
             NodeApi.GetLocalNodeResult nodeResult = Wearable.NodeApi.getLocalNode(mGoogleApiClient).await();
             return nodeResult.getNode().getId();
@@ -479,10 +683,12 @@ public class MyWatchFace extends CanvasWatchFaceService {
                             final List<Node> nodes = getConnectedNodesResult.getNodes();
 
                             for (Node node : nodes) {
+                                // Along with the forecast this watch holds, which the phone
+                                // sends only the changes to.
                                 Wearable.MessageApi.sendMessage(mGoogleApiClient
                                         , node.getId()
                                         , WEATHER_REQUEST
-                                        , new byte[0]).setResultCallback(
+                                        , payloadId()).setResultCallback(
                                         new ResultCallback<MessageApi.SendMessageResult>() {
                                             @Override
                                             public void onResult(MessageApi.SendMessageResult sendMessageResult) {
@@ -499,32 +705,129 @@ public class MyWatchFace extends CanvasWatchFaceService {
                     });
         }
 
-        private void processDataItem(DataItem dataItem) {
-            DataMap dataMap = DataMapItem.fromDataItem(dataItem).getDataMap();
-            String path = dataItem.getUri().getPath();
-            Log.d("MyWatchFace", "path is ::" + path);
-            if (path.equals(WEATHER_INFO)) {
-                isWeatherDataAvailable = true;
-                String highTemp = dataMap.getString(WEATHER_HIGH);
-                String lowTemp = dataMap.getString(WEATHER_LOW);
-                Asset asset = dataMap.getAsset(WEATHER_ICON);
-                loadBitmapFromAsset(asset);
-                defaultHighTemp = highTemp;
-                defaultLowTemp = lowTemp;
-                invalidate();
+        @Override
+        public void onMessageReceived(MessageEvent messageEvent) {
+            if (messageEvent.getPath().equals(WEATHER_ICON)) {
+                onIconReceived(messageEvent);
+                return;
+            }
+            if (!messageEvent.getPath().equals(WEATHER_FORECAST)) {
+                return;
+            }
+            byte[] message = messageEvent.getData();
+            if (!WeatherPayload.isSupported(message)) {
+                // From a phone app of another version, acknowledging it would only get it sent
+                // again.
+                Log.d("MyWatchFace", "Forecast in an unknown format");
+                return;
+            }
+            WeatherPayload payload = WeatherPayload.apply(message, mPayload);
+            if (payload != null) {
+                mPayload = payload;
+                mForecastStore.save(payload, System.currentTimeMillis());
+                loadIcons();
+                showForecast();
+            }
+            // The phone sends it all again if this isn't the payload it sent.
+            Wearable.MessageApi.sendMessage(mGoogleApiClient, messageEvent.getSourceNodeId(),
+                    WEATHER_ACK, payloadId());
+        }
+
+        /**
+         * Keeps an icon the phone sent, and tells the phone whether it is held.  It shows if it is
+         * the day's.
+         */
+        private void onIconReceived(MessageEvent messageEvent) {
+            byte[] message = messageEvent.getData();
+            if (message == null || message.length <= IconCache.HASH_BYTES) {
+                return;
             }
+            Bitmap icon = mIconCache.put(message);
+            if (icon != null && mMissingIconHashes.remove(
+                    IconCache.toHex(message, 0, IconCache.HASH_BYTES))) {
+                showForecast();
+            }
+            byte[] ack = ByteBuffer.allocate(IconCache.HASH_BYTES + 1)
+                    .put(message, 0, IconCache.HASH_BYTES).put((byte) (icon != null ? 1 : 0))
+                    .array();
+            Wearable.MessageApi.sendMessage(mGoogleApiClient, messageEvent.getSourceNodeId(),
+                    WEATHER_ICON_ACK, ack);
+        }
+
+        /**
+         * Tells the phone this watch doesn't hold an icon the forecast names, so that it sends
+         * it.
+         */
+        private void requestIcon(final String hash) {
+            if (mGoogleApiClient == null || !mGoogleApiClient.isConnected()) {
+                // Asked for when it connects.
+                return;
+            }
+            final byte[] ack = ByteBuffer.allocate(IconCache.HASH_BYTES + 1)
+                    .put(IconCache.fromHex(hash)).put((byte) 0).array();
+            Wearable.NodeApi.getConnectedNodes(mGoogleApiClient)
+                    .setResultCallback(new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+                        @Override
+                        public void onResult(NodeApi.GetConnectedNodesResult result) {
+                            for (Node node : result.getNodes()) {
+                                Wearable.MessageApi.sendMessage(mGoogleApiClient, node.getId(),
+                                        WEATHER_ICON_ACK, ack);
+                            }
+                        }
+                    });
         }
 
-        public void loadBitmapFromAsset(final Asset asset) {
-            Wearable.DataApi.getFdForAsset(mGoogleApiClient, asset).setResultCallback(new ResultCallback<DataApi.GetFdForAssetResult>() {
-                @Override
-                public void onResult(@NonNull DataApi.GetFdForAssetResult getFdForAssetResult) {
-                    InputStream assetInputStream = getFdForAssetResult.getInputStream();
-                    // decode the stream into a bitmap
-                    mWeatherStatus = BitmapFactory.decodeStream(assetInputStream);
-                    invalidate();
+        /**
+         * @return the id of the forecast held, as a message carries it
+         */
+        private byte[] payloadId() {
+            return ByteBuffer.allocate(4).putInt(mPayload == null ? 0 : mPayload.id).array();
+        }
+
+        /**
+         * Decodes every icon the forecast names into the cache, so that showing any of its days
+         * is a lookup, and asks the phone for those this watch doesn't hold.
+         */
+        private void loadIcons() {
+            mMissingIconHashes.clear();
+            for (int index = 0; index < mPayload.weatherIds.length; index++) {
+                String hash = mPayload.iconHash(index);
+                if (hash != null && mIconCache.get(hash) == null
+                        && mMissingIconHashes.add(hash)) {
+                    requestIcon(hash);
                 }
-            });
+            }
+        }
+
+        /**
+         * Shows today's entry of the forecast.
+         */
+        private void showForecast() {
+            updateForecast(WeatherPayload.localDay(System.currentTimeMillis()));
+            invalidate();
+        }
+
+        /**
+         * Formats a day's high and low from the forecast, in the units it asks for, and finds
+         * its icon.  Nothing is shown for a day the forecast doesn't have.
+         */
+        private void updateForecast(int day) {
+            mForecastDay = day;
+            mLayoutValid = false;
+            int index = mPayload == null ? -1 : mPayload.dayIndex(day);
+            if (index == -1) {
+                isWeatherDataAvailable = false;
+                return;
+            }
+            String format = getString(R.string.format_temperature);
+            defaultHighTemp = String.format(format, mPayload.toDisplayUnits(mPayload.highs[index]));
+            defaultLowTemp = String.format(format, mPayload.toDisplayUnits(mPayload.lows[index]));
+            String hash = mPayload.iconHash(index);
+            // Decoded by loadIcons() already, unless the phone has yet to send it.
+            Bitmap icon = hash == null || mMissingIconHashes.contains(hash)
+                    ? null : mIconCache.get(hash);
+            mWeatherStatus = icon != null ? icon : mDefaultWeatherStatus;
+            isWeatherDataAvailable = true;
         }
     }
 }
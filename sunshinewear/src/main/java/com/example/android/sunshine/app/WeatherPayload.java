@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+
+/**
+ * The forecast the phone sends, in the phone's WearPayload format: for each day from the first
+ * one, its weather id, its high and low in tenths of a degree Celsius and the IconCache hash of
+ * its icon, and whether to show them in Celsius.  Messages either carry a whole payload, or only
+ * the days that changed since the one this watch last acknowledged.  Both sides work a payload's
+ * id out as the CRC32 of its body, so a delta that was applied to the wrong payload shows.
+ */
+final class WeatherPayload {
+
+    static final byte VERSION = 2;
+
+    private static final byte KIND_FULL = 0;
+    private static final byte KIND_DELTA = 1;
+
+    private static final int FLAG_METRIC = 1;
+
+    private static final int MAX_DAYS = 14;
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final int HEADER_BYTES = 2 + 4;
+    private static final int DAY_BYTES = 2 + 2 + 2 + IconCache.HASH_BYTES;
+
+    final int id;
+    final int flags;
+    final int firstDay;
+    final short[] weatherIds;
+    final short[] highs;
+    final short[] lows;
+    // The icon hashes of the days, one after the other.
+    final byte[] iconHashes;
+
+    private WeatherPayload(int id, int flags, int firstDay, short[] weatherIds, short[] highs,
+                           short[] lows, byte[] iconHashes) {
+        this.id = id;
+        this.flags = flags;
+        this.firstDay = firstDay;
+        this.weatherIds = weatherIds;
+        this.highs = highs;
+        this.lows = lows;
+        this.iconHashes = iconHashes;
+    }
+
+    /**
+     * @return whether the message is in a format this watch reads
+     */
+    static boolean isSupported(byte[] message) {
+        return message != null && message.length > 0 && message[0] == VERSION;
+    }
+
+    /**
+     * @return the payload a message makes of the one held, or null if it is a delta for another
+     * payload or can't be read
+     */
+    static WeatherPayload apply(byte[] message, WeatherPayload current) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(message);
+            if (buffer.get() != VERSION) {
+                return null;
+            }
+            byte kind = buffer.get();
+            if (kind != KIND_FULL && kind != KIND_DELTA) {
+                return null;
+            }
+            int id = buffer.getInt();
+            int baseId = kind == KIND_DELTA ? buffer.getInt() : 0;
+            if (kind == KIND_DELTA && (current == null || current.id != baseId)) {
+                return null;
+            }
+            int flags = buffer.get();
+            int firstDay = buffer.getInt();
+            int count = buffer.get();
+            if (count < 0 || count > MAX_DAYS) {
+                return null;
+            }
+            int changed = kind == KIND_DELTA ? buffer.getInt() : -1;
+            short[] weatherIds = new short[count];
+            short[] highs = new short[count];
+            short[] lows = new short[count];
+            byte[] iconHashes = new byte[count * IconCache.HASH_BYTES];
+            for (int day = 0; day < count; day++) {
+                if ((changed & 1 << day) != 0) {
+                    weatherIds[day] = buffer.getShort();
+                    highs[day] = buffer.getShort();
+                    lows[day] = buffer.getShort();
+                    buffer.get(iconHashes, day * IconCache.HASH_BYTES, IconCache.HASH_BYTES);
+                } else {
+                    int baseDay = current.dayIndex(firstDay + day);
+                    if (baseDay == -1) {
+                        return null;
+                    }
+                    weatherIds[day] = current.weatherIds[baseDay];
+                    highs[day] = current.highs[baseDay];
+                    lows[day] = current.lows[baseDay];
+                    System.arraycopy(current.iconHashes, baseDay * IconCache.HASH_BYTES,
+                            iconHashes, day * IconCache.HASH_BYTES, IconCache.HASH_BYTES);
+                }
+            }
+            WeatherPayload payload = new WeatherPayload(id, flags, firstDay, weatherIds, highs,
+                    lows, iconHashes);
+            return payload.checksum() == id ? payload : null;
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the message that hands the whole payload over, as the phone would send it
+     */
+    byte[] encode() {
+        byte[] body = body();
+        return ByteBuffer.allocate(HEADER_BYTES + body.length)
+                .put(VERSION).put(KIND_FULL).putInt(id).put(body).array();
+    }
+
+    private byte[] body() {
+        ByteBuffer body = ByteBuffer.allocate(1 + 4 + 1 + weatherIds.length * DAY_BYTES);
+        body.put((byte) flags).putInt(firstDay).put((byte) weatherIds.length);
+        for (int day = 0; day < weatherIds.length; day++) {
+            body.putShort(weatherIds[day]).putShort(highs[day]).putShort(lows[day])
+                    .put(iconHashes, day * IconCache.HASH_BYTES, IconCache.HASH_BYTES);
+        }
+        return body.array();
+    }
+
+    /**
+     * @return the CRC32 of the body, as the phone works it out
+     */
+    private int checksum() {
+        CRC32 crc = new CRC32();
+        crc.update(body());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return the day a time falls on, counted from 1970-01-01 in this watch's time zone, as the
+     * payload counts its days
+     */
+    static int localDay(long millis) {
+        return (int) ((millis + TimeZone.getDefault().getOffset(millis)) / DAY_MILLIS);
+    }
+
+    /**
+     * @return the index of the given day, or -1 if the payload doesn't have it
+     */
+    int dayIndex(int day) {
+        int index = day - firstDay;
+        return index >= 0 && index < weatherIds.length ? index : -1;
+    }
+
+    /**
+     * @return the hash of a day's icon, or null if the phone has none for it
+     */
+    String iconHash(int index) {
+        int offset = index * IconCache.HASH_BYTES;
+        for (int i = offset; i < offset + IconCache.HASH_BYTES; i++) {
+            if (iconHashes[i] != 0) {
+                return IconCache.toHex(iconHashes, offset, IconCache.HASH_BYTES);
+            }
+        }
+        return null;
+    }
+
+    boolean isMetric() {
+        return (flags & FLAG_METRIC) != 0;
+    }
+
+    /**
+     * @return a temperature of the payload in the units it asks for
+     */
+    double toDisplayUnits(short tenths) {
+        double celsius = tenths / 10.0;
+        return isMetric() ? celsius : celsius * 1.8 + 32;
+    }
+}